@@ -6,25 +6,82 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 
 import com.noveogroup.android.log.Logger;
 import com.noveogroup.android.log.LoggerManager;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.Set;
 
-public class BleService extends Service {
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.connection.LivenessWatchdog;
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.metrics.Battery;
+import de.silberkoepfe.forumsladercompanion.metrics.DerivedMetrics;
+import de.silberkoepfe.forumsladercompanion.metrics.Wheel;
+import de.silberkoepfe.forumsladercompanion.monitor.Counter;
+import de.silberkoepfe.forumsladercompanion.monitor.Gauge;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.scan.AdaptiveScanPolicy;
+import de.silberkoepfe.forumsladercompanion.scan.FastReconnect;
+import de.silberkoepfe.forumsladercompanion.scan.ScanMode;
+import de.silberkoepfe.forumsladercompanion.scan.ScanPlan;
+import de.silberkoepfe.forumsladercompanion.scan.ScanScheduler;
+import de.silberkoepfe.forumsladercompanion.session.DeviceSession;
+import de.silberkoepfe.forumsladercompanion.session.SessionManager;
+import de.silberkoepfe.forumsladercompanion.sim.Recording;
+import de.silberkoepfe.forumsladercompanion.sim.RecordingWriter;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.status.StatusPublisher;
+import de.silberkoepfe.forumsladercompanion.storage.Durability;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+import de.silberkoepfe.forumsladercompanion.storage.LiveTelemetry;
+import de.silberkoepfe.forumsladercompanion.storage.TimeSeriesStore;
+import de.silberkoepfe.forumsladercompanion.storage.WriteBehindJournal;
+import de.silberkoepfe.forumsladercompanion.trace.EventLog;
+
+public class BleService extends Service implements FLDevice.Listener {
     private static final Logger logger = LoggerManager.getLogger(BleService.class);
 
-    private ServiceHandler serviceHandler;
+    private Handler serviceHandler;
+    private FLScanner scanner;
+    private ConnectionStateMachine stateMachine;
+    private ScanScheduler scanScheduler;
+    private FastReconnect fastReconnect;
+    private LivenessWatchdog watchdog;
+    private WriteBehindJournal journal;
+    private Thread historyLoader;
+    // binary trace of the GATT callbacks, logging only if enabled in the settings
+    private EventLog events;
     private FLDevice device;
-    private Status status = Status.STOPPED;
     private BroadcastReceiver broadcastReceiver;
+    // notifications of the real device, written by the decode pipeline as they come in
+    private volatile RecordingWriter recorder;
 
     enum Status {
         STARTED(R.string.status_started),
@@ -43,98 +100,253 @@ public class BleService extends Service {
         Status(int resId) {
             this.resId = resId;
         }
+
+        static Status of(ConnectionState state) {
+            switch (state) {
+                case STOPPED:
+                    return STOPPED;
+                case BLUETOOTH_REQUESTED:
+                    return BLUETOOTH_REQUESTED;
+                case WAITING_FOR_BLUETOOTH:
+                    return WAITING_FOR_BLUETOOTH;
+                case SCANNING:
+                    return SCANNING;
+                case CONNECTING:
+                    return CONNECTING;
+                case DISCOVERING_SERVICES:
+                    return DISCOVERING_SERVICE;
+                case SUBSCRIBING:
+                    return DISCOVERING_CHARACTERISTIC;
+                case CONNECTED:
+                    return CONNECTED;
+                case RECEIVING:
+                    return RECEIVING;
+                default:
+                    return STARTED;
+            }
+        }
+    }
+
+    static final String SCAN_ENERGY_BUDGET = "scan_energy_budget";
+    static final String LAST_DEVICE_ADDRESS = "last_device_address";
+    static final String JOURNAL_DIRECTORY = "journal";
+    static final String JOURNAL_DURABILITY = "journal_durability";
+    static final String DYNAMO_POLE_PAIRS = "dynamo_pole_pairs";
+    static final String WHEEL_CIRCUMFERENCE = "wheel_circumference";
+    static final String SIMULATE_DEVICE = "simulate_device";
+    static final String RECORD_NOTIFICATIONS = "record_notifications";
+    static final String EXTRA_DEVICES = "extra_devices";
+    static final String COLLECT_METRICS = "collect_metrics";
+    static final String TRACE_EVENTS = "trace_events";
+    static final String EVENTS_DIRECTORY = "events";
+    static final String STATUS_METRIC = "service.status";
+    static final String RECONNECT_METRIC = "connect.reconnects";
+    static final String SESSION_STATE_METRIC = "session.%s.state";
+    // one journal directory per further device
+    static final String SESSIONS_DIRECTORY = "sessions";
+    // in the files directory
+    static final String SIMULATION_FILE = "simulation.hex";
+    static final String RECORDING_FILE = "recording.hex";
+    // a bit over a day of riding
+    static final long MAX_RECORDING_SIZE = 32 * 1024 * 1024;
+    // a device in range connects within a few advertising intervals
+    static final long CACHED_CONNECT_TIMEOUT = 2000;
+
+    // minimum time between two status updates of the UI
+    static final long STATUS_FRAME_BUDGET = 200;
+
+    // listeners are notified on the main thread
+    private static final StatusPublisher<Status> statusPublisher = new StatusPublisher<>(
+            SystemClock::elapsedRealtime,
+            new HandlerScheduler(new Handler(Looper.getMainLooper())),
+            STATUS_FRAME_BUDGET,
+            Status.STOPPED);
+
+    static StatusPublisher<Status> getStatusPublisher() {
+        return statusPublisher;
+    }
+
+    // outlives the service, charts read it while it is not running
+    private static final TimeSeriesStore history = new TimeSeriesStore();
+    // the journal of earlier runs was merged into the history
+    private static volatile boolean historyLoaded;
+
+    static TimeSeriesStore getHistory() {
+        return history;
+    }
+
+    // the last minutes, read by the live view without locking
+    private static final LiveTelemetry live = new LiveTelemetry();
+
+    static LiveTelemetry getLive() {
+        return live;
     }
-    enum ServiceHandlerCommand { UNKNOWN, START, STOP, RETRY, WAIT_FOR_BLUETOOTH, RETRY_AFTER_BLUETOOTH_REBIRTH, WATCH };
 
-    static final String STATUS_CHANGED_ACTION = "status-changed";
+    // energy, speed and battery figures of the current trip, one trip per service start
+    private static volatile DerivedMetrics metrics = new DerivedMetrics();
 
-    void setStatus(Status status) {
-        this.status = status;
-        logger.d("setState status=%s", status);
-        Intent intent = new Intent(STATUS_CHANGED_ACTION);
-        intent.putExtra("status", status.resId);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    static DerivedMetrics getMetrics() {
+        return metrics;
+    }
+
+    // further Forumsladers recorded alongside, each by its address; null while the service is not running
+    private static volatile SessionManager sessions;
+    private Set<String> extraDevices;
+
+    static SessionManager getSessions() {
+        return sessions;
+    }
+
+    // counters and latencies of scans and connections, off unless enabled in the settings
+    private static final MetricsRegistry registry = new MetricsRegistry(SystemClock::elapsedRealtime);
+    private static final Gauge statusGauge = registry.gauge(STATUS_METRIC);
+    private static final Counter reconnects = registry.counter(RECONNECT_METRIC);
+
+    static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    // data was received since the last connect, the next connect is a reconnect
+    private boolean received;
+
+    private void setStatus(Status status) {
+        if (statusPublisher.publish(status)) {
+            logger.d("setState status=%s", status);
+            statusGauge.set(status.ordinal());
+            if (status == Status.RECEIVING) {
+                received = true;
+            } else if (status == Status.CONNECTING && received) {
+                received = false;
+                reconnects.increment();
+            }
+        }
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        watchdog.onSentence();
+        live.onDataRecord(record);
+        metrics.onDataRecord(record);
+        history.onDataRecord(record);
+        if (journal != null) {
+            journal.onDataRecord(record);
+        }
+        if (logger.isEnabled(Logger.Level.VERBOSE)) {
+            logger.v("onDataRecord %s", record);
+        }
     }
 
-    private boolean isStatusIn(Status... statusList) {
-        for (Status check:
-             statusList) {
-            if (status == check)
-                return true;
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        watchdog.onSentence();
+        live.onBaroRecord(record);
+        history.onBaroRecord(record);
+        if (journal != null) {
+            journal.onBaroRecord(record);
         }
-        return false;
+        if (logger.isEnabled(Logger.Level.VERBOSE)) {
+            logger.v("onBaroRecord %s", record);
+        }
+    }
+
+    void postEvent(ConnectionEvent event) {
+        stateMachine.post(event);
     }
 
-    class ServiceHandler extends Handler {
-        public static final int RETRY_DELAY = 5000;
-        final FLScanner scanner = FLScannerFactory.getScanner(BleService.this);
-        private boolean retrySceduled;
+    @Override
+    public void onConnectionEvent(ConnectionEvent event) {
+        postEvent(event);
+    }
 
-        ServiceHandler(Looper looper) {
-            super(looper);
+    // called on the service thread
+    private final FLScanner.Callback scanCallback = new FLScanner.Callback() {
+        @Override
+        public void onDeviceFound(FLDevice foundDevice) {
+            // stopped or handed another one meanwhile, nothing would ever disconnect it
+            if (stateMachine.getState() != ConnectionState.SCANNING || device != null) {
+                logger.w("onDeviceFound %s not waited for in %s", foundDevice.getAddress(), stateMachine.getState());
+                foundDevice.disconnect();
+                return;
+            }
+            device = foundDevice;
+            postEvent(ConnectionEvent.SCAN_RESULT);
         }
 
-        public void sendCommand(ServiceHandlerCommand command) {
-            final Message msg = serviceHandler.obtainMessage(command.ordinal());
-            sendMessage(msg);
+        @Override
+        public void onScanTimeout() {
+            postEvent(ConnectionEvent.SCAN_TIMEOUT);
         }
 
-        public void sendCommandDelayed(ServiceHandlerCommand command, int millis) {
-            final Message msg = serviceHandler.obtainMessage(command.ordinal());
-            sendMessageDelayed(msg, millis);
+        @Override
+        public void onScanFailed(int errorCode) {
+            logger.w("onScanFailed errorCode=%d", errorCode);
+            postEvent(ConnectionEvent.SCAN_FAILED);
         }
+    };
 
+    private final ConnectionStateMachine.Actions connectionActions = new ConnectionStateMachine.Actions() {
         @Override
-        public void handleMessage(Message msg) {
-            logger.d("handleMessage msg=%s means %s", msg, ServiceHandlerCommand.values()[msg.what]);
+        public boolean isBluetoothReady() {
+            return scanner.isAvailable();
+        }
 
-            switch (ServiceHandlerCommand.values()[msg.what]) {
-                case START:
-                    if (retrySceduled)
-                        break;
-                    else
-                        System.out.print(true);
-                case RETRY:
-                    if (!isStatusIn(Status.WAITING_FOR_BLUETOOTH)) {
-                        try {
-                            device = scanner.findDevice();
-                            setStatus(Status.STARTED);
-                        } catch (FLScannerException e) {
-                            setStatus(Status.BLUETOOTH_REQUESTED);
-                        }
-
-                        if (device == null) {
-                            logger.v("no device found");
-                            // retry in a few seconds
-                            serviceHandler.sendCommandDelayed(ServiceHandlerCommand.RETRY, RETRY_DELAY);
-                            retrySceduled = true;
-                        } else {
-                            serviceHandler.sendCommandDelayed(ServiceHandlerCommand.WATCH, 5000);
-                            retrySceduled = false;
-                        }
-                    }
-                    break;
-                case WAIT_FOR_BLUETOOTH:
-                    setStatus(Status.WAITING_FOR_BLUETOOTH);
-                    break;
-                case RETRY_AFTER_BLUETOOTH_REBIRTH:
-                    setStatus(Status.STARTED);
-                    serviceHandler.sendCommandDelayed(ServiceHandlerCommand.RETRY, RETRY_DELAY);
-                    break;
-                case WATCH:
-                    if (device == null || device.isDead()) {
-                        serviceHandler.sendCommandDelayed(ServiceHandlerCommand.RETRY, RETRY_DELAY);
-                    }
-                    break;
-                case STOP:
-                    deviceDisconnect();
-                    setStatus(Status.STOPPING);
-                    stopSelf();
-                    break;
-                default:
-                    throw new IllegalArgumentException("unknown message argument");
+        @Override
+        public void startScan() {
+            try {
+                if (fastReconnect.nextPath() == FastReconnect.Path.CACHED) {
+                    stateMachine.setTimeout(ConnectionState.CONNECTING, CACHED_CONNECT_TIMEOUT);
+                    scanner.connectDevice(fastReconnect.getAddress(), scanCallback);
+                } else {
+                    stateMachine.setTimeout(ConnectionState.CONNECTING, ConnectionStateMachine.DEFAULT_CONNECT_TIMEOUT);
+                    final ScanPlan plan = scanScheduler.nextScan();
+                    scanner.findDevice(plan.getMode(), plan.getWindow(), scanCallback);
+                }
+            } catch (FLScannerException e) {
+                postEvent(ConnectionEvent.BLUETOOTH_UNAVAILABLE);
             }
         }
+
+        @Override
+        public void stopScan() {
+            scanner.cancel();
+        }
+
+        @Override
+        public void disconnect() {
+            deviceDisconnect();
+        }
+    };
+
+    private void onStateChanged(ConnectionState from, ConnectionEvent event, ConnectionState to) {
+        logger.d("onStateChanged %s --%s--> %s", from, event, to);
+        scanScheduler.onStateChanged(from, event, to);
+        fastReconnect.onStateChanged(from, event, to);
+        if (to == ConnectionState.RECEIVING && from != to) {
+            rememberDevice();
+            watchdog.start();
+        } else if (from == ConnectionState.RECEIVING && to != from) {
+            watchdog.stop();
+        }
+        if (event == ConnectionEvent.STOP) {
+            setStatus(Status.STOPPING);
+            stopSelf();
+        } else {
+            setStatus(Status.of(to));
+        }
+    }
+
+    private void rememberDevice() {
+        final String address = device.getAddress();
+        if (!address.equals(fastReconnect.getAddress())) {
+            fastReconnect.remember(address);
+            scanner.setKnownDevices(Collections.singleton(address));
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putString(LAST_DEVICE_ADDRESS, address)
+                    .apply();
+        }
+        logger.d("time to data cached: %s, scan: %s",
+                fastReconnect.getTimeToData(FastReconnect.Path.CACHED),
+                fastReconnect.getTimeToData(FastReconnect.Path.SCAN));
     }
 
     class BTSystemBroadcastReceiver extends BroadcastReceiver {
@@ -151,11 +363,13 @@ public class BleService extends Service {
                         break;
                     case BluetoothAdapter.STATE_TURNING_OFF:
                         logger.v("Turning Bluetooth off...");
-                        serviceHandler.sendCommand(ServiceHandlerCommand.WAIT_FOR_BLUETOOTH);
+                        postEvent(ConnectionEvent.ADAPTER_OFF);
+                        sessions.broadcast(ConnectionEvent.ADAPTER_OFF);
                         break;
                     case BluetoothAdapter.STATE_ON:
                         logger.v("Bluetooth on");
-                        serviceHandler.sendCommand(ServiceHandlerCommand.RETRY_AFTER_BLUETOOTH_REBIRTH);
+                        postEvent(ConnectionEvent.ADAPTER_ON);
+                        sessions.broadcast(ConnectionEvent.ADAPTER_ON);
                         break;
                     case BluetoothAdapter.STATE_TURNING_ON:
                         logger.v("Turning Bluetooth on...");
@@ -175,7 +389,67 @@ public class BleService extends Service {
                 android.os.Process.THREAD_PRIORITY_BACKGROUND
         );
         backgroundThread.start();
-        serviceHandler = new ServiceHandler(backgroundThread.getLooper());
+        serviceHandler = new Handler(backgroundThread.getLooper());
+        final HandlerScheduler scheduler = new HandlerScheduler(serviceHandler);
+        registry.setEnabled(PreferenceManager.getDefaultSharedPreferences(this).getBoolean(COLLECT_METRICS, false));
+        events = openEventLog();
+        FLScannerFactory.setSimulation(readSimulation());
+        // the devices of both scanners take turns on the GATT stack
+        final GattArbiter arbiter = new GattArbiter(SystemClock::elapsedRealtime);
+        extraDevices = readExtraDevices();
+        // one Forumslader at a time, whatever its address, except the ones with a session of their own
+        scanner = FLScannerFactory.getScanner(this, scheduler, address -> this, arbiter);
+        scanner.setIgnoredDevices(extraDevices);
+        // the further ones are connected by address and write journals of their own
+        final SessionManager manager = new SessionManager(SystemClock::elapsedRealtime, System::currentTimeMillis, scheduler,
+                new File(getFilesDir(), SESSIONS_DIRECTORY), readDurability());
+        manager.setScanner(FLScannerFactory.getScanner(this, scheduler, manager, arbiter));
+        manager.setListener(this::onSessionStateChanged);
+        sessions = manager;
+        if (FLScannerFactory.getSimulation() == null && PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(RECORD_NOTIFICATIONS, false)) {
+            recorder = openRecording();
+        }
+        // all connection handling runs on the service thread
+        stateMachine = new ConnectionStateMachine(
+                SystemClock::elapsedRealtime,
+                scheduler,
+                connectionActions,
+                this::onStateChanged);
+        // scan hard while the device is likely close, back off while it is not
+        final AdaptiveScanPolicy scanPolicy = new AdaptiveScanPolicy(new Random());
+        scanPolicy.setEnergyBudget(Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(SCAN_ENERGY_BUDGET, String.valueOf(AdaptiveScanPolicy.DEFAULT_ENERGY_BUDGET))));
+        scanScheduler = new ScanScheduler(scanPolicy, SystemClock::elapsedRealtime);
+        stateMachine.setRetryDelay(scanScheduler);
+        // a connected but silent Forumslader is given up and searched again
+        watchdog = new LivenessWatchdog(SystemClock::elapsedRealtime, scheduler, silence -> {
+            logger.w("link stalled after %d ms silence, %s", silence, watchdog);
+            postEvent(ConnectionEvent.LINK_LOST);
+        });
+        // go straight to the Forumslader of the last ride
+        final String lastAddress = PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(LAST_DEVICE_ADDRESS, null);
+        fastReconnect = new FastReconnect(SystemClock::elapsedRealtime,
+                extraDevices.contains(lastAddress) ? null : lastAddress);
+        if (fastReconnect.getAddress() != null) {
+            // a scan that sees several Forumsladers takes the one of the last ride
+            scanner.setKnownDevices(Collections.singleton(fastReconnect.getAddress()));
+        }
+
+        metrics = new DerivedMetrics(readWheel(), Battery.DEFAULT_CAPACITY);
+
+        final File journalDirectory = new File(getFilesDir(), JOURNAL_DIRECTORY);
+        if (!historyLoaded) {
+            loadHistory(journalDirectory);
+        }
+        try {
+            // written in batches on a thread of its own, never on the GATT or service thread
+            journal = new WriteBehindJournal(new JournalWriter(journalDirectory), SystemClock::elapsedRealtime,
+                    readDurability());
+        } catch (IOException e) {
+            logger.e("cannot open journal", e);
+        }
 
         // act on bluetooth state change
         IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
@@ -186,19 +460,224 @@ public class BleService extends Service {
     @Override
     public void onDestroy() {
         logger.d("onDestroy");
+        for (ScanMode mode : ScanMode.values()) {
+            logger.d("%s scans: %d", mode, scanScheduler.getScanCount(mode));
+        }
+        logger.d("cached reconnect misses: %d", fastReconnect.getCachedMissCount());
+        logger.d("%s", scanner);
+        logger.d("%s", watchdog);
+        logger.d("%s", metrics);
+        if (registry.isEnabled()) {
+            logger.d("%s", registry.snapshot());
+        }
 
         unregisterReceiver(broadcastReceiver);
         setStatus(Status.STOPPED);
+        // the sessions disconnect and close their journals on the service thread before it quits
+        sessions.closeAll();
+        sessions = null;
         serviceHandler.getLooper().quitSafely();
+        if (historyLoader != null) {
+            historyLoader.interrupt();
+        }
         deviceDisconnect();
+        closeJournal();
+        closeEventLog();
+        closeRecording();
 
         super.onDestroy();
     }
 
+    // where the files can be copied off the phone for the EventLogReader
+    private EventLog openEventLog() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        final EventLog log = new EventLog(new File(directory, EVENTS_DIRECTORY), SystemClock::elapsedRealtime,
+                System::currentTimeMillis);
+        if (PreferenceManager.getDefaultSharedPreferences(this).getBoolean(TRACE_EVENTS, false)) {
+            try {
+                log.start();
+            } catch (IOException e) {
+                logger.e("cannot start event log", e);
+            }
+        }
+        return log;
+    }
+
+    EventLog getEventLog() {
+        return events;
+    }
+
+    // replays the recording in the files directory instead of connecting to the Forumslader
+    private Simulation readSimulation() {
+        if (!PreferenceManager.getDefaultSharedPreferences(this).getBoolean(SIMULATE_DEVICE, false)) {
+            return null;
+        }
+        final File file = new File(getFilesDir(), SIMULATION_FILE);
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII)) {
+            final Simulation simulation = new Simulation(Recording.read(reader));
+            simulation.setLoop(true);
+            logger.d("simulating %s", simulation);
+            return simulation;
+        } catch (IOException e) {
+            logger.w("cannot read %s: %s", file, e);
+            return null;
+        }
+    }
+
+    // replaces the recording of the previous run
+    private RecordingWriter openRecording() {
+        final File file = new File(getFilesDir(), RECORDING_FILE);
+        try {
+            return new RecordingWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    StandardCharsets.US_ASCII)), MAX_RECORDING_SIZE);
+        } catch (IOException e) {
+            logger.e("cannot open recording", e);
+            return null;
+        }
+    }
+
+    // null if the notifications are not recorded
+    RecordingWriter getRecorder() {
+        return recorder;
+    }
+
+    // the decode pipeline writing the recording has stopped
+    private void closeRecording() {
+        final RecordingWriter current = recorder;
+        recorder = null;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.close();
+            logger.d("%s saved to %s", current, RECORDING_FILE);
+        } catch (IOException e) {
+            logger.e("cannot save recording", e);
+        }
+    }
+
+    private Durability readDurability() {
+        return Durability.valueOf(PreferenceManager.getDefaultSharedPreferences(this)
+                .getString(JOURNAL_DURABILITY, Durability.BATTERY.name()));
+    }
+
+    // the addresses in the settings, separated by commas or blanks
+    private Set<String> readExtraDevices() {
+        final Set<String> addresses = new LinkedHashSet<>();
+        final String setting = PreferenceManager.getDefaultSharedPreferences(this).getString(EXTRA_DEVICES, "");
+        for (String address : setting.trim().split("[,\\s]+")) {
+            final String normalized = address.toUpperCase(Locale.ROOT);
+            if (BluetoothAdapter.checkBluetoothAddress(normalized)) {
+                addresses.add(normalized);
+            } else if (!address.isEmpty()) {
+                logger.w("not a device address: %s", address);
+            }
+        }
+        return addresses;
+    }
+
+    private void openSessions() {
+        final SessionManager manager = sessions;
+        for (String address : extraDevices) {
+            try {
+                manager.open(address);
+            } catch (IOException e) {
+                logger.e("cannot open session", e);
+            }
+        }
+    }
+
+    // called on the service thread
+    private void onSessionStateChanged(DeviceSession session, ConnectionState from, ConnectionEvent event,
+                                       ConnectionState to) {
+        logger.d("session %s %s -(%s)-> %s", session.getAddress(), from, event, to);
+        registry.gauge(String.format(Locale.ROOT, SESSION_STATE_METRIC, session.getAddress())).set(to.ordinal());
+    }
+
+    private Wheel readWheel() {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        try {
+            return new Wheel(
+                    Integer.parseInt(preferences.getString(DYNAMO_POLE_PAIRS, String.valueOf(Wheel.DEFAULT_POLE_PAIRS))),
+                    Integer.parseInt(preferences.getString(WHEEL_CIRCUMFERENCE,
+                            String.valueOf(Wheel.DEFAULT_CIRCUMFERENCE))));
+        } catch (IllegalArgumentException e) {
+            logger.w("invalid wheel settings: %s", e);
+            return new Wheel();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        logger.d("onTrimMemory level=%d", level);
+        // the process may be killed soon
+        if (journal != null) {
+            journal.requestFlush();
+        }
+    }
+
+    // fills the history from the journal of previous runs, in the background; the old
+    // records go into a store of their own first, the history would drop them as late
+    // once the first live record is in
+    private void loadHistory(File journalDirectory) {
+        final JournalReader reader = new JournalReader(journalDirectory);
+        // the segments written so far, not the one the new writer appends to
+        final List<File> segments = reader.getSegments();
+        historyLoader = new Thread(() -> {
+            final TimeSeriesStore loaded = new TimeSeriesStore();
+            for (File segment : segments) {
+                // the service was destroyed
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.d("history loading stopped");
+                    return;
+                }
+                try {
+                    reader.read(segment, loaded);
+                } catch (IOException e) {
+                    logger.w("cannot read %s: %s", segment, e);
+                }
+            }
+            history.merge(loaded);
+            historyLoaded = true;
+            logger.d("history loaded, %s", history);
+        }, "HistoryLoader");
+        historyLoader.start();
+    }
+
+    // the decode pipeline delivering the records has stopped
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.e("cannot close journal", e);
+            }
+            logger.d("%s", journal);
+            journal = null;
+        }
+    }
+
+    private void closeEventLog() {
+        try {
+            events.close();
+        } catch (IOException e) {
+            logger.e("cannot write event log", e);
+        }
+        logger.d("%s", events);
+    }
+
     synchronized private void deviceDisconnect() {
         if (device != null) {
             device.disconnect();
             device = null;
+            // the decode pipeline has stopped, each connection is a session of its own
+            if (journal != null) {
+                journal.endSession();
+            }
         }
     }
 
@@ -212,13 +691,20 @@ public class BleService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         logger.d("onStartCommand intent=%s flags=%x startId=%d", intent, flags, startId);
 
-        final ServiceHandlerCommand command;
+        final ConnectionEvent command;
         if (intent != null) {
-            command = ServiceHandlerCommand.valueOf(intent.getAction());
+            command = ConnectionEvent.valueOf(intent.getAction());
         } else {
-            command = ServiceHandlerCommand.START;
+            command = ConnectionEvent.START;
+        }
+        postEvent(command);
+        // in order with the journals of a stop closing on the service thread
+        final SessionManager manager = sessions;
+        if (command == ConnectionEvent.START) {
+            serviceHandler.post(this::openSessions);
+        } else if (command == ConnectionEvent.STOP) {
+            serviceHandler.post(manager::closeAll);
         }
-        serviceHandler.sendCommand(command);
 
         return Service.START_STICKY;
     }
@@ -1,6 +0,0 @@
-package de.silberkoepfe.forumsladercompanion;
-
-public interface FLDevice {
-    void disconnect();
-    boolean isDead();
-}
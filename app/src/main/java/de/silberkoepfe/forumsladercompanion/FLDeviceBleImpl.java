@@ -6,88 +6,141 @@ import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothProfile;
-import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 
 import com.noveogroup.android.log.Logger;
 import com.noveogroup.android.log.LoggerManager;
 
-import java.util.List;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.gatt.GattFuture;
+import de.silberkoepfe.forumsladercompanion.gatt.GattOperation;
+import de.silberkoepfe.forumsladercompanion.gatt.GattQueue;
+import de.silberkoepfe.forumsladercompanion.gatt.LinkTuner;
+import de.silberkoepfe.forumsladercompanion.monitor.ConnectionMetrics;
+import de.silberkoepfe.forumsladercompanion.pipeline.DecodePipeline;
+import de.silberkoepfe.forumsladercompanion.trace.EventLog;
+import de.silberkoepfe.forumsladercompanion.trace.EventType;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
 import java.util.UUID;
 
 class FLDeviceBleImpl implements FLDevice {
     private static final Logger logger = LoggerManager.getLogger(FLDeviceBleImpl.class);
     static UUID RX_TX_SERVICE = UUID.fromString("0000ffe0-0000-1000-8000-00805f9b34fb");
     static UUID RX_TX_SERVICE_CHAR = UUID.fromString("0000ef38-0000-1000-8000-00805f9b34fb");
+    // largest MTU Android accepts, notifications carry up to 512 bytes then
+    static final int MAX_MTU = 517;
+    static final long PHY_TIMEOUT = 1000;
+    static UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    private final BleService bleService;
+    private final FLDevice.Listener listener;
+    private final BluetoothDevice bluetoothDevice;
     private final BluetoothGatt bluetoothGatt;
-    private long lastRequest;
+    private final DecodePipeline pipeline;
+    private final GattQueue gattQueue;
+    private final LinkTuner linkTuner;
+    private final EventLog events;
+    private final short deviceNumber;
+    private final ConnectionMetrics metrics;
+
+    /**
+     * @param arbiter shared by the devices of one scanner
+     */
+    public FLDeviceBleImpl(BleService bleService, BluetoothDevice bluetoothDevice, Scheduler scheduler,
+                           GattArbiter arbiter, FLDevice.Listener listener) {
+        this.bleService = bleService;
+        this.listener = listener;
+        this.bluetoothDevice = bluetoothDevice;
+        events = bleService.getEventLog();
+        deviceNumber = events.register(bluetoothDevice.getAddress());
+        // one GATT request at a time, started on the service thread
+        gattQueue = new GattQueue(SystemClock::elapsedRealtime, scheduler, arbiter);
+        gattQueue.setMetrics(BleService.getRegistry());
+        linkTuner = new LinkTuner(this::requestConnectionPriority);
+        linkTuner.setMetrics(BleService.getRegistry(), bluetoothDevice.getAddress());
+        metrics = new ConnectionMetrics(BleService.getRegistry(), SystemClock::elapsedRealtime,
+                bluetoothDevice.getAddress());
+        // decoding and status updates run on the pipeline thread, not on the binder thread
+        pipeline = new DecodePipeline(bluetoothDevice.getAddress(),
+                timestamp -> listener.onConnectionEvent(ConnectionEvent.NOTIFICATION));
+        pipeline.addRecordListener(listener);
+        pipeline.setPacketRecorder(bleService.getRecorder());
+        pipeline.start();
 
-    public FLDeviceBleImpl(BleService bleService, BluetoothDevice bluetoothDevice) {
-        bleService.setStatus(BleService.Status.CONNECTING);
+        metrics.onConnectStarted();
         bluetoothGatt = bluetoothDevice.connectGatt(bleService, false, new BluetoothGattCallback() {
             @Override
             public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
-                logger.d("onPhyUpdate");
+                events.log(EventType.PHY_UPDATE, deviceNumber, txPhy, rxPhy, status);
+                logger.d("onPhyUpdate txPhy=%d rxPhy=%d status=%d", txPhy, rxPhy, status);
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    linkTuner.onPhyChanged(txPhy, rxPhy);
+                }
+                gattQueue.onCompleted(GattOperation.Type.PHY, status, new int[]{txPhy, rxPhy});
                 super.onPhyUpdate(gatt, txPhy, rxPhy, status);
             }
 
             @Override
             public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
-                logger.d("onPhyRead txPhy:" + txPhy + " rxPhy:" + rxPhy + " status:" + status);
+                events.log(EventType.PHY_READ, deviceNumber, txPhy, rxPhy, status);
+                logger.d("onPhyRead txPhy=%d rxPhy=%d status=%d", txPhy, rxPhy, status);
+                gattQueue.onCompleted(GattOperation.Type.PHY, status, new int[]{txPhy, rxPhy});
                 super.onPhyRead(gatt, txPhy, rxPhy, status);
             }
 
             @Override
             public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                logger.d("onConnectionStateChange status:" + status + " newState:" + newState);
+                events.log(EventType.CONNECTION_STATE, deviceNumber, status, newState);
+                logger.d("onConnectionStateChange status=%d newState=%d", status, newState);
                 super.onConnectionStateChange(gatt, status, newState);
 
                 if (status != BluetoothGatt.GATT_SUCCESS) {
                     // handle anything not SUCCESS as failure
+                    metrics.onDisconnected();
+                    gattQueue.clear();
                     bluetoothGatt.disconnect();
+                    listener.onConnectionEvent(ConnectionEvent.GATT_DISCONNECTED);
                     return;
                 }
 
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    bleService.setStatus(BleService.Status.DISCOVERING_SERVICE);
-                    gatt.discoverServices();
+                    metrics.onConnected();
+                    listener.onConnectionEvent(ConnectionEvent.GATT_CONNECTED);
+                    setupLink(gatt);
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    metrics.onDisconnected();
+                    gattQueue.clear();
                     bluetoothGatt.disconnect();
+                    listener.onConnectionEvent(ConnectionEvent.GATT_DISCONNECTED);
                 }
             }
 
             @Override
             public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                events.log(EventType.SERVICES_DISCOVERED, deviceNumber, status);
                 logger.d("onServicesDiscovered gatt: %s, status: %d", gatt, status);
-                bleService.setStatus(BleService.Status.DISCOVERING_CHARACTERISTIC);
+                // a failed discovery ends the link where it was requested, see setupLink
+                gattQueue.onCompleted(GattOperation.Type.DISCOVER_SERVICES, status, null);
 
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     final BluetoothGattService bluetoothGattService = bluetoothGatt.getService(RX_TX_SERVICE);
                     if (bluetoothGattService != null) {
                         final BluetoothGattCharacteristic characteristic = bluetoothGattService.getCharacteristic(RX_TX_SERVICE_CHAR);
                         if (characteristic != null) {
-                            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-                            boolean characteristicWriteSuccess = gatt.setCharacteristicNotification(characteristic, true);
-                            if (characteristicWriteSuccess) {
-                                List<BluetoothGattDescriptor> descriptorList = characteristic.getDescriptors();
-                                for (BluetoothGattDescriptor descriptor : descriptorList) {
-                                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                                    boolean descriptorWriteInitiated = gatt.writeDescriptor(descriptor);
-                                    if (descriptorWriteInitiated) {
-                                        bleService.setStatus(BleService.Status.CONNECTED);
-                                    } else {
-                                        logger.e("cannot write descriptor");
-                                    }
-                                }
-                            } else {
-                                logger.e("cannot set characteristic notification");
-                            }
+                            listener.onConnectionEvent(ConnectionEvent.SERVICES_DISCOVERED);
+                            subscribe(gatt, characteristic);
                         } else {
                             logger.e("cannot find characteristic %s", RX_TX_SERVICE_CHAR);
+                            linkFailed();
                         }
                     } else {
                         logger.e("cannot find service %s", RX_TX_SERVICE);
+                        linkFailed();
                     }
                 }
                 super.onServicesDiscovered(gatt, status);
@@ -95,64 +148,161 @@ class FLDeviceBleImpl implements FLDevice {
 
             @Override
             public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                logger.d("onCharacteristicRead");
+                events.log(EventType.CHARACTERISTIC_READ, deviceNumber, status);
+                gattQueue.onCompleted(GattOperation.Type.READ, status, characteristic.getValue());
                 super.onCharacteristicRead(gatt, characteristic, status);
             }
 
             @Override
             public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                logger.d("onCharacteristicWrite");
+                events.log(EventType.CHARACTERISTIC_WRITE, deviceNumber, status);
+                gattQueue.onCompleted(GattOperation.Type.WRITE, status, null);
                 super.onCharacteristicWrite(gatt, characteristic, status);
             }
 
             @Override
             public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-                logger.d("onCharacteristicChanged");
-                lastRequest = System.currentTimeMillis();
-                bleService.setStatus(BleService.Status.RECEIVING);
+                final byte[] value = characteristic.getValue();
+                final long timestamp = System.currentTimeMillis();
+                events.log(EventType.CHARACTERISTIC_CHANGED, deviceNumber, value.length);
+                linkTuner.onReceived(value.length, SystemClock.elapsedRealtime());
+                metrics.onNotification(value.length);
+                if (!pipeline.submit(value, timestamp)) {
+                    events.log(EventType.PACKET_DROPPED, deviceNumber, value.length);
+                    logger.w("onCharacteristicChanged packet dropped");
+                }
                 super.onCharacteristicChanged(gatt, characteristic);
             }
 
             @Override
             public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-                logger.d("onDescriptorRead");
+                events.log(EventType.DESCRIPTOR_READ, deviceNumber, status);
                 super.onDescriptorRead(gatt, descriptor, status);
             }
 
             @Override
             public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-                logger.d("onDescriptorWrite");
+                events.log(EventType.DESCRIPTOR_WRITE, deviceNumber, status);
+                logger.d("onDescriptorWrite %s status=%d", descriptor.getUuid(), status);
+                gattQueue.onCompleted(GattOperation.Type.DESCRIPTOR_WRITE, status, null);
                 super.onDescriptorWrite(gatt, descriptor, status);
             }
 
             @Override
             public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-                logger.d("onReliableWriteCompleted");
+                events.log(EventType.RELIABLE_WRITE, deviceNumber, status);
                 super.onReliableWriteCompleted(gatt, status);
             }
 
             @Override
             public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-                logger.d("onReadRemoteRssi");
+                events.log(EventType.READ_RSSI, deviceNumber, rssi, status);
                 super.onReadRemoteRssi(gatt, rssi, status);
             }
 
             @Override
             public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-                logger.d("onMtuChanged");
+                events.log(EventType.MTU_CHANGED, deviceNumber, mtu, status);
+                logger.d("onMtuChanged mtu: %d, status: %d", mtu, status);
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    linkTuner.onMtuChanged(mtu);
+                }
+                gattQueue.onCompleted(GattOperation.Type.MTU, status, mtu);
                 super.onMtuChanged(gatt, mtu, status);
             }
         });
     }
 
+    private void setupLink(BluetoothGatt gatt) {
+        // the starters run on the service thread, the tuner is used there only
+        gattQueue.submit(GattOperation.Type.MTU, () -> {
+            linkTuner.onConnected();
+            return gatt.requestMtu(MAX_MTU);
+        });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && BluetoothAdapter.getDefaultAdapter().isLe2MPhySupported()) {
+            // the Forumslader may ignore the request, do not wait long
+            gattQueue.submit(GattOperation.Type.PHY, () -> {
+                gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                        BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                return true;
+            }, PHY_TIMEOUT, 0);
+        }
+        // MTU and PHY are an optimization, the services are needed
+        gattQueue.submit(GattOperation.Type.DISCOVER_SERVICES, gatt::discoverServices).whenDone(future -> {
+            if (!future.isSuccess() && future.getStatus() != GattFuture.CANCELLED) {
+                logger.e("cannot discover services %s", future);
+                linkFailed();
+            }
+        });
+    }
+
+    // the link is of no use, the state machine retries instead of waiting for its timeout
+    private void linkFailed() {
+        bluetoothGatt.disconnect();
+        listener.onConnectionEvent(ConnectionEvent.GATT_DISCONNECTED);
+    }
+
+    private boolean requestConnectionPriority(LinkTuner.Priority priority) {
+        logger.d("requestConnectionPriority %s", priority);
+        switch (priority) {
+            case HIGH:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+            case LOW_POWER:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+            default:
+                return bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        }
+    }
+
+    private void subscribe(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        if (!gatt.setCharacteristicNotification(characteristic, true)) {
+            logger.e("cannot set characteristic notification");
+            linkFailed();
+            return;
+        }
+        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null) {
+            logger.e("cannot find descriptor %s", CLIENT_CHARACTERISTIC_CONFIG);
+            linkFailed();
+            return;
+        }
+        gattQueue.<Void>submit(GattOperation.Type.DESCRIPTOR_WRITE, () -> {
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+            return gatt.writeDescriptor(descriptor);
+        }).whenDone(future -> {
+            if (future.isSuccess()) {
+                // the Forumslader confirmed the subscription
+                listener.onConnectionEvent(ConnectionEvent.NOTIFICATIONS_ENABLED);
+                linkTuner.onSteady();
+            } else if (future.getStatus() != GattFuture.CANCELLED) {
+                logger.e("cannot write descriptor %s", future);
+                linkFailed();
+            }
+        });
+    }
+
     @Override
     public void disconnect() {
+       gattQueue.clear();
        bluetoothGatt.disconnect();
        bluetoothGatt.close();
+       if (!pipeline.stop()) {
+           logger.w("disconnect interrupted, decode thread still running");
+       }
+       if (pipeline.getLastListenerError() != null) {
+           logger.e("record listener failed", pipeline.getLastListenerError());
+       }
+       logger.d("disconnect %s %s %s", pipeline, gattQueue, linkTuner);
+    }
+
+    @Override
+    public String getAddress() {
+        return bluetoothDevice.getAddress();
     }
 
     @Override
-    public boolean isDead() {
-        return System.currentTimeMillis() - lastRequest > 10000;
+    public LinkTuner getLinkTuner() {
+        return linkTuner;
     }
 }
@@ -4,7 +4,6 @@ import android.Manifest;
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanFilter;
@@ -13,50 +12,79 @@ import android.bluetooth.le.ScanSettings;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 
 import com.noveogroup.android.log.Logger;
 import com.noveogroup.android.log.LoggerManager;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.monitor.ConnectionMetrics;
+import de.silberkoepfe.forumsladercompanion.scan.DeviceDiscovery;
+import de.silberkoepfe.forumsladercompanion.scan.ScanBackend;
+import de.silberkoepfe.forumsladercompanion.scan.ScanMode;
+import de.silberkoepfe.forumsladercompanion.scan.ScanReport;
+import de.silberkoepfe.forumsladercompanion.trace.EventType;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
 
 import static android.content.Context.BLUETOOTH_SERVICE;
 
 public class FLScannerBleImpl implements FLScanner {
 
     private static final Logger logger = LoggerManager.getLogger(FLScannerBleImpl.class);
-    private static FLScannerBleImpl instance;
+    // results the controller may hold back in background scans, the user is not waiting for them
+    static final long REPORT_DELAY = 1000;
+    // scan events belong to no connection
+    private static final short NO_DEVICE = 0;
 
     private final BleService bleService;
     private BluetoothLeScanner bluetoothLeScanner;
     private BluetoothAdapter bluetoothAdapter;
-    private ScanCallback scanCallback = new ScanCallback();
-    private boolean scanning;
-    private FLDeviceBleImpl device;
-
-    synchronized static FLScanner getInstance(BleService bleService) {
-        if (instance != null) {
-            return instance;
-        } else {
-            instance = new FLScannerBleImpl(bleService);
-            return instance;
-        }
-    }
+    private final LeScanBackend scanBackend = new LeScanBackend();
+    private final DeviceDiscovery<BluetoothDevice> discovery;
+    private final Scheduler scheduler;
+    // the devices of all connections take turns on the GATT client
+    private final GattArbiter arbiter;
+    private final FLDevice.Listeners listeners;
+    // handovers of connectDevice not run yet, by address, used on the service thread only
+    private final Map<String, Scheduler.Task> connects = new HashMap<>();
+    private final ConnectionMetrics metrics = new ConnectionMetrics(BleService.getRegistry(),
+            SystemClock::elapsedRealtime);
 
-    private FLScannerBleImpl(BleService bleService) {
+    /**
+     * @param listeners get what each device reports, by its address
+     * @param arbiter shared with the devices of other scanners of the service
+     */
+    FLScannerBleImpl(BleService bleService, Scheduler scheduler, FLDevice.Listeners listeners,
+                     GattArbiter arbiter) {
         this.bleService = bleService;
+        this.listeners = listeners;
+        this.arbiter = arbiter;
         BluetoothManager bluetoothManager = (BluetoothManager) this.bleService.getSystemService(BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
+        this.scheduler = scheduler;
+        discovery = new DeviceDiscovery<>(scanBackend, SystemClock::elapsedRealtime, scheduler);
     }
 
     @Override
     public boolean isScanning() {
-        return scanning;
+        return discovery.isScanning();
     }
 
     @Override
-    synchronized public FLDevice findDevice() throws FLScannerException {
-        logger.d("findDevice");
+    public boolean isAvailable() {
+        return bluetoothAdapter != null && bluetoothAdapter.isEnabled() && hasLocationPermissions();
+    }
+
+    @Override
+    public void findDevice(ScanMode mode, long timeoutMillis, Callback callback) throws FLScannerException {
+        logger.d("findDevice mode=%s timeout=%d", mode, timeoutMillis);
 
         checkPermissions();
 
@@ -64,39 +92,84 @@ public class FLScannerBleImpl implements FLScanner {
             bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
         }
 
-        scanning = true;
-        ScanFilter scanFilter = new ScanFilter.Builder()
-                .setServiceUuid(new ParcelUuid(FLDeviceBleImpl.RX_TX_SERVICE))
-                .build();
-        List<ScanFilter> filters = new ArrayList<>();
-        filters.add(scanFilter);
-
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                .build();
-
-        try {
-            bleService.setStatus(BleService.Status.SCANNING);
-            bluetoothLeScanner.startScan(filters, settings, scanCallback);
-            wait(5000);
-        } catch (InterruptedException e) {
-            logger.v("findDeviceThread interrupted");
-        } finally {
-            if (bluetoothAdapter.isEnabled()) {
-                bluetoothLeScanner.stopScan(scanCallback);
-                bluetoothLeScanner.flushPendingScanResults(scanCallback);
+        scanBackend.scanMode = toScanSettings(mode);
+        discovery.setReportDelay(mode == ScanMode.LOW_LATENCY ? 0 : REPORT_DELAY);
+        metrics.onScanStarted();
+        discovery.start(timeoutMillis, new DeviceDiscovery.Callback<BluetoothDevice>() {
+            @Override
+            public void onFound(BluetoothDevice bluetoothDevice) {
+                logger.d("onFound device=%s after %d ms, %s", bluetoothDevice, discovery.getLastLatency(), discovery);
+                metrics.onScanFinished(true);
+                callback.onDeviceFound(newDevice(bluetoothDevice));
+            }
+
+            @Override
+            public void onTimeout() {
+                logger.v("no device found");
+                metrics.onScanFinished(false);
+                callback.onScanTimeout();
             }
+
+            @Override
+            public void onFailed(int errorCode) {
+                callback.onScanFailed(errorCode);
+            }
+        });
+    }
+
+    @Override
+    public void connectDevice(String address, Callback callback) throws FLScannerException {
+        logger.d("connectDevice address=%s", address);
+
+        checkPermissions();
+
+        discovery.cancel();
+        final BluetoothDevice bluetoothDevice = bluetoothAdapter.getRemoteDevice(address);
+        // same thread and order as a scan result, connected only when handed over
+        final Scheduler.Task previous = connects.put(address, scheduler.schedule(() -> {
+            connects.remove(address);
+            callback.onDeviceFound(newDevice(bluetoothDevice));
+        }, 0));
+        if (previous != null) {
+            previous.cancel();
         }
+    }
 
-        return device;
+    private FLDevice newDevice(BluetoothDevice bluetoothDevice) {
+        return new FLDeviceBleImpl(bleService, bluetoothDevice, scheduler, arbiter,
+                listeners.forDevice(bluetoothDevice.getAddress()));
+    }
+
+    @Override
+    public void setKnownDevices(Collection<String> addresses) {
+        discovery.setKnownAddresses(addresses);
+    }
+
+    @Override
+    public void setIgnoredDevices(Collection<String> addresses) {
+        discovery.setIgnoredAddresses(addresses);
+    }
+
+    @Override
+    public void cancel() {
+        discovery.cancel();
+        for (Scheduler.Task connect : connects.values()) {
+            connect.cancel();
+        }
+        connects.clear();
+    }
+
+    @Override
+    public void cancel(String address) {
+        final Scheduler.Task connect = connects.remove(address);
+        if (connect != null) {
+            connect.cancel();
+        }
     }
 
     private void checkPermissions() throws FLScannerException {
         logger.d("hasPermissons");
 
-        //BluetoothManager bluetoothManager = (BluetoothManager) bleService.getSystemService(BLUETOOTH_SERVICE);
-        //BluetoothAdapter bluetoothAdapter = bluetoothManager.getAdapter();
-
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
             throw new FLScannerException();
         } else if (!hasLocationPermissions()) {
@@ -110,41 +183,103 @@ public class FLScannerBleImpl implements FLScanner {
         return bleService.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
     }
 
-    synchronized private void addScanResult(ScanResult result) {
-        logger.d("addScanResult result={}", result);
-        final BluetoothDevice bluetoothDevice = result.getDevice();
+    @Override
+    public String toString() {
+        return "FLScannerBleImpl{" + discovery + ", " + arbiter + "}";
+    }
 
-        device = new FLDeviceBleImpl(bleService, bluetoothDevice);
-        notify();
+    private static int toScanSettings(ScanMode mode) {
+        switch (mode) {
+            case LOW_LATENCY:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+            case BALANCED:
+                return ScanSettings.SCAN_MODE_BALANCED;
+            case OPPORTUNISTIC:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    return ScanSettings.SCAN_MODE_OPPORTUNISTIC;
+                }
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            default:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+        }
     }
 
-    private class ScanCallback extends android.bluetooth.le.ScanCallback {
+    private class LeScanBackend implements ScanBackend<BluetoothDevice> {
+        private ScanBackend.Sink<BluetoothDevice> sink;
+        private int scanMode = ScanSettings.SCAN_MODE_BALANCED;
+        private boolean batching;
+        private final ScanCallback scanCallback = new ScanCallback();
+
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            bluetoothLeScanner.stopScan(this);
-            scanning = false;
-            logger.d( "onScanResult");
-            addScanResult(result);
-            super.onScanResult(callbackType, result);
+        public void startScan(long reportDelay, Sink<BluetoothDevice> sink) {
+            this.sink = sink;
+            ScanFilter scanFilter = new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(FLDeviceBleImpl.RX_TX_SERVICE))
+                    .build();
+            List<ScanFilter> filters = new ArrayList<>();
+            filters.add(scanFilter);
+
+            ScanSettings.Builder settings = new ScanSettings.Builder()
+                    .setScanMode(scanMode);
+            // without offloading the results would be collected on the application processor
+            batching = reportDelay > 0 && bluetoothAdapter.isOffloadedScanBatchingSupported();
+            if (batching) {
+                settings.setReportDelay(reportDelay);
+            }
+
+            bluetoothLeScanner.startScan(filters, settings.build(), scanCallback);
         }
 
         @Override
-        public void onBatchScanResults(List<ScanResult> results) {
-            logger.d("onBatchScanResults");
-            bluetoothLeScanner.stopScan(this);
-            scanning = false;
-            for (ScanResult result : results) {
-                addScanResult(result);
+        public boolean flush() {
+            if (!batching || !bluetoothAdapter.isEnabled()) {
+                return false;
             }
-            super.onBatchScanResults(results);
+            // the batch still held by the controller arrives later on the main looper
+            bluetoothLeScanner.flushPendingScanResults(scanCallback);
+            return true;
         }
 
         @Override
-        public void onScanFailed(int errorCode) {
-            logger.d("onScanFailed errorCode:" + errorCode);
-            bluetoothLeScanner.stopScan(this);
-            scanning = false;
-            super.onScanFailed(errorCode);
+        public void stopScan() {
+            if (bluetoothAdapter.isEnabled()) {
+                bluetoothLeScanner.stopScan(scanCallback);
+            }
+        }
+
+        private ScanReport<BluetoothDevice> toReport(ScanResult result) {
+            return new ScanReport<>(result.getDevice(), result.getDevice().getAddress(), result.getRssi());
+        }
+
+        private class ScanCallback extends android.bluetooth.le.ScanCallback {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                bleService.getEventLog().log(EventType.SCAN_RESULTS, NO_DEVICE, 1);
+                logger.d("onScanResult result=%s", result);
+                sink.onResults(Collections.singletonList(toReport(result)));
+                super.onScanResult(callbackType, result);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                bleService.getEventLog().log(EventType.SCAN_RESULTS, NO_DEVICE, results.size());
+                logger.d("onBatchScanResults %d results", results.size());
+                // one wakeup, the discovery picks one device of the batch
+                final List<ScanReport<BluetoothDevice>> reports = new ArrayList<>(results.size());
+                for (ScanResult result : results) {
+                    reports.add(toReport(result));
+                }
+                sink.onResults(reports);
+                super.onBatchScanResults(results);
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                bleService.getEventLog().log(EventType.SCAN_FAILED, NO_DEVICE, errorCode);
+                logger.d("onScanFailed errorCode=%d", errorCode);
+                sink.onFailed(errorCode);
+                super.onScanFailed(errorCode);
+            }
         }
     }
 }
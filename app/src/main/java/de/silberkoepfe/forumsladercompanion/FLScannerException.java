@@ -1,4 +0,0 @@
-package de.silberkoepfe.forumsladercompanion;
-
-class FLScannerException extends Exception {
-}
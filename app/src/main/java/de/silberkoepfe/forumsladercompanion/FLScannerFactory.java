@@ -1,9 +1,39 @@
 package de.silberkoepfe.forumsladercompanion;
 
-import android.content.Context;
+import java.util.Collections;
+
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
 
 public class FLScannerFactory {
-    public static FLScanner getScanner(BleService bleService) {
-        return FLScannerBleImpl.getInstance(bleService);
+    private static volatile Simulation simulation;
+
+    /**
+     * Replaces the Forumslader by a simulated one in the scanners created from now
+     * on, null switches back to bluetooth.
+     */
+    public static void setSimulation(Simulation simulation) {
+        FLScannerFactory.simulation = simulation;
+    }
+
+    public static Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * @param listeners get what each device reports, by its address
+     * @param arbiter lets the devices of all scanners of the service take turns on the GATT stack
+     */
+    public static FLScanner getScanner(BleService bleService, Scheduler scheduler, FLDevice.Listeners listeners,
+                                       GattArbiter arbiter) {
+        final Simulation current = simulation;
+        if (current != null) {
+            // timestamps from the same clock as the BLE notifications
+            return new FLScannerSimImpl(Collections.singletonList(current), scheduler, System::currentTimeMillis,
+                    listeners, arbiter);
+        }
+        // a restarted service comes with a new context and service thread, so no scanner is kept
+        return new FLScannerBleImpl(bleService, scheduler, listeners, arbiter);
     }
 }
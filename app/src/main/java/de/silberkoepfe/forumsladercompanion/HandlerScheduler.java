@@ -0,0 +1,19 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import android.os.Handler;
+
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+class HandlerScheduler implements Scheduler {
+    private final Handler handler;
+
+    HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Task schedule(Runnable runnable, long delayMillis) {
+        handler.postDelayed(runnable, delayMillis);
+        return () -> handler.removeCallbacks(runnable);
+    }
+}
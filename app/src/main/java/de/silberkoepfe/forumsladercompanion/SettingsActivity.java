@@ -1,17 +1,18 @@
 package de.silberkoepfe.forumsladercompanion;
 
 import android.Manifest;
+import android.app.AlertDialog;
 import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
@@ -19,15 +20,26 @@ import android.preference.PreferenceManager;
 import android.preference.SwitchPreference;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBar;
 import android.view.MenuItem;
 
 import com.noveogroup.android.log.Logger;
 import com.noveogroup.android.log.LoggerManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.metrics.DerivedMetrics;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsSnapshot;
+import de.silberkoepfe.forumsladercompanion.session.DeviceSession;
+import de.silberkoepfe.forumsladercompanion.session.SessionManager;
+import de.silberkoepfe.forumsladercompanion.status.StatusPublisher;
+import de.silberkoepfe.forumsladercompanion.storage.Channel;
+import de.silberkoepfe.forumsladercompanion.storage.LiveTelemetry;
+import de.silberkoepfe.forumsladercompanion.storage.Series;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings. On
  * handset devices, settings are presented as a single list. On tablets,
@@ -112,18 +124,31 @@ public class SettingsActivity extends AppCompatPreferenceActivity implements Act
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public static class GeneralPreferenceFragment extends PreferenceFragment {
         public static final String SERVICE_SWITCH = "service_switch";
+        static final String SHOW_METRICS = "show_metrics";
+        static final String METRICS_FILE = "metrics.txt";
+        static final String LIVE_VALUES = "live_values";
+        // the live values are refreshed this often while the fragment is shown
+        static final long LIVE_REFRESH = 1000;
+        static final long HISTORY_RANGE = 60 * 60 * 1000;
         private boolean permissionRequestRunning;
+        private final Handler handler = new Handler();
+        private final Series series = new Series(60);
 
-        private BroadcastReceiver messageReceiver = new BroadcastReceiver() {
+        private final Runnable liveRefresh = new Runnable() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                logger.d("onReceive context=%s, intent=%s", context, intent);
-                final int status = intent.getIntExtra("status", 0);
-                findPreference(SERVICE_SWITCH).setSummary(status);
+            public void run() {
+                updateLiveValues();
+                handler.postDelayed(this, LIVE_REFRESH);
+            }
+        };
 
-                if (status == R.string.status_bluetooth_requested && !permissionRequestRunning) {
-                    permissionRequestRunning = requestPermissions();
-                }
+        // called on the main thread
+        private StatusPublisher.Listener<BleService.Status> statusListener = status -> {
+            logger.d("onStatusChanged status=%s", status);
+            findPreference(SERVICE_SWITCH).setSummary(status.resId);
+
+            if (status == BleService.Status.BLUETOOTH_REQUESTED && !permissionRequestRunning) {
+                permissionRequestRunning = requestPermissions();
             }
         };
 
@@ -200,28 +225,102 @@ public class SettingsActivity extends AppCompatPreferenceActivity implements Act
             findPreference(SERVICE_SWITCH).setOnPreferenceChangeListener((Preference preference, Object active) ->  {
                 return !updateService((boolean) active);
             });
+            findPreference(BleService.COLLECT_METRICS).setOnPreferenceChangeListener((preference, enabled) -> {
+                BleService.getRegistry().setEnabled((boolean) enabled);
+                return true;
+            });
+            findPreference(SHOW_METRICS).setOnPreferenceClickListener(preference -> {
+                showMetrics();
+                return true;
+            });
 
-            LocalBroadcastManager.getInstance(getActivity()).registerReceiver(messageReceiver,
-                    new IntentFilter(BleService.STATUS_CHANGED_ACTION));
+            BleService.getStatusPublisher().addListener(statusListener);
+        }
+
+        // shows a snapshot of the metrics and saves it where it can be copied off the phone
+        private void showMetrics() {
+            final MetricsSnapshot snapshot = BleService.getRegistry().snapshot();
+            File directory = getActivity().getExternalFilesDir(null);
+            if (directory == null) {
+                directory = getActivity().getFilesDir();
+            }
+            final File file = new File(directory, METRICS_FILE);
+            try {
+                snapshot.write(file);
+                logger.d("metrics saved to %s", file);
+            } catch (IOException e) {
+                logger.e("cannot save metrics", e);
+            }
+            new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.pref_title_show_metrics)
+                    .setMessage(snapshot.toString())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+        }
+
+        // the latest record, the trip figures, the battery voltage range of the last hour
+        // and the state of the further devices
+        private void updateLiveValues() {
+            final StringBuilder summary = new StringBuilder();
+            final LiveTelemetry live = BleService.getLive();
+            final float voltage = live.get(Channel.BATTERY_VOLTAGE).last();
+            if (Float.isNaN(voltage)) {
+                summary.append(getString(R.string.pref_summary_live_values_none));
+            } else {
+                final DerivedMetrics metrics = BleService.getMetrics();
+                final long now = System.currentTimeMillis();
+                float min = voltage;
+                float max = voltage;
+                if (BleService.getHistory().query(Channel.BATTERY_VOLTAGE, now - HISTORY_RANGE, now, series) != null) {
+                    for (int i = 0; i < series.size(); i++) {
+                        min = Math.min(min, series.getMin(i));
+                        max = Math.max(max, series.getMax(i));
+                    }
+                }
+                final double stateOfCharge = metrics.getStateOfCharge();
+                summary.append(getString(R.string.pref_summary_live_values,
+                        voltage / 1000, live.get(Channel.LOAD_CURRENT).last(), metrics.getSpeed() * 0.0036,
+                        Double.isNaN(stateOfCharge) ? 0 : stateOfCharge * 100, min / 1000, max / 1000));
+            }
+            final SessionManager sessions = BleService.getSessions();
+            if (sessions != null) {
+                for (DeviceSession session : sessions.getSessions()) {
+                    summary.append('\n').append(getString(R.string.pref_summary_live_values_session,
+                            session.getAddress(), session.getState(), session.getRecordCount()));
+                }
+            }
+            findPreference(LIVE_VALUES).setSummary(summary);
         }
 
         private boolean updateService(boolean active) {
             Intent i = new Intent(getActivity(), BleService.class);
             final SettingsActivity activity = (SettingsActivity) getActivity();
             if (active) {
-                i.setAction(BleService.ServiceHandlerCommand.START.name());
+                i.setAction(ConnectionEvent.START.name());
                 activity.startService(i);
             } else {
-                i.setAction(BleService.ServiceHandlerCommand.STOP.name());
+                i.setAction(ConnectionEvent.STOP.name());
                 activity.startService(i);
             }
             return false;
         }
 
+        @Override
+        public void onResume() {
+            super.onResume();
+            liveRefresh.run();
+        }
+
+        @Override
+        public void onPause() {
+            super.onPause();
+            handler.removeCallbacks(liveRefresh);
+        }
+
         @Override
         public void onDestroy() {
             super.onDestroy();
-            LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(messageReceiver);
+            BleService.getStatusPublisher().removeListener(statusListener);
         }
 
         @Override
@@ -265,6 +364,15 @@ public class SettingsActivity extends AppCompatPreferenceActivity implements Act
      */
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public static class DataSyncPreferenceFragment extends PreferenceFragment {
+        // called on the main thread, after the value is stored
+        private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (preferences, key) -> {
+            if (SyncJobService.SYNC_ENDPOINT.equals(key) || SyncJobService.SYNC_FREQUENCY.equals(key)) {
+                SyncJobService.schedule(getActivity());
+            } else if (SyncJobService.SYNC_STATUS.equals(key)) {
+                updateStatus(preferences);
+            }
+        };
+
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
@@ -272,6 +380,26 @@ public class SettingsActivity extends AppCompatPreferenceActivity implements Act
             setHasOptionsMenu(true);
         }
 
+        @Override
+        public void onResume() {
+            super.onResume();
+            final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
+            updateStatus(preferences);
+            preferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+        }
+
+        @Override
+        public void onPause() {
+            super.onPause();
+            PreferenceManager.getDefaultSharedPreferences(getActivity())
+                    .unregisterOnSharedPreferenceChangeListener(preferenceListener);
+        }
+
+        private void updateStatus(SharedPreferences preferences) {
+            findPreference(SyncJobService.SYNC_STATUS).setSummary(preferences.getString(SyncJobService.SYNC_STATUS,
+                    getString(R.string.pref_summary_sync_never)));
+        }
+
         @Override
         public boolean onOptionsItemSelected(MenuItem item) {
             int id = item.getItemId();
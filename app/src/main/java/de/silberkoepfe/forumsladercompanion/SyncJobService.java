@@ -0,0 +1,154 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.noveogroup.android.log.Logger;
+import com.noveogroup.android.log.LoggerManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.sync.SessionSync;
+import de.silberkoepfe.forumsladercompanion.sync.SyncException;
+
+/**
+ * Uploads the recorded sessions with {@link SessionSync} when the phone is charging
+ * on an unmetered network, at the frequency set in the data and sync settings.
+ * The journal of the primary device and the journals of the further devices are
+ * synced one after the other, each with a spool directory of its own.
+ */
+public class SyncJobService extends JobService {
+    private static final Logger logger = LoggerManager.getLogger(SyncJobService.class);
+
+    static final int JOB_ID = 1;
+    static final String SYNC_ENDPOINT = "sync_endpoint";
+    static final String SYNC_FREQUENCY = "sync_frequency";
+    static final String SYNC_STATUS = "sync_status";
+    static final String SYNC_DIRECTORY = "sync";
+    private static final String DEFAULT_FREQUENCY = "180";
+
+    private volatile SessionSync sync;
+    private volatile boolean stopped;
+
+    /**
+     * Schedules the job for the current settings, or cancels it if sync is off or
+     * there is no valid endpoint.
+     */
+    static void schedule(Context context) {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        final long minutes = Long.parseLong(preferences.getString(SYNC_FREQUENCY, DEFAULT_FREQUENCY));
+        final JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (minutes <= 0 || getEndpoint(preferences) == null) {
+            logger.d("schedule cancelled");
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        final JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(minutes * 60 * 1000)
+                .setPersisted(true)
+                .build();
+        final int result = scheduler.schedule(job);
+        logger.d("schedule every %d min result=%d", minutes, result);
+    }
+
+    private static URL getEndpoint(SharedPreferences preferences) {
+        final String endpoint = preferences.getString(SYNC_ENDPOINT, "").trim();
+        if (endpoint.isEmpty()) {
+            return null;
+        }
+        try {
+            return new URL(endpoint);
+        } catch (MalformedURLException e) {
+            logger.w("invalid endpoint %s", endpoint);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        final URL endpoint = getEndpoint(preferences);
+        if (endpoint == null) {
+            return false;
+        }
+        final File spoolDirectory = new File(getFilesDir(), SYNC_DIRECTORY);
+        final List<SessionSync> syncs = new ArrayList<>();
+        syncs.add(new SessionSync(new File(getFilesDir(), BleService.JOURNAL_DIRECTORY), spoolDirectory,
+                endpoint, System::currentTimeMillis));
+        // the session IDs of the further devices are numbered per journal
+        final File[] journals = new File(getFilesDir(), BleService.SESSIONS_DIRECTORY).listFiles(File::isDirectory);
+        if (journals != null) {
+            for (File journal : journals) {
+                final SessionSync session = new SessionSync(journal, new File(new File(spoolDirectory,
+                        BleService.SESSIONS_DIRECTORY), journal.getName()), endpoint, System::currentTimeMillis);
+                session.setIdPrefix(journal.getName() + "-");
+                syncs.add(session);
+            }
+        }
+        stopped = false;
+        new Thread(() -> {
+            boolean reschedule = false;
+            long sessions = 0;
+            long bytes = 0;
+            IOException failure = null;
+            for (SessionSync current : syncs) {
+                sync = current;
+                if (stopped) {
+                    reschedule = true;
+                    break;
+                }
+                try {
+                    if (!current.sync()) {
+                        reschedule = true;
+                        break;
+                    }
+                } catch (IOException e) {
+                    logger.e("sync failed", e);
+                    // fatal answers wait for the next period, the other journals go on
+                    reschedule |= !(e instanceof SyncException) || ((SyncException) e).isRetryable();
+                    failure = e;
+                }
+                sessions += current.getSessionCount();
+                bytes += current.getByteCount();
+                logger.d("onStartJob %s", current);
+            }
+            sync = null;
+            final String status = failure != null
+                    ? getString(R.string.pref_summary_sync_failed, failure.getMessage())
+                    : getString(R.string.pref_summary_sync_status, sessions, bytes / 1024);
+            logger.d("onStartJob reschedule=%b", reschedule);
+            preferences.edit()
+                    .putString(SYNC_STATUS, DateFormat.getDateTimeInstance().format(new Date()) + " " + status)
+                    .apply();
+            jobFinished(params, reschedule);
+        }, "SyncJobService").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        logger.d("onStopJob");
+        stopped = true;
+        final SessionSync current = sync;
+        if (current != null) {
+            current.cancel();
+        }
+        // the spooled batch is resumed next time
+        return true;
+    }
+}
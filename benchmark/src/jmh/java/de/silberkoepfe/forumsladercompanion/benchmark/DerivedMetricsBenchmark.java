@@ -0,0 +1,41 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.metrics.DerivedMetrics;
+
+/**
+ * Updating energy, speed, distance and the battery estimate of the
+ * {@link DerivedMetrics} with one second of records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DerivedMetricsBenchmark {
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private SyntheticStream stream;
+    private DerivedMetrics metrics;
+
+    @Setup
+    public void setup() {
+        stream = new SyntheticStream(rate);
+        metrics = new DerivedMetrics();
+    }
+
+    @Benchmark
+    public long update() {
+        stream.emitSecond(metrics);
+        return metrics.getSampleCount();
+    }
+}
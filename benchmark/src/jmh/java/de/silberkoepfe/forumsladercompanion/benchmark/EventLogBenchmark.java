@@ -0,0 +1,78 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.trace.EventLog;
+import de.silberkoepfe.forumsladercompanion.trace.EventType;
+
+/**
+ * Cost of tracing a notification as a binary event, stopped and running, against
+ * building the log line the callbacks used to concatenate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventLogBenchmark {
+    private static final int RING_SIZE = 64 * 1024;
+    private static final long MAX_FILE_SIZE = 256 * 1024;
+
+    @Param({"false", "true"})
+    public boolean running;
+
+    private File directory;
+    private EventLog log;
+    private short device;
+    private int length;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("events").toFile();
+        log = new EventLog(directory, System::currentTimeMillis, System::currentTimeMillis, RING_SIZE);
+        log.setMaxFileSize(MAX_FILE_SIZE);
+        device = log.register("AA:BB:CC:DD:EE:FF");
+        if (running) {
+            log.start();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        log.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void event() {
+        log.log(EventType.CHARACTERISTIC_CHANGED, device, 20);
+    }
+
+    @Benchmark
+    public String string() {
+        return String.format(Locale.ROOT, "onCharacteristicChanged length=%d", 20 + (length++ & 1));
+    }
+}
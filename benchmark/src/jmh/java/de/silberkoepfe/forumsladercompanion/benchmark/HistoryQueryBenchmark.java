@@ -0,0 +1,57 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.storage.Channel;
+import de.silberkoepfe.forumsladercompanion.storage.Series;
+import de.silberkoepfe.forumsladercompanion.storage.TimeSeriesStore;
+
+/**
+ * Querying the {@link TimeSeriesStore} for a chart after 30 days of riding, 10
+ * hours a day at the real rate, from the last minute up to the whole month.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryQueryBenchmark {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private static final int DAYS = 30;
+    private static final int POINTS = 500;
+
+    // a minute, an hour, a day, ten days and the month
+    @Param({"60000", "3600000", "86400000", "864000000", "2592000000"})
+    public long span;
+
+    private final TimeSeriesStore store = new TimeSeriesStore();
+    private final Series series = new Series(POINTS);
+    private long end;
+
+    @Setup
+    public void setup() {
+        final SyntheticStream stream = new SyntheticStream(1);
+        for (int day = 0; day < DAYS; day++) {
+            for (int second = 0; second < 10 * 3600; second++) {
+                stream.emitSecond(store);
+            }
+            end = stream.now();
+            // the night without records
+            stream.skip(14 * 3600);
+        }
+    }
+
+    @Benchmark
+    public int query() {
+        store.query(Channel.BATTERY_VOLTAGE, end - span, end, series);
+        return series.size();
+    }
+}
@@ -0,0 +1,77 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.storage.Durability;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+import de.silberkoepfe.forumsladercompanion.storage.WriteBehindJournal;
+
+/**
+ * Appending one second of records to the journal: straight into the mapped
+ * segments with {@link JournalWriter}, and handing them to the
+ * {@link WriteBehindJournal} as the decode thread of the service does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalBenchmark {
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private SyntheticStream stream;
+    private File directory;
+    private JournalWriter writer;
+    private WriteBehindJournal writeBehind;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        stream = new SyntheticStream(rate);
+        directory = Files.createTempDirectory("journal").toFile();
+        writer = new JournalWriter(new File(directory, "direct"));
+        writeBehind = new WriteBehindJournal(new JournalWriter(new File(directory, "behind")),
+                System::currentTimeMillis, Durability.BATTERY);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writer.close();
+        writeBehind.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public long append() {
+        stream.emitSecond(writer);
+        return writer.getRecordCount();
+    }
+
+    @Benchmark
+    public long appendWriteBehind() {
+        stream.emitSecond(writeBehind);
+        return writeBehind.getQueuedCount();
+    }
+}
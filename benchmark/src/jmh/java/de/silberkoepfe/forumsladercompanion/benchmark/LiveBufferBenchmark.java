@@ -0,0 +1,50 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.storage.LiveBuffer;
+import de.silberkoepfe.forumsladercompanion.storage.LiveTelemetry;
+
+/**
+ * Adding a sample to a full {@link LiveBuffer} and reading the last five minutes
+ * of it, as the live view does every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LiveBufferBenchmark {
+    private static final int CAPACITY = LiveTelemetry.DEFAULT_CAPACITY;
+    private static final long FIVE_MINUTES = 5 * 60 * 1000;
+
+    private final LiveBuffer buffer = new LiveBuffer(CAPACITY);
+    private final long[] times = new long[CAPACITY];
+    private final float[] values = new float[CAPACITY];
+    private long time = SyntheticStream.START;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < CAPACITY; i++) {
+            add();
+        }
+    }
+
+    @Benchmark
+    public long add() {
+        buffer.add(time, time & 0xfff);
+        time += 1000;
+        return buffer.getCount();
+    }
+
+    @Benchmark
+    public int read() {
+        return buffer.read(time - FIVE_MINUTES, times, values);
+    }
+}
@@ -0,0 +1,52 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.monitor.ConnectionMetrics;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+
+/**
+ * Cost of the metrics on the notification path: a packet and a byte count per
+ * notification, from one binder thread or from several connections at once, with
+ * the registry enabled and disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsRegistryBenchmark {
+    private static final int NOTIFICATION_SIZE = 20;
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private MetricsRegistry registry;
+    private ConnectionMetrics metrics;
+
+    @Setup
+    public void setup() {
+        registry = new MetricsRegistry(System::currentTimeMillis);
+        registry.setEnabled(enabled);
+        metrics = new ConnectionMetrics(registry, System::currentTimeMillis, "02:46:4C:00:01:00");
+    }
+
+    @Benchmark
+    public void notification() {
+        metrics.onNotification(NOTIFICATION_SIZE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended() {
+        metrics.onNotification(NOTIFICATION_SIZE);
+    }
+}
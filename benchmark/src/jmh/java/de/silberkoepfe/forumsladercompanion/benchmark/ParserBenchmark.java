@@ -0,0 +1,86 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLChecksum;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+
+/**
+ * Decoding one second of notifications, as done on the decode thread for every
+ * notification of {@code FLDeviceBleImpl}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+    private static final int SECONDS = 64;
+
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private byte[][][] notifications;
+    private byte[][] text;
+    private FLSentenceParser parser;
+    private long sum;
+    private int second;
+
+    @Setup
+    public void setup() {
+        final List<byte[]> seconds = new SyntheticStream(rate).text(SECONDS);
+        notifications = new byte[SECONDS][][];
+        text = new byte[SECONDS][];
+        for (int i = 0; i < SECONDS; i++) {
+            text[i] = seconds.get(i);
+            notifications[i] = SyntheticStream.notifications(text[i]);
+        }
+        parser = new FLSentenceParser(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                sum += record.getDynamoFrequency();
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                sum += record.getPressure();
+            }
+        });
+    }
+
+    @Benchmark
+    public long parse() {
+        final byte[][] packets = notifications[second++ & (SECONDS - 1)];
+        for (byte[] packet : packets) {
+            parser.feed(packet, 0);
+        }
+        return sum;
+    }
+
+    // the checksums of the sentences of one second, without the rest of the parsing
+    @Benchmark
+    public int checksum() {
+        final byte[] bytes = text[second++ & (SECONDS - 1)];
+        int checksums = 0;
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '$') {
+                start = i + 1;
+            } else if (bytes[i] == '*') {
+                checksums += FLChecksum.compute(bytes, start, i);
+            }
+        }
+        return checksums;
+    }
+}
@@ -0,0 +1,58 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.storage.Channel;
+import de.silberkoepfe.forumsladercompanion.storage.LiveBuffer;
+import de.silberkoepfe.forumsladercompanion.storage.LiveTelemetry;
+
+/**
+ * Writing one second of records into the {@link LiveTelemetry} ring buffers and
+ * reading the last minute of one channel, as the live view does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RingBufferBenchmark {
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private SyntheticStream stream;
+    private LiveTelemetry live;
+    private long[] times;
+    private float[] values;
+
+    @Setup
+    public void setup() {
+        stream = new SyntheticStream(rate);
+        live = new LiveTelemetry();
+        times = new long[LiveTelemetry.DEFAULT_CAPACITY];
+        values = new float[LiveTelemetry.DEFAULT_CAPACITY];
+        // a full buffer, as after the first ten minutes
+        for (int i = 0; i < LiveTelemetry.DEFAULT_CAPACITY; i++) {
+            stream.emitSecond(live);
+        }
+    }
+
+    @Benchmark
+    public long write() {
+        stream.emitSecond(live);
+        return live.get(Channel.BATTERY_VOLTAGE).getCount();
+    }
+
+    @Benchmark
+    public int readLastMinute() {
+        final LiveBuffer buffer = live.get(Channel.BATTERY_VOLTAGE);
+        stream.emitSecond(live);
+        return buffer.read(stream.now() - 60 * 1000, times, values);
+    }
+}
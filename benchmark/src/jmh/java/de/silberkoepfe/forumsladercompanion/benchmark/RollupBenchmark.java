@@ -0,0 +1,65 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.storage.Channel;
+import de.silberkoepfe.forumsladercompanion.storage.Series;
+import de.silberkoepfe.forumsladercompanion.storage.TimeSeriesStore;
+
+/**
+ * Adding one second of records to the min/max/avg rollups of the
+ * {@link TimeSeriesStore} and querying them for a chart, over six hours of history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RollupBenchmark {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final int HISTORY_SECONDS = 6 * 60 * 60;
+    private static final int POINTS = 500;
+
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private SyntheticStream stream;
+    private TimeSeriesStore store;
+    private final Series series = new Series(POINTS);
+
+    @Setup
+    public void setup() {
+        stream = new SyntheticStream(rate);
+        store = new TimeSeriesStore();
+        for (int i = 0; i < HISTORY_SECONDS; i++) {
+            stream.emitSecond(store);
+        }
+    }
+
+    @Benchmark
+    public long add() {
+        stream.emitSecond(store);
+        return store.getSampleCount();
+    }
+
+    @Benchmark
+    public int queryLastHour() {
+        final long now = stream.now();
+        store.query(Channel.BATTERY_VOLTAGE, now - HOUR, now, series);
+        return series.size();
+    }
+
+    @Benchmark
+    public int queryHistory() {
+        final long now = stream.now();
+        store.query(Channel.BATTERY_VOLTAGE, SyntheticStream.START, now, series);
+        return series.size();
+    }
+}
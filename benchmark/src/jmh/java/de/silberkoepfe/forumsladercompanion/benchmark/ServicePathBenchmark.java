@@ -0,0 +1,67 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.metrics.DerivedMetrics;
+import de.silberkoepfe.forumsladercompanion.pipeline.RecordDispatcher;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+import de.silberkoepfe.forumsladercompanion.storage.LiveTelemetry;
+import de.silberkoepfe.forumsladercompanion.storage.TimeSeriesStore;
+
+/**
+ * One second of notifications through everything the decode thread runs per
+ * record in {@code BleService.onDataRecord}, without the journal: parsing, the
+ * live buffers, the derived metrics and the rollups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServicePathBenchmark {
+    private static final int SECONDS = 64;
+
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private byte[][][] notifications;
+    private FLSentenceParser parser;
+    private TimeSeriesStore history;
+    private long second;
+
+    @Setup
+    public void setup() {
+        final List<byte[]> text = new SyntheticStream(rate).text(SECONDS);
+        notifications = new byte[SECONDS][][];
+        for (int i = 0; i < SECONDS; i++) {
+            notifications[i] = SyntheticStream.notifications(text.get(i));
+        }
+        final RecordDispatcher dispatcher = new RecordDispatcher();
+        history = new TimeSeriesStore();
+        dispatcher.addListener(new LiveTelemetry());
+        dispatcher.addListener(new DerivedMetrics());
+        dispatcher.addListener(history);
+        parser = new FLSentenceParser(dispatcher);
+    }
+
+    @Benchmark
+    public long decodeAndDispatch() {
+        final byte[][] packets = notifications[(int) (second & (SECONDS - 1))];
+        final long start = SyntheticStream.START + second * 1000;
+        // the notifications of a sentence arrive within a few ms
+        final long step = 1000 / packets.length;
+        for (int i = 0; i < packets.length; i++) {
+            parser.feed(packets[i], start + i * step);
+        }
+        second++;
+        return history.getSampleCount();
+    }
+}
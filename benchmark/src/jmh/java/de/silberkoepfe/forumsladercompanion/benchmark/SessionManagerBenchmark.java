@@ -0,0 +1,126 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.FLScannerSimImpl;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+import de.silberkoepfe.forumsladercompanion.session.DeviceSession;
+import de.silberkoepfe.forumsladercompanion.session.SessionManager;
+import de.silberkoepfe.forumsladercompanion.sim.Recording;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.storage.Durability;
+import de.silberkoepfe.forumsladercompanion.util.ThreadScheduler;
+
+/**
+ * Simulated Forumsladers streaming at the same time, as the number of devices
+ * grows: connecting each one and replaying ten minutes of riding as fast as
+ * possible into a journal of its own, until every session has all records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionManagerBenchmark {
+    private static final int SECONDS = 600;
+    private static final long TIMEOUT = 20000;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int devices;
+
+    private Recording recording;
+    private long records;
+    private File directory;
+    private int run;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("sessions").toFile();
+        recording = new Recording();
+        final long[] count = {0};
+        final FLSentenceParser parser = new FLSentenceParser(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                count[0]++;
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                count[0]++;
+            }
+        });
+        final List<byte[]> text = new SyntheticStream(1).text(SECONDS);
+        for (int second = 0; second < SECONDS; second++) {
+            for (byte[] packet : SyntheticStream.notifications(text.get(second))) {
+                recording.add(second * 1000L, packet);
+                parser.feed(packet, 0);
+            }
+        }
+        records = count[0];
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public long stream() throws IOException, InterruptedException {
+        final List<Simulation> simulations = new ArrayList<>(devices);
+        for (int i = 0; i < devices; i++) {
+            final Simulation simulation = new Simulation(recording);
+            simulation.setAddress(String.format("02:46:4C:00:01:%02X", i));
+            simulation.setSpeed(Simulation.MAX_SPEED);
+            simulations.add(simulation);
+        }
+        final ThreadScheduler scheduler = new ThreadScheduler("SessionManagerBenchmark");
+        final SessionManager manager = new SessionManager(() -> System.nanoTime() / 1000000, System::currentTimeMillis, scheduler,
+                new File(directory, String.valueOf(run++)), Durability.BATTERY);
+        manager.setScanner(new FLScannerSimImpl(simulations, scheduler, System::currentTimeMillis, manager));
+        try {
+            for (Simulation simulation : simulations) {
+                manager.open(simulation.getAddress());
+            }
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            for (DeviceSession session : manager.getSessions()) {
+                while (session.getRecordCount() < records) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("timed out: " + session);
+                    }
+                    Thread.sleep(1);
+                }
+            }
+            return manager.getRecordCount();
+        } finally {
+            manager.closeAll();
+            scheduler.stop(1000);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.status.StatusPublisher;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Publishing the status once per notification for one second, the way
+ * {@code BleService.setStatus} is driven by the connection events. Steady
+ * repeats the current status, flapping changes it every time, so deliveries are
+ * coalesced to the frame budget.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatusPublisherBenchmark {
+    // as BleService.STATUS_FRAME_BUDGET
+    private static final long FRAME_BUDGET = 200;
+    // three notifications carry a sentence
+    private static final int NOTIFICATIONS_PER_RECORD = 3;
+
+    enum Status {
+        CONNECTED,
+        RECEIVING
+    }
+
+    @Param({"1", "10", "100"})
+    public int rate;
+
+    private final VirtualTime time = new VirtualTime();
+    private StatusPublisher<Status> publisher;
+    private int delivered;
+
+    @Setup
+    public void setup() {
+        publisher = new StatusPublisher<>(time, time, FRAME_BUDGET, Status.CONNECTED);
+        publisher.addListener(status -> delivered++);
+    }
+
+    @Benchmark
+    public int steady() {
+        final int count = rate * NOTIFICATIONS_PER_RECORD;
+        final long step = 1000 / count;
+        for (int i = 0; i < count; i++) {
+            publisher.publish(Status.RECEIVING);
+            time.advance(step);
+        }
+        time.advance(1000 - step * count);
+        return delivered;
+    }
+
+    @Benchmark
+    public int flapping() {
+        final int count = rate * NOTIFICATIONS_PER_RECORD;
+        final long step = 1000 / count;
+        for (int i = 0; i < count; i++) {
+            publisher.publish((i & 1) == 0 ? Status.RECEIVING : Status.CONNECTED);
+            time.advance(step);
+        }
+        time.advance(1000 - step * count);
+        return delivered;
+    }
+
+    // runs the single pending delivery of the publisher once it is due
+    private static class VirtualTime implements Clock, Scheduler {
+        private final Task none = () -> {
+        };
+        private long now;
+        private Runnable pending;
+        private long due;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public Task schedule(Runnable runnable, long delayMillis) {
+            pending = runnable;
+            due = now + delayMillis;
+            return none;
+        }
+
+        void advance(long millis) {
+            now += millis;
+            if (pending != null && due <= now) {
+                final Runnable runnable = pending;
+                pending = null;
+                runnable.run();
+            }
+        }
+    }
+}
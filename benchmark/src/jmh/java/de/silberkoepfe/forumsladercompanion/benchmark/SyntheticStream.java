@@ -0,0 +1,140 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLChecksum;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Forumslader output at a multiple of the real rate, which is a $FL5 sentence a
+ * second and a $FLB sentence every fifth second, sent in 20 byte notifications.
+ * <p>
+ * The values come from tables filled once, {@link #emitSecond} reuses two record
+ * instances like the parser and allocates nothing.
+ */
+final class SyntheticStream {
+    static final long START = 1539000000000L;
+    static final int NOTIFICATION_SIZE = 20;
+    static final int BARO_INTERVAL = 5;
+    private static final int TABLE_SIZE = 4096;
+
+    private final int rate;
+    private final int[] frequency = new int[TABLE_SIZE];
+    private final int[] cellVoltage = new int[TABLE_SIZE];
+    private final int[] batteryCurrent = new int[TABLE_SIZE];
+    private final int[] loadCurrent = new int[TABLE_SIZE];
+    private final int[] pressure = new int[TABLE_SIZE];
+    private final FLDataRecord data = new FLDataRecord();
+    private final FLBaroRecord baro = new FLBaroRecord();
+    private long second;
+    private int index;
+
+    /**
+     * @param rate multiple of the real rate
+     */
+    SyntheticStream(int rate) {
+        this.rate = rate;
+        final Random random = new Random(42);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            // riding at 15 to 30 km/h with the lights on
+            frequency[i] = 40 + random.nextInt(50);
+            cellVoltage[i] = 3900 + random.nextInt(250);
+            batteryCurrent[i] = random.nextInt(1200) - 400;
+            loadCurrent[i] = 200 + random.nextInt(500);
+            pressure[i] = 96000 + random.nextInt(1000);
+        }
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    /**
+     * @return number of data records per second
+     */
+    int getDataRecordsPerSecond() {
+        return rate;
+    }
+
+    /**
+     * @return the time the next second starts at
+     */
+    long now() {
+        return START + second * 1000;
+    }
+
+    /**
+     * Hands the records of the next second to the listener, the timestamps go on
+     * from the previous call.
+     */
+    void emitSecond(FLRecordListener listener) {
+        final long start = now();
+        for (int i = 0; i < rate; i++) {
+            final int n = index++ & (TABLE_SIZE - 1);
+            final long time = start + i * 1000L / rate;
+            listener.onDataRecord(data.set(time, 0x0c01, 3, frequency[n], cellVoltage[n], cellVoltage[n] + 1,
+                    cellVoltage[n] - 1, batteryCurrent[n], loadCurrent[n]));
+            if (n % BARO_INTERVAL == 0) {
+                listener.onBaroRecord(baro.set(time, 185, pressure[n], 4215));
+            }
+        }
+        second++;
+    }
+
+    /**
+     * Leaves out the records of the given number of seconds, as while the bike is
+     * parked.
+     */
+    void skip(int seconds) {
+        second += seconds;
+    }
+
+    /**
+     * @return the sentences of the given number of seconds as they are sent, each
+     * element one second
+     */
+    List<byte[]> text(int seconds) {
+        final List<byte[]> text = new ArrayList<>(seconds);
+        final StringBuilder builder = new StringBuilder();
+        for (int s = 0; s < seconds; s++) {
+            builder.setLength(0);
+            for (int i = 0; i < rate; i++) {
+                final int n = (s * rate + i) & (TABLE_SIZE - 1);
+                appendSentence(builder, String.format("FL5,%04X,3,%d,%d,%d,%d,%d,%d", 0x0c01, frequency[n],
+                        cellVoltage[n], cellVoltage[n] + 1, cellVoltage[n] - 1, batteryCurrent[n], loadCurrent[n]));
+                if (n % BARO_INTERVAL == 0) {
+                    appendSentence(builder, String.format("FLB,185,%d,4215", pressure[n]));
+                }
+            }
+            text.add(builder.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return text;
+    }
+
+    private static void appendSentence(StringBuilder builder, String body) {
+        final byte[] bytes = body.getBytes(StandardCharsets.US_ASCII);
+        final int checksum = FLChecksum.compute(bytes, 0, bytes.length);
+        builder.append('$').append(body).append('*')
+                .append((char) FLChecksum.hexDigit(checksum >> 4))
+                .append((char) FLChecksum.hexDigit(checksum))
+                .append("\r\n");
+    }
+
+    /**
+     * @return the text cut into notifications
+     */
+    static byte[][] notifications(byte[] text) {
+        final byte[][] notifications = new byte[(text.length + NOTIFICATION_SIZE - 1) / NOTIFICATION_SIZE][];
+        for (int i = 0; i < notifications.length; i++) {
+            final int from = i * NOTIFICATION_SIZE;
+            notifications[i] = new byte[Math.min(NOTIFICATION_SIZE, text.length - from)];
+            System.arraycopy(text, from, notifications[i], 0, notifications[i].length);
+        }
+        return notifications;
+    }
+}
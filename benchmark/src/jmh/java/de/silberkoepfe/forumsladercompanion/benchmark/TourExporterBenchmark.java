@@ -0,0 +1,84 @@
+package de.silberkoepfe.forumsladercompanion.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.export.ExportFormat;
+import de.silberkoepfe.forumsladercompanion.export.TourExporter;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+
+/**
+ * Exporting a journal of a week of riding, 10 hours a day at the real rate, to a
+ * file channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TourExporterBenchmark {
+    private static final int DAYS = 7;
+
+    @Param({"CSV", "FIT"})
+    public ExportFormat format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private final TourExporter exporter = new TourExporter();
+    private File directory;
+    private File journal;
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("export").toFile();
+        journal = new File(directory, "journal");
+        final SyntheticStream stream = new SyntheticStream(1);
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            for (int second = 0; second < DAYS * 10 * 3600; second++) {
+                stream.emitSecond(writer);
+            }
+        }
+        file = new RandomAccessFile(new File(directory, "export"), "rw");
+        channel = file.getChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        file.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        return exporter.export(new JournalReader(journal), format, channel, gzip);
+    }
+}
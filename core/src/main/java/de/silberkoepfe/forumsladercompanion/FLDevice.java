@@ -0,0 +1,35 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.gatt.LinkTuner;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+public interface FLDevice {
+    /**
+     * Receives what one device reports. Records arrive on the decode thread of the
+     * device, connection events from any thread.
+     */
+    interface Listener extends FLRecordListener {
+        void onConnectionEvent(ConnectionEvent event);
+    }
+
+    /**
+     * Hands each device the listener for its address, so several devices can be
+     * connected at the same time.
+     */
+    interface Listeners {
+        Listener forDevice(String address);
+    }
+
+    void disconnect();
+
+    /**
+     * @return address to reconnect to without scanning
+     */
+    String getAddress();
+
+    /**
+     * @return negotiated link parameters and throughput
+     */
+    LinkTuner getLinkTuner();
+}
@@ -0,0 +1,148 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.gatt.GattFuture;
+import de.silberkoepfe.forumsladercompanion.gatt.GattOperation;
+import de.silberkoepfe.forumsladercompanion.gatt.GattQueue;
+import de.silberkoepfe.forumsladercompanion.gatt.LinkTuner;
+import de.silberkoepfe.forumsladercompanion.pipeline.DecodePipeline;
+import de.silberkoepfe.forumsladercompanion.sim.Replayer;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+import static de.silberkoepfe.forumsladercompanion.gatt.GattOperation.Type.DESCRIPTOR_WRITE;
+import static de.silberkoepfe.forumsladercompanion.gatt.GattOperation.Type.DISCOVER_SERVICES;
+
+/**
+ * Connection to the simulated Forumslader of a {@link FLScannerSimImpl}. Goes
+ * through the same connection events as {@code FLDeviceBleImpl} and feeds the
+ * replayed notifications into a {@link DecodePipeline} of its own.
+ * <p>
+ * Service discovery and subscription are GATT operations that take their share
+ * of the connect latency, so the devices of one scanner wait for each other on
+ * the shared {@link GattArbiter} like on a real stack.
+ */
+class FLDeviceSimImpl implements FLDevice {
+    private final String address;
+    private final Replayer replayer;
+    private final Simulation simulation;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final FLDevice.Listener listener;
+    private final DecodePipeline pipeline;
+    private final GattQueue gattQueue;
+    private final LinkTuner linkTuner = new LinkTuner(priority -> true);
+    private Scheduler.Task setup;
+    private boolean disconnected;
+
+    /**
+     * @param replayer the device to connect to, null for one that is out of range
+     */
+    FLDeviceSimImpl(String address, Replayer replayer, Simulation simulation, Scheduler scheduler, Clock clock,
+                    GattArbiter arbiter, FLDevice.Listener listener) {
+        this.address = address;
+        this.replayer = replayer;
+        this.simulation = simulation;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.listener = listener;
+        gattQueue = new GattQueue(clock, scheduler, arbiter);
+        pipeline = new DecodePipeline(address, timestamp -> listener.onConnectionEvent(ConnectionEvent.NOTIFICATION));
+        pipeline.addRecordListener(listener);
+        pipeline.start();
+        if (replayer != null) {
+            setup = scheduler.schedule(this::onConnected, simulation.getConnectLatency() / 2);
+        }
+    }
+
+    // the setup steps run on the service thread
+    private synchronized void onConnected() {
+        setup = null;
+        linkTuner.onConnected();
+        listener.onConnectionEvent(ConnectionEvent.GATT_CONNECTED);
+        final long latency = simulation.getConnectLatency() - simulation.getConnectLatency() / 2;
+        final long discover = latency / 2;
+        gattQueue.<Void>submit(DISCOVER_SERVICES, () -> answer(DISCOVER_SERVICES, discover)).whenDone(future -> {
+            if (future.isSuccess()) {
+                listener.onConnectionEvent(ConnectionEvent.SERVICES_DISCOVERED);
+            }
+        });
+        gattQueue.<Void>submit(DESCRIPTOR_WRITE, () -> answer(DESCRIPTOR_WRITE, latency - discover)).whenDone(future -> {
+            if (future.isSuccess()) {
+                onSubscribed();
+            }
+        });
+    }
+
+    private synchronized boolean answer(GattOperation.Type type, long delay) {
+        if (disconnected) {
+            return false;
+        }
+        setup = scheduler.schedule(() -> gattQueue.onCompleted(type, GattFuture.GATT_SUCCESS, null), delay);
+        return true;
+    }
+
+    private synchronized void onSubscribed() {
+        setup = null;
+        if (disconnected) {
+            return;
+        }
+        listener.onConnectionEvent(ConnectionEvent.NOTIFICATIONS_ENABLED);
+        linkTuner.onSteady();
+        replayer.connect(new Replayer.Sink() {
+            @Override
+            public boolean onNotification(byte[] data, long timestamp) {
+                // at max speed the replayer waits for room instead of losing packets
+                if (simulation.isMaxSpeed() && pipeline.getQueuedCount() >= pipeline.getCapacity()) {
+                    return false;
+                }
+                linkTuner.onReceived(data.length, clock.now());
+                return pipeline.submit(data, timestamp);
+            }
+
+            @Override
+            public void onDisconnected() {
+                listener.onConnectionEvent(ConnectionEvent.GATT_DISCONNECTED);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        disconnected = true;
+        if (setup != null) {
+            setup.cancel();
+            setup = null;
+        }
+        gattQueue.clear();
+        if (replayer != null) {
+            replayer.disconnect();
+        }
+        pipeline.stop();
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public LinkTuner getLinkTuner() {
+        return linkTuner;
+    }
+
+    DecodePipeline getPipeline() {
+        return pipeline;
+    }
+
+    GattQueue getGattQueue() {
+        return gattQueue;
+    }
+
+    @Override
+    public String toString() {
+        return "FLDeviceSimImpl{" + address + ", " + pipeline + ", " + linkTuner + "}";
+    }
+}
@@ -0,0 +1,70 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import java.util.Collection;
+
+import de.silberkoepfe.forumsladercompanion.scan.ScanMode;
+
+public interface FLScanner {
+    /**
+     * Called on the service thread, exactly one method per scan unless it is cancelled.
+     */
+    interface Callback {
+        void onDeviceFound(FLDevice device);
+
+        void onScanTimeout();
+
+        void onScanFailed(int errorCode);
+    }
+
+    /**
+     * Starts scanning and returns immediately. The first matching device is
+     * connected and handed to the callback.
+     *
+     * @param mode trade-off between latency and energy of the scan
+     */
+    void findDevice(ScanMode mode, long timeoutMillis, Callback callback) throws FLScannerException;
+
+    /**
+     * Connects to a device seen before without scanning and hands it to the callback
+     * right away. Whether the device is actually in range shows when it connects.
+     * The connection is opened when the device is handed over, so a {@link #cancel}
+     * before leaves nothing open.
+     *
+     * @param address address from {@link FLDevice#getAddress()}
+     */
+    void connectDevice(String address, Callback callback) throws FLScannerException;
+
+    /**
+     * Scans that see several Forumsladers hand over one of these first, unless
+     * another one is much closer.
+     *
+     * @param addresses addresses from {@link FLDevice#getAddress()}
+     */
+    void setKnownDevices(Collection<String> addresses);
+
+    /**
+     * Scans never hand over these, they are connected by address elsewhere.
+     *
+     * @param addresses addresses from {@link FLDevice#getAddress()}
+     */
+    void setIgnoredDevices(Collection<String> addresses);
+
+    /**
+     * Stops a running scan and the connects not handed over yet, their callbacks
+     * will not be called anymore.
+     */
+    void cancel();
+
+    /**
+     * Stops connecting the device, the callback of its {@link #connectDevice} will
+     * not be called anymore. Scans and the connects of other devices go on.
+     */
+    void cancel(String address);
+
+    boolean isScanning();
+
+    /**
+     * @return true if bluetooth is enabled and the scan permissions are granted
+     */
+    boolean isAvailable();
+}
@@ -0,0 +1,4 @@
+package de.silberkoepfe.forumsladercompanion;
+
+public class FLScannerException extends Exception {
+}
@@ -0,0 +1,223 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.silberkoepfe.forumsladercompanion.gatt.GattArbiter;
+import de.silberkoepfe.forumsladercompanion.scan.ScanMode;
+import de.silberkoepfe.forumsladercompanion.sim.Replayer;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Finds the simulated Forumsladers of one or more {@link Simulation}s instead of
+ * real ones. Needs no Android API, so the whole chain from the notifications to
+ * the records runs on a plain JVM.
+ * <p>
+ * A scan takes the scan latency of the simulation and fails with its scan failure
+ * rate. Scans find a known device first, else the simulated devices in turn, never an ignored one. Each
+ * device keeps its place in its recording across connections, and all devices share one GATT stack.
+ */
+public class FLScannerSimImpl implements FLScanner {
+    // as ScanCallback.SCAN_FAILED_INTERNAL_ERROR
+    static final int SCAN_FAILED_INTERNAL_ERROR = 3;
+
+    private final List<Simulation> simulations;
+    private final Map<String, Replayer> replayers = new LinkedHashMap<>();
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final GattArbiter arbiter;
+    private final FLDevice.Listeners listeners;
+    private Scheduler.Task scan;
+    // handovers of connectDevice not run yet, by address
+    private final Map<String, Scheduler.Task> connects = new HashMap<>();
+    private int nextFound;
+    private volatile Set<String> knownDevices = Collections.emptySet();
+    private volatile Set<String> ignoredDevices = Collections.emptySet();
+
+    private volatile long scanCount;
+    private volatile long scanFailureCount;
+
+    public FLScannerSimImpl(Simulation simulation, Scheduler scheduler, Clock clock, FLDevice.Listeners listeners) {
+        this(Collections.singletonList(simulation), scheduler, clock, listeners);
+    }
+
+    /**
+     * @param simulations devices in range, each with an address of its own
+     * @param clock time of the notifications, the wall clock on the phone
+     * @param listeners get the decoded records on the decode thread of each device
+     */
+    public FLScannerSimImpl(List<Simulation> simulations, Scheduler scheduler, Clock clock,
+                            FLDevice.Listeners listeners) {
+        this(simulations, scheduler, clock, listeners, new GattArbiter(clock));
+    }
+
+    /**
+     * @param arbiter shared with the devices of other scanners on the same GATT stack
+     */
+    public FLScannerSimImpl(List<Simulation> simulations, Scheduler scheduler, Clock clock,
+                            FLDevice.Listeners listeners, GattArbiter arbiter) {
+        this.simulations = new ArrayList<>(simulations);
+        for (Simulation simulation : simulations) {
+            if (replayers.put(simulation.getAddress(), new Replayer(simulation, clock)) != null) {
+                throw new IllegalArgumentException("address " + simulation.getAddress() + " used twice");
+            }
+        }
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.arbiter = arbiter;
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void findDevice(ScanMode mode, long timeoutMillis, Callback callback) {
+        cancelScan();
+        scanCount++;
+        final Simulation simulation = nextFound();
+        if (simulation == null || simulation.getScanLatency() > timeoutMillis) {
+            scan = scheduler.schedule(() -> {
+                scan = null;
+                callback.onScanTimeout();
+            }, timeoutMillis);
+            return;
+        }
+        scan = scheduler.schedule(() -> {
+            scan = null;
+            if (replayers.get(simulation.getAddress()).nextScanFails()) {
+                scanFailureCount++;
+                callback.onScanFailed(SCAN_FAILED_INTERNAL_ERROR);
+            } else {
+                callback.onDeviceFound(newDevice(simulation.getAddress()));
+            }
+        }, simulation.getScanLatency());
+    }
+
+    // null if all devices are ignored
+    private Simulation nextFound() {
+        final Set<String> ignored = ignoredDevices;
+        for (Simulation simulation : simulations) {
+            if (knownDevices.contains(simulation.getAddress()) && !ignored.contains(simulation.getAddress())) {
+                return simulation;
+            }
+        }
+        for (int i = 0; i < simulations.size(); i++) {
+            final Simulation simulation = simulations.get(nextFound);
+            nextFound = (nextFound + 1) % simulations.size();
+            if (!ignored.contains(simulation.getAddress())) {
+                return simulation;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void setKnownDevices(Collection<String> addresses) {
+        knownDevices = addresses == null ? Collections.<String>emptySet() : new HashSet<>(addresses);
+    }
+
+    @Override
+    public void setIgnoredDevices(Collection<String> addresses) {
+        ignoredDevices = addresses == null ? Collections.<String>emptySet() : new HashSet<>(addresses);
+    }
+
+    @Override
+    public void connectDevice(String address, Callback callback) {
+        // as on bluetooth a connect stops the scan, the connects of other devices go on
+        cancelScan();
+        // same thread and order as a scan result, the device connects after it was handed over
+        final Scheduler.Task previous = connects.put(address, scheduler.schedule(() -> {
+            connects.remove(address);
+            callback.onDeviceFound(newDevice(address));
+        }, 0));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    // a device with another address is out of range and never connects
+    private FLDevice newDevice(String address) {
+        final Replayer replayer = replayers.get(address);
+        final Simulation simulation = replayer != null ? replayer.getSimulation() : simulations.get(0);
+        return new FLDeviceSimImpl(address, replayer, simulation, scheduler, clock, arbiter,
+                listeners.forDevice(address));
+    }
+
+    @Override
+    public void cancel() {
+        cancelScan();
+        for (Scheduler.Task connect : connects.values()) {
+            connect.cancel();
+        }
+        connects.clear();
+    }
+
+    @Override
+    public void cancel(String address) {
+        final Scheduler.Task connect = connects.remove(address);
+        if (connect != null) {
+            connect.cancel();
+        }
+    }
+
+    private void cancelScan() {
+        if (scan != null) {
+            scan.cancel();
+            scan = null;
+        }
+    }
+
+    @Override
+    public boolean isScanning() {
+        return scan != null;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * @return the first simulated device
+     */
+    public Simulation getSimulation() {
+        return simulations.get(0);
+    }
+
+    public List<Simulation> getSimulations() {
+        return Collections.unmodifiableList(simulations);
+    }
+
+    public Replayer getReplayer() {
+        return replayers.get(getSimulation().getAddress());
+    }
+
+    public Replayer getReplayer(String address) {
+        return replayers.get(address);
+    }
+
+    public GattArbiter getArbiter() {
+        return arbiter;
+    }
+
+    public long getScanCount() {
+        return scanCount;
+    }
+
+    public long getScanFailureCount() {
+        return scanFailureCount;
+    }
+
+    @Override
+    public String toString() {
+        return "FLScannerSimImpl{scans=" + scanCount + ", failed=" + scanFailureCount + ", " + replayers.values()
+                + ", " + arbiter + "}";
+    }
+}
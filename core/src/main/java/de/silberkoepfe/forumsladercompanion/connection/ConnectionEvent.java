@@ -0,0 +1,24 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+public enum ConnectionEvent {
+    /** service (re)started by the user or the system */
+    START,
+    /** service stopped by the user */
+    STOP,
+    ADAPTER_ON,
+    ADAPTER_OFF,
+    /** bluetooth disabled or location permission missing when a scan was due */
+    BLUETOOTH_UNAVAILABLE,
+    SCAN_RESULT,
+    SCAN_TIMEOUT,
+    SCAN_FAILED,
+    GATT_CONNECTED,
+    GATT_DISCONNECTED,
+    SERVICES_DISCOVERED,
+    NOTIFICATIONS_ENABLED,
+    NOTIFICATION,
+    /** the link went quiet while receiving */
+    LINK_LOST,
+    /** the time limit of the current state expired */
+    TIMEOUT
+}
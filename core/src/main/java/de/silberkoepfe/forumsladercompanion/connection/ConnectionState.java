@@ -0,0 +1,14 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+public enum ConnectionState {
+    STOPPED,
+    BLUETOOTH_REQUESTED,
+    WAITING_FOR_BLUETOOTH,
+    SCANNING,
+    RETRY_WAIT,
+    CONNECTING,
+    DISCOVERING_SERVICES,
+    SUBSCRIBING,
+    CONNECTED,
+    RECEIVING
+}
@@ -0,0 +1,293 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent.*;
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionState.*;
+
+/**
+ * Table driven state machine for the connection to the Forumslader.
+ * <p>
+ * Events may be posted from any thread, they are handled one after the other on
+ * the {@link Scheduler} thread, which is the only thread touching the state. Each
+ * table cell holds the transitions for one state/event pair, the first one whose
+ * guard allows it is taken. Events without a transition are ignored.
+ * <p>
+ * States can have a time limit; when it expires a {@link ConnectionEvent#TIMEOUT}
+ * is handled. The time limit of {@link ConnectionState#RETRY_WAIT} is the retry
+ * delay after a scan without result or a lost connection, so a device that accepts
+ * and drops connections is not retried in a tight loop.
+ */
+public class ConnectionStateMachine {
+    public static final long DEFAULT_RETRY_DELAY = 5000;
+    public static final long DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final long DEFAULT_DISCOVERY_TIMEOUT = 10000;
+    public static final long DEFAULT_SUBSCRIBE_TIMEOUT = 5000;
+    public static final long DEFAULT_FIRST_NOTIFICATION_TIMEOUT = 10000;
+
+    /**
+     * Side effects of the transitions, called on the scheduler thread. Results are
+     * reported back by posting events.
+     */
+    public interface Actions {
+        /**
+         * @return true if bluetooth is enabled and all permissions are granted
+         */
+        boolean isBluetoothReady();
+
+        void startScan();
+
+        void stopScan();
+
+        void disconnect();
+    }
+
+    public interface Listener {
+        void onStateChanged(ConnectionState from, ConnectionEvent event, ConnectionState to);
+    }
+
+    /**
+     * Supplies the time limit of {@link ConnectionState#RETRY_WAIT} each time it is entered.
+     */
+    public interface RetryDelay {
+        long nextRetryDelay();
+    }
+
+    private interface Guard {
+        boolean allows();
+    }
+
+    private static final class Transition {
+        final Guard guard;
+        final ConnectionState target;
+        final Runnable action;
+        Transition next;
+
+        Transition(Guard guard, ConnectionState target, Runnable action) {
+            this.guard = guard;
+            this.target = target;
+            this.action = action;
+        }
+    }
+
+    private static final ConnectionState[] RUNNING = {
+            BLUETOOTH_REQUESTED, WAITING_FOR_BLUETOOTH, SCANNING, RETRY_WAIT,
+            CONNECTING, DISCOVERING_SERVICES, SUBSCRIBING, CONNECTED, RECEIVING};
+    private static final ConnectionState[] LINKED = {
+            CONNECTING, DISCOVERING_SERVICES, SUBSCRIBING, CONNECTED, RECEIVING};
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final Actions actions;
+    private final Listener listener;
+    private final Transition[][] table = new Transition[ConnectionState.values().length][ConnectionEvent.values().length];
+    private final long[] timeouts = new long[ConnectionState.values().length];
+    private final Runnable[] eventTasks = new Runnable[ConnectionEvent.values().length];
+    private RetryDelay retryDelay;
+
+    private volatile ConnectionState state = STOPPED;
+    private long stateEnteredAt;
+    private Scheduler.Task timeoutTask;
+    private int timeoutGeneration;
+
+    private volatile long transitionCount;
+    private volatile long ignoredCount;
+    private volatile long reconnectCount;
+
+    public ConnectionStateMachine(Clock clock, Scheduler scheduler, Actions actions, Listener listener) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.actions = actions;
+        this.listener = listener;
+        this.stateEnteredAt = clock.now();
+
+        for (ConnectionEvent event : ConnectionEvent.values()) {
+            eventTasks[event.ordinal()] = () -> handle(event);
+        }
+
+        setTimeout(RETRY_WAIT, DEFAULT_RETRY_DELAY);
+        setTimeout(CONNECTING, DEFAULT_CONNECT_TIMEOUT);
+        setTimeout(DISCOVERING_SERVICES, DEFAULT_DISCOVERY_TIMEOUT);
+        setTimeout(SUBSCRIBING, DEFAULT_SUBSCRIBE_TIMEOUT);
+        setTimeout(CONNECTED, DEFAULT_FIRST_NOTIFICATION_TIMEOUT);
+
+        final Guard ready = actions::isBluetoothReady;
+        final Runnable scan = actions::startScan;
+        final Runnable reconnect = () -> {
+            reconnectCount++;
+            actions.disconnect();
+        };
+        final Runnable shutdown = () -> {
+            actions.stopScan();
+            actions.disconnect();
+        };
+
+        when(START, STOPPED, BLUETOOTH_REQUESTED, RETRY_WAIT).provided(ready).go(SCANNING, scan);
+        when(START, STOPPED, RETRY_WAIT).go(BLUETOOTH_REQUESTED, null);
+        when(ADAPTER_ON, BLUETOOTH_REQUESTED, WAITING_FOR_BLUETOOTH).provided(ready).go(SCANNING, scan);
+        when(ADAPTER_ON, WAITING_FOR_BLUETOOTH).go(BLUETOOTH_REQUESTED, null);
+        when(TIMEOUT, RETRY_WAIT).provided(ready).go(SCANNING, scan);
+        when(TIMEOUT, RETRY_WAIT).go(BLUETOOTH_REQUESTED, null);
+
+        when(BLUETOOTH_UNAVAILABLE, SCANNING).go(BLUETOOTH_REQUESTED, null);
+        when(SCAN_RESULT, SCANNING).go(CONNECTING, null);
+        when(SCAN_TIMEOUT, SCANNING).go(RETRY_WAIT, null);
+        when(SCAN_FAILED, SCANNING).go(RETRY_WAIT, actions::stopScan);
+
+        when(GATT_CONNECTED, CONNECTING).go(DISCOVERING_SERVICES, null);
+        when(SERVICES_DISCOVERED, DISCOVERING_SERVICES).go(SUBSCRIBING, null);
+        when(NOTIFICATIONS_ENABLED, SUBSCRIBING).go(CONNECTED, null);
+        // notifications may arrive before the descriptor write is acknowledged
+        when(NOTIFICATION, SUBSCRIBING, CONNECTED).go(RECEIVING, null);
+
+        // connection lost or stuck, look for the device again after the retry delay
+        when(GATT_DISCONNECTED, LINKED).go(RETRY_WAIT, reconnect);
+        when(TIMEOUT, CONNECTING, DISCOVERING_SERVICES, SUBSCRIBING, CONNECTED).go(RETRY_WAIT, reconnect);
+        when(LINK_LOST, RECEIVING).go(RETRY_WAIT, reconnect);
+
+        when(ADAPTER_OFF, RUNNING).go(WAITING_FOR_BLUETOOTH, shutdown);
+        when(STOP, RUNNING).go(STOPPED, shutdown);
+        when(STOP, STOPPED).go(STOPPED, null);
+    }
+
+    /**
+     * Sets the time limit of a state, 0 disables it.
+     */
+    public void setTimeout(ConnectionState state, long millis) {
+        timeouts[state.ordinal()] = millis;
+    }
+
+    public long getTimeout(ConnectionState state) {
+        return timeouts[state.ordinal()];
+    }
+
+    /**
+     * Replaces the fixed time limit of {@link ConnectionState#RETRY_WAIT}.
+     */
+    public void setRetryDelay(RetryDelay retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Queues the event for the scheduler thread. Can be called from any thread and
+     * does not allocate.
+     */
+    public void post(ConnectionEvent event) {
+        if (event == NOTIFICATION && state == RECEIVING) {
+            // the common case while streaming, nothing to do
+            return;
+        }
+        scheduler.schedule(eventTasks[event.ordinal()], 0);
+    }
+
+    /**
+     * Handles the event, must be called on the scheduler thread.
+     */
+    void handle(ConnectionEvent event) {
+        final ConnectionState from = state;
+        Transition transition = table[from.ordinal()][event.ordinal()];
+        while (transition != null && transition.guard != null && !transition.guard.allows()) {
+            transition = transition.next;
+        }
+        if (transition == null) {
+            ignoredCount++;
+            return;
+        }
+
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+        timeoutGeneration++;
+
+        state = transition.target;
+        stateEnteredAt = clock.now();
+        transitionCount++;
+        // listeners see the new state before the action starts working in it
+        if (listener != null) {
+            listener.onStateChanged(from, event, state);
+        }
+        if (transition.action != null) {
+            transition.action.run();
+        }
+
+        final long timeout = state == RETRY_WAIT && retryDelay != null
+                ? retryDelay.nextRetryDelay()
+                : timeouts[state.ordinal()];
+        if (timeout > 0) {
+            final int generation = timeoutGeneration;
+            timeoutTask = scheduler.schedule(() -> {
+                // ignore a timer that fired although it was cancelled
+                if (generation == timeoutGeneration) {
+                    handle(TIMEOUT);
+                }
+            }, timeout);
+        }
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * @return time in the current state, only meaningful on the scheduler thread
+     */
+    public long getTimeInState() {
+        return clock.now() - stateEnteredAt;
+    }
+
+    public long getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * @return number of events without a transition in the state they arrived in
+     */
+    public long getIgnoredCount() {
+        return ignoredCount;
+    }
+
+    /**
+     * @return number of times a lost or stuck connection was given up
+     */
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    private TransitionBuilder when(ConnectionEvent event, ConnectionState... from) {
+        return new TransitionBuilder(event, from);
+    }
+
+    private final class TransitionBuilder {
+        private final ConnectionEvent event;
+        private final ConnectionState[] from;
+        private Guard guard;
+
+        TransitionBuilder(ConnectionEvent event, ConnectionState[] from) {
+            this.event = event;
+            this.from = from;
+        }
+
+        TransitionBuilder provided(Guard guard) {
+            this.guard = guard;
+            return this;
+        }
+
+        void go(ConnectionState target, Runnable action) {
+            for (ConnectionState state : from) {
+                final Transition transition = new Transition(guard, target, action);
+                final int column = event.ordinal();
+                Transition last = table[state.ordinal()][column];
+                if (last == null) {
+                    table[state.ordinal()][column] = transition;
+                } else {
+                    while (last.next != null) {
+                        last = last.next;
+                    }
+                    last.next = transition;
+                }
+            }
+        }
+    }
+}
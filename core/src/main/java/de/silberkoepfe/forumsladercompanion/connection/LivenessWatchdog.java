@@ -0,0 +1,171 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Detects a link that stopped delivering sentences although it is still connected.
+ * <p>
+ * Learns the sentence cadence as a moving average of the gaps between sentences.
+ * The link stalls when no sentence arrived for the cadence times the cadence
+ * factor, bounded by the minimum and maximum threshold. Only one check is pending
+ * at a time, scheduled for the moment the current silence would become a stall,
+ * so {@link #onSentence()} costs a clock read and two field writes.
+ * <p>
+ * {@link #start}, {@link #stop} and the listener run on the scheduler thread,
+ * {@link #onSentence()} on the thread decoding the sentences.
+ */
+public class LivenessWatchdog {
+    public static final long DEFAULT_MIN_THRESHOLD = 3000;
+    public static final long DEFAULT_MAX_THRESHOLD = 10000;
+    public static final int DEFAULT_CADENCE_FACTOR = 5;
+    // weight of a new gap in the cadence average is 1 / 2^CADENCE_SHIFT
+    static final int CADENCE_SHIFT = 3;
+
+    public interface Listener {
+        /**
+         * @param silence time since the last sentence
+         */
+        void onStall(long silence);
+    }
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private long minThreshold = DEFAULT_MIN_THRESHOLD;
+    private long maxThreshold = DEFAULT_MAX_THRESHOLD;
+    private int cadenceFactor = DEFAULT_CADENCE_FACTOR;
+
+    private volatile long lastSentence;
+    private volatile long cadence;
+    private volatile long maxGap;
+    private boolean running;
+    private int generation;
+    private Scheduler.Task checkTask;
+
+    private final LatencyStats stalls = new LatencyStats();
+    private volatile long sentenceCount;
+
+    public LivenessWatchdog(Clock clock, Scheduler scheduler, Listener listener) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching, the silence is measured from now.
+     */
+    public void start() {
+        stop();
+        running = true;
+        lastSentence = clock.now();
+        cadence = 0;
+        schedule(threshold());
+    }
+
+    public void stop() {
+        running = false;
+        generation++;
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+    }
+
+    public void onSentence() {
+        final long now = clock.now();
+        final long gap = now - lastSentence;
+        lastSentence = now;
+        sentenceCount++;
+        if (gap > maxGap) {
+            maxGap = gap;
+        }
+        final long average = cadence;
+        cadence = average == 0 ? gap : average + ((gap - average) >> CADENCE_SHIFT);
+    }
+
+    private void schedule(long delay) {
+        final int scheduled = generation;
+        checkTask = scheduler.schedule(() -> {
+            if (scheduled == generation) {
+                check();
+            }
+        }, delay);
+    }
+
+    private void check() {
+        checkTask = null;
+        if (!running) {
+            return;
+        }
+        final long silence = clock.now() - lastSentence;
+        final long threshold = threshold();
+        if (silence >= threshold) {
+            running = false;
+            stalls.record(silence);
+            listener.onStall(silence);
+        } else {
+            schedule(threshold - silence);
+        }
+    }
+
+    /**
+     * @return silence after which the link counts as stalled
+     */
+    public long threshold() {
+        final long expected = cadence * cadenceFactor;
+        return Math.max(minThreshold, Math.min(maxThreshold, expected));
+    }
+
+    /**
+     * @param minThreshold silence that is tolerated even for a fast cadence
+     * @param maxThreshold silence that is a stall even for a slow cadence
+     */
+    public void setThresholds(long minThreshold, long maxThreshold) {
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+    }
+
+    /**
+     * @param cadenceFactor number of missed sentences that make a stall
+     */
+    public void setCadenceFactor(int cadenceFactor) {
+        this.cadenceFactor = cadenceFactor;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return average time between two sentences, 0 until the second sentence
+     */
+    public long getCadence() {
+        return cadence;
+    }
+
+    /**
+     * @return longest gap between two sentences so far
+     */
+    public long getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @return number of stalls and the silence when they were detected
+     */
+    public LatencyStats getStalls() {
+        return stalls;
+    }
+
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    @Override
+    public String toString() {
+        return "LivenessWatchdog{cadence=" + cadence + ", maxGap=" + maxGap + ", sentences=" + sentenceCount
+                + ", stalls " + stalls + "}";
+    }
+}
@@ -0,0 +1,150 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Fixed size buffer in front of a channel, with the number formatting the export
+ * needs so that nothing is allocated per record. Writers call {@link #ensure}
+ * with the size of what they are about to put.
+ */
+final class ChannelOutput {
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean crcEnabled;
+    private int crc;
+    private long bytesWritten;
+
+    ChannelOutput(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Computes the FIT CRC of everything written from now on.
+     */
+    void enableCrc() {
+        crcEnabled = true;
+        crc = 0;
+    }
+
+    int getCrc() {
+        return crc;
+    }
+
+    void ensure(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    void put(byte value) {
+        buffer.put(value);
+    }
+
+    void putShort(int value) {
+        buffer.putShort((short) value);
+    }
+
+    void putInt(int value) {
+        buffer.putInt(value);
+    }
+
+    /**
+     * Puts a constant, ASCII only.
+     */
+    void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Puts {@code value / 10^scale} with {@code scale} decimals.
+     */
+    void putDecimal(long value, int scale) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        final long divisor = POWERS_OF_TEN[scale];
+        putDigits(value / divisor, 1);
+        if (scale > 0) {
+            buffer.put((byte) '.');
+            putDigits(value % divisor, scale);
+        }
+    }
+
+    /**
+     * Puts a non negative number with at least {@code width} digits.
+     */
+    void putDigits(long value, int width) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        for (int i = Math.max(digits, width) - 1; i >= 0; i--) {
+            buffer.put((byte) ('0' + (i < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[i] % 10 : 0)));
+        }
+    }
+
+    /**
+     * Puts the time as ISO 8601 in UTC, like 2018-10-08T14:03:27.250Z.
+     */
+    void putTime(long millis) {
+        final long days = Math.floorDiv(millis, 86400000L);
+        final long ofDay = Math.floorMod(millis, 86400000L);
+        // civil date of the day number, after H. Hinnant
+        final long z = days + 719468;
+        final long era = Math.floorDiv(z, 146097);
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final long month = mp < 10 ? mp + 3 : mp - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        putDigits(year, 4);
+        buffer.put((byte) '-');
+        putDigits(month, 2);
+        buffer.put((byte) '-');
+        putDigits(day, 2);
+        buffer.put((byte) 'T');
+        putDigits(ofDay / 3600000, 2);
+        buffer.put((byte) ':');
+        putDigits(ofDay / 60000 % 60, 2);
+        buffer.put((byte) ':');
+        putDigits(ofDay / 1000 % 60, 2);
+        buffer.put((byte) '.');
+        putDigits(ofDay % 1000, 3);
+        buffer.put((byte) 'Z');
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        if (crcEnabled) {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                crc = FitWriter.crc(crc, buffer.get(i));
+            }
+        }
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+}
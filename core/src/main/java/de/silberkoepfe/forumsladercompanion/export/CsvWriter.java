@@ -0,0 +1,58 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import java.io.IOException;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+/**
+ * Comma separated values in SI units, one line per data record ($FL5). Temperature and
+ * altitude stay empty until the first $FLB record.
+ */
+final class CsvWriter extends TourWriter {
+    static final String HEADER = "time,battery_voltage_v,battery_current_a,load_current_a,dynamo_hz,"
+            + "speed_kmh,harvested_wh,temperature_c,altitude_m\n";
+    // longest possible line
+    private static final int MAX_LINE = 256;
+
+    CsvWriter(ChannelOutput out, TourExporter exporter) {
+        super(out, exporter);
+    }
+
+    @Override
+    void begin() throws IOException {
+        out.ensure(HEADER.length());
+        out.putAscii(HEADER);
+    }
+
+    @Override
+    void write(FLDataRecord record, int speed) throws IOException {
+        out.ensure(MAX_LINE);
+        out.putTime(record.getTimestamp());
+        out.put((byte) ',');
+        out.putDecimal(record.getBatteryVoltage(), 3);
+        out.put((byte) ',');
+        out.putDecimal(record.getBatteryCurrent(), 3);
+        out.put((byte) ',');
+        out.putDecimal(record.getLoadCurrent(), 3);
+        out.put((byte) ',');
+        out.putDecimal(record.getDynamoFrequency(), 0);
+        out.put((byte) ',');
+        // mm/s to 0.1 km/h
+        out.putDecimal(Math.round(speed * 0.036), 1);
+        out.put((byte) ',');
+        out.putDecimal(Math.round(harvestedWh * 1000), 3);
+        out.put((byte) ',');
+        if (baroKnown) {
+            out.putDecimal(temperature, 1);
+        }
+        out.put((byte) ',');
+        if (baroKnown) {
+            out.putDecimal(altitude, 1);
+        }
+        out.put((byte) '\n');
+    }
+
+    @Override
+    void end() {
+    }
+}
@@ -0,0 +1,27 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+/**
+ * File formats of the {@link TourExporter}.
+ */
+public enum ExportFormat {
+    /** one line per data record ($FL5), for spreadsheets */
+    CSV("csv", "text/csv"),
+    /** FIT activity with record messages, for training software */
+    FIT("fit", "application/vnd.ant.fit");
+
+    private final String extension;
+    private final String mimeType;
+
+    ExportFormat(String extension, String mimeType) {
+        this.extension = extension;
+        this.mimeType = mimeType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+}
@@ -0,0 +1,156 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import java.io.IOException;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+/**
+ * Flexible and Interoperable Data Transfer (FIT) activity file: a file_id message
+ * followed by one record message per data record ($FL5) with timestamp, speed, altitude
+ * and temperature. FIT has no fields for the battery values, those are left to
+ * the CSV export.
+ * <p>
+ * The header holds the size of the data, so the records are counted before.
+ */
+final class FitWriter extends TourWriter {
+    static final int HEADER_SIZE = 14;
+    private static final int PROTOCOL_VERSION = 0x10;
+    private static final int PROFILE_VERSION = 2093;
+    // seconds from 1970 to the FIT epoch 1989-12-31T00:00:00Z
+    static final long FIT_EPOCH = 631065600;
+
+    private static final int FILE_ID = 0;
+    private static final int RECORD = 20;
+    private static final int LOCAL_FILE_ID = 0;
+    private static final int LOCAL_RECORD = 1;
+    private static final int DEFINITION = 0x40;
+
+    private static final int ENUM = 0x00;
+    private static final int SINT8 = 0x01;
+    private static final int UINT16 = 0x84;
+    private static final int UINT32 = 0x86;
+
+    private static final int TYPE_ACTIVITY = 4;
+    private static final int MANUFACTURER_DEVELOPMENT = 255;
+
+    // header byte, reserved, architecture, global number, field count
+    private static final int DEFINITION_HEADER_SIZE = 6;
+    static final int FILE_ID_SIZE = DEFINITION_HEADER_SIZE + 4 * 3 + 1 + 1 + 2 + 2 + 4;
+    static final int RECORD_DEFINITION_SIZE = DEFINITION_HEADER_SIZE + 4 * 3;
+    static final int RECORD_SIZE = 1 + 4 + 2 + 2 + 1;
+
+    private static final int[] CRC_TABLE = {
+            0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+            0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400
+    };
+
+    private final long records;
+    private final long created;
+
+    /**
+     * @param records number of record messages that will be written
+     * @param created time of the first record
+     */
+    FitWriter(ChannelOutput out, TourExporter exporter, long records, long created) {
+        super(out, exporter);
+        this.records = records;
+        this.created = created;
+    }
+
+    static int crc(int crc, byte value) {
+        int tmp = CRC_TABLE[crc & 0xf];
+        crc = (crc >> 4) & 0x0fff;
+        crc = crc ^ tmp ^ CRC_TABLE[value & 0xf];
+        tmp = CRC_TABLE[crc & 0xf];
+        crc = (crc >> 4) & 0x0fff;
+        return crc ^ tmp ^ CRC_TABLE[(value >> 4) & 0xf];
+    }
+
+    static long dataSize(long records) {
+        return FILE_ID_SIZE + RECORD_DEFINITION_SIZE + records * RECORD_SIZE;
+    }
+
+    private static int timestamp(long millis) {
+        return (int) (millis / 1000 - FIT_EPOCH);
+    }
+
+    private void field(int number, int size, int baseType) {
+        out.put((byte) number);
+        out.put((byte) size);
+        out.put((byte) baseType);
+    }
+
+    private void definition(int local, int global, int fields) {
+        out.put((byte) (DEFINITION | local));
+        out.put((byte) 0);
+        // little endian
+        out.put((byte) 0);
+        out.putShort(global);
+        out.put((byte) fields);
+    }
+
+    @Override
+    void begin() throws IOException {
+        final long dataSize = dataSize(records);
+        final byte[] header = {
+                HEADER_SIZE, PROTOCOL_VERSION, (byte) PROFILE_VERSION, (byte) (PROFILE_VERSION >> 8),
+                (byte) dataSize, (byte) (dataSize >> 8), (byte) (dataSize >> 16), (byte) (dataSize >> 24),
+                '.', 'F', 'I', 'T', 0, 0
+        };
+        int headerCrc = 0;
+        for (int i = 0; i < HEADER_SIZE - 2; i++) {
+            headerCrc = crc(headerCrc, header[i]);
+        }
+        header[HEADER_SIZE - 2] = (byte) headerCrc;
+        header[HEADER_SIZE - 1] = (byte) (headerCrc >> 8);
+
+        out.flush();
+        out.enableCrc();
+        out.ensure(HEADER_SIZE + FILE_ID_SIZE + RECORD_DEFINITION_SIZE);
+        for (byte b : header) {
+            out.put(b);
+        }
+
+        definition(LOCAL_FILE_ID, FILE_ID, 4);
+        field(0, 1, ENUM);
+        field(1, 2, UINT16);
+        field(2, 2, UINT16);
+        field(4, 4, UINT32);
+        out.put((byte) LOCAL_FILE_ID);
+        out.put((byte) TYPE_ACTIVITY);
+        out.putShort(MANUFACTURER_DEVELOPMENT);
+        out.putShort(0);
+        out.putInt(timestamp(created));
+
+        definition(LOCAL_RECORD, RECORD, 4);
+        field(253, 4, UINT32);
+        field(6, 2, UINT16);
+        field(2, 2, UINT16);
+        field(13, 1, SINT8);
+    }
+
+    @Override
+    void write(FLDataRecord record, int speed) throws IOException {
+        out.ensure(RECORD_SIZE);
+        out.put((byte) LOCAL_RECORD);
+        out.putInt(timestamp(record.getTimestamp()));
+        // mm/s
+        out.putShort(Math.min(speed, 0xfffe));
+        if (baroKnown) {
+            // (m + 500) * 5 from dm
+            out.putShort(Math.max(0, Math.min(altitude / 2 + 2500, 0xfffe)));
+            out.put((byte) Math.max(-127, Math.min(Math.round(temperature / 10f), 126)));
+        } else {
+            // invalid values
+            out.putShort(0xffff);
+            out.put((byte) 0x7f);
+        }
+    }
+
+    @Override
+    void end() throws IOException {
+        out.flush();
+        final int fileCrc = out.getCrc();
+        out.putShort(fileCrc);
+    }
+}
@@ -0,0 +1,117 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import de.silberkoepfe.forumsladercompanion.metrics.Wheel;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+
+/**
+ * Exports the records of a journal to a file format for desktop analysis.
+ * <p>
+ * The journal is decoded record by record straight into a buffer of fixed size
+ * that is written to the channel whenever it is full, so a journal of weeks needs
+ * no more memory than one of minutes. The output can be gzipped on the way.
+ * Speed is derived from the dynamo frequency with the {@link Wheel}.
+ */
+public class TourExporter {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final int MIN_BUFFER_SIZE = 512;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private Wheel wheel = new Wheel();
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(MIN_BUFFER_SIZE, bufferSize);
+    }
+
+    public void setWheel(Wheel wheel) {
+        this.wheel = wheel;
+    }
+
+    Wheel getWheel() {
+        return wheel;
+    }
+
+    /**
+     * Limits the export to the records with timestamps in [from, to).
+     */
+    public void setRange(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    boolean inRange(long time) {
+        return time >= from && time < to;
+    }
+
+    /**
+     * Writes the journal to the channel, which is left open.
+     *
+     * @return number of data records ($FL5) exported
+     */
+    public long export(JournalReader journal, ExportFormat format, WritableByteChannel channel, boolean gzip)
+            throws IOException {
+        GZIPOutputStream gzipStream = null;
+        WritableByteChannel target = channel;
+        if (gzip) {
+            gzipStream = new GZIPOutputStream(Channels.newOutputStream(channel), bufferSize);
+            target = Channels.newChannel(gzipStream);
+        }
+        final ChannelOutput out = new ChannelOutput(target, bufferSize);
+        final TourWriter writer;
+        if (format == ExportFormat.FIT) {
+            final RecordCounter counter = new RecordCounter();
+            read(journal, counter);
+            writer = new FitWriter(out, this, counter.count, counter.first);
+        } else {
+            writer = new CsvWriter(out, this);
+        }
+        writer.begin();
+        read(journal, writer);
+        writer.checkError();
+        writer.end();
+        out.flush();
+        if (gzipStream != null) {
+            // ends the gzip stream without closing the channel
+            gzipStream.finish();
+            gzipStream.flush();
+        }
+        return writer.getRecordCount();
+    }
+
+    private void read(JournalReader journal, FLRecordListener listener) throws IOException {
+        if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+            journal.read(listener);
+        } else {
+            // seeks to the range with the session index
+            journal.read(from, to, listener);
+        }
+    }
+
+    private class RecordCounter implements FLRecordListener {
+        long count;
+        long first;
+
+        @Override
+        public void onDataRecord(FLDataRecord record) {
+            if (inRange(record.getTimestamp())) {
+                if (count == 0) {
+                    first = record.getTimestamp();
+                }
+                count++;
+            }
+        }
+
+        @Override
+        public void onBaroRecord(FLBaroRecord record) {
+        }
+    }
+}
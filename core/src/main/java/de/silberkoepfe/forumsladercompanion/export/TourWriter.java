@@ -0,0 +1,75 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import java.io.IOException;
+
+import de.silberkoepfe.forumsladercompanion.metrics.Integrator;
+import de.silberkoepfe.forumsladercompanion.metrics.Power;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Turns the journal records into the rows of an export file. The values of the
+ * latest $FLB record are carried into the following data rows, the energy
+ * harvested from the dynamo is summed up along the way.
+ */
+abstract class TourWriter implements FLRecordListener {
+    final ChannelOutput out;
+    private final TourExporter exporter;
+
+    boolean baroKnown;
+    int temperature;
+    int altitude;
+    double harvestedWh;
+
+    private final Integrator harvested = new Integrator(Power.MAX_GAP);
+    private long recordCount;
+    private IOException error;
+
+    TourWriter(ChannelOutput out, TourExporter exporter) {
+        this.out = out;
+        this.exporter = exporter;
+    }
+
+    abstract void begin() throws IOException;
+
+    abstract void write(FLDataRecord record, int speed) throws IOException;
+
+    abstract void end() throws IOException;
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        final long time = record.getTimestamp();
+        if (error != null || !exporter.inRange(time)) {
+            return;
+        }
+        harvested.add(time, Power.harvested(record));
+        harvestedWh = harvested.get() / Power.MILLIS_PER_HOUR;
+        try {
+            write(record, exporter.getWheel().speed(record.getDynamoFrequency()));
+            recordCount++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        baroKnown = true;
+        temperature = record.getTemperature();
+        altitude = record.getAltitude();
+    }
+
+    /**
+     * @throws IOException the first error writing a record
+     */
+    void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    long getRecordCount() {
+        return recordCount;
+    }
+}
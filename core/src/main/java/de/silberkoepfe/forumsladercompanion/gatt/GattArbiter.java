@@ -0,0 +1,127 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+
+/**
+ * Shares the GATT client between the queues of several connections. The stack
+ * handles the requests of all connections one after the other, so a queue that
+ * keeps it busy delays the others. A queue gets a turn before it starts an
+ * operation and gives it back when the operation finished. Turns go round robin
+ * over the waiting queues, each queue gets one before any queue gets a second.
+ */
+public class GattArbiter {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
+    private final Clock clock;
+    private final int maxInFlight;
+    private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    private final LatencyStats wait = new LatencyStats();
+    private volatile long grantCount;
+    private volatile int maxWaiting;
+
+    public GattArbiter(Clock clock) {
+        this(clock, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxInFlight number of operations running at the same time over all connections
+     */
+    public GattArbiter(Clock clock, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight " + maxInFlight);
+        }
+        this.clock = clock;
+        this.maxInFlight = maxInFlight;
+    }
+
+    // a queue asks for one turn at a time, never while it holds its own lock
+    void request(GattQueue queue) {
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                waiting.add(new Request(queue, clock.now()));
+                if (waiting.size() > maxWaiting) {
+                    maxWaiting = waiting.size();
+                }
+                return;
+            }
+            inFlight++;
+            grantCount++;
+            wait.record(0);
+        }
+        queue.onTurn();
+    }
+
+    void release() {
+        final Request next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+            // the turn passes on directly
+            grantCount++;
+            wait.record(clock.now() - next.since);
+        }
+        next.queue.onTurn();
+    }
+
+    // a cleared queue leaves the line
+    synchronized void withdraw(GattQueue queue) {
+        for (Iterator<Request> i = waiting.iterator(); i.hasNext(); ) {
+            if (i.next().queue == queue) {
+                i.remove();
+                return;
+            }
+        }
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @return time a queue waited for its turn
+     */
+    public LatencyStats getWait() {
+        return wait;
+    }
+
+    public long getGrantCount() {
+        return grantCount;
+    }
+
+    public int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    @Override
+    public String toString() {
+        return "GattArbiter{maxInFlight=" + maxInFlight + ", grants=" + grantCount + ", maxWaiting=" + maxWaiting
+                + ", wait " + wait + "}";
+    }
+
+    private static class Request {
+        final GattQueue queue;
+        final long since;
+
+        Request(GattQueue queue, long since) {
+            this.queue = queue;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a queued GATT operation, completed on the thread of the {@link GattQueue}.
+ * Listeners may be added from any thread. They are called on the completing thread,
+ * or on the adding thread if the operation is already done.
+ */
+public class GattFuture<T> {
+    public static final int GATT_SUCCESS = 0;
+    /** no callback within the timeout, after all retries */
+    public static final int TIMEOUT = -1;
+    /** the queue was cleared, usually because the connection is gone */
+    public static final int CANCELLED = -2;
+    /** the stack refused to start the operation, after all retries */
+    public static final int NOT_STARTED = -3;
+
+    public interface Listener<T> {
+        void onDone(GattFuture<T> future);
+    }
+
+    private volatile boolean done;
+    private volatile int status;
+    private volatile T result;
+    // guarded by this
+    private List<Listener<T>> listeners;
+
+    /**
+     * Calls the listener once the operation is done, right away if it already is.
+     */
+    public GattFuture<T> whenDone(Listener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                }
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.onDone(this);
+        return this;
+    }
+
+    void complete(int status, T result) {
+        final List<Listener<T>> waiting;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.status = status;
+            this.result = result;
+            done = true;
+            waiting = listeners;
+            listeners = null;
+        }
+        // outside the lock, a listener may submit the next operation
+        if (waiting != null) {
+            for (Listener<T> listener : waiting) {
+                listener.onDone(this);
+            }
+        }
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public boolean isSuccess() {
+        return done && status == GATT_SUCCESS;
+    }
+
+    /**
+     * @return GATT status of the callback or one of the negative queue codes
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public T getResult() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return done ? "GattFuture{status=" + status + ", result=" + result + "}" : "GattFuture{pending}";
+    }
+}
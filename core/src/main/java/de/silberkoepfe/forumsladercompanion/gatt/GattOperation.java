@@ -0,0 +1,46 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+/**
+ * One request to the GATT client, completed by the callback of its {@link Type}.
+ */
+public class GattOperation<T> {
+    public enum Type {
+        READ,
+        WRITE,
+        DESCRIPTOR_WRITE,
+        MTU,
+        PHY,
+        DISCOVER_SERVICES
+    }
+
+    /**
+     * Initiates the operation, e.g. {@code gatt.writeDescriptor(descriptor)}. Called
+     * again for every retry.
+     */
+    public interface Starter {
+        /**
+         * @return false if the stack refused the request
+         */
+        boolean start();
+    }
+
+    final Type type;
+    final Starter starter;
+    final long timeout;
+    final int retries;
+    final GattFuture<T> future = new GattFuture<>();
+    int attempts;
+    long startedAt;
+
+    GattOperation(Type type, Starter starter, long timeout, int retries) {
+        this.type = type;
+        this.starter = starter;
+        this.timeout = timeout;
+        this.retries = retries;
+    }
+
+    @Override
+    public String toString() {
+        return type + "#" + attempts;
+    }
+}
@@ -0,0 +1,329 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+import de.silberkoepfe.forumsladercompanion.monitor.Counter;
+import de.silberkoepfe.forumsladercompanion.monitor.Histogram;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Serializes the operations on a GATT connection. Android drops a request while
+ * another one is outstanding, so each operation is started only after the
+ * callback of the previous one arrived, or its timeout expired.
+ * <p>
+ * Operations are started on the {@link Scheduler} thread. Callbacks may report
+ * their completion from any thread with {@link #onCompleted}. An operation that
+ * times out, fails or is refused by the stack is started again up to its number
+ * of retries, then its future completes with the error and the queue moves on.
+ * <p>
+ * The queues of several connections can share a {@link GattArbiter}, then each
+ * operation also waits for its turn on the shared stack.
+ */
+public class GattQueue {
+    public static final long DEFAULT_TIMEOUT = 3000;
+    public static final int DEFAULT_RETRIES = 2;
+    public static final String METRIC_PREFIX = "gatt.";
+    public static final String FAILURES = "gatt.failures";
+    // give a busy stack a moment before trying again
+    static final long RETRY_DELAY = 50;
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final GattArbiter arbiter;
+    private final ArrayDeque<GattOperation<?>> pending = new ArrayDeque<>();
+    private final Runnable next = this::next;
+    private GattOperation<?> current;
+    private Scheduler.Task timeoutTask;
+    private boolean nextScheduled;
+    // guarded by this
+    private boolean turnRequested;
+    private boolean hasTurn;
+
+    private final LatencyStats latency = new LatencyStats();
+    // by operation type, null without a registry
+    private Histogram[] stageTimes;
+    private Counter failures;
+    private volatile long submittedCount;
+    private volatile long failedCount;
+    private volatile long retryCount;
+    private volatile long timeoutCount;
+    private volatile long strayCount;
+    private volatile int maxDepth;
+
+    public GattQueue(Clock clock, Scheduler scheduler) {
+        this(clock, scheduler, null);
+    }
+
+    /**
+     * @param arbiter shared with the queues of the other connections, null if this is the only one
+     */
+    public GattQueue(Clock clock, Scheduler scheduler, GattArbiter arbiter) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.arbiter = arbiter;
+    }
+
+    /**
+     * Records the time from start to callback of the successful operations to a
+     * histogram per type, such as {@code gatt.mtu}, and counts the failed ones.
+     * Call before the first submit.
+     */
+    public void setMetrics(MetricsRegistry registry) {
+        final GattOperation.Type[] types = GattOperation.Type.values();
+        final Histogram[] histograms = new Histogram[types.length];
+        for (GattOperation.Type type : types) {
+            histograms[type.ordinal()] = registry.histogram(METRIC_PREFIX + type.name().toLowerCase(Locale.ROOT));
+        }
+        failures = registry.counter(FAILURES);
+        stageTimes = histograms;
+    }
+
+    public <T> GattFuture<T> submit(GattOperation.Type type, GattOperation.Starter starter) {
+        return submit(type, starter, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
+    }
+
+    /**
+     * Queues an operation, can be called from any thread.
+     *
+     * @param timeout time to wait for the callback of one attempt
+     * @param retries number of additional attempts
+     */
+    public <T> GattFuture<T> submit(GattOperation.Type type, GattOperation.Starter starter, long timeout, int retries) {
+        final GattOperation<T> operation = new GattOperation<>(type, starter, timeout, retries);
+        synchronized (this) {
+            pending.add(operation);
+            submittedCount++;
+            final int depth = pending.size() + (current != null ? 1 : 0);
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+            scheduleNext(0);
+        }
+        return operation.future;
+    }
+
+    /**
+     * Reports the callback of an operation, can be called from any thread.
+     * Callbacks that match no running operation are ignored.
+     */
+    public void onCompleted(GattOperation.Type type, int status, Object result) {
+        scheduler.schedule(() -> complete(type, status, result), 0);
+    }
+
+    /**
+     * Cancels the running and all pending operations.
+     */
+    public void clear() {
+        scheduler.schedule(() -> {
+            final GattOperation<?>[] cancelled;
+            final boolean withdraw;
+            synchronized (this) {
+                cancelled = pending.toArray(new GattOperation<?>[0]);
+                pending.clear();
+                withdraw = turnRequested;
+                turnRequested = false;
+                // a turn granted meanwhile is given back by next()
+                scheduleNext(0);
+            }
+            if (withdraw) {
+                arbiter.withdraw(this);
+            }
+            if (current != null) {
+                finish(GattFuture.CANCELLED, null);
+            }
+            for (GattOperation<?> operation : cancelled) {
+                operation.future.complete(GattFuture.CANCELLED, null);
+            }
+        }, 0);
+    }
+
+    // guarded by this
+    private void scheduleNext(long delay) {
+        if (!nextScheduled) {
+            nextScheduled = true;
+            scheduler.schedule(next, delay);
+        }
+    }
+
+    // called by the arbiter from any thread
+    void onTurn() {
+        final boolean surplus;
+        synchronized (this) {
+            turnRequested = false;
+            surplus = hasTurn;
+            hasTurn = true;
+            scheduleNext(0);
+        }
+        if (surplus) {
+            // requested again after a clear while the earlier grant was under way
+            arbiter.release();
+        }
+    }
+
+    // runs on the scheduler thread
+    private void next() {
+        final GattOperation<?> operation;
+        boolean request = false;
+        boolean release = false;
+        synchronized (this) {
+            nextScheduled = false;
+            if (current != null) {
+                return;
+            }
+            if (pending.isEmpty()) {
+                release = hasTurn;
+                hasTurn = false;
+                operation = null;
+            } else if (arbiter == null || hasTurn) {
+                operation = current = pending.poll();
+            } else {
+                request = !turnRequested;
+                turnRequested = true;
+                operation = null;
+            }
+        }
+        if (operation != null) {
+            start(operation);
+        } else if (request) {
+            arbiter.request(this);
+        } else if (release) {
+            arbiter.release();
+        }
+    }
+
+    private void start(GattOperation<?> operation) {
+        operation.attempts++;
+        operation.startedAt = clock.now();
+        if (!operation.starter.start()) {
+            retryOrFail(GattFuture.NOT_STARTED);
+            return;
+        }
+        if (operation.timeout > 0) {
+            final int attempt = operation.attempts;
+            timeoutTask = scheduler.schedule(() -> {
+                if (current == operation && operation.attempts == attempt) {
+                    timeoutTask = null;
+                    timeoutCount++;
+                    retryOrFail(GattFuture.TIMEOUT);
+                }
+            }, operation.timeout);
+        }
+    }
+
+    private void complete(GattOperation.Type type, int status, Object result) {
+        if (current == null || current.type != type) {
+            // late callback of an operation that timed out
+            strayCount++;
+            return;
+        }
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+        if (status == GattFuture.GATT_SUCCESS) {
+            final long elapsed = clock.now() - current.startedAt;
+            latency.record(elapsed);
+            if (stageTimes != null) {
+                stageTimes[type.ordinal()].record(elapsed);
+            }
+            finish(status, result);
+        } else {
+            retryOrFail(status);
+        }
+    }
+
+    private void retryOrFail(int status) {
+        final GattOperation<?> operation = current;
+        if (operation.attempts <= operation.retries) {
+            retryCount++;
+            scheduler.schedule(() -> {
+                if (current == operation) {
+                    start(operation);
+                }
+            }, RETRY_DELAY);
+        } else {
+            failedCount++;
+            if (failures != null) {
+                failures.increment();
+            }
+            finish(status, null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void finish(int status, Object result) {
+        final GattOperation<Object> operation = (GattOperation<Object>) current;
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+        final boolean release;
+        synchronized (this) {
+            current = null;
+            // the next operation queues up behind the other connections again
+            release = hasTurn;
+            hasTurn = false;
+            scheduleNext(0);
+        }
+        if (release) {
+            arbiter.release();
+        }
+        operation.future.complete(status, result);
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    /**
+     * @return time from the start of an operation to its successful callback
+     */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    public GattArbiter getArbiter() {
+        return arbiter;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * @return number of operations that failed after all retries
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return number of callbacks without a matching operation
+     */
+    public long getStrayCount() {
+        return strayCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "GattQueue{submitted=" + submittedCount + ", failed=" + failedCount + ", retries=" + retryCount
+                + ", timeouts=" + timeoutCount + ", stray=" + strayCount + ", maxDepth=" + maxDepth
+                + ", latency " + latency + "}";
+    }
+}
@@ -0,0 +1,197 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import java.util.Locale;
+
+import de.silberkoepfe.forumsladercompanion.monitor.Gauge;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+
+/**
+ * Keeps the connection parameters of a link and chooses its connection priority:
+ * {@link Priority#HIGH} while the connection is set up, {@link Priority#LOW_POWER}
+ * for the steady telemetry stream, which needs far less than the link can carry.
+ * <p>
+ * Also records the negotiated MTU and PHY and measures the received bytes per
+ * second. {@link #onReceived} is called on the thread delivering the notifications,
+ * {@link #onMtuChanged} and {@link #onPhyChanged} on the binder thread of the GATT
+ * callbacks. {@link #onConnected} and {@link #onSteady} may come from the binder
+ * thread or the thread of the {@link GattQueue} and are synchronized.
+ */
+public class LinkTuner {
+    // as in BluetoothGatt.CONNECTION_PRIORITY_*
+    public enum Priority {
+        BALANCED,
+        HIGH,
+        LOW_POWER
+    }
+
+    // as in BluetoothDevice.PHY_LE_*
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    public static final int DEFAULT_MTU = 23;
+    public static final String MTU_METRIC = "link.%s.mtu";
+    public static final String PHY_METRIC = "link.%s.rx_phy";
+    public static final String PRIORITY_METRIC = "link.%s.priority";
+    public static final String THROUGHPUT_METRIC = "link.%s.bytes_per_second";
+    // ATT header of a notification
+    static final int ATT_OVERHEAD = 3;
+    static final long THROUGHPUT_INTERVAL = 1000;
+
+    public interface Link {
+        /**
+         * @return false if the stack refused the request
+         */
+        boolean requestPriority(Priority priority);
+    }
+
+    private final Link link;
+    // guarded by this
+    private boolean steady;
+    private volatile Priority priority = Priority.BALANCED;
+    private volatile long priorityChangeCount;
+
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile int txPhy = PHY_LE_1M;
+    private volatile int rxPhy = PHY_LE_1M;
+
+    private volatile long bytesReceived;
+    private volatile long packetsReceived;
+    private volatile long bytesPerSecond;
+    private long intervalStartedAt = Long.MIN_VALUE;
+    private long intervalBytes;
+
+    // null without a registry
+    private Gauge mtuGauge;
+    private Gauge phyGauge;
+    private Gauge priorityGauge;
+    private Gauge throughputGauge;
+
+    public LinkTuner(Link link) {
+        this.link = link;
+    }
+
+    /**
+     * Publishes the MTU, receive PHY, priority and throughput as gauges. Call before
+     * the link is connected.
+     *
+     * @param device address of the device, in the names of the gauges
+     */
+    public void setMetrics(MetricsRegistry registry, String device) {
+        mtuGauge = registry.gauge(String.format(Locale.ROOT, MTU_METRIC, device));
+        phyGauge = registry.gauge(String.format(Locale.ROOT, PHY_METRIC, device));
+        priorityGauge = registry.gauge(String.format(Locale.ROOT, PRIORITY_METRIC, device));
+        throughputGauge = registry.gauge(String.format(Locale.ROOT, THROUGHPUT_METRIC, device));
+    }
+
+    /**
+     * The link is up, speed up the setup.
+     */
+    public synchronized void onConnected() {
+        steady = false;
+        apply();
+    }
+
+    /**
+     * Setup is done and data flows, slow down.
+     */
+    public synchronized void onSteady() {
+        steady = true;
+        apply();
+    }
+
+    private void apply() {
+        final Priority wanted = steady ? Priority.LOW_POWER : Priority.HIGH;
+        if (wanted != priority && link.requestPriority(wanted)) {
+            priority = wanted;
+            priorityChangeCount++;
+            if (priorityGauge != null) {
+                priorityGauge.set(wanted.ordinal());
+            }
+        }
+    }
+
+    public void onMtuChanged(int mtu) {
+        this.mtu = mtu;
+        if (mtuGauge != null) {
+            mtuGauge.set(mtu);
+        }
+    }
+
+    public void onPhyChanged(int txPhy, int rxPhy) {
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        if (phyGauge != null) {
+            phyGauge.set(rxPhy);
+        }
+    }
+
+    /**
+     * Counts a received notification, does not allocate.
+     */
+    public void onReceived(int length, long now) {
+        bytesReceived += length;
+        packetsReceived++;
+        if (intervalStartedAt == Long.MIN_VALUE) {
+            // the first packet only starts the measurement
+            intervalStartedAt = now;
+            return;
+        }
+        intervalBytes += length;
+        final long elapsed = now - intervalStartedAt;
+        if (elapsed >= THROUGHPUT_INTERVAL) {
+            bytesPerSecond = intervalBytes * 1000 / elapsed;
+            if (throughputGauge != null) {
+                throughputGauge.set(bytesPerSecond);
+            }
+            intervalStartedAt = now;
+            intervalBytes = 0;
+        }
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public long getPriorityChangeCount() {
+        return priorityChangeCount;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return largest notification payload the MTU allows
+     */
+    public int getMaxPayload() {
+        return mtu - ATT_OVERHEAD;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return received bytes per second over the last full interval of about a second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkTuner{mtu=" + mtu + ", phy=" + txPhy + "/" + rxPhy + ", priority=" + priority
+                + ", bytes=" + bytesReceived + ", packets=" + packetsReceived + ", bytesPerSecond=" + bytesPerSecond + "}";
+    }
+}
@@ -0,0 +1,104 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+/**
+ * State of charge estimate of the Forumslader battery, three Li-ion cells in
+ * series.
+ * <p>
+ * The charge is counted from the battery current. The counter starts at the
+ * charge the open circuit voltage of the cells suggests and is pulled towards it
+ * whenever the battery rests, which corrects the drift of the counting. The
+ * discharge current is smoothed for the time to empty.
+ */
+public class Battery {
+    public static final int DEFAULT_CAPACITY = 3300;
+    // below this the cell voltage is close to the open circuit voltage
+    static final int REST_CURRENT = 50;
+    // ms for the resting estimate to take over
+    static final double REST_TIME_CONSTANT = 30 * 60 * 1000;
+    static final double CURRENT_TIME_CONSTANT = 60 * 1000;
+    // open circuit voltage of a cell in mV and the state of charge it means
+    private static final int[] CELL_VOLTAGE = {3000, 3300, 3500, 3600, 3700, 3750, 3800, 3900, 4000, 4100, 4200};
+    private static final double[] CHARGE = {0, 0.05, 0.10, 0.20, 0.40, 0.50, 0.60, 0.75, 0.85, 0.95, 1};
+
+    private final double capacity;
+
+    private long previousTime = Long.MIN_VALUE;
+    private int previousCurrent;
+    private double stateOfCharge = Double.NaN;
+    private double current;
+
+    /**
+     * @param capacity in mAh
+     */
+    public Battery(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return state of charge from 0 to 1 the cell voltage suggests at rest
+     */
+    static double fromCellVoltage(int millivolts) {
+        if (millivolts <= CELL_VOLTAGE[0]) {
+            return 0;
+        }
+        for (int i = 1; i < CELL_VOLTAGE.length; i++) {
+            if (millivolts <= CELL_VOLTAGE[i]) {
+                final double f = (double) (millivolts - CELL_VOLTAGE[i - 1]) / (CELL_VOLTAGE[i] - CELL_VOLTAGE[i - 1]);
+                return CHARGE[i - 1] + f * (CHARGE[i] - CHARGE[i - 1]);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param voltage battery voltage in mV
+     * @param current battery current in mA, positive while charging
+     */
+    public void add(long time, int voltage, int current) {
+        final double resting = fromCellVoltage(voltage / 3);
+        if (previousTime == Long.MIN_VALUE) {
+            stateOfCharge = resting;
+            this.current = current;
+        } else if (time > previousTime) {
+            final long interval = time - previousTime;
+            if (interval <= Power.MAX_GAP) {
+                // trapezoid of the current, mAh
+                stateOfCharge += (previousCurrent + current) * 0.5 * interval / Power.MILLIS_PER_HOUR / capacity;
+            }
+            if (Math.abs(current) < REST_CURRENT) {
+                stateOfCharge += (resting - stateOfCharge) * -Math.expm1(-interval / REST_TIME_CONSTANT);
+            }
+            stateOfCharge = Math.max(0, Math.min(1, stateOfCharge));
+            this.current += (current - this.current) * -Math.expm1(-interval / CURRENT_TIME_CONSTANT);
+        } else {
+            return;
+        }
+        previousTime = time;
+        previousCurrent = current;
+    }
+
+    /**
+     * @return 0 to 1, NaN before the first sample
+     */
+    public double getStateOfCharge() {
+        return stateOfCharge;
+    }
+
+    /**
+     * @return smoothed battery current in mA
+     */
+    public double getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return ms until the battery is empty at the smoothed current, -1 while it is
+     * not being discharged
+     */
+    public long getTimeToEmpty() {
+        if (Double.isNaN(stateOfCharge) || current > -1) {
+            return -1;
+        }
+        return (long) (stateOfCharge * capacity / -current * Power.MILLIS_PER_HOUR);
+    }
+}
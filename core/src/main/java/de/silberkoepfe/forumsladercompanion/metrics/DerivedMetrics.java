@@ -0,0 +1,126 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Figures derived from the data records ($FL5) as they are decoded: energy harvested
+ * and consumed, speed, trip distance, state of charge and time to empty.
+ * <p>
+ * Every record updates the running values in constant time, the integrals use
+ * the {@link Integrator} so that irregular intervals and pauses are handled.
+ * Records come from one thread, the getters can be called from any.
+ */
+public class DerivedMetrics implements FLRecordListener {
+    private final Wheel wheel;
+    private final Battery battery;
+    private final Integrator harvested = new Integrator(Power.MAX_GAP);
+    private final Integrator consumed = new Integrator(Power.MAX_GAP);
+    private final Integrator distance = new Integrator(Power.MAX_GAP);
+
+    private volatile double harvestedWh;
+    private volatile double consumedWh;
+    private volatile double distanceMeters;
+    private volatile int speed;
+    private volatile double stateOfCharge = Double.NaN;
+    private volatile long timeToEmpty = -1;
+    private volatile long sampleCount;
+
+    public DerivedMetrics() {
+        this(new Wheel(), Battery.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param batteryCapacity in mAh
+     */
+    public DerivedMetrics(Wheel wheel, int batteryCapacity) {
+        this.wheel = wheel;
+        this.battery = new Battery(batteryCapacity);
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        final long time = record.getTimestamp();
+        harvested.add(time, Power.harvested(record));
+        consumed.add(time, Power.consumed(record));
+        speed = wheel.speed(record.getDynamoFrequency());
+        // mm/s over ms
+        distance.add(time, speed);
+        battery.add(time, record.getBatteryVoltage(), record.getBatteryCurrent());
+
+        harvestedWh = harvested.get() / Power.MILLIS_PER_HOUR;
+        consumedWh = consumed.get() / Power.MILLIS_PER_HOUR;
+        distanceMeters = distance.get() / 1e6;
+        stateOfCharge = battery.getStateOfCharge();
+        timeToEmpty = battery.getTimeToEmpty();
+        sampleCount++;
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+    }
+
+    /**
+     * Starts a new trip: energy and distance count from zero again.
+     */
+    public void resetTrip() {
+        harvested.reset();
+        consumed.reset();
+        distance.reset();
+        harvestedWh = 0;
+        consumedWh = 0;
+        distanceMeters = 0;
+    }
+
+    public Wheel getWheel() {
+        return wheel;
+    }
+
+    public double getHarvestedWh() {
+        return harvestedWh;
+    }
+
+    public double getConsumedWh() {
+        return consumedWh;
+    }
+
+    /**
+     * @return speed of the latest record in mm/s
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return trip distance in m
+     */
+    public double getDistance() {
+        return distanceMeters;
+    }
+
+    /**
+     * @return 0 to 1, NaN before the first record
+     */
+    public double getStateOfCharge() {
+        return stateOfCharge;
+    }
+
+    /**
+     * @return ms until the battery is empty, -1 while it is not being discharged
+     */
+    public long getTimeToEmpty() {
+        return timeToEmpty;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public String toString() {
+        return "DerivedMetrics{harvested=" + harvestedWh + " Wh, consumed=" + consumedWh
+                + " Wh, distance=" + distanceMeters + " m, soc=" + stateOfCharge
+                + ", timeToEmpty=" + timeToEmpty + "}";
+    }
+}
@@ -0,0 +1,63 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+/**
+ * Running integral of a sampled value over time.
+ * <p>
+ * Each interval adds the trapezoid between two samples, so irregular intervals
+ * are weighted by their length. The sum is compensated (Neumaier), adding
+ * millions of small areas to a large total loses no precision. Intervals longer
+ * than the maximum gap are pauses and add nothing, samples older than the
+ * previous one are ignored. O(1) per sample.
+ */
+public class Integrator {
+    private final long maxGap;
+
+    private long previousTime = Long.MIN_VALUE;
+    private double previousValue;
+    private double sum;
+    private double compensation;
+
+    /**
+     * @param maxGap longest interval in ms that is still integrated
+     */
+    public Integrator(long maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    public void add(long time, double value) {
+        if (previousTime != Long.MIN_VALUE) {
+            if (time < previousTime) {
+                return;
+            }
+            final long interval = time - previousTime;
+            if (interval <= maxGap) {
+                accumulate((previousValue + value) * 0.5 * interval);
+            }
+        }
+        previousTime = time;
+        previousValue = value;
+    }
+
+    private void accumulate(double value) {
+        final double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+    }
+
+    /**
+     * @return the integral in value times ms
+     */
+    public double get() {
+        return sum + compensation;
+    }
+
+    public void reset() {
+        previousTime = Long.MIN_VALUE;
+        sum = 0;
+        compensation = 0;
+    }
+}
@@ -0,0 +1,30 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+/**
+ * Power flows of a data record ($FL5) in W.
+ */
+public final class Power {
+    // intervals without a record for this long are pauses
+    public static final long MAX_GAP = 10 * 1000;
+    public static final double MILLIS_PER_HOUR = 3600 * 1000;
+
+    private Power() {
+    }
+
+    /**
+     * @return what the dynamo delivers into the battery and the consumers
+     */
+    public static double harvested(FLDataRecord record) {
+        return Math.max(0, record.getBatteryVoltage() * (double) (record.getBatteryCurrent()
+                + record.getLoadCurrent()) / 1e6);
+    }
+
+    /**
+     * @return what the consumers (lights, USB) draw
+     */
+    public static double consumed(FLDataRecord record) {
+        return Math.max(0, record.getBatteryVoltage() * (double) record.getLoadCurrent() / 1e6);
+    }
+}
@@ -0,0 +1,46 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+/**
+ * Converts the dynamo frequency reported by the Forumslader into speed. The hub
+ * dynamo makes one electrical period per pole pair and wheel revolution.
+ */
+public class Wheel {
+    // SON hub dynamos, Shimano ones have 14
+    public static final int DEFAULT_POLE_PAIRS = 13;
+    // 28-622 tyre
+    public static final int DEFAULT_CIRCUMFERENCE = 2155;
+
+    private final int polePairs;
+    private final int circumference;
+
+    public Wheel() {
+        this(DEFAULT_POLE_PAIRS, DEFAULT_CIRCUMFERENCE);
+    }
+
+    /**
+     * @param polePairs     pole pairs of the hub dynamo
+     * @param circumference wheel circumference in mm
+     */
+    public Wheel(int polePairs, int circumference) {
+        if (polePairs < 1 || circumference < 1) {
+            throw new IllegalArgumentException("wheel " + polePairs + "/" + circumference);
+        }
+        this.polePairs = polePairs;
+        this.circumference = circumference;
+    }
+
+    /**
+     * @return speed in mm/s at the given dynamo frequency in Hz
+     */
+    public int speed(int dynamoFrequency) {
+        return (int) ((long) dynamoFrequency * circumference / polePairs);
+    }
+
+    public int getPolePairs() {
+        return polePairs;
+    }
+
+    public int getCircumference() {
+        return circumference;
+    }
+}
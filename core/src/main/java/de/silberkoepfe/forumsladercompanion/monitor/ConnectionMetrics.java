@@ -0,0 +1,146 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import java.util.Locale;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * Records the lifecycle of one scan and connection to a {@link MetricsRegistry}:
+ * how long the scan and the connect took, the time from the connect request to
+ * the first notification, and the packets and bytes received. The times of the
+ * single GATT operations are recorded by the
+ * {@link de.silberkoepfe.forumsladercompanion.gatt.GattQueue#setMetrics GattQueue}.
+ * <p>
+ * The scan metrics are shared, the ones of the connection carry the address of
+ * the device in their names.
+ * <p>
+ * The methods can be called from any thread, and do nothing but a volatile read
+ * while the registry is disabled.
+ */
+public class ConnectionMetrics {
+    public static final String SCAN_TIME = "scan.time";
+    public static final String SCAN_COUNT = "scan.count";
+    public static final String SCAN_TIMEOUTS = "scan.timeouts";
+    public static final String CONNECT_TIME = "connect.%s.time";
+    public static final String CONNECT_COUNT = "connect.%s.count";
+    public static final String DISCONNECT_COUNT = "connect.%s.disconnects";
+    public static final String FIRST_NOTIFICATION_TIME = "connect.%s.first_notification";
+    public static final String PACKETS = "notify.%s.packets";
+    public static final String BYTES = "notify.%s.bytes";
+
+    private final MetricsRegistry registry;
+    private final Clock clock;
+    private final Histogram scanTime;
+    private final Counter scans;
+    private final Counter scanTimeouts;
+    private final Histogram connectTime;
+    private final Counter connects;
+    private final Counter disconnects;
+    private final Histogram firstNotificationTime;
+    private final Counter packets;
+    private final Counter bytes;
+
+    private volatile long scanStart = -1;
+    private volatile long connectStart = -1;
+
+    /**
+     * Records the scans only.
+     */
+    public ConnectionMetrics(MetricsRegistry registry, Clock clock) {
+        this(registry, clock, null);
+    }
+
+    /**
+     * @param device address of the connected device, null to record the scans only
+     */
+    public ConnectionMetrics(MetricsRegistry registry, Clock clock, String device) {
+        this.registry = registry;
+        this.clock = clock;
+        scanTime = registry.histogram(SCAN_TIME);
+        scans = registry.counter(SCAN_COUNT);
+        scanTimeouts = registry.counter(SCAN_TIMEOUTS);
+        if (device == null) {
+            connectTime = null;
+            connects = null;
+            disconnects = null;
+            firstNotificationTime = null;
+            packets = null;
+            bytes = null;
+            return;
+        }
+        connectTime = registry.histogram(name(CONNECT_TIME, device));
+        connects = registry.counter(name(CONNECT_COUNT, device));
+        disconnects = registry.counter(name(DISCONNECT_COUNT, device));
+        firstNotificationTime = registry.histogram(name(FIRST_NOTIFICATION_TIME, device));
+        packets = registry.counter(name(PACKETS, device));
+        bytes = registry.counter(name(BYTES, device));
+    }
+
+    /**
+     * @return name of a connection metric of the device
+     */
+    public static String name(String metric, String device) {
+        return String.format(Locale.ROOT, metric, device);
+    }
+
+    public void onScanStarted() {
+        if (registry.enabled) {
+            scans.increment();
+            scanStart = clock.now();
+        }
+    }
+
+    /**
+     * @param found false after a timeout
+     */
+    public void onScanFinished(boolean found) {
+        final long start = scanStart;
+        if (!registry.enabled || start < 0) {
+            return;
+        }
+        scanStart = -1;
+        if (found) {
+            scanTime.record(clock.now() - start);
+        } else {
+            scanTimeouts.increment();
+        }
+    }
+
+    /**
+     * The GATT connection was requested.
+     */
+    public void onConnectStarted() {
+        if (registry.enabled && connects != null) {
+            connectStart = clock.now();
+        }
+    }
+
+    public void onConnected() {
+        final long start = connectStart;
+        if (registry.enabled && start >= 0 && connects != null) {
+            connects.increment();
+            connectTime.record(clock.now() - start);
+        }
+    }
+
+    public void onNotification(int length) {
+        if (!registry.enabled || packets == null) {
+            return;
+        }
+        packets.increment();
+        bytes.add(length);
+        final long start = connectStart;
+        if (start >= 0) {
+            // only the first one after the connect request
+            connectStart = -1;
+            firstNotificationTime.record(clock.now() - start);
+        }
+    }
+
+    public void onDisconnected() {
+        if (registry.enabled && disconnects != null) {
+            disconnects.increment();
+            connectStart = -1;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum that many threads add to, such as packets received on the binder threads.
+ * Each thread adds to one of a few cells by its ID, the cells a cache line apart,
+ * so concurrent adds rarely contend. {@link #get()} sums the cells and may miss
+ * adds that happen meanwhile.
+ */
+public class Counter {
+    static final int STRIPES = 8;
+    // longs per cache line
+    private static final int SPACING = 8;
+
+    private final MetricsRegistry registry;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+    Counter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        if (!registry.enabled) {
+            return;
+        }
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * SPACING, delta);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * SPACING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * SPACING, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
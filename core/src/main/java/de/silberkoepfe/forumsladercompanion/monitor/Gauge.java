@@ -0,0 +1,33 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+/**
+ * The current value of something, such as the connection state or the MTU. The
+ * last value set wins.
+ */
+public class Gauge {
+    private final MetricsRegistry registry;
+    private volatile long value;
+
+    Gauge(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void set(long value) {
+        if (registry.enabled) {
+            this.value = value;
+        }
+    }
+
+    public long get() {
+        return value;
+    }
+
+    void reset() {
+        value = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
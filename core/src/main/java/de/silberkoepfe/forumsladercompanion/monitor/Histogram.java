@@ -0,0 +1,98 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of values such as connect times in ms, in the manner of an HDR
+ * histogram: values below 16 have a bucket each, above that every power of two is
+ * split into 16 buckets, so a value is known to within 1/16 over the whole range
+ * of a long with less than a thousand buckets. Recording increments one bucket,
+ * the count and the sum, and raises the maximum, all without a lock.
+ */
+public class Histogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final MetricsRegistry registry;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param value negative values count as 0
+     */
+    public void record(long value) {
+        if (!registry.enabled) {
+            return;
+        }
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // the top SUB_BUCKET_BITS + 1 bits of the value, SUB_BUCKETS to 2 * SUB_BUCKETS - 1
+        final int top = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int power = index / SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (power - 1);
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return lowestValue(index) + (1L << (index / SUB_BUCKETS - 1)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    HistogramSnapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        // the buckets are the truth, the count may be ahead of them
+        return new HistogramSnapshot(counts, total, sum.get(), max.get());
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
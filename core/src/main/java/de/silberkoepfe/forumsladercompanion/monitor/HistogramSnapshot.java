@@ -0,0 +1,62 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+/**
+ * The values of a {@link Histogram} at one point in time.
+ */
+public class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean, -1 if nothing was recorded
+     */
+    public long getMean() {
+        return count == 0 ? -1 : sum / count;
+    }
+
+    /**
+     * @return largest value, -1 if nothing was recorded
+     */
+    public long getMax() {
+        return count == 0 ? -1 : max;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value of the bucket the percentile falls into, at most
+     * the maximum; -1 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, Histogram.highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + " mean=" + getMean() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99) + " max=" + getMax();
+    }
+}
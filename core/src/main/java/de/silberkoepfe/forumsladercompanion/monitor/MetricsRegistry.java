@@ -0,0 +1,123 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * Named counters, gauges and histograms of the connection lifecycle.
+ * <p>
+ * The metrics are looked up once, by whoever records to them, and kept in a field.
+ * Recording takes no lock and allocates nothing. While the registry is disabled,
+ * which it is until {@link #setEnabled} is called, recording is a single volatile
+ * read. {@link #snapshot()} copies all values, for display or export.
+ */
+public class MetricsRegistry {
+    private final Clock clock;
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    volatile boolean enabled;
+
+    // guarded by this
+    private MetricsSnapshot previous;
+    private long start;
+
+    public MetricsRegistry(Clock clock) {
+        this.clock = clock;
+        this.start = clock.now();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(this);
+            final Counter raced = counters.putIfAbsent(name, counter);
+            if (raced != null) {
+                counter = raced;
+            }
+        }
+        return counter;
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge(this);
+            final Gauge raced = gauges.putIfAbsent(name, gauge);
+            if (raced != null) {
+                gauge = raced;
+            }
+        }
+        return gauge;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(this);
+            final Histogram raced = histograms.putIfAbsent(name, histogram);
+            if (raced != null) {
+                histogram = raced;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Copies all metrics. The counter rates are per second since the previous
+     * snapshot, or since the registry was created for the first one.
+     */
+    public synchronized MetricsSnapshot snapshot() {
+        final long now = clock.now();
+        final Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        final Map<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().get());
+        }
+        final Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        final MetricsSnapshot snapshot = new MetricsSnapshot(now, now - start, counterValues, gaugeValues,
+                histogramValues, previous);
+        previous = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Sets all metrics back to zero.
+     */
+    public synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Gauge gauge : gauges.values()) {
+            gauge.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        previous = null;
+        start = clock.now();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsRegistry{enabled=" + enabled + " counters=" + counters.size() + " gauges=" + gauges.size()
+                + " histograms=" + histograms.size() + "}";
+    }
+}
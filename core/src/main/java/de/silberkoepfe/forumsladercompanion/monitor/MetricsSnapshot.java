@@ -0,0 +1,143 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The values of all metrics of a {@link MetricsRegistry} at one point in time,
+ * sorted by name.
+ */
+public class MetricsSnapshot {
+    private final long time;
+    private final long uptime;
+    private final Map<String, Long> counters;
+    private final Map<String, Double> rates = new TreeMap<>();
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long time, long uptime, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, HistogramSnapshot> histograms, MetricsSnapshot previous) {
+        this.time = time;
+        this.uptime = uptime;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+        final long interval = previous == null ? uptime : time - previous.time;
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            long delta = entry.getValue();
+            if (previous != null && previous.counters.containsKey(entry.getKey())) {
+                delta -= previous.counters.get(entry.getKey());
+            }
+            rates.put(entry.getKey(), interval <= 0 ? 0 : delta * 1000.0 / interval);
+        }
+    }
+
+    /**
+     * @return clock time the snapshot was taken
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return ms since the registry was created or reset
+     */
+    public long getUptime() {
+        return uptime;
+    }
+
+    /**
+     * @return value of the counter, 0 if there is none of that name
+     */
+    public long getCounter(String name) {
+        final Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return increase of the counter per second since the previous snapshot
+     */
+    public double getRate(String name) {
+        final Double rate = rates.get(name);
+        return rate == null ? 0 : rate;
+    }
+
+    /**
+     * @return value of the gauge, 0 if there is none of that name
+     */
+    public long getGauge(String name) {
+        final Long value = gauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return the histogram, null if there is none of that name
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Writes one line per metric: its kind, name and values.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(String.format(Locale.ROOT, "uptime %d ms%n", uptime));
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            out.write(String.format(Locale.ROOT, "counter %s %d %.1f/s%n", entry.getKey(), entry.getValue(),
+                    rates.get(entry.getKey())));
+        }
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            out.write(String.format(Locale.ROOT, "gauge %s %d%n", entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+            out.write(String.format(Locale.ROOT, "histogram %s %s%n", entry.getKey(), entry.getValue()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing it only once it is complete.
+     */
+    public void write(File file) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("UTF-8"))) {
+            write(out);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("cannot rename " + temp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringWriter out = new StringWriter();
+        try {
+            write(out);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+        }
+        return out.toString();
+    }
+}
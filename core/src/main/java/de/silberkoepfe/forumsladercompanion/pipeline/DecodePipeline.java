@@ -0,0 +1,213 @@
+package de.silberkoepfe.forumsladercompanion.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+
+/**
+ * Moves decoding off the thread delivering the BLE notifications.
+ * <p>
+ * The producer (the GATT callback) only copies the packet into a
+ * {@link SpscPacketQueue} with {@link #submit}. A dedicated consumer thread drains
+ * the queue, hands the packet to the {@link PacketRecorder} if there is one, runs
+ * the {@link FLSentenceParser}, notifies the
+ * {@link PacketListener} and fans the decoded records out to the listeners
+ * registered with {@link #addRecordListener}. A listener throwing is counted,
+ * decoding goes on with the next record.
+ */
+public class DecodePipeline {
+    public static final int DEFAULT_CAPACITY = 128;
+    // largest ATT attribute value
+    public static final int MAX_PACKET_LENGTH = 512;
+
+    /**
+     * Called on the consumer thread for every packet taken from the queue.
+     */
+    public interface PacketListener {
+        void onPacket(long timestamp);
+    }
+
+    /**
+     * Called on the consumer thread with every packet before it is decoded. The
+     * data is only valid during the call.
+     */
+    public interface PacketRecorder {
+        void onPacket(byte[] data, int length, long timestamp);
+    }
+
+    private final String name;
+    private final SpscPacketQueue queue;
+    private final RecordDispatcher dispatcher = new RecordDispatcher();
+    private final FLSentenceParser parser = new FLSentenceParser(dispatcher);
+    private final SpscPacketQueue.PacketHandler packetHandler;
+
+    private volatile PacketRecorder recorder;
+    private volatile boolean running;
+    private volatile boolean consumerParked;
+    private volatile Thread consumer;
+
+    public DecodePipeline(String name, PacketListener packetListener) {
+        this(name, DEFAULT_CAPACITY, packetListener);
+    }
+
+    public DecodePipeline(String name, int capacity, PacketListener packetListener) {
+        this.name = name;
+        this.queue = new SpscPacketQueue(capacity, MAX_PACKET_LENGTH);
+        this.packetHandler = (data, length, timestamp) -> {
+            final PacketRecorder current = recorder;
+            try {
+                if (current != null) {
+                    current.onPacket(data, length, timestamp);
+                }
+            } catch (RuntimeException e) {
+                dispatcher.onError(e);
+            }
+            parser.feed(data, 0, length, timestamp);
+            try {
+                packetListener.onPacket(timestamp);
+            } catch (RuntimeException e) {
+                dispatcher.onError(e);
+            }
+        };
+    }
+
+    public void addRecordListener(FLRecordListener listener) {
+        dispatcher.addListener(listener);
+    }
+
+    public void removeRecordListener(FLRecordListener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+    /**
+     * @param recorder null to stop recording
+     */
+    public void setPacketRecorder(PacketRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this::consume, "DecodePipeline-" + name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stops the consumer thread after it has drained the packets queued so far and
+     * waits for it to end, so no record arrives at the listeners afterwards.
+     *
+     * @return false if interrupted while the consumer thread was still running
+     */
+    public synchronized boolean stop() {
+        final Thread thread = consumer;
+        if (thread == null) {
+            return true;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        consumer = null;
+        return true;
+    }
+
+    /**
+     * Producer side, to be called from a single thread only. Copies the packet and
+     * returns immediately.
+     *
+     * @return false if the packet was dropped
+     */
+    public boolean submit(byte[] data, long timestamp) {
+        if (data == null) {
+            return false;
+        }
+        final boolean queued = queue.offer(data, 0, data.length, timestamp);
+        if (queued && consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return queued;
+    }
+
+    private void consume() {
+        while (running) {
+            if (queue.drain(packetHandler) == 0) {
+                consumerParked = true;
+                // check again, the producer might have missed the flag
+                if (queue.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+            }
+        }
+        queue.drain(packetHandler);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getSubmittedCount() {
+        return queue.getOfferedCount();
+    }
+
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    /**
+     * @return number of packets waiting for the consumer thread
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public long getMaxQueuedCount() {
+        return queue.getMaxDepth();
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * @return number of times a recorder or listener threw
+     */
+    public long getListenerErrorCount() {
+        return dispatcher.getErrorCount();
+    }
+
+    /**
+     * @return the exception a recorder or listener threw last, null if none
+     */
+    public RuntimeException getLastListenerError() {
+        return dispatcher.getLastError();
+    }
+
+    /**
+     * The parser is owned by the consumer thread, only read its counters from there
+     * or after {@link #stop()}.
+     */
+    public FLSentenceParser getParser() {
+        return parser;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodePipeline{" + name
+                + ", submitted=" + getSubmittedCount()
+                + ", dropped=" + getDroppedCount()
+                + ", queued=" + getQueuedCount()
+                + ", maxQueued=" + getMaxQueuedCount()
+                + ", listenerErrors=" + getListenerErrorCount()
+                + "}";
+    }
+}
@@ -0,0 +1,80 @@
+package de.silberkoepfe.forumsladercompanion.pipeline;
+
+import java.util.Arrays;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Fans decoded records out to any number of listeners. Listeners are kept in a
+ * copy-on-write array, so dispatching neither locks nor allocates. A listener
+ * throwing is counted and does not keep the record from the others.
+ */
+public class RecordDispatcher implements FLRecordListener {
+    private volatile FLRecordListener[] listeners = new FLRecordListener[0];
+    private volatile long errorCount;
+    private volatile RuntimeException lastError;
+
+    public synchronized void addListener(FLRecordListener listener) {
+        final FLRecordListener[] current = listeners;
+        final FLRecordListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(FLRecordListener listener) {
+        final FLRecordListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                final FLRecordListener[] updated = new FLRecordListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        for (FLRecordListener listener : listeners) {
+            try {
+                listener.onDataRecord(record);
+            } catch (RuntimeException e) {
+                onError(e);
+            }
+        }
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        for (FLRecordListener listener : listeners) {
+            try {
+                listener.onBaroRecord(record);
+            } catch (RuntimeException e) {
+                onError(e);
+            }
+        }
+    }
+
+    // called by the dispatching thread only
+    void onError(RuntimeException e) {
+        errorCount++;
+        lastError = e;
+    }
+
+    /**
+     * @return number of times a listener threw
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return the exception thrown last, null if none
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+}
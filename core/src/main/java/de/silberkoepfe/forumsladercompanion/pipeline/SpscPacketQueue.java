@@ -0,0 +1,113 @@
+package de.silberkoepfe.forumsladercompanion.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free single-producer/single-consumer queue of BLE packets.
+ * <p>
+ * All slots are allocated up front, {@link #offer} copies the packet into the next
+ * free slot and never blocks or allocates. If the consumer falls behind the packet
+ * is dropped and counted instead.
+ */
+class SpscPacketQueue {
+    interface PacketHandler {
+        void onPacket(byte[] data, int length, long timestamp);
+    }
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final int mask;
+    private final int maxPacketLength;
+
+    // index of the next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // index of the next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    /**
+     * @param capacity number of slots, rounded up to the next power of two
+     */
+    SpscPacketQueue(int capacity, int maxPacketLength) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new byte[size][maxPacketLength];
+        this.lengths = new int[size];
+        this.timestamps = new long[size];
+        this.mask = size - 1;
+        this.maxPacketLength = maxPacketLength;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the packet was dropped because the queue is full or the packet too long
+     */
+    boolean offer(byte[] data, int offset, int length, long timestamp) {
+        final long currentTail = tail.get();
+        final long depth = currentTail - head.get();
+        if (depth > mask || length > maxPacketLength) {
+            droppedCount.lazySet(droppedCount.get() + 1);
+            return false;
+        }
+
+        final int slot = (int) (currentTail & mask);
+        System.arraycopy(data, offset, slots[slot], 0, length);
+        lengths[slot] = length;
+        timestamps[slot] = timestamp;
+        if (depth + 1 > maxDepth.get()) {
+            maxDepth.lazySet(depth + 1);
+        }
+        // volatile write publishes the slot and orders it before the producer checks for a parked consumer
+        tail.set(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side, hands all queued packets to {@code handler}.
+     *
+     * @return number of packets handled
+     */
+    int drain(PacketHandler handler) {
+        final long currentHead = head.get();
+        final long currentTail = tail.get();
+        for (long i = currentHead; i < currentTail; i++) {
+            final int slot = (int) (i & mask);
+            handler.onPacket(slots[slot], lengths[slot], timestamps[slot]);
+            // release each slot right away so the producer can reuse it
+            head.lazySet(i + 1);
+        }
+        return (int) (currentTail - currentHead);
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of packets currently waiting for the consumer
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    long getOfferedCount() {
+        return tail.get() + droppedCount.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return highest number of packets that were waiting at the same time
+     */
+    long getMaxDepth() {
+        return maxDepth.get();
+    }
+}
@@ -0,0 +1,62 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+/**
+ * Environment sensor values as reported by the {@code $FLB} sentence:
+ * <pre>
+ * $FLB,&lt;temperature 0.1 °C&gt;,&lt;pressure Pa&gt;,&lt;altitude dm&gt;*CS
+ * </pre>
+ */
+public class FLBaroRecord {
+    static final int FIELD_COUNT = 3;
+
+    long timestamp;
+    int temperature;
+    int pressure;
+    int altitude;
+
+    /**
+     * Sets all values, for records that do not come from the parser.
+     *
+     * @return this record
+     */
+    public FLBaroRecord set(long timestamp, int temperature, int pressure, int altitude) {
+        this.timestamp = timestamp;
+        this.temperature = temperature;
+        this.pressure = pressure;
+        this.altitude = altitude;
+        return this;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return temperature in 0.1 °C
+     */
+    public int getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * @return air pressure in Pa
+     */
+    public int getPressure() {
+        return pressure;
+    }
+
+    /**
+     * @return altitude in dm
+     */
+    public int getAltitude() {
+        return altitude;
+    }
+
+    @Override
+    public String toString() {
+        return "FLBaroRecord{timestamp=" + timestamp
+                + ", temperature=" + temperature
+                + ", pressure=" + pressure
+                + ", altitude=" + altitude + "}";
+    }
+}
@@ -0,0 +1,38 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+/**
+ * NMEA style checksum used by the Forumslader sentences: XOR over all bytes
+ * between '$' and '*', transmitted as two upper case hex digits.
+ */
+public final class FLChecksum {
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    private FLChecksum() {
+    }
+
+    public static int compute(byte[] data, int from, int to) {
+        int checksum = 0;
+        for (int i = from; i < to; i++) {
+            checksum ^= data[i];
+        }
+        return checksum & 0xff;
+    }
+
+    /**
+     * @return the value of the hex digit or -1 if {@code b} is not a hex digit
+     */
+    public static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    public static byte hexDigit(int value) {
+        return HEX[value & 0x0f];
+    }
+}
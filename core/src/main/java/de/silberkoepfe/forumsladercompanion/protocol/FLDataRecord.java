@@ -0,0 +1,105 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+/**
+ * Electrical state of the Forumslader as reported by the {@code $FL5} sentence:
+ * <pre>
+ * $FL5,&lt;status hex&gt;,&lt;stage&gt;,&lt;dynamo Hz&gt;,&lt;cell1 mV&gt;,&lt;cell2 mV&gt;,&lt;cell3 mV&gt;,&lt;battery mA&gt;,&lt;load mA&gt;*CS
+ * </pre>
+ * A positive battery current means the battery is being charged.
+ */
+public class FLDataRecord {
+    static final int FIELD_COUNT = 8;
+
+    long timestamp;
+    int status;
+    int stage;
+    int dynamoFrequency;
+    int cellVoltage1;
+    int cellVoltage2;
+    int cellVoltage3;
+    int batteryCurrent;
+    int loadCurrent;
+
+    /**
+     * Sets all values, for records that do not come from the parser.
+     *
+     * @return this record
+     */
+    public FLDataRecord set(long timestamp, int status, int stage, int dynamoFrequency,
+                            int cellVoltage1, int cellVoltage2, int cellVoltage3,
+                            int batteryCurrent, int loadCurrent) {
+        this.timestamp = timestamp;
+        this.status = status;
+        this.stage = stage;
+        this.dynamoFrequency = dynamoFrequency;
+        this.cellVoltage1 = cellVoltage1;
+        this.cellVoltage2 = cellVoltage2;
+        this.cellVoltage3 = cellVoltage3;
+        this.batteryCurrent = batteryCurrent;
+        this.loadCurrent = loadCurrent;
+        return this;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    /**
+     * @return dynamo frequency in Hz
+     */
+    public int getDynamoFrequency() {
+        return dynamoFrequency;
+    }
+
+    public int getCellVoltage1() {
+        return cellVoltage1;
+    }
+
+    public int getCellVoltage2() {
+        return cellVoltage2;
+    }
+
+    public int getCellVoltage3() {
+        return cellVoltage3;
+    }
+
+    /**
+     * @return battery voltage in mV, the sum of the three cells
+     */
+    public int getBatteryVoltage() {
+        return cellVoltage1 + cellVoltage2 + cellVoltage3;
+    }
+
+    /**
+     * @return battery current in mA, positive while charging
+     */
+    public int getBatteryCurrent() {
+        return batteryCurrent;
+    }
+
+    /**
+     * @return current drawn by the consumers (lights, USB) in mA
+     */
+    public int getLoadCurrent() {
+        return loadCurrent;
+    }
+
+    @Override
+    public String toString() {
+        return "FLDataRecord{timestamp=" + timestamp
+                + ", status=" + Integer.toHexString(status)
+                + ", stage=" + stage
+                + ", dynamoFrequency=" + dynamoFrequency
+                + ", cells=" + cellVoltage1 + "/" + cellVoltage2 + "/" + cellVoltage3
+                + ", batteryCurrent=" + batteryCurrent
+                + ", loadCurrent=" + loadCurrent + "}";
+    }
+}
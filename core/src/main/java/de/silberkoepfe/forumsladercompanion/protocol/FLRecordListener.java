@@ -0,0 +1,11 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+/**
+ * Receives the records decoded by {@link FLSentenceParser}. The record instances
+ * are reused by the parser and are only valid for the duration of the call.
+ */
+public interface FLRecordListener {
+    void onDataRecord(FLDataRecord record);
+
+    void onBaroRecord(FLBaroRecord record);
+}
@@ -0,0 +1,186 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+/**
+ * Incremental parser for the {@code $FL...} sentences streamed by the Forumslader.
+ * <p>
+ * The BLE link delivers the sentences in notifications of at most 20 bytes, so a
+ * sentence usually spans several packets. The parser collects the bytes in one
+ * reusable sentence buffer, validates the checksum and hands the decoded values
+ * to the {@link FLRecordListener} in preallocated record objects. Feeding data
+ * does not allocate.
+ * <p>
+ * A sentence ends at CR/LF or at the '$' of the next sentence. Instances are not
+ * thread safe, all calls have to come from the same thread.
+ */
+public class FLSentenceParser {
+    static final int MAX_SENTENCE_LENGTH = 128;
+    private static final int MAX_FIELDS = 16;
+    private static final int HEADER_LENGTH = 5; // "$FLx,"
+    private static final int TRAILER_LENGTH = 3; // "*CS"
+
+    private final FLRecordListener listener;
+    private final byte[] sentence = new byte[MAX_SENTENCE_LENGTH];
+    private final int[] fields = new int[MAX_FIELDS];
+    private final FLDataRecord dataRecord = new FLDataRecord();
+    private final FLBaroRecord baroRecord = new FLBaroRecord();
+    private int length;
+    private boolean inSentence;
+
+    private long recordCount;
+    private long checksumErrorCount;
+    private long malformedCount;
+    private long overflowCount;
+    private long unknownCount;
+
+    public FLSentenceParser(FLRecordListener listener) {
+        this.listener = listener;
+    }
+
+    public void feed(byte[] data, long timestamp) {
+        feed(data, 0, data.length, timestamp);
+    }
+
+    public void feed(byte[] data, int offset, int count, long timestamp) {
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            final byte b = data[i];
+            if (b == '$') {
+                if (inSentence) {
+                    complete(timestamp);
+                }
+                inSentence = true;
+                length = 0;
+                sentence[length++] = b;
+            } else if (!inSentence) {
+                // skip noise until the next sentence starts
+            } else if (b == '\r' || b == '\n') {
+                inSentence = false;
+                complete(timestamp);
+            } else if (length == MAX_SENTENCE_LENGTH) {
+                inSentence = false;
+                overflowCount++;
+            } else {
+                sentence[length++] = b;
+            }
+        }
+    }
+
+    /**
+     * Drops a partially received sentence, e.g. after a reconnect.
+     */
+    public void reset() {
+        inSentence = false;
+        length = 0;
+    }
+
+    private void complete(long timestamp) {
+        final int checksumStart = length - TRAILER_LENGTH;
+        if (checksumStart < HEADER_LENGTH - 1 || sentence[checksumStart] != '*') {
+            malformedCount++;
+            return;
+        }
+
+        final int high = FLChecksum.hexValue(sentence[checksumStart + 1]);
+        final int low = FLChecksum.hexValue(sentence[checksumStart + 2]);
+        if (high < 0 || low < 0) {
+            malformedCount++;
+            return;
+        }
+        if ((high << 4 | low) != FLChecksum.compute(sentence, 1, checksumStart)) {
+            checksumErrorCount++;
+            return;
+        }
+
+        if (sentence[1] != 'F' || sentence[2] != 'L' || sentence[4] != ',') {
+            unknownCount++;
+            return;
+        }
+
+        switch (sentence[3]) {
+            case '5':
+                if (parseFields(checksumStart, true) < FLDataRecord.FIELD_COUNT) {
+                    malformedCount++;
+                    return;
+                }
+                dataRecord.timestamp = timestamp;
+                dataRecord.status = fields[0];
+                dataRecord.stage = fields[1];
+                dataRecord.dynamoFrequency = fields[2];
+                dataRecord.cellVoltage1 = fields[3];
+                dataRecord.cellVoltage2 = fields[4];
+                dataRecord.cellVoltage3 = fields[5];
+                dataRecord.batteryCurrent = fields[6];
+                dataRecord.loadCurrent = fields[7];
+                recordCount++;
+                listener.onDataRecord(dataRecord);
+                break;
+            case 'B':
+                if (parseFields(checksumStart, false) < FLBaroRecord.FIELD_COUNT) {
+                    malformedCount++;
+                    return;
+                }
+                baroRecord.timestamp = timestamp;
+                baroRecord.temperature = fields[0];
+                baroRecord.pressure = fields[1];
+                baroRecord.altitude = fields[2];
+                recordCount++;
+                listener.onBaroRecord(baroRecord);
+                break;
+            default:
+                unknownCount++;
+        }
+    }
+
+    /**
+     * Parses the comma separated integer fields between the header and {@code end}.
+     *
+     * @return number of fields parsed or -1 if a field is not a number
+     */
+    private int parseFields(int end, boolean firstIsHex) {
+        int fieldCount = 0;
+        int pos = HEADER_LENGTH;
+        while (pos <= end && fieldCount < MAX_FIELDS) {
+            final boolean hex = firstIsHex && fieldCount == 0;
+            boolean negative = false;
+            int value = 0;
+            if (!hex && pos < end && sentence[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            while (pos < end && sentence[pos] != ',') {
+                final int digit = hex ? FLChecksum.hexValue(sentence[pos]) : sentence[pos] - '0';
+                if (digit < 0 || digit > (hex ? 15 : 9)) {
+                    return -1;
+                }
+                value = value * (hex ? 16 : 10) + digit;
+                pos++;
+            }
+            fields[fieldCount++] = negative ? -value : value;
+            pos++; // skip ','
+        }
+        return fieldCount;
+    }
+
+    /**
+     * @return number of successfully decoded records
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getChecksumErrorCount() {
+        return checksumErrorCount;
+    }
+
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    public long getUnknownCount() {
+        return unknownCount;
+    }
+}
@@ -0,0 +1,162 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import java.util.Random;
+
+/**
+ * Scans aggressively right after a reset and backs off exponentially while the
+ * Forumslader stays out of reach.
+ * <ul>
+ * <li>during the burst after {@link #reset} the scans use {@link ScanMode#LOW_LATENCY}
+ * with short pauses,</li>
+ * <li>then {@link ScanMode#BALANCED} with pauses doubling on every miss up to the
+ * maximum delay, randomized by the jitter so retries do not fall into a rhythm,</li>
+ * <li>once the maximum delay is reached {@link ScanMode#LOW_POWER}.</li>
+ * </ul>
+ * The energy budget is a token bucket measured in milliseconds of low latency
+ * scanning per hour. A scan the bucket cannot pay for is downgraded to a cheaper
+ * mode, down to {@link ScanMode#OPPORTUNISTIC} which is free. Scans are charged for
+ * their full window.
+ */
+public class AdaptiveScanPolicy implements ScanPolicy {
+    public static final long DEFAULT_WINDOW = 5000;
+    public static final long DEFAULT_BURST_DURATION = 30000;
+    public static final long DEFAULT_BURST_DELAY = 500;
+    public static final long DEFAULT_INITIAL_DELAY = 2000;
+    public static final long DEFAULT_MAX_DELAY = 5 * 60 * 1000;
+    public static final double DEFAULT_JITTER = 0.5;
+    // 6 minutes of low latency scanning per hour
+    public static final long DEFAULT_ENERGY_BUDGET = 6 * 60 * 1000;
+    static final long HOUR = 60 * 60 * 1000;
+
+    private final Random random;
+    private long window = DEFAULT_WINDOW;
+    private long burstDuration = DEFAULT_BURST_DURATION;
+    private long burstDelay = DEFAULT_BURST_DELAY;
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private double jitter = DEFAULT_JITTER;
+    private long energyBudget = DEFAULT_ENERGY_BUDGET;
+
+    private long resetAt = Long.MIN_VALUE / 2;
+    private int misses;
+    private double tokens = DEFAULT_ENERGY_BUDGET;
+    private long refilledAt = Long.MIN_VALUE;
+    private double energyUsed;
+
+    public AdaptiveScanPolicy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public ScanPlan nextScan(long now) {
+        refill(now);
+
+        ScanMode mode;
+        if (now - resetAt < burstDuration) {
+            mode = ScanMode.LOW_LATENCY;
+        } else if (backoffDelay() < maxDelay) {
+            mode = ScanMode.BALANCED;
+        } else {
+            mode = ScanMode.LOW_POWER;
+        }
+
+        final ScanMode[] modes = ScanMode.values();
+        while (mode != ScanMode.OPPORTUNISTIC && mode.cost * window > tokens) {
+            mode = modes[mode.ordinal() + 1];
+        }
+        tokens -= mode.cost * window;
+        energyUsed += mode.cost * window;
+        return new ScanPlan(mode, window);
+    }
+
+    @Override
+    public long nextDelay(long now) {
+        if (now - resetAt < burstDuration) {
+            return burstDelay;
+        }
+        final long delay = backoffDelay();
+        misses++;
+        // keep (1 - jitter) of the delay, randomize the rest
+        final long fixed = (long) (delay * (1 - jitter));
+        return fixed + (long) (random.nextDouble() * (delay - fixed));
+    }
+
+    private long backoffDelay() {
+        long delay = initialDelay;
+        for (int i = 0; i < misses && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxDelay);
+    }
+
+    @Override
+    public void onFound(long now) {
+        misses = 0;
+    }
+
+    @Override
+    public void reset(long now) {
+        resetAt = now;
+        misses = 0;
+    }
+
+    private void refill(long now) {
+        if (refilledAt != Long.MIN_VALUE) {
+            tokens = Math.min(energyBudget, tokens + (double) energyBudget * (now - refilledAt) / HOUR);
+        }
+        refilledAt = now;
+    }
+
+    /**
+     * @param window duration of a single scan in ms
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * @param burstDuration time after a reset with low latency scans
+     * @param burstDelay    pause between the scans of a burst
+     */
+    public void setBurst(long burstDuration, long burstDelay) {
+        this.burstDuration = burstDuration;
+        this.burstDelay = burstDelay;
+    }
+
+    /**
+     * @param initialDelay first pause after the burst, doubled on every miss
+     * @param maxDelay     upper bound of the pause
+     * @param jitter       randomized fraction of the pause, between 0 and 1
+     */
+    public void setBackoff(long initialDelay, long maxDelay, double jitter) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param energyBudget milliseconds of low latency scanning allowed per hour, negative counts as 0
+     */
+    public void setEnergyBudget(long energyBudget) {
+        this.energyBudget = Math.max(0, energyBudget);
+        tokens = Math.min(tokens, this.energyBudget);
+    }
+
+    public long getEnergyBudget() {
+        return energyBudget;
+    }
+
+    /**
+     * @return energy spent on scans so far, in milliseconds of low latency scanning
+     */
+    public double getEnergyUsed() {
+        return energyUsed;
+    }
+
+    /**
+     * @return number of scans without result since the last reset or found device
+     */
+    public int getMisses() {
+        return misses;
+    }
+}
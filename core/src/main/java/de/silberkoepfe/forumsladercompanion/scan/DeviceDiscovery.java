@@ -0,0 +1,408 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Asynchronous search for a device.
+ * <p>
+ * {@link #start} starts the backend scan and returns immediately. On the first
+ * results the backend is asked for the ones it still holds back, once they arrive
+ * the scan is stopped on the {@link Scheduler} thread and the best of them all is
+ * handed to the {@link Callback} on that thread; so are timeouts and failures. Exactly one callback
+ * method is called per scan, unless the scan is cancelled first, so exactly one
+ * device gets connected. {@link #start} and {@link #cancel} have to be called on
+ * the scheduler thread, so no callback arrives after a cancel.
+ * <p>
+ * With a report delay the controller collects the results and wakes the
+ * application processor once per batch. Results are merged by address and ranked
+ * by their smoothed signal strength, known devices get a head start. The ranking
+ * covers the first wakeup, or all wakeups within the selection window after it.
+ */
+public class DeviceDiscovery<D> {
+    public static final long DEFAULT_REPORT_DELAY = 0;
+    public static final long DEFAULT_SELECTION_WINDOW = 0;
+    /** dB added to the signal of a known device, it wins unless the other one is much closer */
+    public static final int KNOWN_DEVICE_BONUS = 10;
+    // weight of a new report in the smoothed signal strength
+    static final double RSSI_SMOOTHING = 0.3;
+    // wait for the flushed results, in case the backend delivers none
+    static final long FLUSH_GRACE = 500;
+
+    public interface Callback<D> {
+        void onFound(D device);
+
+        void onTimeout();
+
+        void onFailed(int errorCode);
+    }
+
+    private final ScanBackend<D> backend;
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final ScanBackend.Sink<D> sink = new ScanBackend.Sink<D>() {
+        @Override
+        public void onResults(List<ScanReport<D>> reports) {
+            final Scan scan;
+            final boolean first;
+            final boolean flushed;
+            // results flushed before the stop still count
+            synchronized (DeviceDiscovery.this) {
+                scan = current;
+                if (scan == null || scan.finished) {
+                    return;
+                }
+                if (!reports.isEmpty()) {
+                    wakeupCount++;
+                    reportCount += reports.size();
+                }
+                for (ScanReport<D> report : reports) {
+                    if (!ignoredAddresses.contains(report.getAddress())) {
+                        add(scan, report);
+                    }
+                }
+                flushed = scan.flushing;
+                // only ignored devices around, the scan goes on
+                if (!flushed && scan.candidates.isEmpty()) {
+                    return;
+                }
+                first = !scan.selecting && !scan.flushing;
+                scan.selecting = true;
+            }
+            if (flushed) {
+                // the batch asked for, or any later one, holds what the controller had
+                scheduler.schedule(() -> finish(scan), 0);
+            } else if (first) {
+                scan.selectTask = scheduler.schedule(() -> select(scan), selectionWindow);
+            }
+        }
+
+        @Override
+        public void onFailed(int errorCode) {
+            final Scan scan;
+            synchronized (DeviceDiscovery.this) {
+                scan = current;
+                if (scan == null || scan.finished) {
+                    return;
+                }
+                scan.finished = true;
+            }
+            scheduler.schedule(() -> {
+                stop(scan);
+                deliver(scan, null, errorCode);
+            }, 0);
+        }
+    };
+
+    private long reportDelay = DEFAULT_REPORT_DELAY;
+    private long selectionWindow = DEFAULT_SELECTION_WINDOW;
+    private volatile Set<String> knownAddresses = Collections.emptySet();
+    private volatile Set<String> ignoredAddresses = Collections.emptySet();
+
+    // guarded by this
+    private Scan current;
+
+    private final LatencyStats latency = new LatencyStats();
+    private volatile long wakeupCount;
+    private volatile long reportCount;
+    private volatile long duplicateCount;
+    private volatile int lastCandidateCount;
+    private volatile long scanCount;
+    private volatile long foundCount;
+    private volatile long timeoutCount;
+    private volatile long failedCount;
+    private volatile long lastLatency = -1;
+
+    private static class Candidate<D> {
+        D device;
+        double rssi;
+        boolean known;
+
+        double score() {
+            return rssi + (known ? KNOWN_DEVICE_BONUS : 0);
+        }
+    }
+
+    private class Scan {
+        final Callback<D> callback;
+        final long startedAt;
+        // in order of appearance, the first one wins a tie
+        final Map<String, Candidate<D>> candidates = new LinkedHashMap<>();
+        Scheduler.Task timeoutTask;
+        Scheduler.Task flushTask;
+        // set on the thread delivering the results
+        volatile Scheduler.Task selectTask;
+        boolean selecting;
+        boolean flushing;
+        boolean stopped;
+        boolean finished;
+
+        Scan(Callback<D> callback, long startedAt) {
+            this.callback = callback;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public DeviceDiscovery(ScanBackend<D> backend, Clock clock, Scheduler scheduler) {
+        this.backend = backend;
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Applies from the next scan on.
+     *
+     * @param reportDelay time the controller may collect results, 0 to get each one right away
+     */
+    public void setReportDelay(long reportDelay) {
+        this.reportDelay = reportDelay;
+    }
+
+    public long getReportDelay() {
+        return reportDelay;
+    }
+
+    /**
+     * @param selectionWindow time after the first results to wait for better ones, 0 to
+     *                        pick the best of the first wakeup
+     */
+    public void setSelectionWindow(long selectionWindow) {
+        this.selectionWindow = selectionWindow;
+    }
+
+    /**
+     * @param addresses devices connected before, preferred to unknown ones
+     */
+    public void setKnownAddresses(Collection<String> addresses) {
+        knownAddresses = addresses == null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(addresses));
+    }
+
+    /**
+     * @param addresses devices whose results are left out, as they are connected elsewhere
+     */
+    public void setIgnoredAddresses(Collection<String> addresses) {
+        ignoredAddresses = addresses == null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(addresses));
+    }
+
+    /**
+     * Starts a scan, a scan still running is cancelled.
+     *
+     * @param timeoutMillis time after which {@link Callback#onTimeout()} is called, 0 for none
+     */
+    public void start(long timeoutMillis, Callback<D> callback) {
+        cancel();
+
+        final Scan scan = new Scan(callback, clock.now());
+        synchronized (this) {
+            current = scan;
+        }
+        scanCount++;
+        if (timeoutMillis > 0) {
+            // results still waiting for the selection window are taken
+            scan.timeoutTask = scheduler.schedule(() -> select(scan), timeoutMillis);
+        }
+        backend.startScan(reportDelay, sink);
+    }
+
+    /**
+     * Stops the running scan without calling its callback.
+     */
+    public void cancel() {
+        final Scan scan;
+        synchronized (this) {
+            scan = current;
+            current = null;
+            if (scan == null) {
+                return;
+            }
+            scan.finished = true;
+        }
+        cancelTasks(scan);
+        stop(scan);
+    }
+
+    public synchronized boolean isScanning() {
+        return current != null && !current.finished;
+    }
+
+    private void cancelTasks(Scan scan) {
+        if (scan.timeoutTask != null) {
+            scan.timeoutTask.cancel();
+        }
+        if (scan.flushTask != null) {
+            scan.flushTask.cancel();
+        }
+        final Scheduler.Task selectTask = scan.selectTask;
+        if (selectTask != null) {
+            selectTask.cancel();
+        }
+    }
+
+    /**
+     * Stops the backend once per scan.
+     *
+     * @return false if it was stopped before
+     */
+    private boolean stop(Scan scan) {
+        synchronized (this) {
+            if (scan.stopped) {
+                return false;
+            }
+            scan.stopped = true;
+        }
+        backend.stopScan();
+        return true;
+    }
+
+    // guarded by this
+    private void add(Scan scan, ScanReport<D> report) {
+        Candidate<D> candidate = scan.candidates.get(report.getAddress());
+        if (candidate == null) {
+            candidate = new Candidate<>();
+            candidate.rssi = report.getRssi();
+            candidate.known = knownAddresses.contains(report.getAddress());
+            scan.candidates.put(report.getAddress(), candidate);
+        } else {
+            duplicateCount++;
+            candidate.rssi += RSSI_SMOOTHING * (report.getRssi() - candidate.rssi);
+        }
+        candidate.device = report.getDevice();
+    }
+
+    // asks the backend for the results it holds back, the scan goes on until they arrive
+    private void select(Scan scan) {
+        synchronized (this) {
+            if (scan.flushing || scan.stopped) {
+                return;
+            }
+            scan.flushing = true;
+        }
+        if (backend.flush()) {
+            scan.flushTask = scheduler.schedule(() -> finish(scan), FLUSH_GRACE);
+        } else {
+            finish(scan);
+        }
+    }
+
+    private void finish(Scan scan) {
+        if (stop(scan)) {
+            pick(scan);
+        }
+    }
+
+    // finishes the scan with its best candidate, or as timed out if there is none
+    private void pick(Scan scan) {
+        Candidate<D> best = null;
+        synchronized (this) {
+            if (scan.finished) {
+                return;
+            }
+            scan.finished = true;
+            for (Candidate<D> candidate : scan.candidates.values()) {
+                if (best == null || candidate.score() > best.score()) {
+                    best = candidate;
+                }
+            }
+            lastCandidateCount = scan.candidates.size();
+        }
+        deliver(scan, best != null ? best.device : null, -1);
+    }
+
+    // runs on the scheduler thread
+    private void deliver(Scan scan, D device, int errorCode) {
+        synchronized (this) {
+            if (scan != current) {
+                // cancelled meanwhile
+                return;
+            }
+            current = null;
+        }
+        cancelTasks(scan);
+
+        if (device != null) {
+            foundCount++;
+            lastLatency = clock.now() - scan.startedAt;
+            latency.record(lastLatency);
+            scan.callback.onFound(device);
+        } else if (errorCode >= 0) {
+            failedCount++;
+            scan.callback.onFailed(errorCode);
+        } else {
+            timeoutCount++;
+            scan.callback.onTimeout();
+        }
+    }
+
+    public long getScanCount() {
+        return scanCount;
+    }
+
+    public long getFoundCount() {
+        return foundCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return time from the start of the last successful scan to its result, -1 if none
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * @return time from the start of a scan to the device handed over for connecting
+     */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return number of times results woke up the application processor
+     */
+    public long getWakeupCount() {
+        return wakeupCount;
+    }
+
+    public long getReportCount() {
+        return reportCount;
+    }
+
+    /**
+     * @return reports of a device already seen in the same scan
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return number of different devices the last selection chose from
+     */
+    public int getLastCandidateCount() {
+        return lastCandidateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceDiscovery{scans=" + scanCount + ", found=" + foundCount + ", timeouts=" + timeoutCount
+                + ", failed=" + failedCount + ", wakeups=" + wakeupCount + ", reports=" + reportCount
+                + ", duplicates=" + duplicateCount + ", latency " + latency + "}";
+    }
+}
@@ -0,0 +1,99 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionState.*;
+
+/**
+ * Remembers the address of the last connected Forumslader and decides whether a
+ * connection attempt goes to it directly or through a full scan. A direct attempt
+ * that does not end up receiving data falls back to scanning until the next
+ * successful connection.
+ * <p>
+ * Time to data, from the first attempt after a start or a lost connection until
+ * notifications arrive, is recorded per path that finally succeeded. Must be used
+ * on the thread of the state machine.
+ */
+public class FastReconnect {
+    public enum Path {
+        /** connect to the remembered address without scanning */
+        CACHED,
+        /** scan for the service UUID */
+        SCAN
+    }
+
+    private final Clock clock;
+    private final LatencyStats[] timeToData = {new LatencyStats(), new LatencyStats()};
+    private String address;
+    private boolean cachedFailed;
+    private Path path = Path.SCAN;
+    private long attemptStartedAt = -1;
+    private volatile long cachedMissCount;
+
+    /**
+     * @param address remembered address of an earlier session, null if none
+     */
+    public FastReconnect(Clock clock, String address) {
+        this.clock = clock;
+        this.address = address;
+    }
+
+    /**
+     * Called before every connection attempt.
+     */
+    public Path nextPath() {
+        if (attemptStartedAt < 0) {
+            attemptStartedAt = clock.now();
+        }
+        path = address != null && !cachedFailed ? Path.CACHED : Path.SCAN;
+        return path;
+    }
+
+    public void onStateChanged(ConnectionState from, ConnectionEvent event, ConnectionState to) {
+        if (to == RECEIVING) {
+            if (attemptStartedAt >= 0) {
+                timeToData[path.ordinal()].record(clock.now() - attemptStartedAt);
+                attemptStartedAt = -1;
+            }
+            cachedFailed = false;
+        } else if (isConnecting(from) && to == RETRY_WAIT) {
+            if (path == Path.CACHED) {
+                cachedFailed = true;
+                cachedMissCount++;
+            }
+        }
+        if (to == STOPPED || to == WAITING_FOR_BLUETOOTH) {
+            // not a reconnect anymore
+            attemptStartedAt = -1;
+        }
+    }
+
+    private static boolean isConnecting(ConnectionState state) {
+        return state == CONNECTING || state == DISCOVERING_SERVICES || state == SUBSCRIBING || state == CONNECTED;
+    }
+
+    /**
+     * Remembers the address of the device that is connected now.
+     */
+    public void remember(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public LatencyStats getTimeToData(Path path) {
+        return timeToData[path.ordinal()];
+    }
+
+    /**
+     * @return number of direct attempts that failed and fell back to scanning
+     */
+    public long getCachedMissCount() {
+        return cachedMissCount;
+    }
+}
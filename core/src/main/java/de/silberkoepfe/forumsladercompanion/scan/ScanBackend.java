@@ -0,0 +1,42 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import java.util.List;
+
+/**
+ * The platform scanner, on the phone a wrapper around {@code BluetoothLeScanner}.
+ *
+ * @param <D> type of the discovered devices
+ */
+public interface ScanBackend<D> {
+    /**
+     * Receives the scan results, may be called from any thread.
+     */
+    interface Sink<D> {
+        /**
+         * Called once per wakeup of the application processor, with a single
+         * result or with the batch the controller collected.
+         */
+        void onResults(List<ScanReport<D>> reports);
+
+        void onFailed(int errorCode);
+    }
+
+    /**
+     * @param reportDelay time the controller may hold results back to deliver them
+     *                    in one batch, 0 to deliver each one right away
+     */
+    void startScan(long reportDelay, Sink<D> sink);
+
+    /**
+     * Asks the controller for the results it still holds back. They arrive at the
+     * sink later, as a batch of their own, which may be empty.
+     *
+     * @return false if the scan holds nothing back, as without a report delay
+     */
+    boolean flush();
+
+    /**
+     * Stops the scan, results still held back are dropped.
+     */
+    void stopScan();
+}
@@ -0,0 +1,21 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+/**
+ * Scan modes of the BLE controller, from fast and expensive to free.
+ */
+public enum ScanMode {
+    LOW_LATENCY(1.0),
+    BALANCED(0.25),
+    LOW_POWER(0.1),
+    /** only sees results of scans started by other apps */
+    OPPORTUNISTIC(0.0);
+
+    /**
+     * Energy used relative to {@link #LOW_LATENCY}, roughly the duty cycle of the radio.
+     */
+    public final double cost;
+
+    ScanMode(double cost) {
+        this.cost = cost;
+    }
+}
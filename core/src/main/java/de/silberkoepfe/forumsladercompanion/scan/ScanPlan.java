@@ -0,0 +1,27 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+public class ScanPlan {
+    private final ScanMode mode;
+    private final long window;
+
+    public ScanPlan(ScanMode mode, long window) {
+        this.mode = mode;
+        this.window = window;
+    }
+
+    public ScanMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return scan duration in ms
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanPlan{" + mode + ", window=" + window + "}";
+    }
+}
@@ -0,0 +1,30 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+/**
+ * Decides how and how often to scan for the Forumslader. All methods are called on
+ * the service thread with the current time of the monotonic clock.
+ */
+public interface ScanPolicy {
+    /**
+     * Called before every scan.
+     */
+    ScanPlan nextScan(long now);
+
+    /**
+     * Called after a scan without result.
+     *
+     * @return time to wait before the next scan
+     */
+    long nextDelay(long now);
+
+    /**
+     * Called when the device was connected and sends data.
+     */
+    void onFound(long now);
+
+    /**
+     * The device is likely close: the service was started, bluetooth was switched
+     * on or the connection was just lost.
+     */
+    void reset(long now);
+}
@@ -0,0 +1,38 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+/**
+ * One advertisement seen by the scanner.
+ *
+ * @param <D> type of the discovered devices
+ */
+public class ScanReport<D> {
+    private final D device;
+    private final String address;
+    private final int rssi;
+
+    public ScanReport(D device, String address, int rssi) {
+        this.device = device;
+        this.address = address;
+        this.rssi = rssi;
+    }
+
+    public D getDevice() {
+        return device;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return received signal strength in dBm
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanReport{" + address + ", rssi=" + rssi + "}";
+    }
+}
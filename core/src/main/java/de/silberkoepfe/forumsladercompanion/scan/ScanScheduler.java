@@ -0,0 +1,77 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * Connects a {@link ScanPolicy} to the {@link ConnectionStateMachine}: feeds it the
+ * state changes and supplies the delay of {@link ConnectionState#RETRY_WAIT}. Must be
+ * used on the thread of the state machine.
+ */
+public class ScanScheduler implements ConnectionStateMachine.RetryDelay {
+    private final ScanPolicy policy;
+    private final Clock clock;
+    private final long[] scanCounts = new long[ScanMode.values().length];
+    private volatile long resetCount;
+
+    public ScanScheduler(ScanPolicy policy, Clock clock) {
+        this.policy = policy;
+        this.clock = clock;
+    }
+
+    /**
+     * @return how to run the scan that is about to start
+     */
+    public ScanPlan nextScan() {
+        final ScanPlan plan = policy.nextScan(clock.now());
+        scanCounts[plan.getMode().ordinal()]++;
+        return plan;
+    }
+
+    @Override
+    public long nextRetryDelay() {
+        return policy.nextDelay(clock.now());
+    }
+
+    public void onStateChanged(ConnectionState from, ConnectionEvent event, ConnectionState to) {
+        switch (event) {
+            case START:
+            case ADAPTER_ON:
+                reset();
+                break;
+            case GATT_DISCONNECTED:
+            case LINK_LOST:
+                // the device was in range and sending a moment ago; a connection
+                // failing before that backs off like a scan without result
+                if (from == ConnectionState.RECEIVING) {
+                    reset();
+                }
+                break;
+        }
+        if (to == ConnectionState.RECEIVING && from != ConnectionState.RECEIVING) {
+            policy.onFound(clock.now());
+        }
+    }
+
+    private void reset() {
+        resetCount++;
+        policy.reset(clock.now());
+    }
+
+    public ScanPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return number of scans started in the mode
+     */
+    public long getScanCount(ScanMode mode) {
+        return scanCounts[mode.ordinal()];
+    }
+
+    public long getResetCount() {
+        return resetCount;
+    }
+}
@@ -0,0 +1,221 @@
+package de.silberkoepfe.forumsladercompanion.session;
+
+import java.io.IOException;
+
+import de.silberkoepfe.forumsladercompanion.FLDevice;
+import de.silberkoepfe.forumsladercompanion.FLScanner;
+import de.silberkoepfe.forumsladercompanion.FLScannerException;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.storage.WriteBehindJournal;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * One Forumslader of a {@link SessionManager}. Keeps its device connected with a
+ * {@link ConnectionStateMachine} of its own and writes the records into a journal
+ * of its own. The device is connected by address, a scan would find any of them.
+ * <p>
+ * Records arrive on the decode thread of the device, everything else runs on the
+ * scheduler thread.
+ */
+public class DeviceSession implements FLDevice.Listener {
+    private final String address;
+    private final FLScanner scanner;
+    private final Clock clock;
+    private final Clock wallClock;
+    private final Scheduler scheduler;
+    private final WriteBehindJournal journal;
+    private final ConnectionStateMachine stateMachine;
+    private FLDevice device;
+
+    private final LatencyStats latency = new LatencyStats();
+    private volatile long recordCount;
+    private volatile long connectCount;
+    private volatile long firstRecordAt = -1;
+    private volatile long lastRecordAt = -1;
+
+    private final FLScanner.Callback scanCallback = new FLScanner.Callback() {
+        @Override
+        public void onDeviceFound(FLDevice found) {
+            // stopped or handed another one meanwhile, nothing would ever disconnect it
+            if (stateMachine.getState() != ConnectionState.SCANNING || device != null) {
+                found.disconnect();
+                return;
+            }
+            device = found;
+            connectCount++;
+            stateMachine.post(ConnectionEvent.SCAN_RESULT);
+        }
+
+        @Override
+        public void onScanTimeout() {
+            stateMachine.post(ConnectionEvent.SCAN_TIMEOUT);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            stateMachine.post(ConnectionEvent.SCAN_FAILED);
+        }
+    };
+
+    private final ConnectionStateMachine.Actions actions = new ConnectionStateMachine.Actions() {
+        @Override
+        public boolean isBluetoothReady() {
+            return scanner.isAvailable();
+        }
+
+        @Override
+        public void startScan() {
+            try {
+                scanner.connectDevice(address, scanCallback);
+            } catch (FLScannerException e) {
+                stateMachine.post(ConnectionEvent.BLUETOOTH_UNAVAILABLE);
+            }
+        }
+
+        @Override
+        public void stopScan() {
+            // the device is connected when handed over, not before
+            scanner.cancel(address);
+        }
+
+        @Override
+        public void disconnect() {
+            if (device != null) {
+                device.disconnect();
+                device = null;
+                // the decode pipeline has stopped, each connection is a session of its own
+                if (journal != null) {
+                    journal.endSession();
+                }
+            }
+        }
+    };
+
+    /**
+     * @param clock monotonic, times the retries and the record rate
+     * @param wallClock time of the notifications, the records are timed against it
+     * @param journal takes the records of this device, null to keep none
+     */
+    DeviceSession(String address, FLScanner scanner, Clock clock, Clock wallClock, Scheduler scheduler,
+                  WriteBehindJournal journal, SessionManager.Listener listener) {
+        this.address = address;
+        this.scanner = scanner;
+        this.clock = clock;
+        this.wallClock = wallClock;
+        this.scheduler = scheduler;
+        this.journal = journal;
+        stateMachine = new ConnectionStateMachine(clock, scheduler, actions,
+                (from, event, to) -> listener.onStateChanged(this, from, event, to));
+    }
+
+    void start() {
+        stateMachine.post(ConnectionEvent.START);
+    }
+
+    // the journal is closed after the device is disconnected on the scheduler thread
+    void stop() {
+        stateMachine.post(ConnectionEvent.STOP);
+        if (journal != null) {
+            scheduler.schedule(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    // the journal keeps the error
+                }
+            }, 0);
+        }
+    }
+
+    void post(ConnectionEvent event) {
+        stateMachine.post(event);
+    }
+
+    @Override
+    public void onConnectionEvent(ConnectionEvent event) {
+        stateMachine.post(event);
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        onRecord(record.getTimestamp());
+        if (journal != null) {
+            journal.onDataRecord(record);
+        }
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        onRecord(record.getTimestamp());
+        if (journal != null) {
+            journal.onBaroRecord(record);
+        }
+    }
+
+    private void onRecord(long timestamp) {
+        latency.record(wallClock.now() - timestamp);
+        final long now = clock.now();
+        if (firstRecordAt < 0) {
+            firstRecordAt = now;
+        }
+        lastRecordAt = now;
+        recordCount++;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public ConnectionState getState() {
+        return stateMachine.getState();
+    }
+
+    public ConnectionStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    /**
+     * @return null if the session keeps no journal
+     */
+    public WriteBehindJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return time from the notification to its record reaching the session
+     */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return number of devices handed over by the scanner, one per connection attempt
+     */
+    public long getConnectCount() {
+        return connectCount;
+    }
+
+    /**
+     * @return records per second between the first and the last one, 0 before the second
+     */
+    public double getThroughput() {
+        final long first = firstRecordAt;
+        final long duration = lastRecordAt - first;
+        return first < 0 || duration <= 0 ? 0 : (recordCount - 1) * 1000.0 / duration;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceSession{" + address + ", " + getState() + ", records=" + recordCount + ", connects="
+                + connectCount + ", latency " + latency + "}";
+    }
+}
@@ -0,0 +1,186 @@
+package de.silberkoepfe.forumsladercompanion.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.silberkoepfe.forumsladercompanion.FLDevice;
+import de.silberkoepfe.forumsladercompanion.FLScanner;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.storage.Durability;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+import de.silberkoepfe.forumsladercompanion.storage.WriteBehindJournal;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Connects to and streams from several Forumsladers at the same time. Each one
+ * gets a {@link DeviceSession} with a connection state machine and a journal of
+ * its own, the devices get their own decode pipelines from the scanner. The
+ * manager hands each device the session of its address as listener, so give it
+ * to the scanner as {@link FLDevice.Listeners}.
+ * <p>
+ * All sessions share the scheduler thread and the scanner, whose GATT queues
+ * take turns on the stack.
+ */
+public class SessionManager implements FLDevice.Listeners {
+    /**
+     * Told about the state changes of all sessions, on the scheduler thread.
+     */
+    public interface Listener {
+        void onStateChanged(DeviceSession session, ConnectionState from, ConnectionEvent event, ConnectionState to);
+    }
+
+    // for devices without a session, as the one found by a plain scan
+    private static final FLDevice.Listener IGNORE = new FLDevice.Listener() {
+        @Override
+        public void onConnectionEvent(ConnectionEvent event) {
+        }
+
+        @Override
+        public void onDataRecord(FLDataRecord record) {
+        }
+
+        @Override
+        public void onBaroRecord(FLBaroRecord record) {
+        }
+    };
+
+    private final Clock clock;
+    private final Clock wallClock;
+    private final Scheduler scheduler;
+    private final File directory;
+    private final Durability durability;
+    private final Map<String, DeviceSession> sessions = new LinkedHashMap<>();
+    private FLScanner scanner;
+    private volatile Listener listener;
+    private volatile long retryDelay = ConnectionStateMachine.DEFAULT_RETRY_DELAY;
+
+    /**
+     * @param clock monotonic, for the state machines and the journals
+     * @param wallClock time of the notifications
+     * @param directory holds one journal directory per device, null to keep no journals
+     */
+    public SessionManager(Clock clock, Clock wallClock, Scheduler scheduler, File directory, Durability durability) {
+        this.clock = clock;
+        this.wallClock = wallClock;
+        this.scheduler = scheduler;
+        this.directory = directory;
+        this.durability = durability;
+    }
+
+    /**
+     * @param scanner creates the devices with this manager as {@link FLDevice.Listeners}
+     */
+    public void setScanner(FLScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param retryDelay wait after a scan without result or a lost connection, for sessions opened later
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Starts a session for the device with the address, or returns the running one.
+     */
+    public DeviceSession open(String address) throws IOException {
+        if (scanner == null) {
+            throw new IllegalStateException("no scanner");
+        }
+        final DeviceSession session;
+        synchronized (this) {
+            final DeviceSession running = sessions.get(address);
+            if (running != null) {
+                return running;
+            }
+            final WriteBehindJournal journal = directory == null ? null
+                    : new WriteBehindJournal(new JournalWriter(journalDirectory(address)), clock, durability);
+            session = new DeviceSession(address, scanner, clock, wallClock, scheduler, journal, this::onStateChanged);
+            session.getStateMachine().setTimeout(ConnectionState.RETRY_WAIT, retryDelay);
+            sessions.put(address, session);
+        }
+        session.start();
+        return session;
+    }
+
+    private void onStateChanged(DeviceSession session, ConnectionState from, ConnectionEvent event,
+                                ConnectionState to) {
+        final Listener current = listener;
+        if (current != null) {
+            current.onStateChanged(session, from, event, to);
+        }
+    }
+
+    /**
+     * Disconnects the device and closes its journal.
+     */
+    public void close(String address) {
+        final DeviceSession session;
+        synchronized (this) {
+            session = sessions.remove(address);
+        }
+        if (session != null) {
+            session.stop();
+        }
+    }
+
+    public void closeAll() {
+        for (DeviceSession session : getSessions()) {
+            close(session.getAddress());
+        }
+    }
+
+    /**
+     * Posts an event concerning all devices, as the adapter being switched on or off.
+     */
+    public void broadcast(ConnectionEvent event) {
+        for (DeviceSession session : getSessions()) {
+            session.post(event);
+        }
+    }
+
+    @Override
+    public synchronized FLDevice.Listener forDevice(String address) {
+        final DeviceSession session = sessions.get(address);
+        return session != null ? session : IGNORE;
+    }
+
+    public File journalDirectory(String address) {
+        return new File(directory, address.replace(":", ""));
+    }
+
+    public synchronized DeviceSession getSession(String address) {
+        return sessions.get(address);
+    }
+
+    public synchronized List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public long getRecordCount() {
+        long count = 0;
+        for (DeviceSession session : getSessions()) {
+            count += session.getRecordCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionManager{" + getSessions() + "}";
+    }
+}
@@ -0,0 +1,140 @@
+package de.silberkoepfe.forumsladercompanion.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Notifications of a Forumslader as they arrived, for replaying them later.
+ * <p>
+ * The text form has one notification per line, lines starting with '#' are
+ * comments:
+ * <pre>
+ * [offset] hex
+ * </pre>
+ * where offset is the time in ms since the first notification. Lines without
+ * offset follow the previous one after {@link #DEFAULT_INTERVAL}, so the plain
+ * hex captures of the tests load as well.
+ */
+public class Recording {
+    // about one sentence a second in 20 byte notifications
+    public static final long DEFAULT_INTERVAL = 300;
+
+    private long[] offsets = new long[256];
+    private byte[][] packets = new byte[256][];
+    private int size;
+
+    /**
+     * Appends a notification, the offsets must not decrease.
+     */
+    public synchronized void add(long offset, byte[] packet) {
+        if (size > 0 && offset < offsets[size - 1]) {
+            throw new IllegalArgumentException("offset " + offset + " before " + offsets[size - 1]);
+        }
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * size);
+            packets = Arrays.copyOf(packets, 2 * size);
+        }
+        offsets[size] = offset;
+        packets[size] = packet.clone();
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * @return the packet itself, not a copy
+     */
+    public synchronized byte[] getPacket(int index) {
+        checkIndex(index);
+        return packets[index];
+    }
+
+    /**
+     * @return offset of the last notification
+     */
+    public synchronized long getDuration() {
+        return size == 0 ? 0 : offsets[size - 1];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    public static Recording read(Reader in) throws IOException {
+        final Recording recording = new Recording();
+        final BufferedReader reader = new BufferedReader(in);
+        long offset = -DEFAULT_INTERVAL;
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int separator = line.indexOf(' ');
+            final String hex;
+            try {
+                if (separator > 0) {
+                    offset = Long.parseLong(line.substring(0, separator));
+                    hex = line.substring(separator + 1).trim();
+                } else {
+                    offset += DEFAULT_INTERVAL;
+                    hex = line;
+                }
+                recording.add(offset, parseHex(hex));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+        return recording;
+    }
+
+    public synchronized void write(Writer out) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            line.setLength(0);
+            line.append(offsets[i]).append(' ');
+            for (byte b : packets[i]) {
+                line.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0x0f, 16)));
+                line.append(Character.toUpperCase(Character.forDigit(b & 0x0f, 16)));
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+        out.flush();
+    }
+
+    private static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd number of hex digits");
+        }
+        final byte[] packet = new byte[hex.length() / 2];
+        for (int i = 0; i < packet.length; i++) {
+            final int high = Character.digit(hex.charAt(2 * i), 16);
+            final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("not a hex digit");
+            }
+            packet[i] = (byte) (high << 4 | low);
+        }
+        return packet;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Recording{notifications=" + size + ", duration=" + getDuration() + " ms}";
+    }
+}
@@ -0,0 +1,143 @@
+package de.silberkoepfe.forumsladercompanion.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import de.silberkoepfe.forumsladercompanion.pipeline.DecodePipeline;
+
+/**
+ * Streams notifications in the text form of a {@link Recording} as they are
+ * decoded, so a ride is neither held in memory nor lost when the process is
+ * killed.
+ * <p>
+ * The lines are formatted into a reusable buffer and flushed whenever
+ * {@link #DEFAULT_FLUSH_INTERVAL} of notifications has passed. Once the size
+ * limit is reached, further notifications are counted as dropped. The first error
+ * stops the recording.
+ */
+public class RecordingWriter implements DecodePipeline.PacketRecorder, Closeable {
+    public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final Writer out;
+    private final long maxSize;
+    // offset, separator, the largest packet in hex and the line feed
+    private final char[] line = new char[20 + 1 + 2 * DecodePipeline.MAX_PACKET_LENGTH + 1];
+
+    private long start = -1;
+    private long lastOffset;
+    private long lastFlush;
+    private long size;
+    private boolean failed;
+    private boolean closed;
+
+    private volatile long writtenCount;
+    private volatile long droppedCount;
+
+    /**
+     * @param maxSize characters written at most
+     */
+    public RecordingWriter(Writer out, long maxSize) {
+        this.out = out;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Appends a notification with its time in ms. The offset of the line is
+     * counted from the first one and never decreases.
+     */
+    @Override
+    public synchronized void onPacket(byte[] data, int length, long timestamp) {
+        if (start < 0) {
+            start = timestamp;
+            lastFlush = timestamp;
+        }
+        lastOffset = Math.max(lastOffset, timestamp - start);
+        write(lastOffset, data, length);
+        if (timestamp - lastFlush >= DEFAULT_FLUSH_INTERVAL) {
+            lastFlush = timestamp;
+            flush();
+        }
+    }
+
+    private void write(long offset, byte[] data, int length) {
+        final int end = format(offset, data, length);
+        if (closed || failed || size + end > maxSize) {
+            droppedCount++;
+            return;
+        }
+        try {
+            out.write(line, 0, end);
+            size += end;
+            writtenCount++;
+        } catch (IOException e) {
+            failed = true;
+            droppedCount++;
+        }
+    }
+
+    private int format(long offset, byte[] data, int length) {
+        int position = line.length;
+        // the offset backwards from the end, then moved in front of the packet
+        long value = offset;
+        do {
+            line[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        final int digits = line.length - position;
+        System.arraycopy(line, position, line, 0, digits);
+        int end = digits;
+        line[end++] = ' ';
+        for (int i = 0; i < length; i++) {
+            line[end++] = HEX[(data[i] >> 4) & 0x0f];
+            line[end++] = HEX[data[i] & 0x0f];
+        }
+        line[end++] = '\n';
+        return end;
+    }
+
+    public synchronized void flush() {
+        if (closed || failed) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * @return characters written so far
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return notifications past the size limit or after an error
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordingWriter{notifications=" + writtenCount + ", dropped=" + droppedCount
+                + ", size=" + size + ", duration=" + lastOffset + " ms}";
+    }
+}
@@ -0,0 +1,273 @@
+package de.silberkoepfe.forumsladercompanion.sim;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * A simulated Forumslader sending the notifications of a {@link Recording}.
+ * <p>
+ * While connected, a thread of its own hands the notifications to the
+ * {@link Sink} at the pace of the {@link Simulation} and injects its faults. The
+ * position survives a disconnect, the next connection goes on with the next
+ * notification, as the real device would after the link was lost for a moment.
+ * <p>
+ * The timestamps are the recorded offsets on top of the clock time of the first
+ * connection, moved forward by the time spent disconnected. They never decrease,
+ * at more than real time speed they run ahead of the clock.
+ */
+public class Replayer {
+    /**
+     * Called on the replay thread.
+     */
+    public interface Sink {
+        /**
+         * @return false if the notification was not taken
+         */
+        boolean onNotification(byte[] data, long timestamp);
+
+        /**
+         * The simulation dropped the link, no notification follows.
+         */
+        void onDisconnected();
+    }
+
+    // waiting for the consumer at max speed
+    private static final long BACKOFF_NANOS = 50 * 1000;
+
+    private final Simulation simulation;
+    private final Recording recording;
+    private final Clock clock;
+    private final Random random;
+
+    private volatile long position;
+    private long base = Long.MIN_VALUE;
+    private volatile Thread thread;
+    private volatile boolean connected;
+
+    private volatile long notificationCount;
+    private volatile long fragmentCount;
+    private volatile long corruptCount;
+    private volatile long disconnectCount;
+    private volatile long droppedCount;
+    private volatile long lastTimestamp;
+
+    /**
+     * @param clock time of the first notification, usually the wall clock
+     */
+    public Replayer(Simulation simulation, Clock clock) {
+        this.simulation = simulation;
+        this.recording = simulation.getRecording();
+        this.clock = clock;
+        this.random = new Random(simulation.getSeed());
+    }
+
+    /**
+     * Decides whether the next scan of the device fails.
+     */
+    public boolean nextScanFails() {
+        return random.nextDouble() < simulation.getScanFailureRate();
+    }
+
+    /**
+     * Starts sending to the sink, ends a connection still running.
+     */
+    public synchronized void connect(Sink sink) {
+        disconnect();
+        if (recording.size() == 0) {
+            return;
+        }
+        base = Math.max(base, clock.now() - offset(position));
+        connected = true;
+        thread = new Thread(() -> replay(sink), "Replayer-" + simulation.getAddress());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sending, returns once the replay thread has handed over its last
+     * notification. Called from the sink it only stops.
+     */
+    public void disconnect() {
+        connected = false;
+        if (thread == Thread.currentThread()) {
+            return;
+        }
+        synchronized (this) {
+            final Thread running = thread;
+            if (running == null) {
+                return;
+            }
+            LockSupport.unpark(running);
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Waits until the recording has ended or the connection is dropped.
+     *
+     * @return false if it is still running after the timeout
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        final Thread running = thread;
+        if (running != null) {
+            running.join(timeoutMillis);
+            return !running.isAlive();
+        }
+        return true;
+    }
+
+    private void replay(Sink sink) {
+        final long start = System.nanoTime();
+        final long first = offset(position);
+        while (connected) {
+            if (!simulation.isLoop() && position >= recording.size()) {
+                // the Forumslader fell silent
+                connected = false;
+                break;
+            }
+            final long offset = offset(position);
+            if (!simulation.isMaxSpeed()) {
+                final long due = start + (long) ((offset - first) * 1e6 / simulation.getSpeed());
+                long wait;
+                while (connected && (wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                if (!connected) {
+                    break;
+                }
+            }
+            final long timestamp = base + offset;
+            final byte[] packet = recording.getPacket((int) (position % recording.size()));
+            position++;
+            send(sink, packet, timestamp);
+            lastTimestamp = timestamp;
+            if (random.nextDouble() < simulation.getDisconnectRate()) {
+                connected = false;
+                disconnectCount++;
+                sink.onDisconnected();
+            }
+        }
+    }
+
+    private void send(Sink sink, byte[] packet, long timestamp) {
+        byte[] data = packet;
+        if (random.nextDouble() < simulation.getCorruptRate()) {
+            data = corrupt(packet);
+        }
+        if (data.length > 1 && random.nextDouble() < simulation.getFragmentRate()) {
+            // the same bytes in two notifications
+            final int split = 1 + random.nextInt(data.length - 1);
+            final byte[] head = new byte[split];
+            final byte[] tail = new byte[data.length - split];
+            System.arraycopy(data, 0, head, 0, split);
+            System.arraycopy(data, split, tail, 0, tail.length);
+            fragmentCount++;
+            offer(sink, head, timestamp);
+            offer(sink, tail, timestamp);
+        } else {
+            offer(sink, data, timestamp);
+        }
+    }
+
+    private void offer(Sink sink, byte[] data, long timestamp) {
+        while (!sink.onNotification(data, timestamp)) {
+            if (!simulation.isMaxSpeed() || !connected) {
+                droppedCount++;
+                return;
+            }
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+        notificationCount++;
+    }
+
+    // a different first checksum digit, a packet without checksum gets a different first digit
+    private byte[] corrupt(byte[] packet) {
+        final byte[] data = packet.clone();
+        for (int i = 0; i < data.length - 1; i++) {
+            if (data[i] == '*') {
+                data[i + 1] = (byte) (data[i + 1] == '0' ? '1' : '0');
+                corruptCount++;
+                return data;
+            }
+        }
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] >= '0' && data[i] <= '9') {
+                data[i] = (byte) (data[i] == '0' ? '1' : '0');
+                corruptCount++;
+                return data;
+            }
+        }
+        return data;
+    }
+
+    // offset of a position, the laps of a loop follow each other after the usual interval
+    private long offset(long position) {
+        final int size = recording.size();
+        final long lap = position / size;
+        return lap * (recording.getDuration() + Recording.DEFAULT_INTERVAL)
+                + recording.getOffset((int) (position % size));
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return number of recorded notifications sent so far, over all connections
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * @return notifications taken by the sinks, fragments counted one by one
+     */
+    public long getNotificationCount() {
+        return notificationCount;
+    }
+
+    public long getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public long getCorruptCount() {
+        return corruptCount;
+    }
+
+    public long getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    /**
+     * @return notifications the sink did not take, only at paced speeds
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "Replayer{" + simulation.getAddress()
+                + ", notifications=" + notificationCount
+                + ", fragments=" + fragmentCount
+                + ", corrupt=" + corruptCount
+                + ", disconnects=" + disconnectCount
+                + ", dropped=" + droppedCount
+                + "}";
+    }
+}
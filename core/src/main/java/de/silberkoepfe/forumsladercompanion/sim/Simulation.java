@@ -0,0 +1,165 @@
+package de.silberkoepfe.forumsladercompanion.sim;
+
+/**
+ * What a simulated Forumslader replays and how badly the link behaves.
+ * <p>
+ * The rates are probabilities: a scan fails with the scan failure rate, every
+ * notification is followed by a disconnect with the disconnect rate, split in two
+ * with the fragment rate and gets a wrong checksum with the corrupt rate. All
+ * random decisions come from the seed, so a run can be repeated.
+ */
+public class Simulation {
+    public static final double REAL_TIME = 1;
+    /** as fast as the decode pipeline takes the notifications */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    public static final long DEFAULT_SCAN_LATENCY = 800;
+    public static final long DEFAULT_CONNECT_LATENCY = 400;
+    // locally administered, never the address of a real device
+    public static final String DEFAULT_ADDRESS = "02:46:4C:00:00:01";
+
+    private final Recording recording;
+    private double speed = REAL_TIME;
+    private boolean loop;
+    private String address = DEFAULT_ADDRESS;
+    private long scanLatency = DEFAULT_SCAN_LATENCY;
+    private long connectLatency = DEFAULT_CONNECT_LATENCY;
+    private double scanFailureRate;
+    private double disconnectRate;
+    private double fragmentRate;
+    private double corruptRate;
+    private long seed;
+
+    public Simulation(Recording recording) {
+        this.recording = recording;
+    }
+
+    public Recording getRecording() {
+        return recording;
+    }
+
+    /**
+     * @param speed multiple of the recorded pace, {@link #MAX_SPEED} to not wait at all
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public boolean isMaxSpeed() {
+        return speed == MAX_SPEED;
+    }
+
+    /**
+     * @param loop start over at the end of the recording instead of falling silent
+     */
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public boolean isLoop() {
+        return loop;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @param scanLatency time until a scan finds the device or fails, at recorded pace
+     * @param connectLatency time until the notifications are enabled, at recorded pace
+     */
+    public void setLatencies(long scanLatency, long connectLatency) {
+        if (scanLatency < 0 || connectLatency < 0) {
+            throw new IllegalArgumentException("latency " + scanLatency + ", " + connectLatency);
+        }
+        this.scanLatency = scanLatency;
+        this.connectLatency = connectLatency;
+    }
+
+    /**
+     * @return scan latency at the configured speed
+     */
+    public long getScanLatency() {
+        return scaled(scanLatency);
+    }
+
+    /**
+     * @return connect latency at the configured speed
+     */
+    public long getConnectLatency() {
+        return scaled(connectLatency);
+    }
+
+    private long scaled(long millis) {
+        return (long) (millis / speed);
+    }
+
+    public void setScanFailureRate(double rate) {
+        scanFailureRate = checkRate(rate);
+    }
+
+    public double getScanFailureRate() {
+        return scanFailureRate;
+    }
+
+    public void setDisconnectRate(double rate) {
+        disconnectRate = checkRate(rate);
+    }
+
+    public double getDisconnectRate() {
+        return disconnectRate;
+    }
+
+    public void setFragmentRate(double rate) {
+        fragmentRate = checkRate(rate);
+    }
+
+    public double getFragmentRate() {
+        return fragmentRate;
+    }
+
+    public void setCorruptRate(double rate) {
+        corruptRate = checkRate(rate);
+    }
+
+    public double getCorruptRate() {
+        return corruptRate;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    private static double checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate " + rate);
+        }
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return "Simulation{" + recording
+                + ", speed=" + speed
+                + ", loop=" + loop
+                + ", scanFailures=" + scanFailureRate
+                + ", disconnects=" + disconnectRate
+                + ", fragments=" + fragmentRate
+                + ", corrupt=" + corruptRate
+                + "}";
+    }
+}
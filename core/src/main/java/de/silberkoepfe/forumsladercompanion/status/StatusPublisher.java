@@ -0,0 +1,166 @@
+package de.silberkoepfe.forumsladercompanion.status;
+
+import java.util.Arrays;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.Scheduler;
+
+/**
+ * Publishes status changes to in-process listeners.
+ * <p>
+ * Publishing the status that was published last is a single volatile read. Real
+ * changes are coalesced: listeners are notified on the {@link Scheduler} thread at
+ * most once per frame budget and only see the latest status of that frame, and
+ * only if it differs from what they were told before.
+ * <p>
+ * {@link #publish} may be called from any thread. Statuses are compared by identity,
+ * so {@code S} is meant to be an enum.
+ */
+public class StatusPublisher<S> {
+    public interface Listener<S> {
+        void onStatusChanged(S status);
+    }
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final Runnable deliverTask = this::deliver;
+    private volatile long frameBudgetMillis;
+    private volatile S published;
+    private volatile Listener<S>[] listeners = newListenerArray(0);
+
+    // guarded by this
+    private S delivered;
+    private boolean deliveryScheduled;
+    private long lastDelivery;
+
+    // statistics only, increments from concurrent publishers may get lost
+    private volatile long publishedCount;
+    private volatile long deliveredCount;
+    private volatile long suppressedCount;
+
+    public StatusPublisher(Clock clock, Scheduler scheduler, long frameBudgetMillis, S initial) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.frameBudgetMillis = frameBudgetMillis;
+        this.published = initial;
+        this.delivered = initial;
+        // nothing delivered yet, the first change goes out right away
+        this.lastDelivery = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * @return true if the status differs from the previously published one
+     */
+    public boolean publish(S status) {
+        if (status == published) {
+            suppressedCount++;
+            return false;
+        }
+
+        synchronized (this) {
+            if (status == published) {
+                suppressedCount++;
+                return false;
+            }
+            published = status;
+            publishedCount++;
+            if (!deliveryScheduled) {
+                deliveryScheduled = true;
+                final long delay = Math.max(0, lastDelivery + frameBudgetMillis - clock.now());
+                scheduler.schedule(deliverTask, delay);
+            }
+        }
+        return true;
+    }
+
+    private void deliver() {
+        final S status;
+        synchronized (this) {
+            deliveryScheduled = false;
+            lastDelivery = clock.now();
+            status = published;
+            if (status == delivered) {
+                // changed back within the frame
+                return;
+            }
+            delivered = status;
+        }
+
+        deliveredCount++;
+        for (Listener<S> listener : listeners) {
+            listener.onStatusChanged(status);
+        }
+    }
+
+    /**
+     * @return the most recently published status, which may not have been delivered yet
+     */
+    public S getStatus() {
+        return published;
+    }
+
+    /**
+     * Adds the listener and immediately tells it the last delivered status on the
+     * calling thread.
+     */
+    public void addListener(Listener<S> listener) {
+        final S current;
+        synchronized (this) {
+            final Listener<S>[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+            updated[listeners.length] = listener;
+            listeners = updated;
+            current = delivered;
+        }
+        listener.onStatusChanged(current);
+    }
+
+    public synchronized void removeListener(Listener<S> listener) {
+        final Listener<S>[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                final Listener<S>[] updated = newListenerArray(current.length - 1);
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    public long getFrameBudget() {
+        return frameBudgetMillis;
+    }
+
+    /**
+     * Sets the minimum time between two listener notifications.
+     */
+    public void setFrameBudget(long frameBudgetMillis) {
+        this.frameBudgetMillis = frameBudgetMillis;
+    }
+
+    /**
+     * @return number of status changes
+     */
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * @return number of listener notification rounds
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return number of publish calls that did not change the status
+     */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> Listener<S>[] newListenerArray(int size) {
+        return (Listener<S>[]) new Listener<?>[size];
+    }
+}
@@ -0,0 +1,20 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+/**
+ * The values of the records that are kept as time series, in the units of the
+ * records.
+ */
+public enum Channel {
+    /** mV */
+    BATTERY_VOLTAGE,
+    /** mA, positive while charging */
+    BATTERY_CURRENT,
+    /** mA */
+    LOAD_CURRENT,
+    /** Hz */
+    DYNAMO_FREQUENCY,
+    /** 0.1 °C */
+    TEMPERATURE,
+    /** dm */
+    ALTITUDE
+}
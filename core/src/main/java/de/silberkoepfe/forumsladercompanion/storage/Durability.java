@@ -0,0 +1,39 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+/**
+ * How hard the {@link WriteBehindJournal} tries to get a batch onto the storage
+ * device, traded against the energy spent writing.
+ */
+public enum Durability {
+    /**
+     * Batches are committed to the mapped journal and left to the kernel to write
+     * back. A killed app loses nothing, a phone losing power the last minutes.
+     */
+    BATTERY(false, 60 * 1000),
+    /**
+     * Every batch is synced to the storage device before the next one is written.
+     */
+    DURABLE(true, 10 * 1000);
+
+    private final boolean sync;
+    private final long maxAge;
+
+    Durability(boolean sync, long maxAge) {
+        this.sync = sync;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return true if every batch ends with an fsync
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * @return default time in ms a record waits for its batch at most
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+}
@@ -0,0 +1,249 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+/**
+ * Binary encoding of the journal records.
+ * <p>
+ * Every record type has a fixed list of fields. Each field is stored as the
+ * zigzag varint of its difference to the same field of the previous record of the
+ * segment, so the slowly changing values of the Forumslader take one byte most of
+ * the time. A record is
+ * <pre>
+ * tag, field deltas..., check
+ * </pre>
+ * where the check byte is the XOR of all previous bytes of the record. The tag is
+ * never 0, so the zero filled rest of a segment reads as its end.
+ * <p>
+ * The codec keeps the previous values, {@link #reset} starts a new segment. A sync
+ * record holds an absolute timestamp and resets the values, decoding can start
+ * at it without reading what came before.
+ */
+public class JournalCodec {
+    static final byte END = 0;
+    static final byte TAG_DATA = 1;
+    static final byte TAG_BARO = 2;
+    static final byte TAG_SYNC = 3;
+    /** the record is incomplete or damaged */
+    static final byte CORRUPT = -1;
+    // tag, at most 10 bytes per field, check
+    public static final int MAX_RECORD_SIZE = 1 + 10 * 10 + 1;
+
+    private long timestamp;
+    private int status;
+    private int stage;
+    private int dynamoFrequency;
+    private int cellVoltage1;
+    private int cellVoltage2;
+    private int cellVoltage3;
+    private int batteryCurrent;
+    private int loadCurrent;
+    private int temperature;
+    private int pressure;
+    private int altitude;
+
+    private int check;
+
+    public JournalCodec() {
+        reset(0);
+    }
+
+    /**
+     * Forgets the previous record, the timestamp of the next one is stored relative
+     * to the given one.
+     */
+    public void reset(long baseTimestamp) {
+        timestamp = baseTimestamp;
+        status = 0;
+        stage = 0;
+        dynamoFrequency = 0;
+        cellVoltage1 = 0;
+        cellVoltage2 = 0;
+        cellVoltage3 = 0;
+        batteryCurrent = 0;
+        loadCurrent = 0;
+        temperature = 0;
+        pressure = 0;
+        altitude = 0;
+    }
+
+    /**
+     * Appends the record, the buffer needs {@link #MAX_RECORD_SIZE} bytes left.
+     */
+    public void encode(FLDataRecord record, ByteBuffer out) {
+        check = 0;
+        putByte(out, TAG_DATA);
+        putLong(out, record.getTimestamp() - timestamp);
+        putInt(out, record.getStatus() - status);
+        putInt(out, record.getStage() - stage);
+        putInt(out, record.getDynamoFrequency() - dynamoFrequency);
+        putInt(out, record.getCellVoltage1() - cellVoltage1);
+        putInt(out, record.getCellVoltage2() - cellVoltage2);
+        putInt(out, record.getCellVoltage3() - cellVoltage3);
+        putInt(out, record.getBatteryCurrent() - batteryCurrent);
+        putInt(out, record.getLoadCurrent() - loadCurrent);
+        out.put((byte) check);
+
+        timestamp = record.getTimestamp();
+        status = record.getStatus();
+        stage = record.getStage();
+        dynamoFrequency = record.getDynamoFrequency();
+        cellVoltage1 = record.getCellVoltage1();
+        cellVoltage2 = record.getCellVoltage2();
+        cellVoltage3 = record.getCellVoltage3();
+        batteryCurrent = record.getBatteryCurrent();
+        loadCurrent = record.getLoadCurrent();
+    }
+
+    public void encode(FLBaroRecord record, ByteBuffer out) {
+        check = 0;
+        putByte(out, TAG_BARO);
+        putLong(out, record.getTimestamp() - timestamp);
+        putInt(out, record.getTemperature() - temperature);
+        putInt(out, record.getPressure() - pressure);
+        putInt(out, record.getAltitude() - altitude);
+        out.put((byte) check);
+
+        timestamp = record.getTimestamp();
+        temperature = record.getTemperature();
+        pressure = record.getPressure();
+        altitude = record.getAltitude();
+    }
+
+    /**
+     * Appends a sync record and resets the codec to the given timestamp.
+     */
+    public void encodeSync(long timestamp, ByteBuffer out) {
+        check = 0;
+        putByte(out, TAG_SYNC);
+        putLong(out, timestamp);
+        out.put((byte) check);
+        reset(timestamp);
+    }
+
+    /**
+     * Reads the next record into the matching one of the given records.
+     *
+     * @return the tag of the record read, {@link #TAG_SYNC} after a sync record,
+     * {@link #END} or {@link #CORRUPT}; the
+     * buffer position is only moved past complete records
+     */
+    public byte decode(ByteBuffer in, FLDataRecord data, FLBaroRecord baro) {
+        final int start = in.position();
+        if (!in.hasRemaining()) {
+            return END;
+        }
+        try {
+            check = 0;
+            final byte tag = getByte(in);
+            if (tag == END) {
+                in.position(start);
+                return END;
+            }
+            if (tag == TAG_SYNC) {
+                final long syncTimestamp = getLong(in);
+                if (!checkMatches(in)) {
+                    in.position(start);
+                    return CORRUPT;
+                }
+                reset(syncTimestamp);
+                return TAG_SYNC;
+            }
+            final long recordTimestamp = timestamp + getLong(in);
+            if (tag == TAG_DATA) {
+                final int newStatus = status + getInt(in);
+                final int newStage = stage + getInt(in);
+                final int newDynamoFrequency = dynamoFrequency + getInt(in);
+                final int newCell1 = cellVoltage1 + getInt(in);
+                final int newCell2 = cellVoltage2 + getInt(in);
+                final int newCell3 = cellVoltage3 + getInt(in);
+                final int newBatteryCurrent = batteryCurrent + getInt(in);
+                final int newLoadCurrent = loadCurrent + getInt(in);
+                if (!checkMatches(in)) {
+                    in.position(start);
+                    return CORRUPT;
+                }
+                timestamp = recordTimestamp;
+                status = newStatus;
+                stage = newStage;
+                dynamoFrequency = newDynamoFrequency;
+                cellVoltage1 = newCell1;
+                cellVoltage2 = newCell2;
+                cellVoltage3 = newCell3;
+                batteryCurrent = newBatteryCurrent;
+                loadCurrent = newLoadCurrent;
+                data.set(timestamp, status, stage, dynamoFrequency, cellVoltage1, cellVoltage2, cellVoltage3,
+                        batteryCurrent, loadCurrent);
+                return TAG_DATA;
+            } else if (tag == TAG_BARO) {
+                final int newTemperature = temperature + getInt(in);
+                final int newPressure = pressure + getInt(in);
+                final int newAltitude = altitude + getInt(in);
+                if (!checkMatches(in)) {
+                    in.position(start);
+                    return CORRUPT;
+                }
+                timestamp = recordTimestamp;
+                temperature = newTemperature;
+                pressure = newPressure;
+                altitude = newAltitude;
+                baro.set(timestamp, temperature, pressure, altitude);
+                return TAG_BARO;
+            }
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            // record cut off at the end of the buffer
+        }
+        in.position(start);
+        return CORRUPT;
+    }
+
+    private boolean checkMatches(ByteBuffer in) {
+        final int expected = check & 0xff;
+        return (in.get() & 0xff) == expected;
+    }
+
+    private void putByte(ByteBuffer out, int value) {
+        check ^= value;
+        out.put((byte) value);
+    }
+
+    private void putInt(ByteBuffer out, int value) {
+        putLong(out, value);
+    }
+
+    private void putLong(ByteBuffer out, long value) {
+        // zigzag, small negative numbers become small positive ones
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7fL) != 0) {
+            putByte(out, (int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        putByte(out, (int) v);
+    }
+
+    private byte getByte(ByteBuffer in) {
+        final byte value = in.get();
+        check ^= value & 0xff;
+        return value;
+    }
+
+    private int getInt(ByteBuffer in) {
+        return (int) getLong(in);
+    }
+
+    private long getLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = getByte(in);
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IllegalStateException("varint too long");
+    }
+}
@@ -0,0 +1,179 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Reads the records of a journal written by {@link JournalWriter}, segment by
+ * segment in the order they were written. A segment ends at the committed length
+ * of its header, or before at a zero or damaged record where a crash left it; a
+ * segment with a damaged header is skipped. The listener gets the same two record
+ * instances over and over.
+ * <p>
+ * A time range is read starting at the seek point of the {@link SessionIndex}
+ * before it and ends at the first record after it, record times are expected to
+ * grow.
+ */
+public class JournalReader {
+    private final File directory;
+    private final JournalCodec codec = new JournalCodec();
+    private final FLDataRecord dataRecord = new FLDataRecord();
+    private final FLBaroRecord baroRecord = new FLBaroRecord();
+
+    private long damagedCount;
+    private long decodedCount;
+    private boolean pastRange;
+
+    public JournalReader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the segment files, oldest first
+     */
+    public List<File> getSegments() {
+        return segments(directory);
+    }
+
+    static List<File> segments(File directory) {
+        final List<File> segments = new ArrayList<>();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (Segment.isSegment(file)) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(Segment.sequenceOf(a), Segment.sequenceOf(b)));
+        return segments;
+    }
+
+    static long lastSequence(File directory) {
+        final List<File> segments = segments(directory);
+        return segments.isEmpty() ? 0 : Segment.sequenceOf(segments.get(segments.size() - 1));
+    }
+
+    /**
+     * @return number of records read
+     */
+    public long read(FLRecordListener listener) throws IOException {
+        long count = 0;
+        for (File segment : getSegments()) {
+            count += read(segment, listener);
+        }
+        return count;
+    }
+
+    /**
+     * @return number of records read from the segment
+     */
+    public long read(File segment, FLRecordListener listener) throws IOException {
+        return read(segment, Segment.HEADER_SIZE, Long.MIN_VALUE, Long.MAX_VALUE, listener);
+    }
+
+    /**
+     * Reads the records with timestamps in [from, to).
+     *
+     * @return number of records read
+     */
+    public long read(long from, long to, FLRecordListener listener) throws IOException {
+        final SessionIndex.SeekPoint seek = new SessionIndex(directory).find(from, new SessionIndex.SeekPoint());
+        pastRange = false;
+        long count = 0;
+        for (File segment : getSegments()) {
+            int offset = Segment.HEADER_SIZE;
+            if (seek != null) {
+                final long sequence = Segment.sequenceOf(segment);
+                if (sequence < seek.segment) {
+                    continue;
+                } else if (sequence == seek.segment) {
+                    offset = seek.offset;
+                }
+            }
+            count += read(segment, offset, from, to, listener);
+            if (pastRange) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    // sets pastRange at the first record at or after to
+    private long read(File segment, int offset, long from, long to, FLRecordListener listener)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r");
+             FileChannel channel = file.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final Segment header;
+            try {
+                header = Segment.read(buffer);
+            } catch (IOException e) {
+                damagedCount++;
+                return 0;
+            }
+            codec.reset(header.baseTimestamp);
+            // anything after the committed length is not trusted
+            buffer.limit(header.committedLength);
+            buffer.position(Math.max(Segment.HEADER_SIZE, Math.min(offset, buffer.limit())));
+            final boolean whole = buffer.position() == Segment.HEADER_SIZE;
+            long records = 0;
+            long count = 0;
+            while (true) {
+                final byte tag = codec.decode(buffer, dataRecord, baroRecord);
+                final long time;
+                if (tag == JournalCodec.TAG_DATA) {
+                    time = dataRecord.getTimestamp();
+                } else if (tag == JournalCodec.TAG_BARO) {
+                    time = baroRecord.getTimestamp();
+                } else if (tag == JournalCodec.TAG_SYNC) {
+                    continue;
+                } else {
+                    // records lost within the committed part
+                    if (tag == JournalCodec.CORRUPT || whole && records < header.committedCount) {
+                        damagedCount++;
+                    }
+                    return count;
+                }
+                records++;
+                decodedCount++;
+                if (time >= to) {
+                    pastRange = true;
+                    return count;
+                }
+                if (time >= from) {
+                    if (tag == JournalCodec.TAG_DATA) {
+                        listener.onDataRecord(dataRecord);
+                    } else {
+                        listener.onBaroRecord(baroRecord);
+                    }
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of records decoded so far, including the ones outside a range
+     */
+    public long getDecodedCount() {
+        return decodedCount;
+    }
+
+    /**
+     * @return number of segments with a damaged header or record so far
+     */
+    public long getDamagedCount() {
+        return damagedCount;
+    }
+}
@@ -0,0 +1,267 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * Appends the decoded records to memory mapped segment files in a directory.
+ * <p>
+ * An append encodes the record with the {@link JournalCodec} straight into the
+ * mapped segment, the kernel writes the pages back on its own. The committed length
+ * and count in the header are advanced after every record, two stores into the
+ * mapped header, so a killed process loses nothing. A crash of the whole phone
+ * loses the records past the header the kernel wrote back last, at most those since
+ * the last {@link #flush()}. A full segment is truncated to its records and the
+ * next one is started. Every writer starts a new segment.
+ * <p>
+ * The records between the first one and {@link #endSession()} form a session.
+ * At its start and every {@link #SEEK_INTERVAL} of record time a sync record is
+ * written and remembered as seek point; ending the session appends the points and
+ * the {@link SessionSummary} to the {@link SessionIndex}.
+ * <p>
+ * Not thread safe, the records have to come from one thread at a time. After an
+ * I/O error the writer drops all records, see {@link #getError()}.
+ */
+public class JournalWriter implements FLRecordListener, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    // record time between two seek points
+    public static final long SEEK_INTERVAL = 60 * 1000;
+
+    private final File directory;
+    private final int segmentSize;
+    private final JournalCodec codec = new JournalCodec();
+    private final SessionIndex index;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long sequence;
+    private int segmentRecords;
+
+    private SessionSummary session;
+    private long[] seekTimes = new long[64];
+    private long[] seekSegments = new long[64];
+    private int[] seekOffsets = new int[64];
+    private int seekCount;
+
+    private volatile long recordCount;
+    private volatile long bytesWritten;
+    private volatile long segmentCount;
+    private volatile long sessionCount;
+    private volatile IOException error;
+
+    public JournalWriter(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public JournalWriter(File directory, int segmentSize) throws IOException {
+        if (segmentSize < Segment.HEADER_SIZE + JournalCodec.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("segment size " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        index = new SessionIndex(directory);
+        sequence = JournalReader.lastSequence(directory);
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        if (prepare(record.getTimestamp())) {
+            codec.encode(record, buffer);
+            session.add(record);
+            appended();
+        }
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        if (prepare(record.getTimestamp())) {
+            codec.encode(record, buffer);
+            session.add(record.getTimestamp());
+            appended();
+        }
+    }
+
+    /**
+     * Makes sure the current segment has room for one more record and that decoding
+     * can start near it.
+     *
+     * @return false after an error
+     */
+    private boolean prepare(long timestamp) {
+        if (error != null) {
+            return false;
+        }
+        try {
+            if (session == null) {
+                session = new SessionSummary();
+                seekCount = 0;
+            }
+            // room for a sync record too
+            if (buffer != null && buffer.remaining() < 2 * JournalCodec.MAX_RECORD_SIZE) {
+                closeSegment();
+            }
+            if (buffer == null) {
+                openSegment(timestamp);
+                addSeekPoint(timestamp, Segment.HEADER_SIZE);
+            } else if (seekCount == 0 || timestamp - seekTimes[seekCount - 1] >= SEEK_INTERVAL) {
+                final int position = buffer.position();
+                codec.encodeSync(timestamp, buffer);
+                addSeekPoint(timestamp, position);
+            }
+            return true;
+        } catch (IOException e) {
+            error = e;
+            return false;
+        }
+    }
+
+    private void addSeekPoint(long timestamp, int offset) {
+        if (seekCount == seekTimes.length) {
+            seekTimes = Arrays.copyOf(seekTimes, 2 * seekCount);
+            seekSegments = Arrays.copyOf(seekSegments, 2 * seekCount);
+            seekOffsets = Arrays.copyOf(seekOffsets, 2 * seekCount);
+        }
+        seekTimes[seekCount] = timestamp;
+        seekSegments[seekCount] = sequence;
+        seekOffsets[seekCount] = offset;
+        seekCount++;
+    }
+
+    /**
+     * Ends the current session, if there is one, and adds it to the
+     * {@link SessionIndex}. The next record starts a new session.
+     */
+    public void endSession() throws IOException {
+        if (session == null) {
+            return;
+        }
+        final SessionSummary ended = session;
+        session = null;
+        // the index must not point to records that are not committed yet
+        commit();
+        index.append(ended, seekTimes, seekSegments, seekOffsets, seekCount);
+        sessionCount++;
+    }
+
+    private void appended() {
+        segmentRecords++;
+        recordCount++;
+        Segment.commit(buffer, buffer.position(), segmentRecords);
+    }
+
+    private void openSegment(long baseTimestamp) throws IOException {
+        sequence++;
+        file = new RandomAccessFile(new File(directory, Segment.fileName(sequence)), "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        Segment.write(buffer, sequence, baseTimestamp);
+        buffer.position(Segment.HEADER_SIZE);
+        codec.reset(baseTimestamp);
+        segmentRecords = 0;
+        segmentCount++;
+    }
+
+    private void closeSegment() throws IOException {
+        final int length = buffer.position();
+        Segment.commit(buffer, length, segmentRecords);
+        buffer.force();
+        bytesWritten += length;
+        buffer = null;
+        try {
+            // the unused, zero filled rest
+            channel.truncate(length);
+        } finally {
+            channel.close();
+            file.close();
+        }
+    }
+
+    /**
+     * Commits the records appended so far, the kernel writes them back later.
+     */
+    public void commit() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (buffer != null) {
+            Segment.commit(buffer, buffer.position(), segmentRecords);
+        }
+    }
+
+    /**
+     * Commits the records appended so far and writes them to the storage device.
+     */
+    public void flush() throws IOException {
+        commit();
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            endSession();
+        } finally {
+            if (buffer != null) {
+                closeSegment();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return size of the closed segments
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return sessions ended by this writer
+     */
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * @return the error that stopped the writer, null if there was none
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalWriter{records=" + recordCount + ", segments=" + segmentCount + ", sessions=" + sessionCount
+                + ", bytes=" + bytesWritten
+                + (error != null ? ", error=" + error : "") + "}";
+    }
+}
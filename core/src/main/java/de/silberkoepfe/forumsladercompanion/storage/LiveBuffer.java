@@ -0,0 +1,105 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring of the newest samples of one channel, written by one thread and read by any
+ * number of threads without locks.
+ * <p>
+ * The writer makes the sequence odd while it changes a slot and even again when
+ * done. A reader copies the samples it wants and starts over if the sequence was
+ * odd or has changed meanwhile. The slots are atomic arrays: their accesses are
+ * ordered with the sequence, which plain arrays are not without the memory fences
+ * Java 8 does not offer. Nothing is allocated after construction.
+ */
+public class LiveBuffer {
+    private final int capacity;
+    private final AtomicLongArray times;
+    // Float.floatToRawIntBits of the values
+    private final AtomicIntegerArray values;
+
+    private volatile long sequence;
+    // samples written so far, the newest is at (count - 1) % capacity
+    private volatile long count;
+
+    public LiveBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.capacity = capacity;
+        times = new AtomicLongArray(capacity);
+        values = new AtomicIntegerArray(capacity);
+    }
+
+    /**
+     * Appends a sample, from the single writer thread only.
+     */
+    public void add(long time, float value) {
+        final long s = sequence;
+        sequence = s + 1;
+        final int slot = (int) (count % capacity);
+        times.set(slot, time);
+        values.set(slot, Float.floatToRawIntBits(value));
+        count = count + 1;
+        sequence = s + 2;
+    }
+
+    /**
+     * Copies the newest samples taken at or after the given time, at most as many
+     * as the arrays hold, oldest first.
+     *
+     * @return number of samples copied
+     */
+    public int read(long since, long[] timesOut, float[] valuesOut) {
+        final int max = Math.min(timesOut.length, valuesOut.length);
+        while (true) {
+            final long s = sequence;
+            if ((s & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final long end = count;
+            final long limit = Math.max(0, end - Math.min(capacity, max));
+            long start = end;
+            while (start > limit && times.get((int) ((start - 1) % capacity)) >= since) {
+                start--;
+            }
+            final int n = (int) (end - start);
+            for (int i = 0; i < n; i++) {
+                final int slot = (int) ((start + i) % capacity);
+                timesOut[i] = times.get(slot);
+                valuesOut[i] = Float.intBitsToFloat(values.get(slot));
+            }
+            if (sequence == s) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * @return value of the newest sample, NaN if there is none
+     */
+    public float last() {
+        while (true) {
+            final long s = sequence;
+            final long n = count;
+            final float value = n == 0 ? Float.NaN : Float.intBitsToFloat(values.get((int) ((n - 1) % capacity)));
+            if ((s & 1) == 0 && sequence == s) {
+                return value;
+            }
+            Thread.yield();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return samples written since construction
+     */
+    public long getCount() {
+        return count;
+    }
+}
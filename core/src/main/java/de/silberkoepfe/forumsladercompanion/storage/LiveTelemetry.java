@@ -0,0 +1,47 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * The last minutes of every {@link Channel} for the live view, in one
+ * {@link LiveBuffer} per channel. The records have to come from one thread, the
+ * buffers can be read from any.
+ */
+public class LiveTelemetry implements FLRecordListener {
+    // ten minutes of $FL5 sentences at 1 Hz
+    public static final int DEFAULT_CAPACITY = 600;
+
+    private final LiveBuffer[] buffers = new LiveBuffer[Channel.values().length];
+
+    public LiveTelemetry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LiveTelemetry(int capacity) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new LiveBuffer(capacity);
+        }
+    }
+
+    public LiveBuffer get(Channel channel) {
+        return buffers[channel.ordinal()];
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        final long time = record.getTimestamp();
+        get(Channel.BATTERY_VOLTAGE).add(time, record.getBatteryVoltage());
+        get(Channel.BATTERY_CURRENT).add(time, record.getBatteryCurrent());
+        get(Channel.LOAD_CURRENT).add(time, record.getLoadCurrent());
+        get(Channel.DYNAMO_FREQUENCY).add(time, record.getDynamoFrequency());
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        final long time = record.getTimestamp();
+        get(Channel.TEMPERATURE).add(time, record.getTemperature());
+        get(Channel.ALTITUDE).add(time, record.getAltitude());
+    }
+}
@@ -0,0 +1,32 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+/**
+ * Bucket sizes of the {@link TimeSeriesStore}, finest first, with the number of
+ * buckets kept of each.
+ */
+public enum Resolution {
+    // the last hour
+    SECOND(1000, 3600),
+    // the last two days
+    MINUTE(60 * 1000, 2 * 24 * 60),
+    // the last month
+    QUARTER_HOUR(15 * 60 * 1000, 31 * 24 * 4),
+    // the last year
+    HOUR(60 * 60 * 1000, 366 * 24);
+
+    private final long millis;
+    private final int capacity;
+
+    Resolution(long millis, int capacity) {
+        this.millis = millis;
+        this.capacity = capacity;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,183 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+/**
+ * Ring of min/max/sum buckets of one channel at one resolution. Buckets are only
+ * created for times with samples and always in ascending order, so a range is
+ * found by binary search.
+ */
+final class Rollup {
+    private final long millis;
+    private final int capacity;
+    private final long[] starts;
+    private final float[] min;
+    private final float[] max;
+    private final double[] sum;
+    private final int[] count;
+
+    // slot of the oldest bucket
+    private int first;
+    private int size;
+
+    Rollup(Resolution resolution) {
+        millis = resolution.getMillis();
+        capacity = resolution.getCapacity();
+        starts = new long[capacity];
+        min = new float[capacity];
+        max = new float[capacity];
+        sum = new double[capacity];
+        count = new int[capacity];
+    }
+
+    /**
+     * @return false if the sample is older than the newest bucket
+     */
+    boolean add(long time, float value) {
+        final long start = bucketStart(time);
+        if (size > 0) {
+            final int last = slot(size - 1);
+            if (start == starts[last]) {
+                if (value < min[last]) {
+                    min[last] = value;
+                }
+                if (value > max[last]) {
+                    max[last] = value;
+                }
+                sum[last] += value;
+                count[last]++;
+                return true;
+            }
+            if (start < starts[last]) {
+                return false;
+            }
+        }
+        final int slot;
+        if (size < capacity) {
+            slot = slot(size++);
+        } else {
+            // overwrite the oldest
+            slot = first;
+            first = slot(1);
+        }
+        starts[slot] = start;
+        min[slot] = value;
+        max[slot] = value;
+        sum[slot] = value;
+        count[slot] = 1;
+        return true;
+    }
+
+    /**
+     * Adds the buckets of another rollup of the same resolution, such as one filled
+     * with older samples, and combines buckets with the same start. If both do not
+     * fit the newest buckets are kept.
+     */
+    void merge(Rollup other) {
+        final int total = size + other.size;
+        final long[] mergedStarts = new long[total];
+        final float[] mergedMin = new float[total];
+        final float[] mergedMax = new float[total];
+        final double[] mergedSum = new double[total];
+        final int[] mergedCount = new int[total];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < size || j < other.size) {
+            final int mine = i < size ? slot(i) : -1;
+            final int theirs = j < other.size ? other.slot(j) : -1;
+            if (theirs < 0 || mine >= 0 && starts[mine] < other.starts[theirs]) {
+                mergedStarts[n] = starts[mine];
+                mergedMin[n] = min[mine];
+                mergedMax[n] = max[mine];
+                mergedSum[n] = sum[mine];
+                mergedCount[n] = count[mine];
+                i++;
+            } else {
+                mergedStarts[n] = other.starts[theirs];
+                mergedMin[n] = other.min[theirs];
+                mergedMax[n] = other.max[theirs];
+                mergedSum[n] = other.sum[theirs];
+                mergedCount[n] = other.count[theirs];
+                j++;
+                if (mine >= 0 && starts[mine] == other.starts[theirs]) {
+                    mergedMin[n] = Math.min(mergedMin[n], min[mine]);
+                    mergedMax[n] = Math.max(mergedMax[n], max[mine]);
+                    mergedSum[n] += sum[mine];
+                    mergedCount[n] += count[mine];
+                    i++;
+                }
+            }
+            n++;
+        }
+        final int skip = Math.max(0, n - capacity);
+        size = n - skip;
+        first = 0;
+        System.arraycopy(mergedStarts, skip, starts, 0, size);
+        System.arraycopy(mergedMin, skip, min, 0, size);
+        System.arraycopy(mergedMax, skip, max, 0, size);
+        System.arraycopy(mergedSum, skip, sum, 0, size);
+        System.arraycopy(mergedCount, skip, count, 0, size);
+    }
+
+    long bucketStart(long time) {
+        return Math.floorDiv(time, millis) * millis;
+    }
+
+    private int slot(int index) {
+        final int slot = first + index;
+        return slot < capacity ? slot : slot - capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no bucket after the given time has been dropped yet
+     */
+    boolean covers(long time) {
+        return size < capacity || starts[first] <= time;
+    }
+
+    /**
+     * @return index of the first bucket starting at or after the given time
+     */
+    int indexOf(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (starts[slot(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the buckets [from, to) to the series, merging runs of consecutive
+     * buckets so that at most the capacity of the series is used.
+     */
+    void copy(int from, int to, Series out) {
+        final int stride = Math.max(1, (to - from + out.capacity() - 1) / out.capacity());
+        out.clear();
+        for (int i = from; i < to; i += stride) {
+            final int end = Math.min(i + stride, to);
+            int slot = slot(i);
+            final long time = starts[slot];
+            float low = min[slot];
+            float high = max[slot];
+            double total = sum[slot];
+            long n = count[slot];
+            for (int j = i + 1; j < end; j++) {
+                slot = slot(j);
+                low = Math.min(low, min[slot]);
+                high = Math.max(high, max[slot]);
+                total += sum[slot];
+                n += count[slot];
+            }
+            out.add(time, low, high, (float) (total / n));
+        }
+    }
+}
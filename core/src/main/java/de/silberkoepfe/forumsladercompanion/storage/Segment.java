@@ -0,0 +1,104 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Header of a journal segment file.
+ * <pre>
+ *  0  int   magic "FLJ1"
+ *  4  int   version
+ *  8  long  sequence number of the segment
+ * 16  long  timestamp the first record is relative to
+ * 24  int   CRC32 of bytes 0..23
+ * 28  int   committed length, end of the records known to be complete
+ * 32  int   committed record count
+ * </pre>
+ * The committed fields are aligned ints that are updated in place. Readers decode
+ * up to the committed length only; bytes after it are never taken for records.
+ * The count tells a complete segment from one whose pages did not all reach the
+ * storage before a crash.
+ */
+final class Segment {
+    static final int MAGIC = 0x464c4a31;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int CRC_OFFSET = 24;
+    static final int COMMITTED_LENGTH_OFFSET = 28;
+    static final int COMMITTED_COUNT_OFFSET = 32;
+    static final String PREFIX = "segment-";
+    static final String SUFFIX = ".flj";
+
+    final long sequence;
+    final long baseTimestamp;
+    final int committedLength;
+    final int committedCount;
+
+    private Segment(long sequence, long baseTimestamp, int committedLength, int committedCount) {
+        this.sequence = sequence;
+        this.baseTimestamp = baseTimestamp;
+        this.committedLength = committedLength;
+        this.committedCount = committedCount;
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%s%012d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    static boolean isSegment(File file) {
+        final String name = file.getName();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long sequenceOf(File file) {
+        final String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static void write(ByteBuffer buffer, long sequence, long baseTimestamp) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, sequence);
+        buffer.putLong(16, baseTimestamp);
+        buffer.putInt(CRC_OFFSET, crc(buffer));
+        commit(buffer, HEADER_SIZE, 0);
+    }
+
+    static void commit(ByteBuffer buffer, int length, int count) {
+        // count first, a reader seeing the new length expects at least the old count
+        buffer.putInt(COMMITTED_COUNT_OFFSET, count);
+        buffer.putInt(COMMITTED_LENGTH_OFFSET, length);
+    }
+
+    /**
+     * @throws IOException if the header is damaged or not a journal header
+     */
+    static Segment read(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("no journal segment");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported journal version " + buffer.getInt(4));
+        }
+        if (buffer.getInt(CRC_OFFSET) != crc(buffer)) {
+            throw new IOException("damaged segment header");
+        }
+        int length = buffer.getInt(COMMITTED_LENGTH_OFFSET);
+        if (length < HEADER_SIZE || length > buffer.limit()) {
+            length = HEADER_SIZE;
+        }
+        return new Segment(buffer.getLong(8), buffer.getLong(16), length, buffer.getInt(COMMITTED_COUNT_OFFSET));
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+}
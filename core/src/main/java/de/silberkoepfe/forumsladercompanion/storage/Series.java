@@ -0,0 +1,75 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+/**
+ * Result of a {@link TimeSeriesStore} query: points with the start time, minimum,
+ * maximum and average of their bucket. The arrays are allocated once, a series can
+ * be reused for any number of queries.
+ */
+public class Series {
+    private final long[] times;
+    private final float[] min;
+    private final float[] max;
+    private final float[] avg;
+    private int size;
+    private Resolution resolution;
+
+    /**
+     * @param capacity most points a query returns
+     */
+    public Series(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        times = new long[capacity];
+        min = new float[capacity];
+        max = new float[capacity];
+        avg = new float[capacity];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(long time, float minimum, float maximum, float average) {
+        times[size] = time;
+        min[size] = minimum;
+        max[size] = maximum;
+        avg[size] = average;
+        size++;
+    }
+
+    void setResolution(Resolution resolution) {
+        this.resolution = resolution;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the resolution the points were taken from, null if there were none
+     */
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getMin(int index) {
+        return min[index];
+    }
+
+    public float getMax(int index) {
+        return max[index];
+    }
+
+    public float getAvg(int index) {
+        return avg[index];
+    }
+}
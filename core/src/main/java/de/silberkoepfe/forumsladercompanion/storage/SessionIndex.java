@@ -0,0 +1,166 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Index of the sessions in a journal directory, written by the
+ * {@link JournalWriter} whenever a session ends.
+ * <p>
+ * {@value #SEEK_FILE} is a sparse table of seek points: the time of a record and
+ * where in which segment decoding can start for it, at the beginning of a segment
+ * or at a sync record. The points are appended in time order, so the one for a
+ * time is found by binary search over the mapped file.
+ * {@value #SESSION_FILE} holds one summary per session, a list of rides only
+ * reads this file.
+ * <pre>
+ * seek point   0 long time, 8 long segment sequence, 16 int offset, 20 int unused
+ * summary      0 long id, 8 long start, 16 long end, 24 long record count,
+ *             32 double Wh, 40 int min mV, 44 int max mV, 48 long first seek point,
+ *             56 int seek points, 60 int CRC32 of bytes 0..59
+ * </pre>
+ * A session that was never ended, because the app was killed, has no summary and
+ * no seek points; its records are still found by reading the segments.
+ */
+public class SessionIndex {
+    static final String SEEK_FILE = "seek.idx";
+    static final String SESSION_FILE = "sessions.idx";
+    static final int SEEK_SIZE = 24;
+    static final int SESSION_SIZE = 64;
+
+    private final File seekFile;
+    private final File sessionFile;
+
+    public SessionIndex(File directory) {
+        seekFile = new File(directory, SEEK_FILE);
+        sessionFile = new File(directory, SESSION_FILE);
+    }
+
+    /**
+     * Where decoding starts for a time.
+     */
+    static class SeekPoint {
+        long time;
+        long segment;
+        int offset;
+    }
+
+    /**
+     * Appends the seek points and then the summary of a session, which gets the next
+     * id. Called by the writer only.
+     */
+    void append(SessionSummary summary, long[] times, long[] segments, int[] offsets, int count)
+            throws IOException {
+        final long firstSeek;
+        try (RandomAccessFile file = new RandomAccessFile(seekFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            // a torn point at the end is overwritten
+            firstSeek = channel.size() / SEEK_SIZE;
+            final ByteBuffer buffer = ByteBuffer.allocate(count * SEEK_SIZE);
+            for (int i = 0; i < count; i++) {
+                buffer.putLong(times[i]);
+                buffer.putLong(segments[i]);
+                buffer.putInt(offsets[i]);
+                buffer.putInt(0);
+            }
+            buffer.flip();
+            long position = firstSeek * SEEK_SIZE;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(sessionFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            final long index = channel.size() / SESSION_SIZE;
+            summary.id = index + 1;
+            final ByteBuffer buffer = ByteBuffer.allocate(SESSION_SIZE);
+            summary.write(buffer);
+            buffer.putLong(firstSeek);
+            buffer.putInt(count);
+            buffer.putInt(crc(buffer.array()));
+            buffer.flip();
+            long position = index * SESSION_SIZE;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static int crc(byte[] entry) {
+        final CRC32 crc = new CRC32();
+        crc.update(entry, 0, SESSION_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the summaries of all ended sessions, oldest first, damaged ones left out
+     */
+    public List<SessionSummary> getSessions() throws IOException {
+        final List<SessionSummary> sessions = new ArrayList<>();
+        if (!sessionFile.exists()) {
+            return sessions;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(sessionFile, "r");
+             FileChannel channel = file.getChannel()) {
+            final int count = (int) (channel.size() / SESSION_SIZE);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    (long) count * SESSION_SIZE);
+            final byte[] entry = new byte[SESSION_SIZE];
+            for (int i = 0; i < count; i++) {
+                buffer.get(entry);
+                final ByteBuffer in = ByteBuffer.wrap(entry);
+                if (in.getInt(SESSION_SIZE - 4) == crc(entry)) {
+                    sessions.add(SessionSummary.read(in));
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Finds the last seek point at or before the given time.
+     *
+     * @return the point, null if there is none
+     */
+    SeekPoint find(long time, SeekPoint out) throws IOException {
+        if (!seekFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(seekFile, "r");
+             FileChannel channel = file.getChannel()) {
+            final long count = channel.size() / SEEK_SIZE;
+            if (count == 0) {
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, count * SEEK_SIZE);
+            long low = 0;
+            long high = count;
+            // first point after the time
+            while (low < high) {
+                final long mid = (low + high) >>> 1;
+                if (buffer.getLong((int) (mid * SEEK_SIZE)) <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == 0) {
+                return null;
+            }
+            final int entry = (int) ((low - 1) * SEEK_SIZE);
+            out.time = buffer.getLong(entry);
+            out.segment = buffer.getLong(entry + 8);
+            out.offset = buffer.getInt(entry + 16);
+            return out;
+        }
+    }
+}
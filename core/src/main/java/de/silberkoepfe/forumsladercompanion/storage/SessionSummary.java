@@ -0,0 +1,121 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import de.silberkoepfe.forumsladercompanion.metrics.Integrator;
+import de.silberkoepfe.forumsladercompanion.metrics.Power;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+/**
+ * Figures of one recording session, from connecting to the Forumslader until the
+ * connection is closed or lost. Enough to list a ride without reading its records.
+ */
+public class SessionSummary {
+    long id;
+    long start = Long.MIN_VALUE;
+    long end;
+    long recordCount;
+    double wattHours;
+    int minVoltage = Integer.MAX_VALUE;
+    int maxVoltage = Integer.MIN_VALUE;
+
+    private final Integrator harvested = new Integrator(Power.MAX_GAP);
+
+    SessionSummary() {
+    }
+
+    void add(long time) {
+        if (start == Long.MIN_VALUE) {
+            start = time;
+        }
+        end = Math.max(end, time);
+        recordCount++;
+    }
+
+    void add(FLDataRecord record) {
+        final long time = record.getTimestamp();
+        add(time);
+        final int voltage = record.getBatteryVoltage();
+        minVoltage = Math.min(minVoltage, voltage);
+        maxVoltage = Math.max(maxVoltage, voltage);
+        harvested.add(time, Power.harvested(record));
+        wattHours = harvested.get() / Power.MILLIS_PER_HOUR;
+    }
+
+    void write(ByteBuffer out) {
+        out.putLong(id);
+        out.putLong(start);
+        out.putLong(end);
+        out.putLong(recordCount);
+        out.putDouble(wattHours);
+        out.putInt(minVoltage);
+        out.putInt(maxVoltage);
+    }
+
+    static SessionSummary read(ByteBuffer in) {
+        final SessionSummary summary = new SessionSummary();
+        summary.id = in.getLong();
+        summary.start = in.getLong();
+        summary.end = in.getLong();
+        summary.recordCount = in.getLong();
+        summary.wattHours = in.getDouble();
+        summary.minVoltage = in.getInt();
+        summary.maxVoltage = in.getInt();
+        return summary;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return time in ms from the first to the last record
+     */
+    public long getDuration() {
+        return end - start;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return energy delivered by the dynamo into battery and consumers
+     */
+    public double getWattHours() {
+        return wattHours;
+    }
+
+    /**
+     * @return lowest battery voltage in mV, Integer.MAX_VALUE without data records ($FL5)
+     */
+    public int getMinVoltage() {
+        return minVoltage;
+    }
+
+    /**
+     * @return highest battery voltage in mV, Integer.MIN_VALUE without data records ($FL5)
+     */
+    public int getMaxVoltage() {
+        return maxVoltage;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionSummary{id=" + id
+                + ", start=" + start
+                + ", duration=" + getDuration()
+                + ", records=" + recordCount
+                + ", Wh=" + String.format(Locale.ROOT, "%.2f", wattHours)
+                + ", voltage=" + minVoltage + ".." + maxVoltage + "}";
+    }
+}
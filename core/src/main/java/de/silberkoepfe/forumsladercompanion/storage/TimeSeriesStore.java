@@ -0,0 +1,132 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+/**
+ * In memory history of the record values for charts.
+ * <p>
+ * Every {@link Channel} is rolled up into min/max/avg buckets of each
+ * {@link Resolution} as the records arrive, so an added record costs a few array
+ * updates and nothing is allocated. A query takes the finest resolution that
+ * still holds the start of the range and needs no more points than the series
+ * has room for; if even the coarsest one needs more, neighbouring buckets are
+ * merged. Either way a query reads at most the buckets of one resolution,
+ * whatever the length of the range.
+ * <p>
+ * Samples older than the newest bucket of a resolution are ignored by it, so
+ * older records are loaded into a store of their own and {@link #merge merged}.
+ * All methods are thread safe.
+ */
+public class TimeSeriesStore implements FLRecordListener {
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final Rollup[][] rollups = new Rollup[Channel.values().length][RESOLUTIONS.length];
+    private long sampleCount;
+    private long lateCount;
+
+    public TimeSeriesStore() {
+        for (Rollup[] channel : rollups) {
+            for (int i = 0; i < RESOLUTIONS.length; i++) {
+                channel[i] = new Rollup(RESOLUTIONS[i]);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onDataRecord(FLDataRecord record) {
+        final long time = record.getTimestamp();
+        add(Channel.BATTERY_VOLTAGE, time, record.getBatteryVoltage());
+        add(Channel.BATTERY_CURRENT, time, record.getBatteryCurrent());
+        add(Channel.LOAD_CURRENT, time, record.getLoadCurrent());
+        add(Channel.DYNAMO_FREQUENCY, time, record.getDynamoFrequency());
+    }
+
+    @Override
+    public synchronized void onBaroRecord(FLBaroRecord record) {
+        final long time = record.getTimestamp();
+        add(Channel.TEMPERATURE, time, record.getTemperature());
+        add(Channel.ALTITUDE, time, record.getAltitude());
+    }
+
+    public synchronized void add(Channel channel, long time, float value) {
+        sampleCount++;
+        for (Rollup rollup : rollups[channel.ordinal()]) {
+            if (!rollup.add(time, value)) {
+                lateCount++;
+            }
+        }
+    }
+
+    /**
+     * Adds the buckets of a store filled with other records, typically older ones
+     * read from the journal while this one takes the live records.
+     */
+    public void merge(TimeSeriesStore other) {
+        synchronized (other) {
+            synchronized (this) {
+                for (int c = 0; c < rollups.length; c++) {
+                    for (int r = 0; r < RESOLUTIONS.length; r++) {
+                        rollups[c][r].merge(other.rollups[c][r]);
+                    }
+                }
+                sampleCount += other.sampleCount;
+                lateCount += other.lateCount;
+            }
+        }
+    }
+
+    /**
+     * Fills the series with the buckets from the one holding {@code from} up to the
+     * last one starting before {@code to}.
+     *
+     * @return the resolution used, null if there is no data in the range
+     */
+    public synchronized Resolution query(Channel channel, long from, long to, Series out) {
+        final Rollup[] levels = rollups[channel.ordinal()];
+        int chosen = -1;
+        for (int i = 0; i < levels.length; i++) {
+            final Rollup rollup = levels[i];
+            final long start = rollup.bucketStart(from);
+            if (rollup.size() == 0 || !rollup.covers(start) && i < levels.length - 1) {
+                continue;
+            }
+            chosen = i;
+            if (rollup.indexOf(to) - rollup.indexOf(start) <= out.capacity()) {
+                break;
+            }
+        }
+        out.clear();
+        out.setResolution(null);
+        if (chosen < 0) {
+            return null;
+        }
+        final Rollup rollup = levels[chosen];
+        // the bucket holding from may start before it
+        final int first = rollup.indexOf(rollup.bucketStart(from));
+        final int last = rollup.indexOf(to);
+        if (first >= last) {
+            return null;
+        }
+        rollup.copy(first, last, out);
+        out.setResolution(RESOLUTIONS[chosen]);
+        return RESOLUTIONS[chosen];
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return samples ignored by a resolution because they came out of order
+     */
+    public synchronized long getLateCount() {
+        return lateCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimeSeriesStore{samples=" + sampleCount + ", late=" + lateCount + "}";
+    }
+}
@@ -0,0 +1,300 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.LatencyStats;
+
+/**
+ * Moves the journal writes off the thread delivering the records.
+ * <p>
+ * The records are copied into preallocated slots of a single-producer/single-
+ * consumer queue. A writer thread sleeps until a batch is complete, the oldest
+ * record has waited {@link #setMaxAge max age}, or {@link #requestFlush()} or
+ * {@link #close()} is called. It then appends all queued records to the
+ * {@link JournalWriter} and ends the batch with one {@link JournalWriter#flush()
+ * commit}, which syncs only if the {@link Durability} asks for it. If the writer
+ * falls behind, records are dropped and counted.
+ */
+public class WriteBehindJournal implements FLRecordListener, Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final byte DATA = 1;
+    private static final byte BARO = 2;
+    private static final byte END_SESSION = 3;
+
+    private final JournalWriter journal;
+    private final Clock clock;
+    private final Durability durability;
+    private final byte[] types;
+    private final long[] queuedAt;
+    private final FLDataRecord[] dataRecords;
+    private final FLBaroRecord[] baroRecords;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread writer;
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long maxAge;
+    private volatile boolean running = true;
+    private volatile boolean flushRequested;
+    private volatile boolean writerParked;
+
+    private final LatencyStats flushLatency = new LatencyStats();
+    private volatile long droppedCount;
+    private volatile long maxQueued;
+    private volatile long batchCount;
+
+    public WriteBehindJournal(JournalWriter journal, Clock clock, Durability durability) {
+        this(journal, clock, durability, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to the next power of two
+     */
+    public WriteBehindJournal(JournalWriter journal, Clock clock, Durability durability, int capacity) {
+        this.journal = journal;
+        this.clock = clock;
+        this.durability = durability;
+        this.maxAge = durability.getMaxAge();
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        types = new byte[size];
+        queuedAt = new long[size];
+        dataRecords = new FLDataRecord[size];
+        baroRecords = new FLBaroRecord[size];
+        for (int i = 0; i < size; i++) {
+            dataRecords[i] = new FLDataRecord();
+            baroRecords[i] = new FLBaroRecord();
+        }
+        mask = size - 1;
+        writer = new Thread(this::write, "WriteBehindJournal");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * @param batchSize records that start a batch without waiting any longer
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, Math.min(batchSize, mask + 1));
+    }
+
+    /**
+     * @param maxAge time in ms the oldest queued record waits at most
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        LockSupport.unpark(writer);
+    }
+
+    @Override
+    public void onDataRecord(FLDataRecord record) {
+        final int slot = claim();
+        if (slot >= 0) {
+            final FLDataRecord copy = dataRecords[slot];
+            copy.set(record.getTimestamp(), record.getStatus(), record.getStage(), record.getDynamoFrequency(),
+                    record.getCellVoltage1(), record.getCellVoltage2(), record.getCellVoltage3(),
+                    record.getBatteryCurrent(), record.getLoadCurrent());
+            publish(slot, DATA);
+        }
+    }
+
+    @Override
+    public void onBaroRecord(FLBaroRecord record) {
+        final int slot = claim();
+        if (slot >= 0) {
+            baroRecords[slot].set(record.getTimestamp(), record.getTemperature(), record.getPressure(),
+                    record.getAltitude());
+            publish(slot, BARO);
+        }
+    }
+
+    /**
+     * Ends the session after the records queued so far and writes them right away.
+     * Producer side like the records: call it from the thread delivering them, or
+     * after that thread has stopped.
+     */
+    public void endSession() {
+        final int slot = claim();
+        if (slot >= 0) {
+            publish(slot, END_SESSION);
+            requestFlush();
+        }
+    }
+
+    // producer side, -1 if the queue is full or closed
+    private int claim() {
+        final long currentTail = tail.get();
+        if (!running || currentTail - head.get() > mask) {
+            droppedCount++;
+            return -1;
+        }
+        return (int) (currentTail & mask);
+    }
+
+    private void publish(int slot, byte type) {
+        types[slot] = type;
+        queuedAt[slot] = clock.now();
+        final long currentTail = tail.get() + 1;
+        final long depth = currentTail - head.get();
+        if (depth > maxQueued) {
+            maxQueued = depth;
+        }
+        // volatile write publishes the slot before the writer is looked at
+        tail.set(currentTail);
+        // the writer sleeps until the batch is complete or the age is reached, the
+        // first record tells it when that is
+        if ((depth >= batchSize || depth == 1) && writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Writes the queued records without waiting for the batch to fill up, as when the
+     * system is short of memory. Returns immediately.
+     */
+    public void requestFlush() {
+        flushRequested = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void write() {
+        while (running) {
+            final long currentHead = head.get();
+            final long depth = tail.get() - currentHead;
+            long wait = Long.MAX_VALUE;
+            if (depth > 0) {
+                wait = queuedAt[(int) (currentHead & mask)] + maxAge - clock.now();
+            }
+            if (flushRequested || depth >= batchSize || wait <= 0) {
+                flushRequested = false;
+                writeBatch();
+                continue;
+            }
+            writerParked = true;
+            // look again, the producer might have missed the flag
+            if (tail.get() - currentHead == depth && running && !flushRequested) {
+                if (wait == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+                }
+            }
+            writerParked = false;
+        }
+        writeBatch();
+    }
+
+    private void writeBatch() {
+        final long start = clock.now();
+        final long currentHead = head.get();
+        final long currentTail = tail.get();
+        if (currentHead == currentTail) {
+            return;
+        }
+        for (long i = currentHead; i < currentTail; i++) {
+            final int slot = (int) (i & mask);
+            if (types[slot] == DATA) {
+                journal.onDataRecord(dataRecords[slot]);
+            } else if (types[slot] == BARO) {
+                journal.onBaroRecord(baroRecords[slot]);
+            } else {
+                endSession(journal);
+            }
+            head.lazySet(i + 1);
+        }
+        try {
+            if (durability.isSync()) {
+                journal.flush();
+            } else {
+                journal.commit();
+            }
+        } catch (IOException e) {
+            // kept by the journal, which drops everything from now on
+        }
+        flushLatency.record(clock.now() - start);
+        batchCount++;
+    }
+
+    private static void endSession(JournalWriter journal) {
+        try {
+            journal.endSession();
+        } catch (IOException e) {
+            // the session is missing from the index, its records are still there
+        }
+    }
+
+    /**
+     * Writes all queued records, stops the writer thread and closes the journal.
+     * Records arriving later are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (running) {
+            running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return time in ms from the start of a batch until it was committed
+     */
+    public LatencyStats getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * @return records waiting for the writer thread
+     */
+    public long getQueuedCount() {
+        return tail.get() - head.get();
+    }
+
+    public long getMaxQueuedCount() {
+        return maxQueued;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public JournalWriter getJournal() {
+        return journal;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindJournal{" + durability
+                + ", batches=" + batchCount
+                + ", queued=" + getQueuedCount()
+                + ", maxQueued=" + maxQueued
+                + ", dropped=" + droppedCount
+                + ", flush=" + flushLatency
+                + ", " + journal + "}";
+    }
+}
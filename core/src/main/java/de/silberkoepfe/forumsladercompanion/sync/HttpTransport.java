@@ -0,0 +1,110 @@
+package de.silberkoepfe.forumsladercompanion.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Resumable uploads by byte offset, in the manner of tus.
+ * <p>
+ * {@code HEAD <endpoint>/<batch>} answers with the number of bytes the server has
+ * stored in an {@code Upload-Offset} header, 404 if it has none.
+ * {@code PUT <endpoint>/<batch>} sends the bytes from {@code Upload-Offset} on, along
+ * with the {@code Upload-Length} of the whole batch and the {@code Session-Ids} it
+ * contains, and is answered with the new offset.
+ */
+final class HttpTransport {
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String SESSION_IDS = "Session-Ids";
+    static final int CONNECT_TIMEOUT = 15 * 1000;
+    static final int READ_TIMEOUT = 30 * 1000;
+
+    private final String endpoint;
+
+    HttpTransport(URL endpoint) {
+        final String url = endpoint.toString();
+        this.endpoint = url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * @return the number of bytes of the batch the server has stored
+     */
+    long offset(String batch) throws IOException {
+        final HttpURLConnection connection = open(batch, "HEAD");
+        try {
+            final int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return 0;
+            }
+            return uploadOffset(connection, status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends {@code count} bytes of the batch starting at {@code offset}.
+     *
+     * @return the number of bytes of the batch the server has stored
+     */
+    long put(String batch, String sessionIds, long offset, long length, byte[] chunk, int count)
+            throws IOException {
+        final HttpURLConnection connection = open(batch, "PUT");
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(count);
+            connection.setRequestProperty("Content-Type", "application/offset+octet-stream");
+            connection.setRequestProperty(UPLOAD_OFFSET, Long.toString(offset));
+            connection.setRequestProperty(UPLOAD_LENGTH, Long.toString(length));
+            connection.setRequestProperty(SESSION_IDS, sessionIds);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(chunk, 0, count);
+            }
+            return uploadOffset(connection, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String batch, String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(endpoint + batch).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static long uploadOffset(HttpURLConnection connection, int status) throws IOException {
+        if (status / 100 != 2) {
+            drain(connection.getErrorStream());
+            throw new SyncException(status, connection.getResponseMessage());
+        }
+        drain(connection.getInputStream());
+        final String offset = connection.getHeaderField(UPLOAD_OFFSET);
+        if (offset == null) {
+            throw new SyncException(status, "without " + UPLOAD_OFFSET);
+        }
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e) {
+            throw new SyncException(status, "with " + UPLOAD_OFFSET + " " + offset);
+        }
+    }
+
+    // lets the connection be reused for the next chunk
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            final byte[] buffer = new byte[512];
+            while (body.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package de.silberkoepfe.forumsladercompanion.sync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import de.silberkoepfe.forumsladercompanion.export.ExportFormat;
+import de.silberkoepfe.forumsladercompanion.export.TourExporter;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+import de.silberkoepfe.forumsladercompanion.storage.SessionIndex;
+import de.silberkoepfe.forumsladercompanion.storage.SessionSummary;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * Uploads the ended sessions of a journal to an HTTP endpoint.
+ * <p>
+ * The sessions not synced yet are grouped into batches of up to
+ * {@link #setBatchRecords batch records}, so a week offline catches up in a few
+ * requests. A batch is spooled to a gzipped file first: a comment line with the
+ * summary of each session followed by its records as exported by the
+ * {@link TourExporter}. It is then uploaded in chunks with {@link HttpTransport}.
+ * After a failure the upload waits with exponential backoff, asks the server for
+ * the offset it has stored and goes on from there. A spooled batch survives the
+ * process, its name fixes the sessions it holds, so the next run resumes it before
+ * anything else. The IDs of the uploaded sessions are appended to a file in the
+ * spool directory and never uploaded again; the server gets them with every
+ * request to drop the duplicates of a batch that was sent twice. Each journal
+ * needs a spool directory of its own, and an {@link #setIdPrefix ID prefix} of its
+ * own if several are uploaded to the same server, as their session IDs overlap.
+ */
+public class SessionSync {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final long DEFAULT_BATCH_RECORDS = 500 * 1000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BACKOFF = 2000;
+
+    static final String SYNCED_FILE = "synced";
+    static final String SPOOL_SUFFIX = ".csv.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File journalDirectory;
+    private final File spoolDirectory;
+    private final HttpTransport transport;
+    private final Clock clock;
+    private final Object sleeper = new Object();
+
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long batchRecords = DEFAULT_BATCH_RECORDS;
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long backoff = DEFAULT_BACKOFF;
+    private volatile String idPrefix = "";
+    private volatile boolean cancelled;
+
+    private volatile long byteCount;
+    private volatile long uploadTime;
+    private volatile long requestCount;
+    private volatile long retryCount;
+    private volatile long resumeCount;
+    private volatile long batchCount;
+    private volatile long sessionCount;
+
+    /**
+     * @param spoolDirectory holds the spooled batches and the synced session IDs
+     */
+    public SessionSync(File journalDirectory, File spoolDirectory, URL endpoint, Clock clock) {
+        this.journalDirectory = journalDirectory;
+        this.spoolDirectory = spoolDirectory;
+        this.transport = new HttpTransport(endpoint);
+        this.clock = clock;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1024, chunkSize);
+    }
+
+    /**
+     * A batch is closed when it holds this many records; a longer session makes
+     * up a batch of its own.
+     */
+    public void setBatchRecords(long batchRecords) {
+        this.batchRecords = batchRecords;
+    }
+
+    /**
+     * @param idPrefix put in front of the batch and session IDs sent to the server,
+     *                 empty for none
+     */
+    public void setIdPrefix(String idPrefix) {
+        this.idPrefix = idPrefix;
+    }
+
+    /**
+     * @param maxAttempts failed requests in a row before {@link #sync()} gives up
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @param backoff wait in ms after the first failure, doubled after each further one
+     */
+    public void setBackoff(long backoff) {
+        this.backoff = backoff;
+    }
+
+    /**
+     * Uploads all sessions not synced yet. Blocks until done, cancelled or failed.
+     *
+     * @return false if {@link #cancel() cancelled} before everything was uploaded
+     * @throws IOException if a request failed for good; the batches uploaded
+     *                     before stay synced
+     */
+    public boolean sync() throws IOException {
+        if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs()) {
+            throw new IOException("cannot create " + spoolDirectory);
+        }
+        final List<SessionSummary> sessions = new SessionIndex(journalDirectory).getSessions();
+        final Set<Long> synced = readSynced();
+        final List<Batch> batches = new ArrayList<>();
+        final File[] files = spoolDirectory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.getName().endsWith(SPOOL_SUFFIX)) {
+                final Batch batch = Batch.spooled(file, sessions);
+                if (batch == null) {
+                    file.delete();
+                } else {
+                    batches.add(batch);
+                    for (SessionSummary session : batch.sessions) {
+                        synced.add(session.getId());
+                    }
+                }
+            }
+        }
+        Batch batch = null;
+        for (SessionSummary session : sessions) {
+            if (synced.contains(session.getId())) {
+                continue;
+            }
+            if (batch == null || batch.records > 0 && batch.records + session.getRecordCount() > batchRecords) {
+                batch = new Batch();
+                batches.add(batch);
+            }
+            batch.add(session);
+        }
+
+        final JournalReader journal = new JournalReader(journalDirectory);
+        for (Batch next : batches) {
+            if (cancelled) {
+                return false;
+            }
+            final boolean resume = next.file != null;
+            if (!resume) {
+                spool(next, journal);
+            }
+            if (!upload(next, resume)) {
+                return false;
+            }
+            markSynced(next);
+            next.file.delete();
+            batchCount++;
+            sessionCount += next.sessions.size();
+        }
+        return true;
+    }
+
+    /**
+     * Makes {@link #sync()} return false at the next chunk, or right away if it has
+     * not started yet. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (sleeper) {
+            sleeper.notifyAll();
+        }
+    }
+
+    private void spool(Batch batch, JournalReader journal) throws IOException {
+        final File temp = new File(spoolDirectory, batch.getId() + TEMP_SUFFIX);
+        final TourExporter exporter = new TourExporter();
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            final GZIPOutputStream gzip = new GZIPOutputStream(file, TourExporter.DEFAULT_BUFFER_SIZE);
+            final WritableByteChannel channel = Channels.newChannel(gzip);
+            for (SessionSummary session : batch.sessions) {
+                gzip.write(("# session id=" + idPrefix + session.getId() + " start=" + session.getStart()
+                        + " end=" + session.getEnd() + " records=" + session.getRecordCount() + "\n")
+                        .getBytes(ASCII));
+                exporter.setRange(session.getStart(), session.getEnd() + 1);
+                exporter.export(journal, ExportFormat.CSV, channel, false);
+            }
+            gzip.finish();
+            file.getFD().sync();
+        }
+        batch.file = new File(spoolDirectory, batch.getId() + SPOOL_SUFFIX);
+        if (!temp.renameTo(batch.file)) {
+            temp.delete();
+            throw new IOException("cannot rename " + temp);
+        }
+    }
+
+    /**
+     * @param resume true if an earlier run might have sent parts of the batch
+     * @return false if cancelled
+     */
+    private boolean upload(Batch batch, boolean resume) throws IOException {
+        final String id = idPrefix + batch.getId();
+        final String sessionIds = batch.getSessionIds(idPrefix);
+        final long length = batch.file.length();
+        final byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(1, length))];
+        try (RandomAccessFile file = new RandomAccessFile(batch.file, "r")) {
+            long offset = 0;
+            boolean ask = resume;
+            int failures = 0;
+            while (!cancelled) {
+                try {
+                    if (ask) {
+                        requestCount++;
+                        offset = transport.offset(id);
+                        resumeCount++;
+                        ask = false;
+                    }
+                    if (offset >= length) {
+                        return true;
+                    }
+                    final int count = (int) Math.min(chunk.length, length - offset);
+                    file.seek(offset);
+                    file.readFully(chunk, 0, count);
+                    final long start = clock.now();
+                    requestCount++;
+                    final long stored = transport.put(id, sessionIds, offset, length, chunk, count);
+                    uploadTime += clock.now() - start;
+                    if (stored <= offset) {
+                        // accepted, but nothing stored, retrying it must not go on forever
+                        throw new IOException("offset " + stored + " after sending from " + offset);
+                    }
+                    byteCount += stored - offset;
+                    offset = stored;
+                    failures = 0;
+                } catch (IOException e) {
+                    if (e instanceof SyncException && !((SyncException) e).isRetryable()
+                            || ++failures >= maxAttempts) {
+                        throw e;
+                    }
+                    retryCount++;
+                    sleep(backoff << (failures - 1));
+                    // the server might have stored more or less than we know
+                    ask = true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void sleep(long millis) {
+        final long end = clock.now() + millis;
+        synchronized (sleeper) {
+            long left = millis;
+            while (!cancelled && left > 0) {
+                try {
+                    sleeper.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+                left = end - clock.now();
+            }
+        }
+    }
+
+    private Set<Long> readSynced() throws IOException {
+        final Set<Long> synced = new HashSet<>();
+        final File file = new File(spoolDirectory, SYNCED_FILE);
+        if (!file.exists()) {
+            return synced;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    synced.add(Long.parseLong(line));
+                } catch (NumberFormatException e) {
+                    // a line cut short by a crash
+                }
+            }
+        }
+        return synced;
+    }
+
+    private void markSynced(Batch batch) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(new File(spoolDirectory, SYNCED_FILE), true)) {
+            final Writer writer = new OutputStreamWriter(file, ASCII);
+            for (SessionSummary session : batch.sessions) {
+                writer.write(session.getId() + "\n");
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * @return number of batch bytes the server has confirmed
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return confirmed bytes per second of upload time, -1 before the first upload
+     */
+    public long getThroughput() {
+        final long time = uploadTime;
+        return time == 0 ? -1 : byteCount * 1000 / time;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of failed requests that were tried again
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return number of times the offset was asked for, after a failure or for a
+     * batch spooled by an earlier run
+     */
+    public long getResumeCount() {
+        return resumeCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getSessionCount() {
+        return sessionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionSync{sessions=" + sessionCount + " batches=" + batchCount + " bytes=" + byteCount
+                + " requests=" + requestCount + " retries=" + retryCount + " resumes=" + resumeCount
+                + " throughput=" + getThroughput() + "}";
+    }
+
+    /**
+     * Consecutive sessions uploaded together. The ID is made of the start of the
+     * first session and the first and last session ID, so it stays unique if the
+     * journal is started over.
+     */
+    private static class Batch {
+        final List<SessionSummary> sessions = new ArrayList<>();
+        long records;
+        File file;
+
+        void add(SessionSummary session) {
+            sessions.add(session);
+            records += session.getRecordCount();
+        }
+
+        String getId() {
+            return sessions.get(0).getStart() + "-" + sessions.get(0).getId() + "-"
+                    + sessions.get(sessions.size() - 1).getId();
+        }
+
+        String getSessionIds(String prefix) {
+            final StringBuilder ids = new StringBuilder();
+            for (SessionSummary session : sessions) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(prefix).append(session.getId());
+            }
+            return ids.toString();
+        }
+
+        /**
+         * @return the batch of a file spooled earlier, null if its name does not
+         * match the sessions
+         */
+        static Batch spooled(File file, List<SessionSummary> sessions) {
+            final String name = file.getName();
+            final String[] parts = name.substring(0, name.length() - SPOOL_SUFFIX.length()).split("-");
+            if (parts.length != 3) {
+                return null;
+            }
+            final Batch batch = new Batch();
+            try {
+                final long first = Long.parseLong(parts[1]);
+                final long last = Long.parseLong(parts[2]);
+                for (SessionSummary session : sessions) {
+                    if (session.getId() >= first && session.getId() <= last) {
+                        batch.add(session);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (batch.sessions.isEmpty() || !batch.getId().equals(name.substring(0, name.length()
+                    - SPOOL_SUFFIX.length()))) {
+                return null;
+            }
+            batch.file = file;
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package de.silberkoepfe.forumsladercompanion.sync;
+
+import java.io.IOException;
+
+/**
+ * An upload answered with an HTTP status that is not a success.
+ */
+public class SyncException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    SyncException(int status, String message) {
+        super(status + " " + message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true for an offset conflict, a throttled request or a server error,
+     * which a later attempt might get past
+     */
+    public boolean isRetryable() {
+        return status == 409 || status == 429 || status >= 500;
+    }
+}
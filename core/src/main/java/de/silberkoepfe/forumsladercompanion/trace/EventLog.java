@@ -0,0 +1,361 @@
+package de.silberkoepfe.forumsladercompanion.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+/**
+ * A binary trace of the GATT callbacks, cheap enough to record every packet.
+ * <p>
+ * An event is a type, a device number and three ints, stored with its time into
+ * preallocated slots of a ring: no string is built and nothing is allocated. Any
+ * thread can log, a slot is claimed with a compare-and-set. A drain thread wakes
+ * up every {@link #setDrainInterval drain interval}, or when the ring is half
+ * full, and appends the events to a file of fixed-size entries. When a file
+ * reaches {@link #setMaxFileSize its maximum size} the next one is started and the
+ * oldest beyond {@link #setMaxFiles max files} is deleted. If the drain falls
+ * behind, events are dropped and counted.
+ * <p>
+ * Until {@link #start()} is called, and after {@link #close()}, logging is a single
+ * volatile read. The files are decoded with the {@link EventLogReader}.
+ */
+public class EventLog implements Closeable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_DRAIN_INTERVAL = 1000;
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 8;
+
+    static final int MAGIC = 0x464c4556; // FLEV
+    static final short VERSION = 1;
+    // time, type, device and three values; the file header has the same size
+    static final int ENTRY_SIZE = 24;
+    static final String PREFIX = "events-";
+    static final String SUFFIX = ".bin";
+
+    private final File directory;
+    private final Clock clock;
+    private final Clock wallClock;
+    private final long[] times;
+    private final short[] types;
+    private final short[] devices;
+    private final int[] values;
+    // sequence + 1 of the event in each slot once it is complete
+    private final AtomicLongArray published;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Map<String, Short> deviceNumbers = new HashMap<>();
+    private volatile boolean running;
+    private volatile boolean drainParked;
+    private Thread drain;
+
+    private volatile long drainInterval = DEFAULT_DRAIN_INTERVAL;
+    private volatile long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    private volatile int maxFiles = DEFAULT_MAX_FILES;
+
+    // used by the drain thread only
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+    // position of the first event in the file
+    private long fileStart;
+    private long sequence;
+    private IOException error;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long writtenCount;
+    private volatile long fileCount;
+
+    /**
+     * @param clock     time of the events, such as the elapsed realtime
+     * @param wallClock written to each file header with the clock, to put the events on the calendar
+     */
+    public EventLog(File directory, Clock clock, Clock wallClock) {
+        this(directory, clock, wallClock, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to the next power of two
+     */
+    public EventLog(File directory, Clock clock, Clock wallClock, int capacity) {
+        this.directory = directory;
+        this.clock = clock;
+        this.wallClock = wallClock;
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        times = new long[size];
+        types = new short[size];
+        devices = new short[size];
+        values = new int[3 * size];
+        published = new AtomicLongArray(size);
+        mask = size - 1;
+        buffer = ByteBuffer.allocate(size / 2 * ENTRY_SIZE);
+    }
+
+    public void setDrainInterval(long drainInterval) {
+        this.drainInterval = drainInterval;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = Math.max(2 * ENTRY_SIZE, maxFileSize);
+    }
+
+    public void setMaxFiles(int maxFiles) {
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * Starts a new file after the existing ones and the drain thread.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        final File[] files = EventLogReader.list(directory);
+        sequence = files.length == 0 ? 0 : EventLogReader.sequence(files[files.length - 1]);
+        openFile();
+        running = true;
+        drain = new Thread(this::drain, "EventLog");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Numbers a device for the events, and logs its address once.
+     */
+    public short register(String address) {
+        final Short known;
+        final short number;
+        synchronized (deviceNumbers) {
+            known = deviceNumbers.get(address);
+            number = known != null ? known : (short) (deviceNumbers.size() + 1);
+            if (known == null) {
+                deviceNumbers.put(address, number);
+            }
+        }
+        if (known == null) {
+            final long bits = addressBits(address);
+            log(EventType.DEVICE, number, (int) (bits >>> 32), (int) bits, 0);
+        }
+        return number;
+    }
+
+    private static long addressBits(String address) {
+        try {
+            return Long.parseLong(address.replace(":", ""), 16);
+        } catch (NumberFormatException e) {
+            // not a MAC address, as in a simulation
+            return address.hashCode() & 0xffffffffL;
+        }
+    }
+
+    public void log(EventType type, short device, int a) {
+        log(type, device, a, 0, 0);
+    }
+
+    public void log(EventType type, short device, int a, int b) {
+        log(type, device, a, b, 0);
+    }
+
+    /**
+     * Logs an event, can be called from any thread.
+     */
+    public void log(EventType type, short device, int a, int b, int c) {
+        if (!running) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() > mask) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        final int slot = (int) (sequence & mask);
+        times[slot] = clock.now();
+        types[slot] = type.code;
+        devices[slot] = device;
+        values[3 * slot] = a;
+        values[3 * slot + 1] = b;
+        values[3 * slot + 2] = c;
+        // publishes the slot to the drain thread
+        published.lazySet(slot, sequence + 1);
+        if (sequence - tail.get() == (mask + 1) / 2 && drainParked) {
+            LockSupport.unpark(drain);
+        }
+    }
+
+    private void drain() {
+        while (running) {
+            drainParked = true;
+            if (running && head.get() - tail.get() < (mask + 1) / 2) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(drainInterval));
+            }
+            drainParked = false;
+            write();
+        }
+        write();
+    }
+
+    // appends the complete events, in as many writes as the buffer needs
+    private void write() {
+        long current = tail.get();
+        while (true) {
+            buffer.clear();
+            while (buffer.remaining() >= ENTRY_SIZE) {
+                final int slot = (int) (current & mask);
+                if (published.get(slot) != current + 1) {
+                    break;
+                }
+                buffer.putLong(times[slot]);
+                buffer.putShort(types[slot]);
+                buffer.putShort(devices[slot]);
+                buffer.putInt(values[3 * slot]);
+                buffer.putInt(values[3 * slot + 1]);
+                buffer.putInt(values[3 * slot + 2]);
+                current++;
+            }
+            // the slots are free again
+            tail.lazySet(current);
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() {
+        if (error != null) {
+            droppedCount.addAndGet(buffer.remaining() / ENTRY_SIZE);
+            return;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                long room = (maxFileSize - channel.position()) / ENTRY_SIZE * ENTRY_SIZE;
+                if (room <= 0 && channel.position() > fileStart) {
+                    channel.close();
+                    openFile();
+                    continue;
+                }
+                // at least one event per file
+                room = Math.max(room, ENTRY_SIZE);
+                final int limit = buffer.limit();
+                buffer.limit((int) Math.min(limit, buffer.position() + room));
+                final int count = buffer.remaining() / ENTRY_SIZE;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.limit(limit);
+                writtenCount += count;
+            }
+        } catch (IOException e) {
+            error = e;
+            droppedCount.addAndGet(buffer.remaining() / ENTRY_SIZE);
+        }
+    }
+
+    private void openFile() throws IOException {
+        sequence++;
+        final File file = new File(directory, String.format("%s%08d%s", PREFIX, sequence, SUFFIX));
+        channel = new FileOutputStream(file).getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) ENTRY_SIZE);
+        header.putLong(clock.now());
+        header.putLong(wallClock.now());
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        // every file names the devices its events refer to
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        synchronized (deviceNumbers) {
+            for (Map.Entry<String, Short> device : deviceNumbers.entrySet()) {
+                final long bits = addressBits(device.getKey());
+                entry.clear();
+                entry.putLong(clock.now());
+                entry.putShort(EventType.DEVICE.code);
+                entry.putShort(device.getValue());
+                entry.putInt((int) (bits >>> 32));
+                entry.putInt((int) bits);
+                entry.putInt(0);
+                entry.flip();
+                while (entry.hasRemaining()) {
+                    channel.write(entry);
+                }
+            }
+        }
+        fileStart = channel.position();
+        fileCount++;
+        final File[] files = EventLogReader.list(directory);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Stops logging, writes the events logged so far and closes the file. Events
+     * logged while it runs may be lost.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(drain);
+        try {
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return events lost because the ring was full or the file could not be written
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return files started since {@link #start()}
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EventLog{written=" + writtenCount + " dropped=" + droppedCount.get() + " files=" + fileCount
+                + " capacity=" + (mask + 1) + (error != null ? " error=" + error : "") + "}";
+    }
+}
@@ -0,0 +1,167 @@
+package de.silberkoepfe.forumsladercompanion.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Decodes the files of an {@link EventLog}, oldest first, for example on a desktop
+ * after copying the directory off the phone:
+ * <pre>
+ * java -cp core.jar de.silberkoepfe.forumsladercompanion.trace.EventLogReader events/
+ * </pre>
+ * Files with a wrong header are skipped, entries of unknown type and a partly
+ * written last entry are left out.
+ */
+public class EventLogReader {
+    public interface Listener {
+        /**
+         * @param time wall clock time of the event in ms since the epoch
+         */
+        void onEvent(long time, EventType type, short device, int a, int b, int c);
+    }
+
+    private final File directory;
+    private long decodedCount;
+    private long damagedCount;
+
+    public EventLogReader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the files of the log in the order they were written
+     */
+    static File[] list(File directory) {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(EventLog.PREFIX)
+                && name.endsWith(EventLog.SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        // the sequence number is zero padded
+        Arrays.sort(files);
+        return files;
+    }
+
+    static long sequence(File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(EventLog.PREFIX.length(), name.length() - EventLog.SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return number of events read
+     */
+    public long read(Listener listener) throws IOException {
+        long count = 0;
+        for (File file : list(directory)) {
+            count += read(file, listener);
+        }
+        return count;
+    }
+
+    private long read(File file, Listener listener) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < EventLog.ENTRY_SIZE || buffer.getInt() != EventLog.MAGIC
+                    || buffer.getShort() != EventLog.VERSION || buffer.getShort() != EventLog.ENTRY_SIZE) {
+                damagedCount++;
+                return 0;
+            }
+            // the clock of the events is put on the calendar with the header
+            final long clockStart = buffer.getLong();
+            final long offset = buffer.getLong() - clockStart;
+            long count = 0;
+            while (buffer.remaining() >= EventLog.ENTRY_SIZE) {
+                final long time = buffer.getLong();
+                final EventType type = EventType.of(buffer.getShort());
+                final short device = buffer.getShort();
+                final int a = buffer.getInt();
+                final int b = buffer.getInt();
+                final int c = buffer.getInt();
+                if (type == null) {
+                    damagedCount++;
+                    continue;
+                }
+                listener.onEvent(time + offset, type, device, a, b, c);
+                count++;
+            }
+            decodedCount += count;
+            return count;
+        }
+    }
+
+    /**
+     * Writes one line per event: UTC time, device number, type and values.
+     */
+    public long decode(Writer out) throws IOException {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final IOException[] error = new IOException[1];
+        final long count = read((time, type, device, a, b, c) -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                out.write(format.format(new Date(time)));
+                out.write(" #" + device + " " + type + " " + describe(type, a, b, c) + "\n");
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        out.flush();
+        return count;
+    }
+
+    static String describe(EventType type, int a, int b, int c) {
+        if (type == EventType.DEVICE) {
+            final long bits = ((long) (a & 0xffff) << 32) | (b & 0xffffffffL);
+            final StringBuilder address = new StringBuilder();
+            for (int shift = 40; shift >= 0; shift -= 8) {
+                if (address.length() > 0) {
+                    address.append(':');
+                }
+                address.append(String.format(Locale.ROOT, "%02X", (bits >>> shift) & 0xff));
+            }
+            return "address=" + address;
+        }
+        return String.format(Locale.ROOT, type.format, a, b, c);
+    }
+
+    public long getDecodedCount() {
+        return decodedCount;
+    }
+
+    /**
+     * @return files with a wrong header plus entries of unknown type
+     */
+    public long getDamagedCount() {
+        return damagedCount;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: EventLogReader <directory>");
+            System.exit(1);
+        }
+        final EventLogReader reader = new EventLogReader(new File(args[0]));
+        reader.decode(new OutputStreamWriter(System.out, "UTF-8"));
+        System.err.println(reader.getDecodedCount() + " events, " + reader.getDamagedCount() + " damaged");
+    }
+}
@@ -0,0 +1,47 @@
+package de.silberkoepfe.forumsladercompanion.trace;
+
+/**
+ * What an {@link EventLog} entry records, and how the {@link EventLogReader}
+ * prints its three values. The codes are written to the files and must not change.
+ */
+public enum EventType {
+    DEVICE(1, null),
+    CONNECTION_STATE(2, "status=%d newState=%d"),
+    SERVICES_DISCOVERED(3, "status=%d"),
+    CHARACTERISTIC_READ(4, "status=%d"),
+    CHARACTERISTIC_WRITE(5, "status=%d"),
+    CHARACTERISTIC_CHANGED(6, "length=%d"),
+    PACKET_DROPPED(7, "length=%d"),
+    DESCRIPTOR_READ(8, "status=%d"),
+    DESCRIPTOR_WRITE(9, "status=%d"),
+    RELIABLE_WRITE(10, "status=%d"),
+    READ_RSSI(11, "rssi=%d status=%d"),
+    MTU_CHANGED(12, "mtu=%d status=%d"),
+    PHY_UPDATE(13, "txPhy=%d rxPhy=%d status=%d"),
+    PHY_READ(14, "txPhy=%d rxPhy=%d status=%d"),
+    SCAN_RESULTS(15, "count=%d"),
+    SCAN_FAILED(16, "errorCode=%d");
+
+    private static final EventType[] BY_CODE = new EventType[32];
+
+    static {
+        for (EventType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    final short code;
+    final String format;
+
+    EventType(int code, String format) {
+        this.code = (short) code;
+        this.format = format;
+    }
+
+    /**
+     * @return null for an unknown code
+     */
+    static EventType of(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,9 @@
+package de.silberkoepfe.forumsladercompanion.util;
+
+/**
+ * Monotonic time source in milliseconds. On the phone this is
+ * {@code SystemClock.elapsedRealtime()}, tests use a virtual clock.
+ */
+public interface Clock {
+    long now();
+}
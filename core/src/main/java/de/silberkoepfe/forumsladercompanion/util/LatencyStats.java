@@ -0,0 +1,54 @@
+package de.silberkoepfe.forumsladercompanion.util;
+
+/**
+ * Count, mean, minimum and maximum of recorded durations. Written by one thread,
+ * readable from any thread.
+ */
+public class LatencyStats {
+    private volatile long count;
+    private volatile long total;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max = Long.MIN_VALUE;
+    private volatile long last = -1;
+
+    public void record(long millis) {
+        count++;
+        total += millis;
+        last = millis;
+        if (millis < min) {
+            min = millis;
+        }
+        if (millis > max) {
+            max = millis;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean in ms, -1 if nothing was recorded
+     */
+    public long getMean() {
+        final long n = count;
+        return n == 0 ? -1 : total / n;
+    }
+
+    public long getMin() {
+        return count == 0 ? -1 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? -1 : max;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " mean=" + getMean() + " min=" + getMin() + " max=" + getMax();
+    }
+}
@@ -0,0 +1,13 @@
+package de.silberkoepfe.forumsladercompanion.util;
+
+/**
+ * Runs tasks after a delay on a single thread. On the phone this is backed by a
+ * {@code Handler}, tests use a virtual clock.
+ */
+public interface Scheduler {
+    interface Task {
+        void cancel();
+    }
+
+    Task schedule(Runnable runnable, long delayMillis);
+}
@@ -0,0 +1,41 @@
+package de.silberkoepfe.forumsladercompanion.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler with a thread of its own, the plain JVM counterpart of the service
+ * thread on the phone. Tasks with the same due time run in the order they were
+ * scheduled.
+ */
+public class ThreadScheduler implements Scheduler {
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ThreadScheduler(String name) {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public Task schedule(Runnable runnable, long delayMillis) {
+        final ScheduledFuture<?> future = executor.schedule(runnable, Math.max(0, delayMillis),
+                TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    /**
+     * Drops the pending tasks and waits for the running one.
+     *
+     * @return false if it did not finish in time
+     */
+    public boolean stop(long timeoutMillis) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
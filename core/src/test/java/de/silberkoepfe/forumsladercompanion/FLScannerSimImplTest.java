@@ -0,0 +1,198 @@
+package de.silberkoepfe.forumsladercompanion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.protocol.Captures;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.scan.ScanMode;
+import de.silberkoepfe.forumsladercompanion.sim.Recording;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class FLScannerSimImplTest {
+    private final FakeClock clock = new FakeClock(1539000000000L);
+    private final List<ConnectionEvent> events = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger records = new AtomicInteger();
+    private volatile CountDownLatch expectedRecords = new CountDownLatch(36);
+    private Simulation simulation;
+    private FLScannerSimImpl scanner;
+    private FLDevice device;
+    private int timeouts;
+    private int failures;
+
+    private final FLScanner.Callback callback = new FLScanner.Callback() {
+        @Override
+        public void onDeviceFound(FLDevice found) {
+            device = found;
+        }
+
+        @Override
+        public void onScanTimeout() {
+            timeouts++;
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            assertEquals(FLScannerSimImpl.SCAN_FAILED_INTERNAL_ERROR, errorCode);
+            failures++;
+        }
+    };
+
+    private final FLDevice.Listener listener = new FLDevice.Listener() {
+        @Override
+        public void onConnectionEvent(ConnectionEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onDataRecord(FLDataRecord record) {
+            records.incrementAndGet();
+            expectedRecords.countDown();
+        }
+
+        @Override
+        public void onBaroRecord(FLBaroRecord record) {
+            records.incrementAndGet();
+            expectedRecords.countDown();
+        }
+    };
+
+    @Before
+    public void setup() throws IOException {
+        simulation = new Simulation(Recording.read(new InputStreamReader(
+                Captures.class.getResourceAsStream(Captures.FL5_SESSION), StandardCharsets.US_ASCII)));
+        simulation.setSpeed(Simulation.MAX_SPEED);
+        scanner = new FLScannerSimImpl(simulation, clock, clock, address -> listener);
+    }
+
+    @After
+    public void tearDown() {
+        if (device != null) {
+            device.disconnect();
+        }
+    }
+
+    @Test
+    public void scanConnectAndReceive() throws Exception {
+        simulation.setSpeed(10);
+        scanner = new FLScannerSimImpl(simulation, clock, clock, address -> listener);
+        scanner.findDevice(ScanMode.BALANCED, 10000, callback);
+        assertTrue(scanner.isScanning());
+        clock.advance(Simulation.DEFAULT_SCAN_LATENCY / 10);
+        assertFalse(scanner.isScanning());
+        assertNotNull(device);
+        assertEquals(Simulation.DEFAULT_ADDRESS, device.getAddress());
+
+        clock.advance(Simulation.DEFAULT_CONNECT_LATENCY / 10);
+        assertEquals(ConnectionEvent.GATT_CONNECTED, events.get(0));
+        assertEquals(ConnectionEvent.SERVICES_DISCOVERED, events.get(1));
+        assertEquals(ConnectionEvent.NOTIFICATIONS_ENABLED, events.get(2));
+
+        assertTrue(expectedRecords.await(5, TimeUnit.SECONDS));
+        assertTrue(scanner.getReplayer().awaitIdle(5000));
+        device.disconnect();
+        assertEquals(36, records.get());
+        assertTrue(events.contains(ConnectionEvent.NOTIFICATION));
+        assertFalse(events.contains(ConnectionEvent.GATT_DISCONNECTED));
+        assertEquals(scanner.getReplayer().getNotificationCount(), device.getLinkTuner().getPacketsReceived());
+    }
+
+    @Test
+    public void scanTimesOutOrFails() {
+        simulation.setSpeed(Simulation.REAL_TIME);
+        scanner.findDevice(ScanMode.LOW_POWER, Simulation.DEFAULT_SCAN_LATENCY - 1, callback);
+        clock.advance(Simulation.DEFAULT_SCAN_LATENCY);
+        assertEquals(1, timeouts);
+        assertNull(device);
+
+        simulation.setScanFailureRate(1);
+        scanner.findDevice(ScanMode.LOW_POWER, 10000, callback);
+        clock.advance(Simulation.DEFAULT_SCAN_LATENCY);
+        assertEquals(1, failures);
+        assertEquals(1, scanner.getScanFailureCount());
+
+        // a cancelled scan stays quiet
+        simulation.setScanFailureRate(0);
+        scanner.findDevice(ScanMode.LOW_POWER, 10000, callback);
+        scanner.cancel();
+        clock.advance(Simulation.DEFAULT_SCAN_LATENCY);
+        assertNull(device);
+        assertEquals(3, scanner.getScanCount());
+    }
+
+    @Test
+    public void scanSkipsIgnoredDevices() {
+        scanner.setIgnoredDevices(Collections.singleton(Simulation.DEFAULT_ADDRESS));
+        scanner.findDevice(ScanMode.LOW_POWER, 10000, callback);
+        clock.advance(10000);
+        assertNull(device);
+        assertEquals(1, timeouts);
+
+        scanner.setIgnoredDevices(null);
+        scanner.findDevice(ScanMode.LOW_POWER, 10000, callback);
+        clock.advance(Simulation.DEFAULT_SCAN_LATENCY);
+        assertNotNull(device);
+    }
+
+    @Test
+    public void cancelBeforeHandoverConnectsNothing() {
+        scanner.connectDevice(simulation.getAddress(), callback);
+        scanner.cancel();
+        clock.advance(10000);
+        assertNull(device);
+        assertTrue(events.isEmpty());
+        assertEquals(0, records.get());
+    }
+
+    @Test
+    public void otherAddressNeverConnects() throws Exception {
+        scanner.connectDevice("00:11:22:33:44:55", callback);
+        clock.advance(10000);
+        assertNotNull(device);
+        assertEquals("00:11:22:33:44:55", device.getAddress());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void reconnectsAfterInjectedDisconnects() throws Exception {
+        simulation.setDisconnectRate(0.1);
+        simulation.setFragmentRate(0.3);
+        simulation.setSeed(5);
+        int connections = 0;
+        while (scanner.getReplayer().getPosition() < simulation.getRecording().size()) {
+            scanner.connectDevice(simulation.getAddress(), callback);
+            clock.advance(Simulation.DEFAULT_CONNECT_LATENCY);
+            assertTrue(scanner.getReplayer().awaitIdle(5000));
+            device.disconnect();
+            device = null;
+            connections++;
+        }
+        assertTrue(connections > 1);
+        int disconnected = 0;
+        for (ConnectionEvent event : events) {
+            if (event == ConnectionEvent.GATT_DISCONNECTED) {
+                disconnected++;
+            }
+        }
+        assertEquals(scanner.getReplayer().getDisconnectCount(), disconnected);
+        // sentences cut by a disconnect are lost, the others come through
+        assertTrue(records.get() > 36 - 2 * disconnected);
+        assertTrue(records.get() <= 36);
+    }
+}
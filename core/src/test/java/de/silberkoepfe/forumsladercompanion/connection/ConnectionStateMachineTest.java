@@ -0,0 +1,259 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent.*;
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionState.*;
+import static org.junit.Assert.*;
+
+public class ConnectionStateMachineTest {
+    private FakeClock clock;
+    private FakeActions actions;
+    private List<ConnectionState> states;
+    private ConnectionStateMachine machine;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        actions = new FakeActions();
+        states = new ArrayList<>();
+        machine = new ConnectionStateMachine(clock, clock, actions, (from, event, to) -> states.add(to));
+    }
+
+    private void fire(ConnectionEvent event) {
+        machine.post(event);
+        clock.runPending();
+    }
+
+    private void connect() {
+        fire(START);
+        fire(SCAN_RESULT);
+        fire(GATT_CONNECTED);
+        fire(SERVICES_DISCOVERED);
+        fire(NOTIFICATIONS_ENABLED);
+        fire(NOTIFICATION);
+    }
+
+    @Test
+    public void connectsStepByStep() {
+        connect();
+        assertEquals("[SCANNING, CONNECTING, DISCOVERING_SERVICES, SUBSCRIBING, CONNECTED, RECEIVING]", states.toString());
+        assertEquals(1, actions.scans);
+        assertEquals(RECEIVING, machine.getState());
+    }
+
+    @Test
+    public void requestsBluetoothWhenNotReady() {
+        actions.ready = false;
+        fire(START);
+        assertEquals(BLUETOOTH_REQUESTED, machine.getState());
+        assertEquals(0, actions.scans);
+
+        actions.ready = true;
+        fire(ADAPTER_ON);
+        assertEquals(SCANNING, machine.getState());
+        assertEquals(1, actions.scans);
+    }
+
+    @Test
+    public void ignoresStartWhileRunning() {
+        fire(START);
+        fire(START);
+        fire(SCAN_RESULT);
+        fire(START);
+        assertEquals(CONNECTING, machine.getState());
+        assertEquals(1, actions.scans);
+        assertEquals(2, machine.getIgnoredCount());
+    }
+
+    @Test
+    public void retriesScanAfterDelay() {
+        fire(START);
+        fire(SCAN_TIMEOUT);
+        assertEquals(RETRY_WAIT, machine.getState());
+
+        clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY - 1);
+        assertEquals(RETRY_WAIT, machine.getState());
+        clock.advance(1);
+        assertEquals(SCANNING, machine.getState());
+        assertEquals(2, actions.scans);
+    }
+
+    @Test
+    public void rescansAfterDelayWhenDisconnected() {
+        connect();
+        fire(GATT_DISCONNECTED);
+
+        assertEquals(RETRY_WAIT, machine.getState());
+        assertEquals(1, actions.disconnects);
+        assertEquals(1, actions.scans);
+        assertEquals(1, machine.getReconnectCount());
+
+        clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY);
+        assertEquals(SCANNING, machine.getState());
+        assertEquals(2, actions.scans);
+    }
+
+    @Test
+    public void droppedConnectsDoNotLoop() {
+        fire(START);
+        for (int i = 0; i < 3; i++) {
+            fire(SCAN_RESULT);
+            fire(GATT_DISCONNECTED);
+            assertEquals(RETRY_WAIT, machine.getState());
+            clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY);
+        }
+        assertEquals(4, actions.scans);
+        assertEquals(3 * ConnectionStateMachine.DEFAULT_RETRY_DELAY, clock.now());
+    }
+
+    @Test
+    public void givesUpStuckConnection() {
+        fire(START);
+        fire(SCAN_RESULT);
+        fire(GATT_CONNECTED);
+
+        clock.advance(ConnectionStateMachine.DEFAULT_DISCOVERY_TIMEOUT);
+        assertEquals(RETRY_WAIT, machine.getState());
+        assertEquals(1, actions.disconnects);
+        assertEquals(1, actions.scans);
+    }
+
+    @Test
+    public void cancelsTimeoutOnTransition() {
+        fire(START);
+        fire(SCAN_RESULT);
+        clock.advance(ConnectionStateMachine.DEFAULT_CONNECT_TIMEOUT - 1);
+        fire(GATT_CONNECTED);
+        clock.advance(1);
+        assertEquals(DISCOVERING_SERVICES, machine.getState());
+        assertEquals(1, clock.pendingCount());
+    }
+
+    @Test
+    public void waitsForAdapterAfterAdapterOff() {
+        connect();
+        fire(ADAPTER_OFF);
+        assertEquals(WAITING_FOR_BLUETOOTH, machine.getState());
+        assertEquals(1, actions.disconnects);
+        assertEquals(1, actions.stopScans);
+
+        // no polling while the adapter is off
+        clock.advance(60000);
+        assertEquals(WAITING_FOR_BLUETOOTH, machine.getState());
+        assertEquals(1, actions.scans);
+
+        fire(ADAPTER_ON);
+        assertEquals(SCANNING, machine.getState());
+        assertEquals(2, actions.scans);
+    }
+
+    @Test
+    public void stopsFromAnyState() {
+        for (ConnectionState state : ConnectionState.values()) {
+            setup();
+            driveTo(state);
+            assertEquals(state, machine.getState());
+            fire(STOP);
+            assertEquals(STOPPED, machine.getState());
+            assertEquals(0, clock.pendingCount());
+        }
+    }
+
+    @Test
+    public void ignoresLateEventsAfterStop() {
+        connect();
+        fire(STOP);
+        fire(GATT_DISCONNECTED);
+        fire(NOTIFICATION);
+        clock.advance(60000);
+        assertEquals(STOPPED, machine.getState());
+        assertEquals(1, actions.scans);
+    }
+
+    @Test
+    public void notificationsWhileReceivingAreNotQueued() {
+        connect();
+        final long transitions = machine.getTransitionCount();
+        for (int i = 0; i < 1000; i++) {
+            machine.post(NOTIFICATION);
+        }
+        assertEquals(0, clock.pendingCount());
+        assertEquals(transitions, machine.getTransitionCount());
+    }
+
+    private void driveTo(ConnectionState state) {
+        switch (state) {
+            case STOPPED:
+                break;
+            case BLUETOOTH_REQUESTED:
+                actions.ready = false;
+                fire(START);
+                actions.ready = true;
+                break;
+            case WAITING_FOR_BLUETOOTH:
+                fire(START);
+                fire(ADAPTER_OFF);
+                break;
+            case SCANNING:
+                fire(START);
+                break;
+            case RETRY_WAIT:
+                fire(START);
+                fire(SCAN_TIMEOUT);
+                break;
+            case CONNECTING:
+                fire(START);
+                fire(SCAN_RESULT);
+                break;
+            case DISCOVERING_SERVICES:
+                driveTo(CONNECTING);
+                fire(GATT_CONNECTED);
+                break;
+            case SUBSCRIBING:
+                driveTo(DISCOVERING_SERVICES);
+                fire(SERVICES_DISCOVERED);
+                break;
+            case CONNECTED:
+                driveTo(SUBSCRIBING);
+                fire(NOTIFICATIONS_ENABLED);
+                break;
+            case RECEIVING:
+                connect();
+                break;
+        }
+    }
+
+    private static class FakeActions implements ConnectionStateMachine.Actions {
+        boolean ready = true;
+        int scans;
+        int stopScans;
+        int disconnects;
+
+        @Override
+        public boolean isBluetoothReady() {
+            return ready;
+        }
+
+        @Override
+        public void startScan() {
+            scans++;
+        }
+
+        @Override
+        public void stopScan() {
+            stopScans++;
+        }
+
+        @Override
+        public void disconnect() {
+            disconnects++;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.silberkoepfe.forumsladercompanion.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class LivenessWatchdogTest {
+    private FakeClock clock;
+    private List<String> stalls;
+    private LivenessWatchdog watchdog;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock(100000);
+        stalls = new ArrayList<>();
+        watchdog = new LivenessWatchdog(clock, clock, silence -> stalls.add(silence + "@" + clock.now()));
+    }
+
+    // sentences at the given interval for the given time
+    private void receive(long interval, long duration) {
+        for (long t = 0; t < duration; t += interval) {
+            clock.advance(interval);
+            watchdog.onSentence();
+        }
+    }
+
+    @Test
+    public void quietAsLongAsSentencesArrive() {
+        watchdog.start();
+        receive(1000, 60000);
+        assertTrue(stalls.isEmpty());
+        assertEquals(1000, watchdog.getCadence());
+        assertEquals(5000, watchdog.threshold());
+        // only the one pending check, not one per sentence
+        assertEquals(1, clock.pendingCount());
+    }
+
+    @Test
+    public void detectsStallAfterCadenceTimesFactor() {
+        watchdog.start();
+        receive(1000, 10000);
+        final long lastSentence = clock.now();
+        clock.advance(4999);
+        assertTrue(stalls.isEmpty());
+        clock.advance(1);
+        assertEquals("[5000@" + (lastSentence + 5000) + "]", stalls.toString());
+        assertFalse(watchdog.isRunning());
+        assertEquals(1, watchdog.getStalls().getCount());
+
+        // reported once only
+        clock.advance(60000);
+        assertEquals(1, stalls.size());
+    }
+
+    @Test
+    public void detectsLinkThatNeverDelivers() {
+        watchdog.start();
+        clock.advance(LivenessWatchdog.DEFAULT_MIN_THRESHOLD);
+        assertEquals(1, stalls.size());
+    }
+
+    @Test
+    public void thresholdsBoundTheCadence() {
+        watchdog.start();
+        receive(100, 5000);
+        assertEquals(LivenessWatchdog.DEFAULT_MIN_THRESHOLD, watchdog.threshold());
+
+        watchdog.setCadenceFactor(3);
+        watchdog.setThresholds(200, 20000);
+        assertEquals(300, watchdog.threshold());
+        watchdog.setThresholds(1000, 20000);
+        assertEquals(1000, watchdog.threshold());
+        watchdog.setThresholds(100, 200);
+        assertEquals(200, watchdog.threshold());
+    }
+
+    @Test
+    public void followsSlowerCadence() {
+        watchdog.start();
+        receive(1000, 10000);
+        // every other sentence goes missing, the threshold grows along
+        receive(2000, 60000);
+        assertTrue(stalls.isEmpty());
+        assertTrue(watchdog.getCadence() > 1950);
+        assertTrue(watchdog.threshold() > 9750);
+    }
+
+    @Test
+    public void stopCancelsCheck() {
+        watchdog.start();
+        watchdog.stop();
+        clock.advance(60000);
+        assertTrue(stalls.isEmpty());
+        assertEquals(0, clock.pendingCount());
+    }
+
+    @Test
+    public void restartMeasuresFromStart() {
+        watchdog.start();
+        receive(1000, 5000);
+        clock.advance(60000);
+        assertEquals(1, stalls.size());
+
+        watchdog.start();
+        clock.advance(LivenessWatchdog.DEFAULT_MIN_THRESHOLD - 1);
+        assertEquals(1, stalls.size());
+        watchdog.onSentence();
+        receive(1000, 5000);
+        assertEquals(1, stalls.size());
+        assertEquals(LivenessWatchdog.DEFAULT_MIN_THRESHOLD - 1, watchdog.getMaxGap());
+    }
+}
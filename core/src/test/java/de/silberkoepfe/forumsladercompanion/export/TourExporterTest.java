@@ -0,0 +1,141 @@
+package de.silberkoepfe.forumsladercompanion.export;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+
+import static org.junit.Assert.*;
+
+public class TourExporterTest {
+    // 2018-10-08T12:00:00Z
+    private static final long START = 1539000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private TourExporter exporter;
+
+    @Before
+    public void setup() throws IOException {
+        directory = new File(folder.getRoot(), "journal");
+        exporter = new TourExporter();
+        try (JournalWriter journal = new JournalWriter(directory)) {
+            final FLDataRecord data = new FLDataRecord();
+            journal.onDataRecord(data.set(START, 0, 3, 26, 4000, 4000, 4000, 500, 0));
+            journal.onBaroRecord(new FLBaroRecord().set(START + 500, 215, 101325, 3505));
+            journal.onDataRecord(data.set(START + 1000, 0, 3, 13, 4100, 4100, 4100, -1250, 250));
+            // after a pause
+            journal.onDataRecord(data.set(START + 3601000, 0, 3, 0, 4100, 4100, 4100, -5, 0));
+        }
+    }
+
+    private byte[] export(ExportFormat format, boolean gzip) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        exporter.export(new JournalReader(directory), format, Channels.newChannel(bytes), gzip);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            final byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void csv() throws IOException {
+        final String csv = new String(export(ExportFormat.CSV, false), StandardCharsets.US_ASCII);
+        assertEquals(CsvWriter.HEADER
+                        // 26 Hz at 13 pole pairs: 2 turns of 2155 mm per second
+                        + "2018-10-08T12:00:00.000Z,12.000,0.500,0.000,26,15.5,0.000,,\n"
+                        // from 6 W down to nothing in one second
+                        + "2018-10-08T12:00:01.000Z,12.300,-1.250,0.250,13,7.8,0.001,21.5,350.5\n"
+                        + "2018-10-08T13:00:01.000Z,12.300,-0.005,0.000,0,0.0,0.001,21.5,350.5\n",
+                csv);
+    }
+
+    @Test
+    public void smallBufferGivesSameOutput() throws IOException {
+        final byte[] csv = export(ExportFormat.CSV, false);
+        final byte[] fit = export(ExportFormat.FIT, false);
+        exporter.setBufferSize(1);
+        assertArrayEquals(csv, export(ExportFormat.CSV, false));
+        assertArrayEquals(fit, export(ExportFormat.FIT, false));
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        assertArrayEquals(export(ExportFormat.CSV, false), gunzip(export(ExportFormat.CSV, true)));
+        assertArrayEquals(export(ExportFormat.FIT, false), gunzip(export(ExportFormat.FIT, true)));
+    }
+
+    @Test
+    public void range() throws IOException {
+        exporter.setRange(START + 1000, START + 2000);
+        final String csv = new String(export(ExportFormat.CSV, false), StandardCharsets.US_ASCII);
+        assertEquals(2, csv.split("\n").length);
+        assertTrue(csv.contains("12:00:01.000Z"));
+    }
+
+    @Test
+    public void fit() throws IOException {
+        final byte[] fit = export(ExportFormat.FIT, false);
+        final ByteBuffer buffer = ByteBuffer.wrap(fit).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(FitWriter.HEADER_SIZE, buffer.get(0));
+        final long dataSize = buffer.getInt(4);
+        assertEquals(FitWriter.dataSize(3), dataSize);
+        assertEquals(FitWriter.HEADER_SIZE + dataSize + 2, fit.length);
+        assertEquals(".FIT", new String(fit, 8, 4, StandardCharsets.US_ASCII));
+
+        int headerCrc = 0;
+        for (int i = 0; i < 12; i++) {
+            headerCrc = FitWriter.crc(headerCrc, fit[i]);
+        }
+        assertEquals(headerCrc, buffer.getShort(12) & 0xffff);
+        // the CRC over the whole file including its CRC is 0
+        int crc = 0;
+        for (byte b : fit) {
+            crc = FitWriter.crc(crc, b);
+        }
+        assertEquals(0, crc);
+
+        // second record: timestamp, speed, altitude, temperature
+        final int record = FitWriter.HEADER_SIZE + FitWriter.FILE_ID_SIZE + FitWriter.RECORD_DEFINITION_SIZE
+                + FitWriter.RECORD_SIZE;
+        assertEquals(1, buffer.get(record));
+        assertEquals((START + 1000) / 1000 - FitWriter.FIT_EPOCH, buffer.getInt(record + 1));
+        assertEquals(2155, buffer.getShort(record + 5));
+        assertEquals((350.5 + 500) * 5, buffer.getShort(record + 7) & 0xffff, 2.5);
+        assertEquals(22, buffer.get(record + 9));
+    }
+
+    @Test
+    public void emptyJournal() throws IOException {
+        exporter.setRange(0, 1);
+        assertEquals(CsvWriter.HEADER, new String(export(ExportFormat.CSV, false), StandardCharsets.US_ASCII));
+        assertEquals(FitWriter.HEADER_SIZE + FitWriter.dataSize(0) + 2, export(ExportFormat.FIT, false).length);
+    }
+}
@@ -0,0 +1,120 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.gatt.GattOperation.Type.*;
+import static org.junit.Assert.*;
+
+public class GattArbiterTest {
+    private FakeClock clock;
+    private GattArbiter arbiter;
+    private GattQueue first;
+    private GattQueue second;
+    // requests that reached the fake stack
+    private List<String> started;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        arbiter = new GattArbiter(clock);
+        first = new GattQueue(clock, clock, arbiter);
+        second = new GattQueue(clock, clock, arbiter);
+        started = new ArrayList<>();
+    }
+
+    private GattOperation.Starter starter(String name) {
+        return () -> {
+            started.add(name + "@" + clock.now());
+            return true;
+        };
+    }
+
+    @Test
+    public void connectionsTakeTurns() {
+        first.submit(DISCOVER_SERVICES, starter("a1"));
+        first.submit(DESCRIPTOR_WRITE, starter("a2"));
+        first.submit(MTU, starter("a3"));
+        second.submit(DISCOVER_SERVICES, starter("b1"));
+        second.submit(DESCRIPTOR_WRITE, starter("b2"));
+        clock.runPending();
+        assertEquals("[a1@0]", started.toString());
+        assertEquals(1, arbiter.getInFlight());
+        assertEquals(1, arbiter.getWaiting());
+
+        clock.advance(10);
+        first.onCompleted(DISCOVER_SERVICES, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        // the busy connection queues up behind the other one
+        assertEquals("[a1@0, b1@10]", started.toString());
+
+        clock.advance(10);
+        second.onCompleted(DISCOVER_SERVICES, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        first.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        second.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        first.onCompleted(MTU, GattFuture.GATT_SUCCESS, 247);
+        clock.runPending();
+        assertEquals("[a1@0, b1@10, a2@20, b2@20, a3@20]", started.toString());
+        assertEquals(0, arbiter.getInFlight());
+        assertEquals(5, arbiter.getGrantCount());
+        assertEquals(10, arbiter.getWait().getMax());
+    }
+
+    @Test
+    public void timedOutOperationKeepsItsTurnForRetries() {
+        first.submit(DESCRIPTOR_WRITE, starter("a"), 1000, 1);
+        second.submit(DESCRIPTOR_WRITE, starter("b"));
+        clock.advance(1000);
+        assertEquals("[a@0]", started.toString());
+        clock.advance(GattQueue.RETRY_DELAY);
+        assertEquals("[a@0, a@1050]", started.toString());
+        clock.advance(1000);
+        // given up, the other connection goes on
+        assertEquals("[a@0, a@1050, b@2050]", started.toString());
+    }
+
+    @Test
+    public void clearedQueueGivesUpItsTurn() {
+        first.submit(DESCRIPTOR_WRITE, starter("a"));
+        second.submit(DESCRIPTOR_WRITE, starter("b"));
+        final GattQueue third = new GattQueue(clock, clock, arbiter);
+        third.submit(DESCRIPTOR_WRITE, starter("c"));
+        clock.runPending();
+        assertEquals(2, arbiter.getWaiting());
+
+        // one leaves the line, the other one drops its running operation
+        second.clear();
+        first.clear();
+        clock.runPending();
+        assertEquals("[a@0, c@0]", started.toString());
+        assertEquals(0, arbiter.getWaiting());
+        third.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertEquals(0, arbiter.getInFlight());
+
+        // a cleared queue is served again
+        second.submit(MTU, starter("b"));
+        clock.runPending();
+        assertEquals("[a@0, c@0, b@0]", started.toString());
+    }
+
+    @Test
+    public void allowsSeveralInFlight() {
+        arbiter = new GattArbiter(clock, 2);
+        first = new GattQueue(clock, clock, arbiter);
+        second = new GattQueue(clock, clock, arbiter);
+        first.submit(DESCRIPTOR_WRITE, starter("a"));
+        second.submit(DESCRIPTOR_WRITE, starter("b"));
+        clock.runPending();
+        assertEquals("[a@0, b@0]", started.toString());
+        assertEquals(2, arbiter.getInFlight());
+    }
+}
@@ -0,0 +1,180 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsSnapshot;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.gatt.GattOperation.Type.*;
+import static org.junit.Assert.*;
+
+public class GattQueueTest {
+    private FakeClock clock;
+    private GattQueue queue;
+    // requests that reached the fake stack
+    private List<String> started;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        queue = new GattQueue(clock, clock);
+        started = new ArrayList<>();
+    }
+
+    private GattOperation.Starter starter(String name) {
+        return () -> {
+            started.add(name + "@" + clock.now());
+            return true;
+        };
+    }
+
+    @Test
+    public void runsOneOperationAtATime() {
+        final GattFuture<Void> first = queue.submit(DESCRIPTOR_WRITE, starter("a"));
+        final GattFuture<Integer> second = queue.submit(MTU, starter("b"));
+        clock.runPending();
+        assertEquals("[a@0]", started.toString());
+        assertEquals(2, queue.size());
+
+        clock.advance(30);
+        queue.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertTrue(first.isSuccess());
+        // the next one starts as soon as the link allows
+        assertEquals("[a@0, b@30]", started.toString());
+        assertFalse(second.isDone());
+
+        queue.onCompleted(MTU, GattFuture.GATT_SUCCESS, 247);
+        clock.runPending();
+        assertEquals(Integer.valueOf(247), second.getResult());
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.getLatency().getCount());
+    }
+
+    @Test
+    public void recordsStageTimesToRegistry() {
+        final MetricsRegistry registry = new MetricsRegistry(clock);
+        registry.setEnabled(true);
+        queue.setMetrics(registry);
+        queue.submit(MTU, starter("a"));
+        queue.submit(DISCOVER_SERVICES, starter("b"), 1000, 0);
+        clock.runPending();
+        clock.advance(40);
+        queue.onCompleted(MTU, GattFuture.GATT_SUCCESS, 247);
+        // discovery times out
+        clock.advance(2000);
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(1, snapshot.getHistogram("gatt.mtu").getCount());
+        assertEquals(40, snapshot.getHistogram("gatt.mtu").getMax());
+        assertEquals(0, snapshot.getHistogram("gatt.discover_services").getCount());
+        assertEquals(1, snapshot.getCounter(GattQueue.FAILURES));
+    }
+
+    @Test
+    public void retriesLostOperation() {
+        final GattFuture<Void> future = queue.submit(DESCRIPTOR_WRITE, starter("a"), 1000, 1);
+        clock.advance(1000);
+        assertEquals(1, queue.getTimeoutCount());
+        clock.advance(GattQueue.RETRY_DELAY);
+        assertEquals("[a@0, a@1050]", started.toString());
+
+        queue.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertTrue(future.isSuccess());
+        assertEquals(1, queue.getRetryCount());
+    }
+
+    @Test
+    public void failsAfterLastRetryAndMovesOn() {
+        final GattFuture<Void> lost = queue.submit(WRITE, starter("a"), 1000, 2);
+        queue.submit(READ, starter("b"));
+        clock.advance(3100);
+        assertTrue(lost.isDone());
+        assertEquals(GattFuture.TIMEOUT, lost.getStatus());
+        assertEquals("[a@0, a@1050, a@2100, b@3100]", started.toString());
+        assertEquals(1, queue.getFailedCount());
+    }
+
+    @Test
+    public void retriesErrorStatus() {
+        final GattFuture<Void> future = queue.submit(DESCRIPTOR_WRITE, starter("a"));
+        clock.runPending();
+        // GATT_ERROR
+        queue.onCompleted(DESCRIPTOR_WRITE, 133, null);
+        clock.advance(GattQueue.RETRY_DELAY);
+        assertEquals(2, started.size());
+        queue.onCompleted(DESCRIPTOR_WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertTrue(future.isSuccess());
+    }
+
+    @Test
+    public void retriesRefusedStart() {
+        final int[] calls = {0};
+        final GattFuture<Void> future = queue.submit(WRITE, () -> ++calls[0] > 1);
+        clock.advance(GattQueue.RETRY_DELAY);
+        assertEquals(2, calls[0]);
+        queue.onCompleted(WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertTrue(future.isSuccess());
+
+        final GattFuture<Void> refused = queue.submit(WRITE, () -> false, 1000, 0);
+        clock.runPending();
+        assertEquals(GattFuture.NOT_STARTED, refused.getStatus());
+    }
+
+    @Test
+    public void ignoresStrayCallback() {
+        final GattFuture<Void> future = queue.submit(WRITE, starter("a"));
+        clock.runPending();
+        queue.onCompleted(READ, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        assertFalse(future.isDone());
+        assertEquals(1, queue.getStrayCount());
+    }
+
+    @Test
+    public void clearCancelsEverything() {
+        final GattFuture<Void> running = queue.submit(WRITE, starter("a"));
+        final GattFuture<Void> waiting = queue.submit(WRITE, starter("b"));
+        clock.runPending();
+        queue.clear();
+        clock.advance(10000);
+        assertEquals(GattFuture.CANCELLED, running.getStatus());
+        assertEquals(GattFuture.CANCELLED, waiting.getStatus());
+        assertEquals("[a@0]", started.toString());
+        assertEquals(0, clock.pendingCount());
+    }
+
+    @Test
+    public void listenerAddedLateIsCalledRightAway() {
+        final GattFuture<Void> future = queue.submit(WRITE, starter("a"));
+        clock.runPending();
+        queue.onCompleted(WRITE, GattFuture.GATT_SUCCESS, null);
+        clock.runPending();
+        final List<GattFuture<Void>> done = new ArrayList<>();
+        future.whenDone(done::add);
+        assertEquals(1, done.size());
+    }
+
+    @Test
+    public void listenerAddedWhileCompletingIsCalledOnce() throws InterruptedException {
+        for (int i = 0; i < 2000; i++) {
+            final GattFuture<Void> future = new GattFuture<>();
+            final AtomicInteger calls = new AtomicInteger();
+            // as the binder thread adding a listener while the queue cancels
+            final Thread binder = new Thread(() -> future.whenDone(done -> calls.incrementAndGet()));
+            binder.start();
+            future.complete(GattFuture.CANCELLED, null);
+            binder.join();
+            assertEquals(1, calls.get());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.silberkoepfe.forumsladercompanion.gatt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsRegistry;
+import de.silberkoepfe.forumsladercompanion.monitor.MetricsSnapshot;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.gatt.LinkTuner.Priority.*;
+import static org.junit.Assert.*;
+
+public class LinkTunerTest {
+    private static final String ADDRESS = "02:46:4C:00:01:00";
+
+    private List<LinkTuner.Priority> requests;
+    private boolean accept;
+    private LinkTuner tuner;
+
+    @Before
+    public void setup() {
+        requests = new ArrayList<>();
+        accept = true;
+        tuner = new LinkTuner(priority -> {
+            requests.add(priority);
+            return accept;
+        });
+    }
+
+    @Test
+    public void fastDuringSetupSlowWhenSteady() {
+        tuner.onConnected();
+        assertEquals(HIGH, tuner.getPriority());
+        tuner.onSteady();
+        assertEquals(LOW_POWER, tuner.getPriority());
+        assertEquals("[HIGH, LOW_POWER]", requests.toString());
+        assertEquals(2, tuner.getPriorityChangeCount());
+    }
+
+    @Test
+    public void retriesRefusedRequestOnNextChange() {
+        accept = false;
+        tuner.onConnected();
+        assertEquals(BALANCED, tuner.getPriority());
+        accept = true;
+        tuner.onSteady();
+        assertEquals(LOW_POWER, tuner.getPriority());
+    }
+
+    @Test
+    public void recordsNegotiatedParameters() {
+        assertEquals(20, tuner.getMaxPayload());
+        tuner.onMtuChanged(247);
+        tuner.onPhyChanged(LinkTuner.PHY_LE_2M, LinkTuner.PHY_LE_2M);
+        assertEquals(244, tuner.getMaxPayload());
+        assertEquals(LinkTuner.PHY_LE_2M, tuner.getTxPhy());
+        assertEquals(LinkTuner.PHY_LE_2M, tuner.getRxPhy());
+    }
+
+    @Test
+    public void measuresThroughput() {
+        // 20 byte notifications every 50 ms
+        for (long now = 0; now <= 3000; now += 50) {
+            tuner.onReceived(20, now);
+        }
+        assertEquals(400, tuner.getBytesPerSecond());
+        assertEquals(61, tuner.getPacketsReceived());
+        assertEquals(61 * 20, tuner.getBytesReceived());
+    }
+
+    @Test
+    public void publishesGauges() {
+        final MetricsRegistry registry = new MetricsRegistry(new FakeClock());
+        registry.setEnabled(true);
+        tuner.setMetrics(registry, ADDRESS);
+        tuner.onConnected();
+        tuner.onMtuChanged(247);
+        tuner.onPhyChanged(LinkTuner.PHY_LE_2M, LinkTuner.PHY_LE_2M);
+        tuner.onSteady();
+        for (long now = 0; now <= 1000; now += 50) {
+            tuner.onReceived(20, now);
+        }
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(247, snapshot.getGauge(String.format(LinkTuner.MTU_METRIC, ADDRESS)));
+        assertEquals(LinkTuner.PHY_LE_2M, snapshot.getGauge(String.format(LinkTuner.PHY_METRIC, ADDRESS)));
+        assertEquals(LOW_POWER.ordinal(), snapshot.getGauge(String.format(LinkTuner.PRIORITY_METRIC, ADDRESS)));
+        assertEquals(400, snapshot.getGauge(String.format(LinkTuner.THROUGHPUT_METRIC, ADDRESS)));
+    }
+}
@@ -0,0 +1,128 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.protocol.Captures;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+
+import static org.junit.Assert.*;
+
+public class DerivedMetricsTest {
+    private DerivedMetrics metrics;
+    private final FLDataRecord record = new FLDataRecord();
+
+    @Before
+    public void setup() {
+        metrics = new DerivedMetrics(new Wheel(13, 2155), 3300);
+    }
+
+    @Test
+    public void speedFromDynamoFrequency() {
+        final Wheel wheel = new Wheel(13, 2155);
+        assertEquals(0, wheel.speed(0));
+        // 2 turns a second
+        assertEquals(4310, wheel.speed(26));
+        assertEquals(4000, new Wheel(14, 2000).speed(28));
+    }
+
+    @Test
+    public void recordedTrace() throws Exception {
+        // the records of the capture, one packet every 400 ms
+        final List<FLDataRecord> records = new ArrayList<>();
+        final FLSentenceParser parser = new FLSentenceParser(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord data) {
+                metrics.onDataRecord(data);
+                records.add(new FLDataRecord().set(data.getTimestamp(), data.getStatus(), data.getStage(),
+                        data.getDynamoFrequency(), data.getCellVoltage1(), data.getCellVoltage2(),
+                        data.getCellVoltage3(), data.getBatteryCurrent(), data.getLoadCurrent()));
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord baro) {
+                metrics.onBaroRecord(baro);
+            }
+        });
+        long time = 1539000000000L;
+        for (byte[] packet : Captures.load(Captures.FL5_SESSION)) {
+            parser.feed(packet, time);
+            time += 400;
+        }
+        assertEquals(30, metrics.getSampleCount());
+
+        // straightforward sums over the same trace
+        double harvested = 0;
+        double consumed = 0;
+        double distance = 0;
+        for (int i = 1; i < records.size(); i++) {
+            final FLDataRecord a = records.get(i - 1);
+            final FLDataRecord b = records.get(i);
+            final double hours = (b.getTimestamp() - a.getTimestamp()) / 3600000.0;
+            harvested += (Power.harvested(a) + Power.harvested(b)) / 2 * hours;
+            consumed += (Power.consumed(a) + Power.consumed(b)) / 2 * hours;
+            distance += (metrics.getWheel().speed(a.getDynamoFrequency())
+                    + metrics.getWheel().speed(b.getDynamoFrequency())) / 2.0 / 1000
+                    * (b.getTimestamp() - a.getTimestamp()) / 1000;
+        }
+        assertTrue(harvested > 0);
+        assertEquals(harvested, metrics.getHarvestedWh(), 1e-9);
+        assertEquals(consumed, metrics.getConsumedWh(), 1e-9);
+        assertEquals(distance, metrics.getDistance(), 1e-6);
+        final FLDataRecord last = records.get(records.size() - 1);
+        assertEquals(metrics.getWheel().speed(last.getDynamoFrequency()), metrics.getSpeed());
+
+        // charging at around 12.35 V
+        final double soc = metrics.getStateOfCharge();
+        assertTrue("soc " + soc, soc > 0.9 && soc <= 1);
+        assertEquals(-1, metrics.getTimeToEmpty());
+    }
+
+    @Test
+    public void stateOfChargeFromRestingVoltage() {
+        assertEquals(0, Battery.fromCellVoltage(2900), 0);
+        assertEquals(0.5, Battery.fromCellVoltage(3750), 1e-9);
+        assertEquals(0.55, Battery.fromCellVoltage(3775), 1e-9);
+        assertEquals(1, Battery.fromCellVoltage(4250), 0);
+    }
+
+    @Test
+    public void countsChargeAndEstimatesTimeToEmpty() {
+        long time = 0;
+        // 50 % and resting
+        metrics.onDataRecord(record.set(time, 0, 0, 0, 3750, 3750, 3750, 0, 0));
+        assertEquals(0.5, metrics.getStateOfCharge(), 1e-9);
+        // an hour of lights at 330 mA, 10 % of the capacity, in irregular steps
+        while (time < 3600 * 1000) {
+            time += time % 3 == 0 ? 700 : 1300;
+            metrics.onDataRecord(record.set(time, 0, 0, 0, 3740, 3740, 3740, -330, 330));
+        }
+        assertEquals(0.4, metrics.getStateOfCharge(), 0.002);
+        // 40 % at 330 mA: 4 more hours
+        assertEquals(4 * 3600 * 1000, metrics.getTimeToEmpty(), 60 * 1000);
+        // three cells at 3.74 V
+        assertEquals(11.22 * 0.33, metrics.getConsumedWh(), 0.01);
+        assertEquals(0, metrics.getHarvestedWh(), 0);
+    }
+
+    @Test
+    public void pausesDoNotCount() {
+        metrics.onDataRecord(record.set(0, 0, 0, 26, 4000, 4000, 4000, 500, 0));
+        metrics.onDataRecord(record.set(1000, 0, 0, 26, 4000, 4000, 4000, 500, 0));
+        // the Forumslader was off for an hour
+        metrics.onDataRecord(record.set(3601000, 0, 0, 26, 4000, 4000, 4000, 500, 0));
+        assertEquals(4.31, metrics.getDistance(), 1e-9);
+        assertEquals(6.0 / 3600, metrics.getHarvestedWh(), 1e-9);
+
+        metrics.resetTrip();
+        assertEquals(0, metrics.getDistance(), 0);
+        metrics.onDataRecord(record.set(3602000, 0, 0, 26, 4000, 4000, 4000, 500, 0));
+        assertEquals(0, metrics.getDistance(), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package de.silberkoepfe.forumsladercompanion.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntegratorTest {
+    @Test
+    public void exactForLinearValuesAtIrregularIntervals() {
+        final Integrator integrator = new Integrator(10000);
+        final Random random = new Random(1);
+        long time = 0;
+        long last = 0;
+        for (int i = 0; i < 1000; i++) {
+            integrator.add(time, 2.0 * time + 5);
+            last = time;
+            time += 1 + random.nextInt(3000);
+        }
+        // t^2 + 5 t
+        assertEquals((double) last * last + 5.0 * last, integrator.get(), 1e-6 * last * last);
+    }
+
+    @Test
+    public void skipsPausesAndLateSamples() {
+        final Integrator integrator = new Integrator(10000);
+        integrator.add(0, 1);
+        integrator.add(1000, 1);
+        // a pause
+        integrator.add(60000, 1);
+        integrator.add(61000, 3);
+        // older than the previous sample
+        integrator.add(500, 100);
+        integrator.add(62000, 3);
+        assertEquals(1000 + 2000 + 3000, integrator.get(), 0);
+    }
+
+    @Test
+    public void compensatedSumKeepsSmallAreas() {
+        final Integrator integrator = new Integrator(10000);
+        double naive = 0;
+        final double value = 0.1;
+        for (int i = 0; i <= 10000000; i++) {
+            integrator.add(i, value);
+            if (i > 0) {
+                naive += value;
+            }
+        }
+        assertEquals(1000000, integrator.get(), 1e-6);
+        // the plain sum is off by more
+        assertTrue(Math.abs(naive - 1000000) > 1e-6);
+    }
+
+    @Test
+    public void reset() {
+        final Integrator integrator = new Integrator(10000);
+        integrator.add(0, 1);
+        integrator.add(1000, 1);
+        integrator.reset();
+        integrator.add(2000, 1);
+        assertEquals(0, integrator.get(), 0);
+        integrator.add(3000, 1);
+        assertEquals(1000, integrator.get(), 0);
+    }
+}
@@ -0,0 +1,204 @@
+package de.silberkoepfe.forumsladercompanion.monitor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String FIRST = "02:46:4C:00:01:00";
+    private static final String SECOND = "02:46:4C:00:01:01";
+
+    private FakeClock clock;
+    private MetricsRegistry registry;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        registry = new MetricsRegistry(clock);
+        registry.setEnabled(true);
+    }
+
+    @Test
+    public void recordsNothingWhileDisabled() {
+        registry.setEnabled(false);
+        registry.counter("c").increment();
+        registry.gauge("g").set(5);
+        registry.histogram("h").record(100);
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(0, snapshot.getCounter("c"));
+        assertEquals(0, snapshot.getGauge("g"));
+        assertEquals(0, snapshot.getHistogram("h").getCount());
+        assertEquals(-1, snapshot.getHistogram("h").getPercentile(50));
+    }
+
+    @Test
+    public void returnsSameMetricForName() {
+        assertSame(registry.counter("c"), registry.counter("c"));
+        assertSame(registry.histogram("h"), registry.histogram("h"));
+        assertSame(registry.gauge("g"), registry.gauge("g"));
+    }
+
+    @Test
+    public void countsFromManyThreads() throws InterruptedException {
+        final Counter counter = registry.counter("packets");
+        final Histogram histogram = registry.histogram("sizes");
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100 * 1024; i++) {
+                    counter.increment();
+                    histogram.record(i & 1023);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 100 * 1024, counter.get());
+        final HistogramSnapshot snapshot = registry.snapshot().getHistogram("sizes");
+        assertEquals(8 * 100 * 1024, snapshot.getCount());
+        assertEquals(1023, snapshot.getMax());
+        assertEquals(511, snapshot.getMean());
+    }
+
+    @Test
+    public void bucketsCoverAllValuesInOrder() {
+        long previous = -1;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertEquals(previous + 1, Histogram.lowestValue(i));
+            assertEquals(i, Histogram.index(Histogram.lowestValue(i)));
+            assertEquals(i, Histogram.index(Histogram.highestValue(i)));
+            previous = Histogram.highestValue(i);
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        final Histogram histogram = registry.histogram("connect");
+        final Random random = new Random(3);
+        final long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // connect times of 300 ms to 10 s
+            values[i] = 300 + (long) (9700 * random.nextDouble() * random.nextDouble());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        final HistogramSnapshot snapshot = registry.snapshot().getHistogram("connect");
+        for (double percentile : new double[]{50, 90, 99}) {
+            final long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            final long estimate = snapshot.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " for " + exact, estimate >= exact);
+            assertTrue(percentile + ": " + estimate + " for " + exact, estimate <= exact + exact / 16);
+        }
+        assertEquals(values[values.length - 1], snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void ratesSincePreviousSnapshot() {
+        final Counter bytes = registry.counter("bytes");
+        clock.advance(1000);
+        bytes.add(2000);
+        assertEquals(2000, registry.snapshot().getRate("bytes"), 0.001);
+
+        clock.advance(2000);
+        bytes.add(1000);
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(3000, snapshot.getCounter("bytes"));
+        assertEquals(500, snapshot.getRate("bytes"), 0.001);
+        assertEquals(3000, snapshot.getUptime());
+
+        registry.reset();
+        assertEquals(0, registry.snapshot().getCounter("bytes"));
+    }
+
+    @Test
+    public void writesOneLinePerMetric() throws IOException {
+        registry.counter("notify.packets").add(30);
+        registry.gauge("service.status").set(8);
+        registry.histogram("scan.time").record(1200);
+        clock.advance(10000);
+        final File file = new File(folder.getRoot(), "metrics.txt");
+        registry.snapshot().write(file);
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals("uptime 10000 ms", lines.get(0));
+        assertEquals("counter notify.packets 30 3.0/s", lines.get(1));
+        assertEquals("gauge service.status 8", lines.get(2));
+        assertEquals("histogram scan.time n=1 mean=1200 p50=1200 p90=1200 p99=1200 max=1200", lines.get(3));
+        assertFalse(new File(folder.getRoot(), "metrics.txt.tmp").exists());
+    }
+
+    @Test
+    public void tracksConnectionLifecycle() {
+        final ConnectionMetrics metrics = new ConnectionMetrics(registry, clock, FIRST);
+        final ConnectionMetrics other = new ConnectionMetrics(registry, clock, SECOND);
+        metrics.onScanStarted();
+        clock.advance(800);
+        metrics.onScanFinished(true);
+        metrics.onConnectStarted();
+        clock.advance(600);
+        metrics.onConnected();
+        clock.advance(900);
+        metrics.onNotification(20);
+        other.onNotification(30);
+        clock.advance(100);
+        metrics.onNotification(20);
+        metrics.onDisconnected();
+        metrics.onScanStarted();
+        clock.advance(5000);
+        metrics.onScanFinished(false);
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(2, snapshot.getCounter(ConnectionMetrics.SCAN_COUNT));
+        assertEquals(1, snapshot.getCounter(ConnectionMetrics.SCAN_TIMEOUTS));
+        assertEquals(800, snapshot.getHistogram(ConnectionMetrics.SCAN_TIME).getMax());
+        assertEquals(600, snapshot.getHistogram(ConnectionMetrics.name(ConnectionMetrics.CONNECT_TIME, FIRST)).getMax());
+        // from the connect request, recorded once
+        final HistogramSnapshot firstNotification =
+                snapshot.getHistogram(ConnectionMetrics.name(ConnectionMetrics.FIRST_NOTIFICATION_TIME, FIRST));
+        assertEquals(1, firstNotification.getCount());
+        assertEquals(1500, firstNotification.getMax());
+        assertEquals(2, snapshot.getCounter(ConnectionMetrics.name(ConnectionMetrics.PACKETS, FIRST)));
+        assertEquals(40, snapshot.getCounter(ConnectionMetrics.name(ConnectionMetrics.BYTES, FIRST)));
+        assertEquals(1, snapshot.getCounter(ConnectionMetrics.name(ConnectionMetrics.DISCONNECT_COUNT, FIRST)));
+        // the other device counts its own
+        assertEquals(1, snapshot.getCounter(ConnectionMetrics.name(ConnectionMetrics.PACKETS, SECOND)));
+        assertEquals(30, snapshot.getCounter(ConnectionMetrics.name(ConnectionMetrics.BYTES, SECOND)));
+    }
+
+    @Test
+    public void scanOnlyMetricsIgnoreConnections() {
+        final ConnectionMetrics metrics = new ConnectionMetrics(registry, clock);
+        metrics.onScanStarted();
+        metrics.onScanFinished(true);
+        metrics.onConnectStarted();
+        metrics.onConnected();
+        metrics.onNotification(20);
+        metrics.onDisconnected();
+
+        final MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(1, snapshot.getCounter(ConnectionMetrics.SCAN_COUNT));
+        assertEquals(1, snapshot.getHistogram(ConnectionMetrics.SCAN_TIME).getCount());
+        // scan.count and scan.timeouts
+        assertEquals(2, snapshot.getCounters().size());
+    }
+}
@@ -0,0 +1,183 @@
+package de.silberkoepfe.forumsladercompanion.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.silberkoepfe.forumsladercompanion.protocol.Captures;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+import static org.junit.Assert.*;
+
+public class DecodePipelineTest {
+    private DecodePipeline pipeline;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    @Test
+    public void decodesOnConsumerThread() throws Exception {
+        final List<byte[]> packets = Captures.load(Captures.FL5_SESSION);
+        final CountDownLatch records = new CountDownLatch(36);
+        final AtomicInteger packetCount = new AtomicInteger();
+        final AtomicReference<Thread> decodeThread = new AtomicReference<>();
+
+        pipeline = new DecodePipeline("test", timestamp -> packetCount.incrementAndGet());
+        pipeline.addRecordListener(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                decodeThread.set(Thread.currentThread());
+                records.countDown();
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                records.countDown();
+            }
+        });
+        pipeline.start();
+
+        for (byte[] packet : packets) {
+            assertTrue(pipeline.submit(packet, 0L));
+        }
+
+        assertTrue(records.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), decodeThread.get());
+        assertTrue(decodeThread.get().getName().startsWith("DecodePipeline-test"));
+        pipeline.stop();
+        assertEquals(packets.size(), packetCount.get());
+        assertEquals(packets.size(), pipeline.getSubmittedCount());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void countsDroppedPacketsWhenConsumerFallsBehind() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline = new DecodePipeline("slow", 4, timestamp -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pipeline.start();
+
+        final byte[] packet = new byte[20];
+        pipeline.submit(packet, 0L);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(packet, 0L);
+        }
+
+        assertEquals(11, pipeline.getSubmittedCount());
+        assertEquals(4, pipeline.getQueuedCount());
+        // the packet being decoded still occupies its slot
+        assertEquals(7, pipeline.getDroppedCount());
+        assertEquals(4, pipeline.getMaxQueuedCount());
+
+        release.countDown();
+        pipeline.stop();
+        assertEquals(0, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void throwingListenerIsCountedAndDecodingGoesOn() throws Exception {
+        final List<byte[]> packets = Captures.load(Captures.FL5_SESSION);
+        final AtomicInteger records = new AtomicInteger();
+        pipeline = new DecodePipeline("throwing", timestamp -> {
+        });
+        pipeline.addRecordListener(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                throw new IllegalStateException("data");
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                throw new IllegalStateException("baro");
+            }
+        });
+        pipeline.addRecordListener(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                records.incrementAndGet();
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                records.incrementAndGet();
+            }
+        });
+        pipeline.start();
+        for (byte[] packet : packets) {
+            assertTrue(pipeline.submit(packet, 0L));
+        }
+        assertTrue(pipeline.stop());
+
+        // every record reached the second listener
+        assertEquals(36, records.get());
+        assertEquals(36, pipeline.getListenerErrorCount());
+        assertNotNull(pipeline.getLastListenerError());
+    }
+
+    @Test
+    public void stopWaitsForSlowListener() throws Exception {
+        final CountDownLatch decoding = new CountDownLatch(1);
+        final AtomicInteger done = new AtomicInteger();
+        pipeline = new DecodePipeline("slow", timestamp -> {
+            decoding.countDown();
+            try {
+                Thread.sleep(1500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.incrementAndGet();
+        });
+        pipeline.start();
+        pipeline.submit(new byte[20], 0L);
+        pipeline.submit(new byte[20], 0L);
+        assertTrue(decoding.await(5, TimeUnit.SECONDS));
+
+        // longer than the one second it used to give up after
+        assertTrue(pipeline.stop());
+        assertEquals(2, done.get());
+        assertFalse(pipeline.isRunning());
+    }
+
+    @Test
+    public void removedListenerIsNotCalled() {
+        final RecordDispatcher dispatcher = new RecordDispatcher();
+        final AtomicInteger calls = new AtomicInteger();
+        final FLRecordListener listener = new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                calls.incrementAndGet();
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                calls.incrementAndGet();
+            }
+        };
+        dispatcher.addListener(listener);
+        dispatcher.addListener(listener);
+        dispatcher.onDataRecord(null);
+        dispatcher.removeListener(listener);
+        dispatcher.onBaroRecord(null);
+        assertEquals(3, calls.get());
+    }
+}
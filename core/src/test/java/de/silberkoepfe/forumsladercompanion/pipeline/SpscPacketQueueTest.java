@@ -0,0 +1,96 @@
+package de.silberkoepfe.forumsladercompanion.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpscPacketQueueTest {
+
+    @Test
+    public void roundsCapacityToPowerOfTwo() {
+        assertEquals(8, new SpscPacketQueue(5, 20).capacity());
+        assertEquals(128, new SpscPacketQueue(128, 20).capacity());
+    }
+
+    @Test
+    public void deliversPacketsInOrder() {
+        final SpscPacketQueue queue = new SpscPacketQueue(4, 20);
+        final List<String> received = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            assertTrue(queue.offer(new byte[]{'a', (byte) ('0' + round)}, 0, 2, round));
+            assertTrue(queue.offer(new byte[]{'x', 'b', 'c'}, 1, 2, round));
+            assertEquals(2, queue.size());
+            assertEquals(2, queue.drain((data, length, timestamp) -> received.add(new String(data, 0, length) + "@" + timestamp)));
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals("[a0@0, bc@0, a1@1, bc@1, a2@2, bc@2]", received.toString());
+    }
+
+    @Test
+    public void dropsWhenFull() {
+        final SpscPacketQueue queue = new SpscPacketQueue(4, 20);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(new byte[]{(byte) i}, 0, 1, i);
+        }
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(6, queue.getOfferedCount());
+        assertEquals(4, queue.getMaxDepth());
+
+        final long[] first = {-1};
+        queue.drain((data, length, timestamp) -> {
+            if (first[0] < 0) {
+                first[0] = data[0];
+            }
+        });
+        assertEquals(0, first[0]);
+    }
+
+    @Test
+    public void dropsOversizedPackets() {
+        final SpscPacketQueue queue = new SpscPacketQueue(4, 20);
+        assertFalse(queue.offer(new byte[21], 0, 21, 0));
+        assertEquals(1, queue.getDroppedCount());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void transfersBetweenThreads() throws Exception {
+        final SpscPacketQueue queue = new SpscPacketQueue(16, 8);
+        final int count = 50000;
+        final Thread producer = new Thread(() -> {
+            final byte[] packet = new byte[4];
+            for (int i = 0; i < count; ) {
+                packet[0] = (byte) (i >> 24);
+                packet[1] = (byte) (i >> 16);
+                packet[2] = (byte) (i >> 8);
+                packet[3] = (byte) i;
+                if (queue.offer(packet, 0, 4, i)) {
+                    i++;
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        final int[] expected = {0};
+        final boolean[] corrupted = {false};
+        while (expected[0] < count) {
+            final int drained = queue.drain((data, length, timestamp) -> {
+                final int value = (data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | data[3] & 0xff;
+                if (value != expected[0] || timestamp != expected[0]) {
+                    corrupted[0] = true;
+                }
+                expected[0]++;
+            });
+            if (drained == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertFalse(corrupted[0]);
+    }
+}
@@ -0,0 +1,56 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads recorded notification captures from the test resources. A capture file
+ * contains one BLE notification per line as hex string, lines starting with '#'
+ * are comments.
+ */
+public class Captures {
+    public static final String FL5_SESSION = "/captures/fl5_session.hex";
+    public static final String NOISY_SESSION = "/captures/noisy_session.hex";
+
+    public static List<byte[]> load(String name) throws IOException {
+        final InputStream in = Captures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("capture not found: " + name);
+        }
+        final List<byte[]> packets = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final byte[] packet = new byte[line.length() / 2];
+                for (int i = 0; i < packet.length; i++) {
+                    packet[i] = (byte) Integer.parseInt(line.substring(2 * i, 2 * i + 2), 16);
+                }
+                packets.add(packet);
+            }
+        }
+        return packets;
+    }
+
+    public static byte[] concat(List<byte[]> packets) {
+        int length = 0;
+        for (byte[] packet : packets) {
+            length += packet.length;
+        }
+        final byte[] stream = new byte[length];
+        int pos = 0;
+        for (byte[] packet : packets) {
+            System.arraycopy(packet, 0, stream, pos, packet.length);
+            pos += packet.length;
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,183 @@
+package de.silberkoepfe.forumsladercompanion.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FLSentenceParserTest {
+    private RecordingListener listener;
+    private FLSentenceParser parser;
+
+    @Before
+    public void setup() {
+        listener = new RecordingListener();
+        parser = new FLSentenceParser(listener);
+    }
+
+    @Test
+    public void decodesRecordedSession() throws Exception {
+        for (byte[] packet : Captures.load(Captures.FL5_SESSION)) {
+            parser.feed(packet, 1000L);
+        }
+
+        assertEquals(30, listener.dataCount);
+        assertEquals(6, listener.baroCount);
+        assertEquals(36, parser.getRecordCount());
+        assertEquals(0, parser.getChecksumErrorCount());
+        assertEquals(0, parser.getMalformedCount());
+
+        final FLDataRecord first = listener.firstData;
+        assertEquals(0x0c01, first.status);
+        assertEquals(3, first.stage);
+        assertEquals(40, first.dynamoFrequency);
+        assertEquals(4118 + 4119 + 4117, first.getBatteryVoltage());
+        assertEquals(850, first.batteryCurrent);
+        assertEquals(620, first.loadCurrent);
+        assertEquals(1000L, first.timestamp);
+
+        assertEquals(185, listener.firstBaro.temperature);
+        assertEquals(96512, listener.firstBaro.pressure);
+        assertEquals(4215, listener.firstBaro.altitude);
+    }
+
+    @Test
+    public void resultDoesNotDependOnPacketBoundaries() throws Exception {
+        final byte[] stream = Captures.concat(Captures.load(Captures.FL5_SESSION));
+        for (byte b : stream) {
+            parser.feed(new byte[]{b}, 0L);
+        }
+        assertEquals(30, listener.dataCount);
+        assertEquals(6, listener.baroCount);
+
+        final RecordingListener whole = new RecordingListener();
+        new FLSentenceParser(whole).feed(stream, 0L);
+        assertEquals(30, whole.dataCount);
+        assertEquals(6, whole.baroCount);
+        assertEquals(listener.lastBatteryCurrent, whole.lastBatteryCurrent);
+    }
+
+    @Test
+    public void recoversFromTransmissionErrors() throws Exception {
+        for (byte[] packet : Captures.load(Captures.NOISY_SESSION)) {
+            parser.feed(packet, 0L);
+        }
+
+        assertEquals(3, listener.dataCount);
+        assertEquals(1, listener.baroCount);
+        assertEquals(1, parser.getChecksumErrorCount());
+        assertEquals(2, parser.getMalformedCount());
+        assertEquals(1, parser.getOverflowCount());
+        assertEquals(1, parser.getUnknownCount());
+    }
+
+    @Test
+    public void reusesRecordInstances() throws Exception {
+        for (byte[] packet : Captures.load(Captures.FL5_SESSION)) {
+            parser.feed(packet, 0L);
+        }
+        assertSame(listener.firstInstance, listener.lastData);
+    }
+
+    @Test
+    public void parsesNegativeValues() {
+        parser.feed(sentence("FL5,0001,1,0,3700,3701,3702,-1250,300"), 0L);
+        parser.feed(sentence("FLB,-55,101325,-120"), 0L);
+
+        assertEquals(1, listener.dataCount);
+        assertEquals(-1250, listener.lastBatteryCurrent);
+        assertEquals(-55, listener.firstBaro.temperature);
+        assertEquals(-120, listener.firstBaro.altitude);
+    }
+
+    @Test
+    public void computesChecksum() {
+        final byte[] data = "$FLB,185,96512,4215*".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x63, FLChecksum.compute(data, 1, data.length - 1));
+        assertEquals('6', FLChecksum.hexDigit(0x63 >> 4));
+        assertEquals(10, FLChecksum.hexValue((byte) 'a'));
+        assertEquals(-1, FLChecksum.hexValue((byte) 'g'));
+    }
+
+    @Test
+    public void feedDoesNotAllocate() throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        final List<byte[]> packets = Captures.load(Captures.FL5_SESSION);
+        for (int i = 0; i < 1000; i++) {
+            feedAll(packets);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        feedAll(packets);
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // a few bytes of slack for the measurement itself
+        assertTrue("allocated " + allocated + " bytes", allocated < 256);
+    }
+
+    private void feedAll(List<byte[]> packets) {
+        for (int i = 0; i < packets.size(); i++) {
+            parser.feed(packets.get(i), 0L);
+        }
+    }
+
+    private static byte[] sentence(String body) {
+        final byte[] data = body.getBytes(StandardCharsets.US_ASCII);
+        final int checksum = FLChecksum.compute(data, 0, data.length);
+        return ("$" + body + "*" + (char) FLChecksum.hexDigit(checksum >> 4) + (char) FLChecksum.hexDigit(checksum) + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class RecordingListener implements FLRecordListener {
+        int dataCount;
+        int baroCount;
+        FLDataRecord firstData;
+        FLDataRecord firstInstance;
+        FLDataRecord lastData;
+        FLBaroRecord firstBaro;
+        int lastBatteryCurrent;
+
+        @Override
+        public void onDataRecord(FLDataRecord record) {
+            if (firstData == null) {
+                firstInstance = record;
+                // copy the values, the instance is reused
+                firstData = new FLDataRecord();
+                firstData.timestamp = record.timestamp;
+                firstData.status = record.status;
+                firstData.stage = record.stage;
+                firstData.dynamoFrequency = record.dynamoFrequency;
+                firstData.cellVoltage1 = record.cellVoltage1;
+                firstData.cellVoltage2 = record.cellVoltage2;
+                firstData.cellVoltage3 = record.cellVoltage3;
+                firstData.batteryCurrent = record.batteryCurrent;
+                firstData.loadCurrent = record.loadCurrent;
+            }
+            lastData = record;
+            lastBatteryCurrent = record.batteryCurrent;
+            dataCount++;
+        }
+
+        @Override
+        public void onBaroRecord(FLBaroRecord record) {
+            if (firstBaro == null) {
+                firstBaro = new FLBaroRecord();
+                firstBaro.timestamp = record.timestamp;
+                firstBaro.temperature = record.temperature;
+                firstBaro.pressure = record.pressure;
+                firstBaro.altitude = record.altitude;
+            }
+            baroCount++;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveScanPolicyTest {
+    private FakeClock clock;
+    private AdaptiveScanPolicy policy;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        policy = new AdaptiveScanPolicy(new Random(1));
+        policy.setBackoff(1000, 16000, 0);
+        policy.reset(clock.now());
+    }
+
+    // one scan without result followed by its retry delay
+    private long miss() {
+        clock.advance(policy.nextScan(clock.now()).getWindow());
+        final long delay = policy.nextDelay(clock.now());
+        clock.advance(delay);
+        return delay;
+    }
+
+    @Test
+    public void burstsAfterReset() {
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+        assertEquals(AdaptiveScanPolicy.DEFAULT_BURST_DELAY, policy.nextDelay(clock.now()));
+        assertEquals(0, policy.getMisses());
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToMaximum() {
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        assertEquals(ScanMode.BALANCED, policy.nextScan(clock.now()).getMode());
+        assertEquals(1000, policy.nextDelay(clock.now()));
+        assertEquals(2000, miss());
+        assertEquals(4000, miss());
+        assertEquals(8000, miss());
+        assertEquals(16000, miss());
+        assertEquals(16000, miss());
+        assertEquals(ScanMode.LOW_POWER, policy.nextScan(clock.now()).getMode());
+    }
+
+    @Test
+    public void jitterStaysWithinBounds() {
+        policy.setBackoff(1000, 16000, 0.5);
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onFound(clock.now());
+            final long delay = policy.nextDelay(clock.now());
+            assertTrue(delay >= 500 && delay <= 1000);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        // actually randomized
+        assertTrue(max - min > 300);
+    }
+
+    @Test
+    public void resetStartsNewBurst() {
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        for (int i = 0; i < 10; i++) {
+            miss();
+        }
+        assertEquals(ScanMode.LOW_POWER, policy.nextScan(clock.now()).getMode());
+
+        policy.reset(clock.now());
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        assertEquals(1000, policy.nextDelay(clock.now()));
+    }
+
+    @Test
+    public void foundDeviceResetsBackoff() {
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        miss();
+        miss();
+        policy.onFound(clock.now());
+        assertEquals(0, policy.getMisses());
+        assertEquals(1000, policy.nextDelay(clock.now()));
+    }
+
+    @Test
+    public void exhaustedBudgetDowngradesMode() {
+        // two low latency windows, one balanced and one low power
+        final long window = AdaptiveScanPolicy.DEFAULT_WINDOW;
+        policy.setEnergyBudget(2 * window + window / 4 + window / 10);
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+        assertEquals(ScanMode.BALANCED, policy.nextScan(clock.now()).getMode());
+        assertEquals(ScanMode.LOW_POWER, policy.nextScan(clock.now()).getMode());
+        assertEquals(ScanMode.OPPORTUNISTIC, policy.nextScan(clock.now()).getMode());
+        assertTrue(policy.getEnergyUsed() <= policy.getEnergyBudget());
+    }
+
+    @Test
+    public void negativeBudgetOnlyScansOpportunistically() {
+        policy.setEnergyBudget(-1000);
+        assertEquals(0, policy.getEnergyBudget());
+        assertEquals(ScanMode.OPPORTUNISTIC, policy.nextScan(clock.now()).getMode());
+        clock.advance(AdaptiveScanPolicy.HOUR);
+        assertEquals(ScanMode.OPPORTUNISTIC, policy.nextScan(clock.now()).getMode());
+        assertEquals(0, policy.getEnergyUsed(), 0);
+
+        // nothing owed from the negative budget, an hour refills the new one completely
+        policy.setEnergyBudget(AdaptiveScanPolicy.DEFAULT_WINDOW);
+        policy.setBurst(Long.MAX_VALUE / 2, 500);
+        clock.advance(AdaptiveScanPolicy.HOUR);
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+    }
+
+    @Test
+    public void budgetRefillsOverTime() {
+        policy.setEnergyBudget(AdaptiveScanPolicy.DEFAULT_WINDOW);
+        policy.setBurst(Long.MAX_VALUE / 2, 500);
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+        assertNotEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+
+        clock.advance(AdaptiveScanPolicy.HOUR);
+        assertEquals(ScanMode.LOW_LATENCY, policy.nextScan(clock.now()).getMode());
+    }
+
+    @Test
+    public void hourOfScanningStaysWithinBudget() {
+        policy.setBackoff(AdaptiveScanPolicy.DEFAULT_INITIAL_DELAY, AdaptiveScanPolicy.DEFAULT_MAX_DELAY,
+                AdaptiveScanPolicy.DEFAULT_JITTER);
+        // reset every 10 minutes keeps it in bursts as much as possible
+        while (clock.now() < AdaptiveScanPolicy.HOUR) {
+            if (clock.now() % 600000 < 10000) {
+                policy.reset(clock.now());
+            }
+            miss();
+        }
+        // the bucket starts full, so up to two budgets within the first hour
+        assertTrue(policy.getEnergyUsed() <= 2 * policy.getEnergyBudget());
+    }
+}
@@ -0,0 +1,373 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class DeviceDiscoveryTest {
+    private static final int CONNECT_RUNS = 500;
+    private static final long SCAN_WINDOW = 5000;
+
+    private FakeClock clock;
+    private FakeScanBackend<String> backend;
+    private DeviceDiscovery<String> discovery;
+    private List<String> results;
+    private DeviceDiscovery.Callback<String> callback;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        backend = new FakeScanBackend<>(clock, "FL");
+        discovery = new DeviceDiscovery<>(backend, clock, clock);
+        results = new ArrayList<>();
+        callback = new DeviceDiscovery.Callback<String>() {
+            @Override
+            public void onFound(String device) {
+                results.add("found " + device + " at " + clock.now());
+            }
+
+            @Override
+            public void onTimeout() {
+                results.add("timeout at " + clock.now());
+            }
+
+            @Override
+            public void onFailed(int errorCode) {
+                results.add("failed " + errorCode);
+            }
+        };
+    }
+
+    @Test
+    public void reportsFirstResultImmediately() {
+        backend.appearAt = 1000;
+        discovery.start(5000, callback);
+        assertTrue(discovery.isScanning());
+
+        clock.advance(1100);
+        assertEquals("[found FL at 1100]", results.toString());
+        assertEquals(1, backend.stops);
+        assertFalse(discovery.isScanning());
+        assertEquals(1100, discovery.getLastLatency());
+
+        // the timeout is gone
+        clock.advance(10000);
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void reportsOnlyOneOfSeveralResults() {
+        discovery.start(5000, callback);
+        backend.emit("A");
+        backend.emit("B");
+        // selected on the scheduler thread, not on the one delivering results
+        assertEquals(0, backend.stops);
+        clock.runPending();
+        assertEquals("[found A at 0]", results.toString());
+        assertEquals(1, discovery.getFoundCount());
+    }
+
+    @Test
+    public void takesResultsFlushedBeforeStop() {
+        discovery.setReportDelay(1000);
+        backend.flushDelay = 40;
+        discovery.start(5000, callback);
+        // the controller still holds a closer device when the first batch arrives
+        backend.hold("A", -60);
+        backend.emit("B", -80);
+        clock.runPending();
+        // the scan runs until the flushed batch is there
+        assertTrue(results.isEmpty());
+        assertEquals(1, backend.flushes);
+        assertEquals(0, backend.stops);
+        clock.advance(40);
+        assertEquals("[found A at 40]", results.toString());
+        assertEquals(2, discovery.getWakeupCount());
+        assertEquals(1, backend.stops);
+
+        // the timeout takes them as well
+        discovery.start(300, callback);
+        backend.hold("C", -70);
+        clock.advance(340);
+        assertEquals("[found A at 40, found C at 380]", results.toString());
+        assertEquals(0, discovery.getTimeoutCount());
+    }
+
+    @Test
+    public void flushWithoutBatchEndsAfterGrace() {
+        discovery.setReportDelay(1000);
+        backend.flushDelay = 10000;
+        discovery.start(5000, callback);
+        backend.emit("B", -80);
+        clock.advance(DeviceDiscovery.FLUSH_GRACE - 1);
+        assertTrue(results.isEmpty());
+        clock.advance(1);
+        assertEquals("[found B at " + DeviceDiscovery.FLUSH_GRACE + "]", results.toString());
+        assertEquals(1, backend.stops);
+        // the late batch is dropped with the scan
+        backend.hold("A", -60);
+        clock.advance(10000);
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void stopsRightAwayWithoutReportDelay() {
+        discovery.start(5000, callback);
+        backend.emit("B", -80);
+        clock.runPending();
+        assertEquals("[found B at 0]", results.toString());
+        assertEquals(0, backend.flushes);
+        assertEquals(1, backend.stops);
+    }
+
+    @Test
+    public void skipsIgnoredDevices() {
+        discovery.setIgnoredAddresses(Collections.singleton("A"));
+        discovery.start(5000, callback);
+        backend.emit("A");
+        clock.runPending();
+        // the scan goes on
+        assertTrue(results.isEmpty());
+        assertTrue(discovery.isScanning());
+
+        backend.emit("A");
+        backend.emit("B");
+        clock.runPending();
+        assertEquals("[found B at 0]", results.toString());
+    }
+
+    @Test
+    public void timesOut() {
+        discovery.start(5000, callback);
+        clock.advance(5000);
+        assertEquals("[timeout at 5000]", results.toString());
+        assertEquals(1, backend.stops);
+        assertEquals(1, discovery.getTimeoutCount());
+    }
+
+    @Test
+    public void reportsFailure() {
+        discovery.start(5000, callback);
+        backend.fail(2);
+        clock.advance(5000);
+        assertEquals("[failed 2]", results.toString());
+    }
+
+    @Test
+    public void cancelSuppressesPendingResult() {
+        discovery.start(5000, callback);
+        // the result arrives on the binder thread, cancel wins on the service thread
+        backend.emit("A");
+        discovery.cancel();
+        clock.advance(10000);
+        assertTrue(results.isEmpty());
+        assertFalse(discovery.isScanning());
+    }
+
+    @Test
+    public void cancelStopsBackend() {
+        discovery.start(0, callback);
+        discovery.cancel();
+        assertEquals(1, backend.stops);
+        assertFalse(backend.scanning);
+        assertEquals(0, clock.pendingCount());
+    }
+
+    @Test
+    public void startCancelsRunningScan() {
+        discovery.start(5000, callback);
+        discovery.start(5000, callback);
+        clock.advance(5000);
+        assertEquals("[timeout at 5000]", results.toString());
+        assertEquals(2, backend.starts);
+    }
+
+    @Test
+    public void batchedResultsWakeUpOnce() {
+        discovery.setReportDelay(1000);
+        backend.appearAt = 0;
+        discovery.start(5000, callback);
+        assertEquals(1000, backend.reportDelay);
+        clock.advance(1000);
+        // ten advertisements, one wakeup and one device
+        assertEquals("[found FL at 1000]", results.toString());
+        assertEquals(1, discovery.getWakeupCount());
+        assertEquals(10, discovery.getReportCount());
+        assertEquals(9, discovery.getDuplicateCount());
+        assertEquals(1, discovery.getLastCandidateCount());
+        assertEquals(1000, discovery.getLatency().getMax());
+    }
+
+    @Test
+    public void picksStrongestSmoothedSignal() {
+        discovery.setReportDelay(1000);
+        discovery.start(5000, callback);
+        // A peaks once, B is steadily closer
+        backend.emitBatch(Arrays.asList(
+                new ScanReport<>("A", "A", -80),
+                new ScanReport<>("B", "B", -60),
+                new ScanReport<>("A", "A", -50),
+                new ScanReport<>("C", "C", -90),
+                new ScanReport<>("B", "B", -62)));
+        clock.runPending();
+        assertEquals("[found B at 0]", results.toString());
+        assertEquals(3, discovery.getLastCandidateCount());
+        assertEquals(2, discovery.getDuplicateCount());
+        assertEquals(1, backend.stops);
+    }
+
+    @Test
+    public void prefersKnownDevice() {
+        discovery.setKnownAddresses(Collections.singleton("A"));
+        discovery.start(5000, callback);
+        backend.emitBatch(Arrays.asList(new ScanReport<>("B", "B", -70), new ScanReport<>("A", "A", -75)));
+        clock.runPending();
+        assertEquals("[found A at 0]", results.toString());
+
+        // unless the other one is much closer
+        discovery.start(5000, callback);
+        backend.emitBatch(Arrays.asList(new ScanReport<>("B", "B", -60), new ScanReport<>("A", "A", -75)));
+        clock.runPending();
+        assertEquals("[found A at 0, found B at 0]", results.toString());
+    }
+
+    @Test
+    public void selectionWindowCollectsSeveralWakeups() {
+        discovery.setSelectionWindow(500);
+        discovery.start(5000, callback);
+        backend.emit("A", -80);
+        clock.advance(200);
+        backend.emit("B", -60);
+        clock.advance(299);
+        assertTrue(results.isEmpty());
+        clock.advance(1);
+        assertEquals("[found B at 500]", results.toString());
+        assertEquals(2, discovery.getWakeupCount());
+    }
+
+    @Test
+    public void timeoutTakesCandidatesOfOpenWindow() {
+        discovery.setSelectionWindow(500);
+        discovery.start(300, callback);
+        backend.emit("A");
+        clock.advance(300);
+        assertEquals("[found A at 300]", results.toString());
+        assertEquals(0, discovery.getTimeoutCount());
+        clock.advance(1000);
+        assertEquals(1, results.size());
+    }
+
+    // time from the device starting to advertise until the connection attempt
+    // over many random starts, sorted
+    private static long[] timesToConnect(long retryDelay, long reportDelay, long selectionWindow, long[] wakeups) {
+        final Random random = new Random(42);
+        final long[] latencies = new long[CONNECT_RUNS];
+        for (int i = 0; i < CONNECT_RUNS; i++) {
+            final FakeClock clock = new FakeClock();
+            final FakeScanBackend<String> backend = new FakeScanBackend<>(clock, "FL");
+            backend.appearAt = random.nextInt(60000);
+            // the first advertisement is seen somewhere within the advertising interval
+            backend.advertisingInterval = 20 + random.nextInt(500);
+
+            final DeviceDiscovery<String> discovery = new DeviceDiscovery<>(backend, clock, clock);
+            discovery.setReportDelay(reportDelay);
+            discovery.setSelectionWindow(selectionWindow);
+            final long[] connectingAt = {-1};
+            final ConnectionStateMachine[] machine = new ConnectionStateMachine[1];
+            final DeviceDiscovery.Callback<String> callback = new DeviceDiscovery.Callback<String>() {
+                @Override
+                public void onFound(String device) {
+                    machine[0].post(ConnectionEvent.SCAN_RESULT);
+                }
+
+                @Override
+                public void onTimeout() {
+                    machine[0].post(ConnectionEvent.SCAN_TIMEOUT);
+                }
+
+                @Override
+                public void onFailed(int errorCode) {
+                    machine[0].post(ConnectionEvent.SCAN_FAILED);
+                }
+            };
+            machine[0] = new ConnectionStateMachine(clock, clock, new ConnectionStateMachine.Actions() {
+                @Override
+                public boolean isBluetoothReady() {
+                    return true;
+                }
+
+                @Override
+                public void startScan() {
+                    discovery.start(SCAN_WINDOW, callback);
+                }
+
+                @Override
+                public void stopScan() {
+                    discovery.cancel();
+                }
+
+                @Override
+                public void disconnect() {
+                }
+            }, (from, event, to) -> {
+                if (to == ConnectionState.CONNECTING) {
+                    connectingAt[0] = clock.now();
+                }
+            });
+            machine[0].setTimeout(ConnectionState.RETRY_WAIT, retryDelay);
+
+            machine[0].post(ConnectionEvent.START);
+            while (connectingAt[0] < 0) {
+                clock.advance(10);
+            }
+            latencies[i] = connectingAt[0] - backend.appearAt;
+            wakeups[0] += discovery.getWakeupCount();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long mean(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    @Test
+    public void shorterRetryConnectsSooner() {
+        // the old blocking findDevice: 5 s scan, then 5 s RETRY_DELAY
+        final long[] blocking = timesToConnect(5000, 0, 0, new long[1]);
+        final long[] async = timesToConnect(1000, 0, 0, new long[1]);
+        assertTrue(mean(async) < mean(blocking));
+        assertTrue(percentile(async, 99) < percentile(blocking, 99));
+    }
+
+    @Test
+    public void reportDelayWakesLessOften() {
+        // each advertisement wakes the phone while the candidates are collected
+        final long[] each = new long[1];
+        timesToConnect(1000, 0, 1000, each);
+        // the controller collects them
+        final long[] batched = new long[1];
+        timesToConnect(1000, 1000, 0, batched);
+        assertTrue(batched[0] < each[0]);
+    }
+}
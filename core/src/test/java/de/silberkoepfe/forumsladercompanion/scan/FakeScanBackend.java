@@ -0,0 +1,135 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+/**
+ * Stand-in for {@code BluetoothLeScanner} on a virtual clock. The device starts
+ * advertising at {@link #appearAt} and is reported one advertising interval
+ * after that, or after the scan started if it was already advertising, and
+ * again each interval while the scan runs. With a report delay the
+ * advertisements are delivered in batches at the end of each delay. Reports
+ * {@link #hold held} by the controller are delivered {@link #flushDelay} after
+ * a flush, if the scan still runs.
+ */
+class FakeScanBackend<D> implements ScanBackend<D> {
+    static final int DEFAULT_RSSI = -70;
+
+    private final FakeClock clock;
+    private final D device;
+    long appearAt = Long.MAX_VALUE;
+    long advertisingInterval = 100;
+    int rssi = DEFAULT_RSSI;
+    long reportDelay;
+    long flushDelay;
+    int starts;
+    int flushes;
+    int stops;
+    boolean scanning;
+    private Sink<D> sink;
+    private int generation;
+    private final List<ScanReport<D>> held = new ArrayList<>();
+
+    FakeScanBackend(FakeClock clock, D device) {
+        this.clock = clock;
+        this.device = device;
+    }
+
+    @Override
+    public void startScan(long reportDelay, Sink<D> sink) {
+        this.sink = sink;
+        this.reportDelay = reportDelay;
+        starts++;
+        scanning = true;
+        final int scanGeneration = ++generation;
+        if (appearAt != Long.MAX_VALUE) {
+            final long firstAt = Math.max(clock.now(), appearAt) + advertisingInterval;
+            if (reportDelay > 0) {
+                batch(clock.now() + reportDelay, firstAt, scanGeneration);
+            } else {
+                advertise(firstAt, scanGeneration);
+            }
+        }
+    }
+
+    // each advertisement wakes up the application processor
+    private void advertise(long at, int scanGeneration) {
+        clock.schedule(() -> {
+            if (scanning && generation == scanGeneration) {
+                sink.onResults(Collections.singletonList(report()));
+                advertise(at + advertisingInterval, scanGeneration);
+            }
+        }, at - clock.now());
+    }
+
+    // the controller delivers the advertisements of each report delay at once
+    private void batch(long at, long nextAdvertisement, int scanGeneration) {
+        clock.schedule(() -> {
+            if (scanning && generation == scanGeneration) {
+                final List<ScanReport<D>> reports = new ArrayList<>();
+                long advertisement = nextAdvertisement;
+                for (; advertisement <= at; advertisement += advertisingInterval) {
+                    reports.add(report());
+                }
+                if (!reports.isEmpty()) {
+                    sink.onResults(reports);
+                }
+                batch(at + reportDelay, advertisement, scanGeneration);
+            }
+        }, at - clock.now());
+    }
+
+    private ScanReport<D> report() {
+        return new ScanReport<>(device, String.valueOf(device), rssi);
+    }
+
+    @Override
+    public boolean flush() {
+        if (reportDelay == 0) {
+            return false;
+        }
+        flushes++;
+        final int scanGeneration = generation;
+        // as on the phone, in a later wakeup
+        clock.schedule(() -> {
+            if (scanning && generation == scanGeneration) {
+                final List<ScanReport<D>> flushed = new ArrayList<>(held);
+                held.clear();
+                sink.onResults(flushed);
+            }
+        }, flushDelay);
+        return true;
+    }
+
+    @Override
+    public void stopScan() {
+        held.clear();
+        stops++;
+        scanning = false;
+        generation++;
+    }
+
+    void emit(D result) {
+        emit(result, DEFAULT_RSSI);
+    }
+
+    void emit(D result, int rssi) {
+        sink.onResults(Collections.singletonList(new ScanReport<>(result, String.valueOf(result), rssi)));
+    }
+
+    // collected by the controller, delivered by the next flush
+    void hold(D result, int rssi) {
+        held.add(new ScanReport<>(result, String.valueOf(result), rssi));
+    }
+
+    void emitBatch(List<ScanReport<D>> reports) {
+        sink.onResults(reports);
+    }
+
+    void fail(int errorCode) {
+        sink.onFailed(errorCode);
+    }
+}
@@ -0,0 +1,137 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent.*;
+import static de.silberkoepfe.forumsladercompanion.scan.FastReconnect.Path.CACHED;
+import static de.silberkoepfe.forumsladercompanion.scan.FastReconnect.Path.SCAN;
+import static org.junit.Assert.*;
+
+public class FastReconnectTest {
+    private FakeClock clock;
+    private ConnectionStateMachine machine;
+    private List<FastReconnect.Path> attempts;
+    private FastReconnect fastReconnect;
+
+    private void setup(String address) {
+        clock = new FakeClock();
+        attempts = new ArrayList<>();
+        fastReconnect = new FastReconnect(clock, address);
+        machine = new ConnectionStateMachine(clock, clock, new ConnectionStateMachine.Actions() {
+            @Override
+            public boolean isBluetoothReady() {
+                return true;
+            }
+
+            @Override
+            public void startScan() {
+                attempts.add(fastReconnect.nextPath());
+            }
+
+            @Override
+            public void stopScan() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+        }, fastReconnect::onStateChanged);
+    }
+
+    @Before
+    public void setup() {
+        setup(null);
+    }
+
+    private void fire(ConnectionEvent event) {
+        machine.post(event);
+        clock.runPending();
+    }
+
+    private void connect(long after) {
+        clock.advance(after);
+        fire(SCAN_RESULT);
+        fire(GATT_CONNECTED);
+        fire(SERVICES_DISCOVERED);
+        fire(NOTIFICATIONS_ENABLED);
+        fire(NOTIFICATION);
+    }
+
+    @Test
+    public void scansWithoutKnownDevice() {
+        fire(START);
+        connect(3000);
+        assertEquals("[SCAN]", attempts.toString());
+        assertEquals(1, fastReconnect.getTimeToData(SCAN).getCount());
+        assertEquals(3000, fastReconnect.getTimeToData(SCAN).getLast());
+    }
+
+    @Test
+    public void reconnectsDirectlyToRememberedDevice() {
+        fire(START);
+        connect(3000);
+        fastReconnect.remember("00:11:22:33:44:55");
+
+        fire(LINK_LOST);
+        clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY);
+        connect(400);
+        assertEquals("[SCAN, CACHED]", attempts.toString());
+        assertEquals(400, fastReconnect.getTimeToData(CACHED).getLast());
+        assertEquals(0, fastReconnect.getCachedMissCount());
+    }
+
+    @Test
+    public void usesAddressOfEarlierSession() {
+        setup("00:11:22:33:44:55");
+        fire(START);
+        connect(300);
+        assertEquals("[CACHED]", attempts.toString());
+        assertEquals(1, fastReconnect.getTimeToData(CACHED).getCount());
+        assertEquals(0, fastReconnect.getTimeToData(SCAN).getCount());
+    }
+
+    @Test
+    public void fallsBackToScanWhenDirectConnectFails() {
+        setup("00:11:22:33:44:55");
+        machine.setTimeout(ConnectionState.CONNECTING, 2000);
+        fire(START);
+        fire(SCAN_RESULT);
+        clock.advance(2000);
+        assertEquals(1, fastReconnect.getCachedMissCount());
+
+        // the timeout starts the next attempt after the retry delay
+        clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY);
+        connect(1000);
+        assertEquals("[CACHED, SCAN]", attempts.toString());
+        // the whole time counts for the path that made it
+        assertEquals(3000 + ConnectionStateMachine.DEFAULT_RETRY_DELAY, fastReconnect.getTimeToData(SCAN).getLast());
+        assertEquals(0, fastReconnect.getTimeToData(CACHED).getCount());
+
+        // the next reconnect tries the direct way again
+        fire(LINK_LOST);
+        clock.advance(ConnectionStateMachine.DEFAULT_RETRY_DELAY);
+        assertEquals(CACHED, attempts.get(attempts.size() - 1));
+    }
+
+    @Test
+    public void stopAbortsMeasurement() {
+        setup("00:11:22:33:44:55");
+        fire(START);
+        fire(STOP);
+        clock.advance(60000);
+        fire(START);
+        connect(500);
+        assertEquals(500, fastReconnect.getTimeToData(CACHED).getLast());
+        // stopping is no failed attempt
+        assertEquals(0, fastReconnect.getCachedMissCount());
+    }
+}
@@ -0,0 +1,153 @@
+package de.silberkoepfe.forumsladercompanion.scan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionStateMachine;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent.*;
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+    private FakeClock clock;
+    private AdaptiveScanPolicy policy;
+    private ScanScheduler scheduler;
+    private ConnectionStateMachine machine;
+    private List<String> scans;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+        policy = new AdaptiveScanPolicy(new Random(1));
+        policy.setBackoff(1000, 8000, 0);
+        scheduler = new ScanScheduler(policy, clock);
+        scans = new ArrayList<>();
+        machine = new ConnectionStateMachine(clock, clock, new ConnectionStateMachine.Actions() {
+            @Override
+            public boolean isBluetoothReady() {
+                return true;
+            }
+
+            @Override
+            public void startScan() {
+                final ScanPlan plan = scheduler.nextScan();
+                scans.add(plan.getMode() + "@" + clock.now());
+            }
+
+            @Override
+            public void stopScan() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+        }, scheduler::onStateChanged);
+        machine.setRetryDelay(scheduler);
+    }
+
+    private void fire(ConnectionEvent event) {
+        machine.post(event);
+        clock.runPending();
+    }
+
+    // scan window elapsed without result
+    private void scanTimeout() {
+        clock.advance(AdaptiveScanPolicy.DEFAULT_WINDOW);
+        fire(SCAN_TIMEOUT);
+    }
+
+    @Test
+    public void startBurstsThenBacksOff() {
+        fire(START);
+        assertEquals(1, scheduler.getResetCount());
+        // every scan that ends within the burst is followed by a short pause
+        while (clock.now() + AdaptiveScanPolicy.DEFAULT_WINDOW < AdaptiveScanPolicy.DEFAULT_BURST_DURATION) {
+            scanTimeout();
+            assertEquals(ConnectionState.RETRY_WAIT, machine.getState());
+            clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DELAY);
+        }
+        assertEquals(ScanMode.LOW_LATENCY + "@0", scans.get(0));
+        assertTrue(scheduler.getScanCount(ScanMode.LOW_LATENCY) >= 5);
+        assertEquals(0, scheduler.getScanCount(ScanMode.BALANCED));
+
+        // retries after 1, 2, 4, 8, 8 s
+        final long[] delays = {1000, 2000, 4000, 8000, 8000};
+        for (long delay : delays) {
+            scanTimeout();
+            final int before = scans.size();
+            clock.advance(delay - 1);
+            assertEquals(before, scans.size());
+            clock.advance(1);
+            assertEquals(before + 1, scans.size());
+        }
+        assertTrue(scans.get(scans.size() - 1).startsWith(ScanMode.LOW_POWER.name()));
+        assertEquals(1, scheduler.getResetCount());
+    }
+
+    @Test
+    public void lostConnectionStartsNewBurst() {
+        fire(START);
+        clock.advance(60000);
+        fire(SCAN_RESULT);
+        fire(GATT_CONNECTED);
+        fire(SERVICES_DISCOVERED);
+        fire(NOTIFICATIONS_ENABLED);
+        fire(NOTIFICATION);
+        clock.advance(600000);
+        scans.clear();
+
+        fire(LINK_LOST);
+        assertEquals(2, scheduler.getResetCount());
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DELAY);
+        assertEquals("[LOW_LATENCY@660500]", scans.toString());
+    }
+
+    @Test
+    public void droppedConnectsBackOff() {
+        fire(START);
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        scans.clear();
+        // the device accepts the connection and drops it before sending
+        final long[] delays = {1000, 2000, 4000, 8000};
+        for (long delay : delays) {
+            fire(SCAN_RESULT);
+            fire(GATT_CONNECTED);
+            fire(GATT_DISCONNECTED);
+            assertEquals(ConnectionState.RETRY_WAIT, machine.getState());
+            final int before = scans.size();
+            clock.advance(delay - 1);
+            assertEquals(before, scans.size());
+            clock.advance(1);
+            assertEquals(before + 1, scans.size());
+        }
+        assertEquals(1, scheduler.getResetCount());
+    }
+
+    @Test
+    public void adapterOnStartsNewBurst() {
+        fire(START);
+        clock.advance(60000);
+        fire(ADAPTER_OFF);
+        clock.advance(60000);
+        scans.clear();
+        fire(ADAPTER_ON);
+        assertEquals("[LOW_LATENCY@120000]", scans.toString());
+    }
+
+    @Test
+    public void retryAfterDelayIsNoReset() {
+        fire(START);
+        clock.advance(AdaptiveScanPolicy.DEFAULT_BURST_DURATION);
+        scanTimeout();
+        clock.advance(1000);
+        assertEquals(ConnectionState.SCANNING, machine.getState());
+        assertEquals(1, scheduler.getResetCount());
+    }
+}
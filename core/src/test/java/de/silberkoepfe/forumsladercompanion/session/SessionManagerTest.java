@@ -0,0 +1,208 @@
+package de.silberkoepfe.forumsladercompanion.session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.FLDevice;
+import de.silberkoepfe.forumsladercompanion.FLScannerSimImpl;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionEvent;
+import de.silberkoepfe.forumsladercompanion.connection.ConnectionState;
+import de.silberkoepfe.forumsladercompanion.protocol.Captures;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.sim.Recording;
+import de.silberkoepfe.forumsladercompanion.sim.Replayer;
+import de.silberkoepfe.forumsladercompanion.sim.Simulation;
+import de.silberkoepfe.forumsladercompanion.storage.Durability;
+import de.silberkoepfe.forumsladercompanion.storage.JournalReader;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+import de.silberkoepfe.forumsladercompanion.util.ThreadScheduler;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerTest {
+    private static final Clock CLOCK = System::currentTimeMillis;
+    // records in the FL5 capture
+    private static final int RECORDS = 36;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ThreadScheduler scheduler = new ThreadScheduler("SessionManagerTest");
+    private final List<String> changes = Collections.synchronizedList(new ArrayList<>());
+    private List<Simulation> simulations;
+    private SessionManager manager;
+    private FLScannerSimImpl scanner;
+
+    @Before
+    public void setup() throws IOException {
+        simulations = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            final Simulation simulation = new Simulation(Recording.read(new InputStreamReader(
+                    Captures.class.getResourceAsStream(Captures.FL5_SESSION), StandardCharsets.US_ASCII)));
+            simulation.setSpeed(Simulation.MAX_SPEED);
+            simulation.setAddress("02:46:4C:00:00:0" + i);
+            simulations.add(simulation);
+        }
+        manager = new SessionManager(CLOCK, CLOCK, scheduler, folder.getRoot(), Durability.BATTERY);
+        manager.setListener((session, from, event, to) -> changes.add(session.getAddress() + " " + to));
+        scanner = new FLScannerSimImpl(simulations, scheduler, CLOCK, manager);
+        manager.setScanner(scanner);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        manager.closeAll();
+        scheduler.stop(1000);
+    }
+
+    // waits until each device has replayed its recording, then closes the sessions
+    private void awaitEnd() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        for (Simulation simulation : simulations) {
+            final Replayer replayer = scanner.getReplayer(simulation.getAddress());
+            while (replayer.getPosition() < simulation.getRecording().size()) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            assertTrue(replayer.awaitIdle(5000));
+        }
+        // the decode threads may still be busy with the last packets
+        for (DeviceSession session : manager.getSessions()) {
+            while (session.getState() != ConnectionState.RECEIVING) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+        manager.closeAll();
+        final CountDownLatch closed = new CountDownLatch(1);
+        scheduler.schedule(closed::countDown, 0);
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    private long readJournal(String address) throws IOException {
+        final long[] count = {0};
+        new JournalReader(manager.journalDirectory(address)).read(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                count[0]++;
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    @Test
+    public void streamsFromSeveralDevicesAtOnce() throws Exception {
+        final List<DeviceSession> sessions = new ArrayList<>();
+        for (Simulation simulation : simulations) {
+            sessions.add(manager.open(simulation.getAddress()));
+        }
+        assertSame(sessions.get(0), manager.open(simulations.get(0).getAddress()));
+        awaitEnd();
+
+        for (DeviceSession session : sessions) {
+            assertEquals(RECORDS, session.getRecordCount());
+            assertEquals(1, session.getConnectCount());
+            assertEquals(ConnectionState.STOPPED, session.getState());
+            assertTrue(changes.contains(session.getAddress() + " " + ConnectionState.RECEIVING));
+            // each device has a journal of its own
+            assertEquals(RECORDS, readJournal(session.getAddress()));
+        }
+        assertTrue(manager.getSessions().isEmpty());
+        // discovery and subscription of all devices went through the shared stack
+        assertEquals(6, scanner.getArbiter().getGrantCount());
+        assertEquals(0, scanner.getArbiter().getInFlight());
+    }
+
+    @Test
+    public void reconnectsOneDeviceWithoutDisturbingTheOthers() throws Exception {
+        final Simulation flaky = simulations.get(1);
+        flaky.setDisconnectRate(0.1);
+        flaky.setSeed(5);
+        manager.setRetryDelay(10);
+        for (Simulation simulation : simulations) {
+            manager.open(simulation.getAddress());
+        }
+        final DeviceSession first = manager.getSession(simulations.get(0).getAddress());
+        final DeviceSession second = manager.getSession(flaky.getAddress());
+        final DeviceSession third = manager.getSession(simulations.get(2).getAddress());
+        awaitEnd();
+
+        final long disconnects = scanner.getReplayer(flaky.getAddress()).getDisconnectCount();
+        assertTrue(disconnects > 0);
+        assertEquals(disconnects + 1, second.getConnectCount());
+        // sentences cut by a disconnect are lost, the others come through
+        assertTrue(second.getRecordCount() > RECORDS - 2 * disconnects);
+        assertTrue(second.getRecordCount() <= RECORDS);
+        assertEquals(second.getRecordCount(), readJournal(flaky.getAddress()));
+
+        assertEquals(1, first.getConnectCount());
+        assertEquals(RECORDS, first.getRecordCount());
+        assertEquals(1, third.getConnectCount());
+        assertEquals(RECORDS, third.getRecordCount());
+    }
+
+    @Test
+    public void closeBeforeHandoverLeavesNothingConnected() throws IOException {
+        final FakeClock clock = new FakeClock();
+        final SessionManager fake = new SessionManager(clock, clock, clock, folder.newFolder(), Durability.BATTERY);
+        final FLScannerSimImpl simScanner = new FLScannerSimImpl(simulations, clock, clock, fake);
+        fake.setScanner(simScanner);
+        final String address = simulations.get(0).getAddress();
+        final DeviceSession session = fake.open(address);
+        // the stop is handled after the connect was started, before its handover
+        fake.close(address);
+        clock.advance(10000);
+
+        assertEquals(ConnectionState.STOPPED, session.getState());
+        assertEquals(0, session.getConnectCount());
+        assertFalse(simScanner.getReplayer(address).isConnected());
+    }
+
+    @Test
+    public void wallClockOnlyTimesTheRecords() throws IOException {
+        final FakeClock clock = new FakeClock();
+        final long[] wall = {1546300800000L};
+        final SessionManager fake = new SessionManager(clock, () -> wall[0], clock, null, Durability.BATTERY);
+        fake.setScanner(new FLScannerSimImpl(simulations, clock, clock, fake));
+        // none of the simulations, it never connects
+        final DeviceSession session = fake.open("02:46:4C:00:00:09");
+        clock.runPending();
+        assertEquals(ConnectionState.CONNECTING, session.getState());
+        // the wall clock is set back an hour
+        wall[0] -= 3600000;
+
+        assertEquals(0, session.getStateMachine().getTimeInState());
+        session.onDataRecord(new FLDataRecord().set(wall[0] - 50, 0, 3, 55, 4000, 4100, 4200, -150, 300));
+        assertEquals(50, session.getLatency().getMax());
+        fake.closeAll();
+    }
+
+    @Test
+    public void deviceWithoutSessionIsIgnored() throws Exception {
+        final FLDevice.Listener listener = manager.forDevice("00:11:22:33:44:55");
+        listener.onConnectionEvent(ConnectionEvent.GATT_CONNECTED);
+        listener.onDataRecord(new FLDataRecord());
+        assertTrue(manager.getSessions().isEmpty());
+        assertEquals(0, manager.getRecordCount());
+    }
+}
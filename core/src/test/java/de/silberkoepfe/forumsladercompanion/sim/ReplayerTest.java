@@ -0,0 +1,318 @@
+package de.silberkoepfe.forumsladercompanion.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.pipeline.DecodePipeline;
+import de.silberkoepfe.forumsladercompanion.protocol.Captures;
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.protocol.FLSentenceParser;
+
+import static org.junit.Assert.*;
+
+public class ReplayerTest {
+    private static final long START = 1539000000000L;
+
+    private Recording recording;
+    private final List<byte[]> packets = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+    private int disconnects;
+
+    private final Replayer.Sink sink = new Replayer.Sink() {
+        @Override
+        public boolean onNotification(byte[] data, long timestamp) {
+            packets.add(data);
+            timestamps.add(timestamp);
+            return true;
+        }
+
+        @Override
+        public void onDisconnected() {
+            disconnects++;
+        }
+    };
+
+    @Before
+    public void setup() throws IOException {
+        recording = Recording.read(new InputStreamReader(
+                Captures.class.getResourceAsStream(Captures.FL5_SESSION), StandardCharsets.US_ASCII));
+    }
+
+    private Simulation maxSpeed() {
+        final Simulation simulation = new Simulation(recording);
+        simulation.setSpeed(Simulation.MAX_SPEED);
+        return simulation;
+    }
+
+    private static void replay(Replayer replayer, Replayer.Sink sink) throws InterruptedException {
+        replayer.connect(sink);
+        assertTrue(replayer.awaitIdle(5000));
+    }
+
+    private int parse(List<byte[]> packets, FLSentenceParser parser) {
+        for (int i = 0; i < packets.size(); i++) {
+            parser.feed(packets.get(i), timestamps.get(i));
+        }
+        return (int) parser.getRecordCount();
+    }
+
+    private static FLSentenceParser parser(List<String> records) {
+        return new FLSentenceParser(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                records.add(record.toString());
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                records.add(record.toString());
+            }
+        });
+    }
+
+    @Test
+    public void readsCapturesAndRoundTrips() throws IOException {
+        final List<byte[]> capture = Captures.load(Captures.FL5_SESSION);
+        assertEquals(capture.size(), recording.size());
+        assertEquals((capture.size() - 1) * Recording.DEFAULT_INTERVAL, recording.getDuration());
+        assertArrayEquals(capture.get(3), recording.getPacket(3));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recording.write(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
+        final Recording copy = Recording.read(new StringReader(out.toString("US-ASCII")));
+        assertEquals(recording.size(), copy.size());
+        for (int i = 0; i < recording.size(); i++) {
+            assertEquals(recording.getOffset(i), copy.getOffset(i));
+            assertArrayEquals(recording.getPacket(i), copy.getPacket(i));
+        }
+
+        try {
+            Recording.read(new StringReader("0 2446\n100 24X6\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 2"));
+        }
+    }
+
+    @Test
+    public void recordsFromDecodePipeline() throws IOException {
+        final StringWriter out = new StringWriter();
+        final RecordingWriter writer = new RecordingWriter(out, Long.MAX_VALUE);
+        final DecodePipeline pipeline = new DecodePipeline("test", timestamp -> { });
+        pipeline.setPacketRecorder(writer);
+        pipeline.start();
+        for (int i = 0; i < recording.size(); i++) {
+            while (!pipeline.submit(recording.getPacket(i), START + recording.getOffset(i))) {
+                Thread.yield();
+            }
+        }
+        pipeline.stop();
+        writer.close();
+
+        final Recording copy = Recording.read(new StringReader(out.toString()));
+        assertEquals(recording.size(), copy.size());
+        for (int i = 0; i < recording.size(); i++) {
+            assertEquals(recording.getOffset(i), copy.getOffset(i));
+            assertArrayEquals(recording.getPacket(i), copy.getPacket(i));
+        }
+        assertEquals(out.toString().length(), writer.getSize());
+        assertEquals(0, writer.getDroppedCount());
+    }
+
+    @Test
+    public void recordingStopsAtMaxSize() throws IOException {
+        final StringWriter out = new StringWriter();
+        final RecordingWriter writer = new RecordingWriter(out, 23);
+        final byte[] packet = {0x24, 0x46};
+        writer.onPacket(packet, 2, START);
+        writer.onPacket(packet, 2, START + 300);
+        // an earlier time keeps the offset
+        writer.onPacket(packet, 1, START + 200);
+        // the fourth line does not fit any more
+        writer.onPacket(packet, 2, START + 600);
+        writer.close();
+
+        assertEquals("0 2446\n300 2446\n300 24\n", out.toString());
+        assertEquals(3, writer.getWrittenCount());
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void replaysInOrderWithRecordedTimes() throws Exception {
+        final Replayer replayer = new Replayer(maxSpeed(), () -> START);
+        replay(replayer, sink);
+
+        assertEquals(recording.size(), packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertArrayEquals(recording.getPacket(i), packets.get(i));
+            assertEquals(START + recording.getOffset(i), (long) timestamps.get(i));
+        }
+        assertFalse(replayer.isConnected());
+        assertEquals(recording.size(), replayer.getPosition());
+        assertEquals(36, parse(packets, parser(new ArrayList<>())));
+    }
+
+    @Test
+    public void loopsWithIncreasingTimes() throws Exception {
+        final Simulation simulation = maxSpeed();
+        simulation.setLoop(true);
+        final Replayer replayer = new Replayer(simulation, () -> START);
+        final int laps = 3;
+        replayer.connect(new Replayer.Sink() {
+            @Override
+            public boolean onNotification(byte[] data, long timestamp) {
+                sink.onNotification(data, timestamp);
+                if (packets.size() == laps * recording.size()) {
+                    replayer.disconnect();
+                }
+                return true;
+            }
+
+            @Override
+            public void onDisconnected() {
+            }
+        });
+        assertTrue(replayer.awaitIdle(5000));
+
+        assertEquals(laps * recording.size(), packets.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) > timestamps.get(i - 1));
+        }
+        assertEquals(laps * 36, parse(packets, parser(new ArrayList<>())));
+    }
+
+    @Test
+    public void fragmentsKeepTheBytes() throws Exception {
+        final Simulation simulation = maxSpeed();
+        simulation.setFragmentRate(0.5);
+        simulation.setSeed(7);
+        final Replayer replayer = new Replayer(simulation, () -> START);
+        replay(replayer, sink);
+
+        assertTrue(replayer.getFragmentCount() > 0);
+        assertEquals(recording.size() + replayer.getFragmentCount(), packets.size());
+        assertEquals(packets.size(), replayer.getNotificationCount());
+        final List<byte[]> recorded = new ArrayList<>();
+        for (int i = 0; i < recording.size(); i++) {
+            recorded.add(recording.getPacket(i));
+        }
+        assertArrayEquals(Captures.concat(recorded), Captures.concat(packets));
+
+        final List<String> expected = new ArrayList<>();
+        final List<String> records = new ArrayList<>();
+        final FLSentenceParser reference = parser(expected);
+        for (int i = 0; i < recording.size(); i++) {
+            reference.feed(recording.getPacket(i), START + recording.getOffset(i));
+        }
+        parse(packets, parser(records));
+        assertEquals(expected.size(), records.size());
+    }
+
+    @Test
+    public void corruptsChecksums() throws Exception {
+        final Simulation simulation = maxSpeed();
+        simulation.setCorruptRate(1);
+        final Replayer replayer = new Replayer(simulation, () -> START);
+        replay(replayer, sink);
+
+        assertEquals(recording.size(), replayer.getCorruptCount());
+        final FLSentenceParser parser = parser(new ArrayList<>());
+        parse(packets, parser);
+        assertEquals(0, parser.getRecordCount());
+        assertTrue(parser.getChecksumErrorCount() + parser.getMalformedCount() >= 30);
+        // the recording itself is untouched
+        final FLSentenceParser clean = parser(new ArrayList<>());
+        for (int i = 0; i < recording.size(); i++) {
+            clean.feed(recording.getPacket(i), START);
+        }
+        assertEquals(36, clean.getRecordCount());
+    }
+
+    @Test
+    public void disconnectsAndResumes() throws Exception {
+        final Simulation simulation = maxSpeed();
+        simulation.setDisconnectRate(0.2);
+        simulation.setSeed(3);
+        final long[] now = {START};
+        final Replayer replayer = new Replayer(simulation, () -> now[0]);
+        int connections = 0;
+        while (replayer.getPosition() < recording.size()) {
+            replay(replayer, sink);
+            connections++;
+            // a minute without link
+            now[0] += 60000;
+        }
+        assertTrue(connections > 1);
+        assertEquals(connections - 1, disconnects);
+        assertEquals(disconnects, replayer.getDisconnectCount());
+        // nothing lost or repeated, the time moved on while disconnected
+        assertEquals(recording.size(), packets.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) > timestamps.get(i - 1));
+        }
+        assertTrue(timestamps.get(timestamps.size() - 1) - START >= recording.getDuration() + 60000);
+    }
+
+    @Test
+    public void sameSeedSameFaults() throws Exception {
+        final Simulation simulation = maxSpeed();
+        simulation.setFragmentRate(0.3);
+        simulation.setCorruptRate(0.1);
+        simulation.setSeed(11);
+        replay(new Replayer(simulation, () -> START), sink);
+        final byte[] first = Captures.concat(packets);
+        final int count = packets.size();
+        packets.clear();
+        timestamps.clear();
+        replay(new Replayer(simulation, () -> START), sink);
+        assertEquals(count, packets.size());
+        assertArrayEquals(first, Captures.concat(packets));
+    }
+
+    @Test
+    public void keepsThePace() throws Exception {
+        final Simulation simulation = new Simulation(recording);
+        // the 8.7 s of the capture in about 290 ms
+        simulation.setSpeed(30);
+        final Replayer replayer = new Replayer(simulation, () -> START);
+        final long begin = System.nanoTime();
+        replay(replayer, sink);
+        final long millis = (System.nanoTime() - begin) / 1000000;
+        final long expected = recording.getDuration() / 30;
+        assertTrue("took " + millis + " ms", millis >= expected - 5 && millis < expected + 2000);
+        assertEquals(recording.size(), packets.size());
+
+        // a full sink loses the notifications at a paced speed
+        final Replayer dropping = new Replayer(fastPaced(simulation), () -> START);
+        replay(dropping, new Replayer.Sink() {
+            @Override
+            public boolean onNotification(byte[] data, long timestamp) {
+                return false;
+            }
+
+            @Override
+            public void onDisconnected() {
+            }
+        });
+        assertEquals(recording.size(), dropping.getDroppedCount());
+        assertEquals(0, dropping.getNotificationCount());
+    }
+
+    private static Simulation fastPaced(Simulation paced) {
+        final Simulation simulation = new Simulation(paced.getRecording());
+        simulation.setSpeed(1000);
+        return simulation;
+    }
+}
@@ -0,0 +1,113 @@
+package de.silberkoepfe.forumsladercompanion.status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class StatusPublisherTest {
+    private enum State { IDLE, SCANNING, CONNECTED, RECEIVING }
+
+    private FakeClock clock;
+    private StatusPublisher<State> publisher;
+    private List<State> received;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock(1000);
+        publisher = new StatusPublisher<>(clock, clock, 100, State.IDLE);
+        received = new ArrayList<>();
+        publisher.addListener(received::add);
+        received.clear();
+    }
+
+    @Test
+    public void addListenerReportsCurrentStatus() {
+        final List<State> late = new ArrayList<>();
+        publisher.addListener(late::add);
+        assertEquals(1, late.size());
+        assertEquals(State.IDLE, late.get(0));
+    }
+
+    @Test
+    public void firstChangeIsDeliveredWithoutDelay() {
+        assertTrue(publisher.publish(State.SCANNING));
+        clock.runPending();
+        assertEquals(1, received.size());
+        assertEquals(State.SCANNING, received.get(0));
+    }
+
+    @Test
+    public void suppressesUnchangedStatus() {
+        publisher.publish(State.RECEIVING);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(publisher.publish(State.RECEIVING));
+            clock.advance(10);
+        }
+        assertEquals(1, received.size());
+        assertEquals(1, publisher.getPublishedCount());
+        assertEquals(1000, publisher.getSuppressedCount());
+        assertEquals(0, clock.pendingCount());
+    }
+
+    @Test
+    public void coalescesChangesWithinFrameBudget() {
+        publisher.publish(State.SCANNING);
+        clock.runPending();
+
+        clock.advance(20);
+        publisher.publish(State.CONNECTED);
+        clock.advance(20);
+        publisher.publish(State.RECEIVING);
+        clock.advance(50);
+        assertEquals(1, received.size());
+
+        // delivered 100 ms after the previous notification
+        clock.advance(10);
+        assertEquals(2, received.size());
+        assertEquals(State.RECEIVING, received.get(1));
+        assertEquals(2, publisher.getDeliveredCount());
+    }
+
+    @Test
+    public void skipsStatusThatChangedBackWithinFrame() {
+        publisher.publish(State.SCANNING);
+        clock.runPending();
+
+        publisher.publish(State.CONNECTED);
+        publisher.publish(State.SCANNING);
+        clock.advance(200);
+
+        assertEquals(1, received.size());
+        assertEquals(State.SCANNING, publisher.getStatus());
+    }
+
+    @Test
+    public void frameBudgetIsConfigurable() {
+        publisher.setFrameBudget(1000);
+        publisher.publish(State.SCANNING);
+        clock.runPending();
+        publisher.publish(State.CONNECTED);
+        clock.advance(999);
+        assertEquals(1, received.size());
+        clock.advance(1);
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void removedListenerIsNotNotified() {
+        final List<State> other = new ArrayList<>();
+        final StatusPublisher.Listener<State> listener = other::add;
+        publisher.addListener(listener);
+        publisher.removeListener(listener);
+        publisher.publish(State.CONNECTED);
+        clock.runPending();
+        assertEquals(1, other.size());
+        assertEquals(1, received.size());
+    }
+}
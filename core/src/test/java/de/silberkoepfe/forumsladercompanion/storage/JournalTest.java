@@ -0,0 +1,276 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private static final long START = 1539000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private final FLDataRecord data = new FLDataRecord();
+    private final FLBaroRecord baro = new FLBaroRecord();
+
+    @Before
+    public void setup() {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    // one data record a second and a baro record every tenth second
+    private void write(FLRecordListener writer, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            final long t = START + i * 1000L;
+            writer.onDataRecord(data.set(t, 0x20, 3, 120 + i % 7, 4100 - i / 100, 4101 - i / 100, 4099 - i / 100,
+                    -300 + i % 50, 250));
+            if (i % 10 == 0) {
+                writer.onBaroRecord(baro.set(t, 215 - i % 3, 101325 - i, 350 + i / 10));
+            }
+        }
+    }
+
+    private List<String> readAll(JournalReader reader) throws IOException {
+        final List<String> records = new ArrayList<>();
+        reader.read(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                records.add(record.toString());
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                records.add(record.toString());
+            }
+        });
+        return records;
+    }
+
+    private List<String> expected(int seconds) {
+        final List<String> records = new ArrayList<>();
+        write(new RecordCollector(records), seconds);
+        return records;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            write(writer, 600);
+        }
+        final List<String> records = readAll(new JournalReader(directory));
+        assertEquals(660, records.size());
+        assertEquals(expected(600), records);
+    }
+
+    @Test
+    public void codecKeepsExtremeValues() {
+        final JournalCodec codec = new JournalCodec();
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * JournalCodec.MAX_RECORD_SIZE);
+        codec.reset(0);
+        codec.encode(data.set(Long.MAX_VALUE, Integer.MIN_VALUE, -1, Integer.MAX_VALUE, 0, -4200, 1, -1, 0), buffer);
+        codec.encode(data.set(-5, Integer.MAX_VALUE, 0, Integer.MIN_VALUE, 7, 0, 0, 0, Integer.MIN_VALUE), buffer);
+        codec.encode(baro.set(Long.MIN_VALUE, -400, 0, -20), buffer);
+        assertTrue(buffer.position() <= 3 * JournalCodec.MAX_RECORD_SIZE);
+        buffer.flip();
+
+        final FLDataRecord decoded = new FLDataRecord();
+        final FLBaroRecord decodedBaro = new FLBaroRecord();
+        codec.reset(0);
+        assertEquals(JournalCodec.TAG_DATA, codec.decode(buffer, decoded, decodedBaro));
+        assertEquals(new FLDataRecord().set(Long.MAX_VALUE, Integer.MIN_VALUE, -1, Integer.MAX_VALUE, 0, -4200, 1, -1,
+                0).toString(), decoded.toString());
+        assertEquals(Long.MAX_VALUE, decoded.getTimestamp());
+        assertEquals(JournalCodec.TAG_DATA, codec.decode(buffer, decoded, decodedBaro));
+        assertEquals(-5, decoded.getTimestamp());
+        assertEquals(Integer.MIN_VALUE, decoded.getLoadCurrent());
+        assertEquals(JournalCodec.TAG_BARO, codec.decode(buffer, decoded, decodedBaro));
+        assertEquals(Long.MIN_VALUE, decodedBaro.getTimestamp());
+        assertEquals(-400, decodedBaro.getTemperature());
+        assertEquals(JournalCodec.END, codec.decode(buffer, decoded, decodedBaro));
+    }
+
+    @Test
+    public void codecRejectsCutOffRecord() {
+        final JournalCodec codec = new JournalCodec();
+        final ByteBuffer buffer = ByteBuffer.allocate(JournalCodec.MAX_RECORD_SIZE);
+        codec.encode(data.set(START, 1, 2, 3, 4000, 4000, 4000, 100, 200), buffer);
+        final int length = buffer.position();
+        buffer.flip();
+        buffer.limit(length - 1);
+
+        codec.reset(0);
+        assertEquals(JournalCodec.CORRUPT, codec.decode(buffer, new FLDataRecord(), new FLBaroRecord()));
+        assertEquals(0, buffer.position());
+
+        // a flipped bit fails the check byte
+        buffer.limit(length);
+        buffer.put(3, (byte) (buffer.get(3) ^ 0x04));
+        codec.reset(0);
+        assertEquals(JournalCodec.CORRUPT, codec.decode(buffer, new FLDataRecord(), new FLBaroRecord()));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void compactEnoughForLongTours() throws IOException {
+        final JournalWriter writer = new JournalWriter(directory);
+        write(writer, 3600);
+        writer.close();
+        final long bytes = writer.getBytesWritten();
+        final double perRecord = (double) bytes / writer.getRecordCount();
+        // ten days of 10 hours riding at 1 Hz stay below 10 MB
+        assertTrue("bytes per record " + perRecord, perRecord < 20);
+        assertTrue(bytes * 10 * 10 < 10 << 20);
+    }
+
+    @Test
+    public void rotatesSegments() throws IOException {
+        final JournalWriter writer = new JournalWriter(directory, 4096);
+        write(writer, 2000);
+        writer.close();
+        assertTrue(writer.getSegmentCount() > 1);
+
+        final JournalReader reader = new JournalReader(directory);
+        final List<File> segments = reader.getSegments();
+        assertEquals(writer.getSegmentCount(), segments.size());
+        long total = 0;
+        for (File segment : segments) {
+            assertTrue(segment.length() <= 4096);
+            total += segment.length();
+        }
+        assertEquals(writer.getBytesWritten(), total);
+        assertEquals(expected(2000), readAll(reader));
+        assertEquals(0, reader.getDamagedCount());
+    }
+
+    @Test
+    public void survivesWriterThatWasNeverClosed() throws IOException {
+        final JournalWriter writer = new JournalWriter(directory);
+        write(writer, 100);
+        // the process dies here
+
+        final JournalReader reader = new JournalReader(directory);
+        assertEquals(expected(100), readAll(reader));
+        assertEquals(0, reader.getDamagedCount());
+    }
+
+    @Test
+    public void ignoresBytesPastCommittedLength() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            write(writer, 100);
+        }
+        final File segment = new JournalReader(directory).getSegments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // a stale tail that decodes to valid records
+            final byte[] records = new byte[(int) file.length() - Segment.HEADER_SIZE];
+            file.seek(Segment.HEADER_SIZE);
+            file.readFully(records);
+            file.write(records);
+        }
+
+        final JournalReader reader = new JournalReader(directory);
+        assertEquals(expected(100), readAll(reader));
+        assertEquals(0, reader.getDamagedCount());
+    }
+
+    @Test
+    public void stopsAtRecordsLostBeforeCommittedLength() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            write(writer, 100);
+        }
+        final File segment = new JournalReader(directory).getSegments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // the header reached the storage, the last page of records did not
+            final long length = file.length();
+            file.seek(length / 2);
+            file.write(new byte[(int) (length - length / 2)]);
+        }
+
+        final JournalReader reader = new JournalReader(directory);
+        final List<String> records = readAll(reader);
+        assertTrue(records.size() < expected(100).size());
+        assertEquals(expected(100).subList(0, records.size()), records);
+        assertEquals(1, reader.getDamagedCount());
+    }
+
+    @Test
+    public void skipsSegmentWithDamagedHeader() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, 4096)) {
+            write(writer, 1000);
+        }
+        final JournalReader reader = new JournalReader(directory);
+        final List<File> segments = reader.getSegments();
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(0), "rw")) {
+            file.seek(17);
+            file.write(0x55);
+        }
+        final List<String> records = readAll(reader);
+        assertEquals(1, reader.getDamagedCount());
+        final List<String> all = expected(1000);
+        assertEquals(all.subList(all.size() - records.size(), all.size()), records);
+    }
+
+    @Test
+    public void newWriterContinuesSequence() throws IOException {
+        final JournalWriter crashed = new JournalWriter(directory, 4096);
+        write(crashed, 1000);
+        final long segments = crashed.getSegmentCount();
+
+        try (JournalWriter writer = new JournalWriter(directory, 4096)) {
+            write(writer, 10);
+        }
+        final List<File> files = new JournalReader(directory).getSegments();
+        assertEquals(segments + 1, files.size());
+        assertEquals(segments + 1, Segment.sequenceOf(files.get(files.size() - 1)));
+
+        final List<String> records = readAll(new JournalReader(directory));
+        final List<String> expected = expected(1000);
+        expected.addAll(expected(10));
+        assertEquals(expected, records);
+    }
+
+    @Test
+    public void directoryMustBeDirectory() throws IOException {
+        final File file = new File(folder.getRoot(), "file");
+        assertTrue(file.createNewFile());
+        try {
+            new JournalWriter(file);
+            fail();
+        } catch (IOException e) {
+            // not a directory
+        }
+    }
+
+    // collects the records the way the reader reports them
+    private static class RecordCollector implements FLRecordListener {
+        private final List<String> records;
+
+        RecordCollector(List<String> records) {
+            this.records = records;
+        }
+
+        @Override
+        public void onDataRecord(FLDataRecord record) {
+            records.add(record.toString());
+        }
+
+        @Override
+        public void onBaroRecord(FLBaroRecord record) {
+            records.add(record.toString());
+        }
+    }
+}
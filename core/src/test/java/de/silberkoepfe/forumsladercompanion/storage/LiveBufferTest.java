@@ -0,0 +1,156 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+import static org.junit.Assert.*;
+
+public class LiveBufferTest {
+    @Test
+    public void readsOldestFirst() {
+        final LiveBuffer buffer = new LiveBuffer(4);
+        assertTrue(Float.isNaN(buffer.last()));
+        final long[] times = new long[10];
+        final float[] values = new float[10];
+        assertEquals(0, buffer.read(0, times, values));
+
+        buffer.add(1000, 1.5f);
+        buffer.add(2000, 2.5f);
+        assertEquals(2, buffer.read(0, times, values));
+        assertEquals(1000, times[0]);
+        assertEquals(2.5f, values[1], 0);
+        assertEquals(2.5f, buffer.last(), 0);
+    }
+
+    @Test
+    public void keepsNewestWhenFull() {
+        final LiveBuffer buffer = new LiveBuffer(4);
+        for (int i = 1; i <= 10; i++) {
+            buffer.add(i * 1000, i);
+        }
+        assertEquals(10, buffer.getCount());
+        final long[] times = new long[10];
+        final float[] values = new float[10];
+        assertEquals(4, buffer.read(0, times, values));
+        assertEquals(7000, times[0]);
+        assertEquals(10, values[3], 0);
+
+        // smaller arrays get the newest samples
+        final long[] two = new long[2];
+        assertEquals(2, buffer.read(0, two, new float[2]));
+        assertEquals(9000, two[0]);
+        assertEquals(10000, two[1]);
+    }
+
+    @Test
+    public void readsSince() {
+        final LiveBuffer buffer = new LiveBuffer(100);
+        for (int i = 0; i < 60; i++) {
+            buffer.add(i * 1000, i);
+        }
+        final long[] times = new long[100];
+        final float[] values = new float[100];
+        assertEquals(10, buffer.read(50000, times, values));
+        assertEquals(50000, times[0]);
+        assertEquals(59, values[9], 0);
+        assertEquals(0, buffer.read(60001, times, values));
+    }
+
+    @Test
+    public void splitsRecordsIntoChannels() {
+        final LiveTelemetry live = new LiveTelemetry(10);
+        live.onDataRecord(new FLDataRecord().set(1000, 0, 3, 55, 4000, 4100, 4200, -150, 300));
+        assertEquals(12300, live.get(Channel.BATTERY_VOLTAGE).last(), 0);
+        assertEquals(-150, live.get(Channel.BATTERY_CURRENT).last(), 0);
+        assertEquals(300, live.get(Channel.LOAD_CURRENT).last(), 0);
+        assertEquals(55, live.get(Channel.DYNAMO_FREQUENCY).last(), 0);
+        assertEquals(0, live.get(Channel.TEMPERATURE).getCount());
+    }
+
+    @Test
+    public void readersNeverSeeTornSamples() throws InterruptedException {
+        final LiveBuffer buffer = new LiveBuffer(64);
+        final long samples = 2000000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                final long[] times = new long[64];
+                final float[] values = new float[64];
+                while (buffer.getCount() < samples && failure.get() == null) {
+                    final int n = buffer.read(0, times, values);
+                    for (int i = 0; i < n; i++) {
+                        // the value belongs to the time, times are consecutive
+                        if (values[i] != (float) (times[i] % 1000)
+                                || i > 0 && times[i] != times[i - 1] + 1) {
+                            failure.set(i + ": " + times[i] + "=" + values[i]);
+                            return;
+                        }
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (long t = 0; t < samples; t++) {
+            buffer.add(t, t % 1000);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    // java.lang.management is not part of the Android API the tests compile against
+    private static Object threadBean() {
+        try {
+            return Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // the live view reads the buffers every frame for as long as the ride lasts
+    @Test
+    public void noAllocationInSteadyState() throws ReflectiveOperationException {
+        final Object threads = threadBean();
+        Assume.assumeNotNull(threads);
+        final Method allocatedBytes;
+        try {
+            allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        final long id = Thread.currentThread().getId();
+        final LiveBuffer buffer = new LiveBuffer(LiveTelemetry.DEFAULT_CAPACITY);
+        final long[] times = new long[LiveTelemetry.DEFAULT_CAPACITY];
+        final float[] values = new float[LiveTelemetry.DEFAULT_CAPACITY];
+
+        // warm up so that the measurement runs compiled code
+        final long time = addAndRead(buffer, 0, times, values);
+        allocatedBytes.invoke(threads, id);
+
+        final long before = (Long) allocatedBytes.invoke(threads, id);
+        addAndRead(buffer, time, times, values);
+        final long allocated = (Long) allocatedBytes.invoke(threads, id) - before;
+        // allow for the boxed result of the measurement itself
+        assertTrue("allocated " + allocated, allocated <= 64);
+    }
+
+    private static long addAndRead(LiveBuffer buffer, long time, long[] times, float[] values) {
+        for (int i = 0; i < 1000000; i++) {
+            buffer.add(time, time & 0xfff);
+            time += 1000;
+            if (i % 50 == 0) {
+                buffer.read(time - 300000, times, values);
+            }
+        }
+        return time;
+    }
+}
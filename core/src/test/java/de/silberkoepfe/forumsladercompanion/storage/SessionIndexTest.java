@@ -0,0 +1,174 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+
+import static org.junit.Assert.*;
+
+public class SessionIndexTest {
+    private static final long START = 1539000000000L;
+    private static final long HOUR = 3600 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private final FLDataRecord data = new FLDataRecord();
+    private final FLBaroRecord baro = new FLBaroRecord();
+
+    @Before
+    public void setup() {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    // one record a second, 12 V and 0.5 A into the battery and 0.5 A to the lights
+    private void ride(JournalWriter writer, long start, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            final long time = start + i * 1000L;
+            writer.onDataRecord(data.set(time, 0, 3, 40, 4000, 4000, 4000 + i % 100, 500, 500));
+            if (i % 10 == 0) {
+                writer.onBaroRecord(baro.set(time, 200, 101325, 350));
+            }
+        }
+    }
+
+    private List<Long> readTimes(JournalReader reader, long from, long to) throws IOException {
+        final List<Long> times = new ArrayList<>();
+        reader.read(from, to, new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                times.add(record.getTimestamp());
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+            }
+        });
+        return times;
+    }
+
+    @Test
+    public void summarizesSessions() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            ride(writer, START, 3600);
+            writer.endSession();
+            // a reconnect an hour later
+            ride(writer, START + 2 * HOUR, 600);
+            assertEquals(1, writer.getSessionCount());
+        }
+        final List<SessionSummary> sessions = new SessionIndex(directory).getSessions();
+        assertEquals(2, sessions.size());
+
+        final SessionSummary first = sessions.get(0);
+        assertEquals(1, first.getId());
+        assertEquals(START, first.getStart());
+        assertEquals(3599 * 1000, first.getDuration());
+        assertEquals(3600 + 360, first.getRecordCount());
+        // 12 W for an hour less one second
+        assertEquals(12 * 3599 / 3600.0, first.getWattHours(), 0.05);
+        assertEquals(12000, first.getMinVoltage());
+        assertEquals(12099, first.getMaxVoltage());
+
+        final SessionSummary second = sessions.get(1);
+        assertEquals(2, second.getId());
+        assertEquals(START + 2 * HOUR, second.getStart());
+        assertEquals(599 * 1000, second.getDuration());
+    }
+
+    @Test
+    public void seeksToRange() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, 64 * 1024)) {
+            for (int day = 0; day < 10; day++) {
+                ride(writer, START + day * 24 * HOUR, 4 * 3600);
+                writer.endSession();
+            }
+            assertTrue(writer.getSegmentCount() > 10);
+        }
+        final JournalReader reader = new JournalReader(directory);
+        final long from = START + 7 * 24 * HOUR + HOUR + 30500;
+        final List<Long> times = readTimes(reader, from, from + 10000);
+        assertEquals(10, times.size());
+        assertEquals(from + 500, (long) times.get(0));
+        // from the seek point up to the first record after the range, not the journal
+        assertTrue("decoded " + reader.getDecodedCount(), reader.getDecodedCount() < 100);
+    }
+
+    @Test
+    public void rangeAcrossSessionsAndSegments() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, 8 * 1024)) {
+            ride(writer, START, 1000);
+            writer.endSession();
+            ride(writer, START + 1000 * 1000, 1000);
+        }
+        final JournalReader reader = new JournalReader(directory);
+        final List<Long> times = readTimes(reader, START + 500 * 1000, START + 1500 * 1000);
+        assertEquals(1000, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(START + (500 + i) * 1000L, (long) times.get(i));
+        }
+        // before the first seek point
+        assertEquals(5, readTimes(new JournalReader(directory), 0, START + 5000).size());
+    }
+
+    @Test
+    public void sessionWithoutEndIsStillRead() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            ride(writer, START, 100);
+        }
+        // killed before the session ended
+        final JournalWriter crashed = new JournalWriter(directory);
+        ride(crashed, START + HOUR, 100);
+
+        assertEquals(1, new SessionIndex(directory).getSessions().size());
+        assertEquals(50, readTimes(new JournalReader(directory), START + HOUR + 50000, START + 2 * HOUR).size());
+    }
+
+    @Test
+    public void listsHundredsOfRidesFromSummaries() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            for (int i = 0; i < 500; i++) {
+                ride(writer, START + i * HOUR, 10);
+                writer.endSession();
+            }
+        }
+        final JournalReader reader = new JournalReader(directory);
+        final List<SessionSummary> sessions = new SessionIndex(directory).getSessions();
+        assertEquals(500, sessions.size());
+        assertEquals(500, sessions.get(499).getId());
+        assertEquals(START + 499 * HOUR, sessions.get(499).getStart());
+        assertEquals(0, reader.getDecodedCount());
+    }
+
+    @Test
+    public void skipsDamagedSummary() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory)) {
+            for (int i = 0; i < 3; i++) {
+                ride(writer, START + i * HOUR, 10);
+                writer.endSession();
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, SessionIndex.SESSION_FILE), "rw")) {
+            file.seek(SessionIndex.SESSION_SIZE + 10);
+            file.write(0x55);
+            // torn append
+            file.seek(file.length());
+            file.write(new byte[10]);
+        }
+        final List<SessionSummary> sessions = new SessionIndex(directory).getSessions();
+        assertEquals(2, sessions.size());
+        assertEquals(1, sessions.get(0).getId());
+        assertEquals(3, sessions.get(1).getId());
+    }
+}
@@ -0,0 +1,168 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesStoreTest {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long START = 1539000000000L / DAY * DAY;
+
+    private TimeSeriesStore store;
+
+    @Before
+    public void setup() {
+        store = new TimeSeriesStore();
+    }
+
+    @Test
+    public void rollsUpMinMaxAvg() {
+        // two minutes with values 0..59 and 100..159
+        for (int i = 0; i < 120; i++) {
+            store.add(Channel.LOAD_CURRENT, START + i * SECOND, i < 60 ? i : 40 + i);
+        }
+        final Series series = new Series(2);
+        assertEquals(Resolution.MINUTE, store.query(Channel.LOAD_CURRENT, START, START + 2 * MINUTE, series));
+        assertEquals(2, series.size());
+        assertEquals(START, series.getTime(0));
+        assertEquals(0, series.getMin(0), 0);
+        assertEquals(59, series.getMax(0), 0);
+        assertEquals(29.5, series.getAvg(0), 1e-6);
+        assertEquals(START + MINUTE, series.getTime(1));
+        assertEquals(100, series.getMin(1), 0);
+        assertEquals(159, series.getMax(1), 0);
+        assertEquals(129.5, series.getAvg(1), 1e-6);
+    }
+
+    @Test
+    public void takesFinestResolutionThatFits() {
+        for (long t = 0; t < 3 * HOUR; t += SECOND) {
+            store.add(Channel.BATTERY_VOLTAGE, START + t, 12000);
+        }
+        final Series series = new Series(200);
+        assertEquals(Resolution.SECOND, store.query(Channel.BATTERY_VOLTAGE, START + 2 * HOUR,
+                START + 2 * HOUR + 200 * SECOND, series));
+        assertEquals(200, series.size());
+        assertEquals(Resolution.MINUTE, store.query(Channel.BATTERY_VOLTAGE, START + 2 * HOUR,
+                START + 3 * HOUR, series));
+        assertEquals(60, series.size());
+        // the seconds of the first hour are gone already
+        assertEquals(Resolution.MINUTE, store.query(Channel.BATTERY_VOLTAGE, START, START + 100 * SECOND, series));
+        assertEquals(2, series.size());
+        assertEquals(Resolution.MINUTE, store.query(Channel.BATTERY_VOLTAGE, START, START + 3 * HOUR, series));
+        assertEquals(180, series.size());
+        assertEquals(Resolution.QUARTER_HOUR, store.query(Channel.BATTERY_VOLTAGE, START, START + 3 * HOUR,
+                new Series(20)));
+    }
+
+    @Test
+    public void mergesBucketsBeyondCapacity() {
+        for (long t = 0; t < 100 * DAY; t += MINUTE) {
+            store.add(Channel.TEMPERATURE, START + t, t < 50 * DAY ? -10 : 10);
+        }
+        final Series series = new Series(100);
+        assertEquals(Resolution.HOUR, store.query(Channel.TEMPERATURE, START, START + 100 * DAY, series));
+        assertEquals(100, series.size());
+        assertEquals(-10, series.getMin(0), 0);
+        assertEquals(10, series.getMax(99), 0);
+        // 24 hours per point, the middle one spans the change
+        assertEquals(START + 50 * DAY, series.getTime(50));
+        assertEquals(START + 49 * DAY, series.getTime(49));
+
+        final Series small = new Series(7);
+        store.query(Channel.TEMPERATURE, START, START + 100 * DAY, small);
+        assertTrue(small.size() <= 7);
+        assertEquals(-10, small.getMin(3), 0);
+        assertEquals(10, small.getMax(3), 0);
+        assertEquals(0, small.getAvg(3), 5);
+    }
+
+    @Test
+    public void rangeStartsInsideBucket() {
+        for (long t = 0; t < 10 * MINUTE; t += SECOND) {
+            store.add(Channel.ALTITUDE, START + t, t / MINUTE);
+        }
+        final Series series = new Series(5);
+        assertEquals(Resolution.MINUTE, store.query(Channel.ALTITUDE, START + 90 * SECOND, START + 6 * MINUTE, series));
+        assertEquals(5, series.size());
+        assertEquals(START + MINUTE, series.getTime(0));
+        assertEquals(1, series.getAvg(0), 0);
+    }
+
+    @Test
+    public void emptyRange() {
+        final Series series = new Series(10);
+        assertNull(store.query(Channel.ALTITUDE, START, START + DAY, series));
+        store.add(Channel.ALTITUDE, START, 1);
+        assertNull(store.query(Channel.ALTITUDE, START + HOUR, START + DAY, series));
+        assertEquals(0, series.size());
+        assertNull(series.getResolution());
+    }
+
+    @Test
+    public void ignoresLateSamples() {
+        store.add(Channel.LOAD_CURRENT, START + MINUTE, 10);
+        store.add(Channel.LOAD_CURRENT, START + MINUTE + 500, 20);
+        // older than the newest second and minute, same quarter and hour
+        store.add(Channel.LOAD_CURRENT, START + 10 * SECOND, 30);
+        assertEquals(3, store.getSampleCount());
+        assertEquals(2, store.getLateCount());
+
+        final Series series = new Series(10);
+        store.query(Channel.LOAD_CURRENT, START, START + 2 * MINUTE, series);
+        assertEquals(1, series.size());
+        assertEquals(15, series.getAvg(0), 0);
+        store.query(Channel.LOAD_CURRENT, START, START + 2 * HOUR, series);
+        assertEquals(Resolution.SECOND, series.getResolution());
+    }
+
+    @Test
+    public void mergesOlderHistoryLoadedAlongside() {
+        // the live record arrives first, the journal of the hour before is read later
+        store.add(Channel.LOAD_CURRENT, START + HOUR + 30 * SECOND, 500);
+        final TimeSeriesStore loaded = new TimeSeriesStore();
+        for (long t = 0; t <= HOUR + 30 * SECOND; t += MINUTE / 2) {
+            loaded.add(Channel.LOAD_CURRENT, START + t, 100);
+        }
+        store.merge(loaded);
+
+        final Series series = new Series(200);
+        assertEquals(Resolution.SECOND, store.query(Channel.LOAD_CURRENT, START, START + 2 * HOUR, series));
+        assertEquals(122, series.size());
+        assertEquals(START, series.getTime(0));
+        assertEquals(100, series.getMax(0), 0);
+        // the second holding the live and the last loaded sample combines them
+        assertEquals(START + HOUR + 30 * SECOND, series.getTime(121));
+        assertEquals(100, series.getMin(121), 0);
+        assertEquals(500, series.getMax(121), 0);
+        assertEquals(300, series.getAvg(121), 0);
+        assertEquals(0, store.getLateCount());
+        assertEquals(1 + loaded.getSampleCount(), store.getSampleCount());
+    }
+
+    @Test
+    public void splitsRecordsIntoChannels() {
+        store.onDataRecord(new FLDataRecord().set(START, 0, 3, 55, 4000, 4100, 4200, -150, 300));
+        store.onBaroRecord(new FLBaroRecord().set(START, 215, 101325, 3500));
+        final Series series = new Series(1);
+        store.query(Channel.BATTERY_VOLTAGE, START, START + 1, series);
+        assertEquals(12300, series.getAvg(0), 0);
+        store.query(Channel.BATTERY_CURRENT, START, START + 1, series);
+        assertEquals(-150, series.getAvg(0), 0);
+        store.query(Channel.LOAD_CURRENT, START, START + 1, series);
+        assertEquals(300, series.getAvg(0), 0);
+        store.query(Channel.DYNAMO_FREQUENCY, START, START + 1, series);
+        assertEquals(55, series.getAvg(0), 0);
+        store.query(Channel.TEMPERATURE, START, START + 1, series);
+        assertEquals(215, series.getAvg(0), 0);
+        store.query(Channel.ALTITUDE, START, START + 1, series);
+        assertEquals(3500, series.getAvg(0), 0);
+    }
+}
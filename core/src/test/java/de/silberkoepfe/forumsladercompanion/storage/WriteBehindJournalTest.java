@@ -0,0 +1,208 @@
+package de.silberkoepfe.forumsladercompanion.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLRecordListener;
+import de.silberkoepfe.forumsladercompanion.util.Clock;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindJournalTest {
+    private static final Clock CLOCK = () -> System.nanoTime() / 1000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private final FLDataRecord data = new FLDataRecord();
+    private final FLBaroRecord baro = new FLBaroRecord();
+
+    @Before
+    public void setup() {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    private void write(FLRecordListener listener, int from, int to) {
+        for (int i = from; i < to; i++) {
+            listener.onDataRecord(data.set(i * 1000L, 0, 3, i, 4000, 4000, 4000, -i, i));
+            if (i % 10 == 0) {
+                listener.onBaroRecord(baro.set(i * 1000L, 200, 101325, i));
+            }
+        }
+    }
+
+    // data records read back, checking that they are complete and in order
+    private long readBack() throws IOException {
+        final long[] count = {0};
+        new JournalReader(directory).read(new FLRecordListener() {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                assertEquals(count[0], record.getDynamoFrequency());
+                assertEquals(-count[0], record.getBatteryCurrent());
+                count[0]++;
+            }
+
+            @Override
+            public void onBaroRecord(FLBaroRecord record) {
+                assertEquals(record.getTimestamp() / 1000, record.getAltitude());
+            }
+        });
+        return count[0];
+    }
+
+    private static void waitForBatches(long count, WriteBehindJournal writeBehind) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (writeBehind.getBatchCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void writesFullBatchRightAway() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY);
+        writeBehind.setBatchSize(50);
+        write(writeBehind, 0, 40);
+        Thread.sleep(50);
+        // 44 records wait for the batch
+        assertEquals(0, journal.getRecordCount());
+        assertEquals(44, writeBehind.getQueuedCount());
+
+        write(writeBehind, 40, 45);
+        waitForBatches(1, writeBehind);
+        assertEquals(50, journal.getRecordCount());
+        assertEquals(1, writeBehind.getBatchCount());
+        writeBehind.close();
+    }
+
+    @Test
+    public void writesOldRecordsAfterMaxAge() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.DURABLE);
+        writeBehind.setMaxAge(100);
+        final long start = CLOCK.now();
+        write(writeBehind, 1, 4);
+        waitForBatches(1, writeBehind);
+        assertEquals(3, journal.getRecordCount());
+        assertTrue(CLOCK.now() - start >= 100);
+        assertEquals(1, writeBehind.getBatchCount());
+        assertEquals(1, writeBehind.getFlushLatency().getCount());
+        writeBehind.close();
+    }
+
+    @Test
+    public void requestedFlushDoesNotWait() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY);
+        write(writeBehind, 1, 4);
+        writeBehind.requestFlush();
+        waitForBatches(1, writeBehind);
+        assertEquals(3, journal.getRecordCount());
+        writeBehind.close();
+    }
+
+    @Test
+    public void dropsWhenWriterFallsBehind() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final JournalWriter journal = new JournalWriter(directory) {
+            @Override
+            public void onDataRecord(FLDataRecord record) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onDataRecord(record);
+            }
+        };
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY, 16);
+        writeBehind.setBatchSize(1);
+        // the writer is stuck in the first record, its slot and the baro record's stay taken
+        write(writeBehind, 0, 1);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        // 19 data and one baro record
+        write(writeBehind, 1, 20);
+        assertEquals(16, writeBehind.getQueuedCount());
+        assertEquals(16, writeBehind.getMaxQueuedCount());
+        assertEquals(6, writeBehind.getDroppedCount());
+        release.countDown();
+        writeBehind.close();
+        assertEquals(16, journal.getRecordCount());
+    }
+
+    @Test
+    public void firstRecordStartsMaxAgeWait() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY);
+        writeBehind.setMaxAge(50);
+        // the writer is parked without a deadline while the queue is empty
+        Thread.sleep(50);
+        write(writeBehind, 1, 2);
+        waitForBatches(1, writeBehind);
+        assertEquals(1, journal.getRecordCount());
+        writeBehind.close();
+    }
+
+    @Test
+    public void noRecordLostOnStopSelf() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY,
+                1 << 16);
+        writeBehind.setBatchSize(100);
+        // the decode thread delivers while the service is told to stop
+        final Thread decoder = new Thread(() -> write(writeBehind, 0, 50000));
+        decoder.start();
+        Thread.sleep(5);
+
+        // onDestroy: the pipeline is stopped first, then the journal is closed
+        decoder.join();
+        writeBehind.close();
+        assertEquals(0, writeBehind.getDroppedCount());
+        assertEquals(0, writeBehind.getQueuedCount());
+        assertTrue(writeBehind.getBatchCount() > 1);
+        assertEquals(50000, readBack());
+
+        // arriving after the stop they are dropped, not half written
+        write(writeBehind, 50001, 50002);
+        assertEquals(1, writeBehind.getDroppedCount());
+    }
+
+    @Test
+    public void endsSessionInOrderWithRecords() throws Exception {
+        final JournalWriter journal = new JournalWriter(directory);
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(journal, CLOCK, Durability.BATTERY);
+        write(writeBehind, 0, 10);
+        writeBehind.endSession();
+        waitForBatches(1, writeBehind);
+        assertEquals(1, journal.getSessionCount());
+        write(writeBehind, 10, 15);
+        writeBehind.close();
+
+        final List<SessionSummary> sessions = new SessionIndex(directory).getSessions();
+        assertEquals(2, sessions.size());
+        assertEquals(11, sessions.get(0).getRecordCount());
+        assertEquals(6, sessions.get(1).getRecordCount());
+    }
+
+    @Test
+    public void nothingQueuedWhenClosedRightAway() throws Exception {
+        final WriteBehindJournal writeBehind = new WriteBehindJournal(new JournalWriter(directory), CLOCK,
+                Durability.DURABLE);
+        writeBehind.close();
+        assertEquals(0, writeBehind.getBatchCount());
+        assertEquals(0, readBack());
+    }
+}
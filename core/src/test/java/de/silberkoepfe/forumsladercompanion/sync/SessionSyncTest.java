@@ -0,0 +1,387 @@
+package de.silberkoepfe.forumsladercompanion.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import de.silberkoepfe.forumsladercompanion.protocol.FLBaroRecord;
+import de.silberkoepfe.forumsladercompanion.protocol.FLDataRecord;
+import de.silberkoepfe.forumsladercompanion.storage.JournalWriter;
+
+import static org.junit.Assert.*;
+
+public class SessionSyncTest {
+    private static final long START = 1539000000000L;
+    private static final long HOUR = 3600 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journal;
+    private File spool;
+    private HttpServer server;
+    private UploadServer uploads;
+    private URL endpoint;
+    private final FLDataRecord data = new FLDataRecord();
+    private final FLBaroRecord baro = new FLBaroRecord();
+
+    @Before
+    public void setup() throws IOException {
+        journal = new File(folder.getRoot(), "journal");
+        spool = new File(folder.getRoot(), "sync");
+        uploads = new UploadServer();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload/", uploads);
+        server.start();
+        endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+
+    private SessionSync newSync() {
+        final SessionSync sync = new SessionSync(journal, spool, endpoint, System::currentTimeMillis);
+        sync.setBackoff(10);
+        return sync;
+    }
+
+    // one record a second with the dynamo turning
+    private void ride(JournalWriter writer, long start, int seconds) throws IOException {
+        for (int i = 0; i < seconds; i++) {
+            final long time = start + i * 1000L;
+            writer.onDataRecord(data.set(time, 0, 3, 40, 4000, 4000, 4000 + i % 100, 500 + i % 7, 500));
+            if (i % 10 == 0) {
+                writer.onBaroRecord(baro.set(time, 200, 101325 - i % 50, 350));
+            }
+        }
+        writer.endSession();
+    }
+
+    // two hour-long rides a day
+    private void week(JournalWriter writer) throws IOException {
+        for (int day = 0; day < 7; day++) {
+            ride(writer, START + day * DAY + 8 * HOUR, 3600);
+            ride(writer, START + day * DAY + 17 * HOUR, 3600);
+        }
+    }
+
+    @Test
+    public void catchesUpAWeekInFewRequests() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            week(writer);
+        }
+        final SessionSync sync = newSync();
+        assertTrue(sync.sync());
+
+        assertEquals(14, sync.getSessionCount());
+        assertEquals(1, sync.getBatchCount());
+        assertEquals(14, uploads.sessions.size());
+        assertEquals(0, sync.getRetryCount());
+        assertEquals(0, sync.getResumeCount());
+        assertTrue("requests " + sync.getRequestCount(), sync.getRequestCount() <= 4);
+        assertEquals(uploads.completedBytes(), sync.getByteCount());
+        // all records arrived, in sessions
+        assertEquals(14, uploads.count("# session "));
+        assertEquals(14 * 3600, uploads.count("20"));
+        // only the synced IDs are left
+        assertArrayEquals(new String[]{SessionSync.SYNCED_FILE}, spool.list());
+    }
+
+    @Test
+    public void resumesFromServerOffsetAfterErrors() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            week(writer);
+        }
+        // the chunks are stored, but the answers get lost
+        uploads.lostAnswers = 3;
+        final SessionSync sync = newSync();
+        sync.setChunkSize(64 * 1024);
+        assertTrue(sync.sync());
+
+        assertEquals(3, sync.getRetryCount());
+        assertEquals(3, sync.getResumeCount());
+        assertEquals(0, uploads.conflicts);
+        assertEquals(14 * 3600, uploads.count("20"));
+    }
+
+    @Test
+    public void givesUpWhenOffsetDoesNotAdvance() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            ride(writer, START, 600);
+        }
+        // the chunks are acknowledged, but never stored
+        uploads.stalled = true;
+        final SessionSync sync = newSync();
+        sync.setMaxAttempts(3);
+        try {
+            sync.sync();
+            fail();
+        } catch (IOException e) {
+            // not a status, the answers were successful
+            assertFalse(e instanceof SyncException);
+            assertTrue(e.getMessage(), e.getMessage().startsWith("offset 0"));
+        }
+        assertEquals(2, sync.getRetryCount());
+        assertEquals(2, sync.getResumeCount());
+        assertEquals(0, sync.getByteCount());
+
+        uploads.stalled = false;
+        assertTrue(newSync().sync());
+        assertEquals(1, uploads.sessions.size());
+    }
+
+    @Test
+    public void nextRunResumesSpooledBatch() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            week(writer);
+        }
+        uploads.failAfter = 1;
+        final SessionSync first = newSync();
+        first.setChunkSize(64 * 1024);
+        first.setMaxAttempts(3);
+        try {
+            first.sync();
+            fail();
+        } catch (SyncException e) {
+            assertEquals(503, e.getStatus());
+        }
+        assertEquals(2, first.getRetryCount());
+        assertEquals(64 * 1024, uploads.storedBytes());
+
+        uploads.failAfter = -1;
+        final SessionSync second = newSync();
+        second.setChunkSize(64 * 1024);
+        assertTrue(second.sync());
+        assertEquals(1, second.getResumeCount());
+        assertEquals(uploads.completedBytes() - 64 * 1024, second.getByteCount());
+        assertEquals(14, second.getSessionCount());
+        assertEquals(14 * 3600, uploads.count("20"));
+    }
+
+    @Test
+    public void uploadsOnlyNewSessions() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            week(writer);
+            assertTrue(newSync().sync());
+
+            ride(writer, START + 7 * DAY, 600);
+            final SessionSync sync = newSync();
+            assertTrue(sync.sync());
+            assertEquals(1, sync.getSessionCount());
+            assertEquals(1, sync.getRequestCount());
+        }
+        assertEquals(15, uploads.sessions.size());
+        assertEquals(0, uploads.duplicates);
+        assertEquals(2, uploads.completed.size());
+
+        // nothing left
+        final SessionSync again = newSync();
+        assertTrue(again.sync());
+        assertEquals(0, again.getRequestCount());
+    }
+
+    @Test
+    public void keepsSessionsPendingAfterFatalStatus() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            ride(writer, START, 600);
+        }
+        uploads.status = 403;
+        final SessionSync rejected = newSync();
+        try {
+            rejected.sync();
+            fail();
+        } catch (SyncException e) {
+            assertEquals(403, e.getStatus());
+            assertFalse(e.isRetryable());
+        }
+        assertEquals(0, rejected.getRetryCount());
+
+        uploads.status = 0;
+        final SessionSync sync = newSync();
+        assertTrue(sync.sync());
+        assertEquals(1, sync.getSessionCount());
+        assertEquals(1, uploads.sessions.size());
+    }
+
+    @Test
+    public void journalsWithPrefixesDoNotCollide() throws IOException {
+        final File other = new File(folder.getRoot(), "02464C000001");
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            ride(writer, START, 600);
+        }
+        // the same ride with the same session ID in the journal of another device
+        try (JournalWriter writer = new JournalWriter(other)) {
+            ride(writer, START, 600);
+        }
+        assertTrue(newSync().sync());
+        final SessionSync sync = new SessionSync(other, new File(spool, other.getName()), endpoint,
+                System::currentTimeMillis);
+        sync.setIdPrefix(other.getName() + "-");
+        assertTrue(sync.sync());
+
+        assertEquals(1, sync.getSessionCount());
+        assertEquals(2, uploads.sessions.size());
+        assertTrue(uploads.sessions.contains("02464C000001-1"));
+        assertEquals(0, uploads.duplicates);
+        assertEquals(2, uploads.completed.size());
+        assertEquals(2 * 600, uploads.count("20"));
+    }
+
+    @Test
+    public void cancelledBeforeStartUploadsNothing() throws IOException {
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            ride(writer, START, 600);
+        }
+        final SessionSync sync = newSync();
+        sync.cancel();
+        assertFalse(sync.sync());
+        assertEquals(0, sync.getRequestCount());
+    }
+
+    /**
+     * Stand-in for the upload endpoint, see {@link HttpTransport}.
+     */
+    private static class UploadServer implements HttpHandler {
+        final Map<String, ByteArrayOutputStream> stored = new HashMap<>();
+        final Map<String, byte[]> completed = new HashMap<>();
+        final Set<String> sessions = new HashSet<>();
+        int duplicates;
+        int conflicts;
+        // answers this many PUTs with 503 after storing them
+        int lostAnswers;
+        // answers all PUTs after this many with 503, -1 for never
+        int failAfter = -1;
+        // answers all requests with this status, 0 for none
+        int status;
+        // acknowledges PUTs without storing them
+        boolean stalled;
+        private int puts;
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            final String path = exchange.getRequestURI().getPath();
+            final String batch = path.substring(path.lastIndexOf('/') + 1);
+            final ByteArrayOutputStream upload = stored.get(batch);
+            final byte[] body = readBody(exchange.getRequestBody());
+            if (status != 0) {
+                exchange.sendResponseHeaders(status, -1);
+            } else if ("HEAD".equals(exchange.getRequestMethod())) {
+                if (upload == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.getResponseHeaders().set(HttpTransport.UPLOAD_OFFSET, Integer.toString(upload.size()));
+                    exchange.sendResponseHeaders(200, -1);
+                }
+            } else if (failAfter >= 0 && puts >= failAfter) {
+                exchange.sendResponseHeaders(503, -1);
+            } else if (stalled) {
+                exchange.getResponseHeaders().set(HttpTransport.UPLOAD_OFFSET,
+                        Integer.toString(upload == null ? 0 : upload.size()));
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                puts++;
+                put(exchange, batch, upload, body);
+            }
+            exchange.close();
+        }
+
+        private void put(HttpExchange exchange, String batch, ByteArrayOutputStream upload, byte[] body)
+                throws IOException {
+            final long offset = Long.parseLong(exchange.getRequestHeaders().getFirst(HttpTransport.UPLOAD_OFFSET));
+            final long length = Long.parseLong(exchange.getRequestHeaders().getFirst(HttpTransport.UPLOAD_LENGTH));
+            if (upload == null) {
+                upload = new ByteArrayOutputStream();
+                stored.put(batch, upload);
+            }
+            if (offset != upload.size()) {
+                conflicts++;
+                exchange.getResponseHeaders().set(HttpTransport.UPLOAD_OFFSET, Integer.toString(upload.size()));
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+            upload.write(body);
+            if (upload.size() == length && !completed.containsKey(batch)) {
+                completed.put(batch, upload.toByteArray());
+                for (String id : exchange.getRequestHeaders().getFirst(HttpTransport.SESSION_IDS).split(",")) {
+                    if (!sessions.add(id)) {
+                        duplicates++;
+                    }
+                }
+            }
+            if (lostAnswers > 0) {
+                lostAnswers--;
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set(HttpTransport.UPLOAD_OFFSET, Integer.toString(upload.size()));
+            exchange.sendResponseHeaders(204, -1);
+        }
+
+        private static byte[] readBody(InputStream in) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, n);
+            }
+            return body.toByteArray();
+        }
+
+        synchronized long storedBytes() {
+            long bytes = 0;
+            for (ByteArrayOutputStream upload : stored.values()) {
+                bytes += upload.size();
+            }
+            return bytes;
+        }
+
+        synchronized long completedBytes() {
+            long bytes = 0;
+            for (byte[] upload : completed.values()) {
+                bytes += upload.length;
+            }
+            return bytes;
+        }
+
+        // lines of the completed batches starting with the prefix
+        synchronized int count(String prefix) throws IOException {
+            int count = 0;
+            for (byte[] upload : completed.values()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(new ByteArrayInputStream(upload)), "US-ASCII"))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith(prefix)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package de.silberkoepfe.forumsladercompanion.trace;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.silberkoepfe.forumsladercompanion.util.FakeClock;
+
+import static org.junit.Assert.*;
+
+public class EventLogTest {
+    private static final long WALL_START = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeClock clock;
+    private File directory;
+    private List<String> events;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock(100);
+        directory = new File(folder.getRoot(), "events");
+        events = new ArrayList<>();
+    }
+
+    private long read() throws IOException {
+        return new EventLogReader(directory).read((time, type, device, a, b, c) ->
+                events.add(time + " " + type + " " + device + " " + a + " " + b + " " + c));
+    }
+
+    @Test
+    public void readsEventsBackWithWallClockTime() throws IOException {
+        final EventLog log = new EventLog(directory, clock, () -> WALL_START);
+        log.start();
+        final short device = log.register("AA:BB:CC:DD:EE:FF");
+        assertEquals(device, log.register("AA:BB:CC:DD:EE:FF"));
+        clock.advance(50);
+        log.log(EventType.CONNECTION_STATE, device, 0, 2);
+        log.log(EventType.CHARACTERISTIC_CHANGED, device, 20);
+        log.log(EventType.PHY_UPDATE, device, 2, 2, 0);
+        log.close();
+
+        assertEquals(4, read());
+        assertEquals((WALL_START + 50) + " CONNECTION_STATE 1 0 2 0", events.get(1));
+        assertEquals((WALL_START + 50) + " CHARACTERISTIC_CHANGED 1 20 0 0", events.get(2));
+        assertEquals((WALL_START + 50) + " PHY_UPDATE 1 2 2 0", events.get(3));
+        assertEquals(4, log.getWrittenCount());
+        assertEquals(0, log.getDroppedCount());
+    }
+
+    @Test
+    public void logsNothingUntilStarted() throws IOException {
+        final EventLog log = new EventLog(directory, clock, () -> WALL_START);
+        final short device = log.register("AA:BB:CC:DD:EE:FF");
+        log.log(EventType.CHARACTERISTIC_CHANGED, device, 20);
+        assertFalse(directory.exists());
+
+        log.start();
+        log.log(EventType.CHARACTERISTIC_CHANGED, device, 20);
+        log.close();
+        log.log(EventType.CHARACTERISTIC_CHANGED, device, 20);
+
+        // the device registered before is named in the file
+        assertEquals(2, read());
+        assertTrue(events.get(0).contains("DEVICE 1"));
+        assertEquals(1, log.getWrittenCount());
+    }
+
+    @Test
+    public void rotatesAndKeepsNewestFiles() throws IOException {
+        final EventLog log = new EventLog(directory, clock, () -> WALL_START, 16);
+        log.setMaxFileSize(10 * EventLog.ENTRY_SIZE);
+        log.setMaxFiles(3);
+        log.start();
+        final short device = log.register("01:02:03:04:05:06");
+        for (int i = 0; i < 100; i++) {
+            log.log(EventType.CHARACTERISTIC_CHANGED, device, i);
+            if (i % 4 == 3) {
+                waitForDrain(log, i + 2);
+            }
+        }
+        log.close();
+
+        assertEquals(0, log.getDroppedCount());
+        assertTrue(log.getFileCount() > 3);
+        final File[] files = EventLogReader.list(directory);
+        assertEquals(3, files.length);
+        assertEquals(log.getFileCount(), EventLogReader.sequence(files[2]));
+
+        read();
+        // each file starts with the device, then the newest packets in order
+        assertTrue(events.get(0).contains("DEVICE 1 258 50595078"));
+        int previous = -1;
+        for (String event : events) {
+            if (event.contains("CHARACTERISTIC_CHANGED")) {
+                final int value = Integer.parseInt(event.split(" ")[3]);
+                assertTrue(previous < 0 || value == previous + 1);
+                previous = value;
+            }
+        }
+        assertEquals(99, previous);
+    }
+
+    private static void waitForDrain(EventLog log, long written) {
+        final long end = System.currentTimeMillis() + 5000;
+        while (log.getWrittenCount() < written && System.currentTimeMillis() < end) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void continuesAfterExistingFiles() throws IOException {
+        EventLog log = new EventLog(directory, clock, () -> WALL_START);
+        log.start();
+        log.log(EventType.SCAN_RESULTS, (short) 0, 3);
+        log.close();
+        log = new EventLog(directory, clock, () -> WALL_START);
+        log.start();
+        log.log(EventType.SCAN_FAILED, (short) 0, 2);
+        log.close();
+
+        assertEquals(2, EventLogReader.list(directory).length);
+        read();
+        assertEquals(WALL_START + " SCAN_RESULTS 0 3 0 0", events.get(0));
+        assertEquals(WALL_START + " SCAN_FAILED 0 2 0 0", events.get(1));
+    }
+
+    @Test
+    public void countsEveryEventFromManyThreads() throws Exception {
+        final EventLog log = new EventLog(directory, clock, () -> WALL_START, 64);
+        log.setDrainInterval(1);
+        log.start();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final short device = (short) t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    log.log(EventType.CHARACTERISTIC_CHANGED, device, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+
+        // a full ring drops, but no event is lost unaccounted
+        assertEquals(4 * 10000, log.getWrittenCount() + log.getDroppedCount());
+        assertEquals(log.getWrittenCount(), read());
+        // the values of each device are increasing
+        final int[] previous = {-1, -1, -1, -1};
+        for (String event : events) {
+            final String[] fields = event.split(" ");
+            final int device = Integer.parseInt(fields[2]);
+            final int value = Integer.parseInt(fields[3]);
+            assertTrue(value > previous[device]);
+            previous[device] = value;
+        }
+    }
+
+    @Test
+    public void decodesLinesAndSkipsDamage() throws IOException {
+        final EventLog log = new EventLog(directory, clock, () -> WALL_START);
+        log.start();
+        final short device = log.register("AA:BB:CC:DD:EE:FF");
+        log.log(EventType.MTU_CHANGED, device, 185, 0);
+        log.close();
+        // a partly written last entry
+        final File file = EventLogReader.list(directory)[0];
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(out.length() + 10);
+        }
+        final File damaged = new File(directory, "events-00000000.bin");
+        assertTrue(damaged.createNewFile());
+
+        final EventLogReader reader = new EventLogReader(directory);
+        final StringWriter out = new StringWriter();
+        assertEquals(2, reader.decode(out));
+        final String[] lines = out.toString().split("\n");
+        assertEquals("2017-07-14T02:40:00.000Z #1 DEVICE address=AA:BB:CC:DD:EE:FF", lines[0]);
+        assertEquals("2017-07-14T02:40:00.000Z #1 MTU_CHANGED mtu=185 status=0", lines[1]);
+        assertEquals(1, reader.getDamagedCount());
+    }
+}
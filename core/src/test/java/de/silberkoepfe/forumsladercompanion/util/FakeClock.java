@@ -0,0 +1,92 @@
+package de.silberkoepfe.forumsladercompanion.util;
+
+import java.util.PriorityQueue;
+
+/**
+ * Virtual clock for tests. Scheduled tasks run on the thread calling
+ * {@link #advance(long)} once their time has come.
+ */
+public class FakeClock implements Clock, Scheduler {
+    private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    public FakeClock() {
+        this(0);
+    }
+
+    public FakeClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public Task schedule(Runnable runnable, long delayMillis) {
+        final ScheduledTask task = new ScheduledTask(runnable, now + Math.max(0, delayMillis), sequence++);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Moves the clock forward and runs all tasks that become due, including tasks
+     * scheduled by those tasks.
+     */
+    public void advance(long millis) {
+        final long target = now + millis;
+        while (!tasks.isEmpty() && tasks.peek().time <= target) {
+            final ScheduledTask task = tasks.poll();
+            now = task.time;
+            if (!task.cancelled) {
+                task.runnable.run();
+            }
+        }
+        now = target;
+    }
+
+    /**
+     * Runs the tasks that are due now.
+     */
+    public void runPending() {
+        advance(0);
+    }
+
+    public int pendingCount() {
+        int count = 0;
+        for (ScheduledTask task : tasks) {
+            if (!task.cancelled) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class ScheduledTask implements Task, Comparable<ScheduledTask> {
+        final Runnable runnable;
+        final long time;
+        final long sequence;
+        boolean cancelled;
+
+        ScheduledTask(Runnable runnable, long time, long sequence) {
+            this.runnable = runnable;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}